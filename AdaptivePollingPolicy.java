@@ -0,0 +1,77 @@
+package com.security.threatmonitor;
+
+/**
+ * Chooses the next polling interval for a monitor from its recent activity. Alerts and
+ * anomaly score pull the interval down towards the minimum; polls with neither double it
+ * towards the maximum. The shared {@link PollingBudget} can stretch the interval further when the
+ * checks themselves become too expensive.
+ */
+public class AdaptivePollingPolicy {
+    private static final double RATE_SMOOTHING = 0.3;
+    private static final double IDLE_BACKOFF = 2.0;
+    private static final double MAX_SPEEDUP = 0.75;
+    // Below this pressure a check without alerts counts as idle
+    private static final double IDLE_PRESSURE = 0.25;
+
+    private final String name;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final PollingBudget budget;
+    private double alertRate;
+    private volatile long currentIntervalMillis;
+
+    public AdaptivePollingPolicy(String name, long initialIntervalMillis, long minIntervalMillis,
+                                 long maxIntervalMillis, PollingBudget budget) {
+        if (minIntervalMillis <= 0 || minIntervalMillis > maxIntervalMillis) {
+            throw new IllegalArgumentException("Invalid polling bounds for " + name
+                    + ": " + minIntervalMillis + ".." + maxIntervalMillis);
+        }
+        this.name = name;
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.budget = budget;
+        this.currentIntervalMillis = clamp(initialIntervalMillis);
+    }
+
+    /**
+     * @param alerts       alerts raised by the last check
+     * @param anomalyScore highest anomaly score seen by the last check, 0..1
+     * @param costNanos    CPU time spent in the last check
+     * @return the delay before the next check in milliseconds
+     */
+    public synchronized long update(int alerts, double anomalyScore, long costNanos) {
+        alertRate += RATE_SMOOTHING * (alerts - alertRate);
+        double pressure = Math.min(1.0, Math.max(anomalyScore, alertRate));
+
+        double next;
+        if (alerts > 0 || pressure >= IDLE_PRESSURE) {
+            next = currentIntervalMillis * (1.0 - MAX_SPEEDUP * pressure);
+        } else {
+            next = currentIntervalMillis * IDLE_BACKOFF;
+        }
+
+        long interval = clamp((long) next);
+        if (budget != null) {
+            interval = Math.max(interval, budget.recordCost(name, costNanos));
+        }
+
+        currentIntervalMillis = interval;
+        return interval;
+    }
+
+    private long clamp(long interval) {
+        return Math.max(minIntervalMillis, Math.min(maxIntervalMillis, interval));
+    }
+
+    public long getCurrentIntervalMillis() {
+        return currentIntervalMillis;
+    }
+
+    public long getMinIntervalMillis() {
+        return minIntervalMillis;
+    }
+
+    public long getMaxIntervalMillis() {
+        return maxIntervalMillis;
+    }
+}
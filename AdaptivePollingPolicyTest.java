@@ -0,0 +1,30 @@
+package com.security.threatmonitor;
+
+public class AdaptivePollingPolicyTest {
+    public static void main(String[] args) {
+        System.out.println("Testing adaptive polling policy...");
+        boolean passed = true;
+
+        // A rising anomaly score shortens the interval before any alert is raised
+        AdaptivePollingPolicy policy = new AdaptivePollingPolicy("test", 10_000, 1000, 80_000, null);
+        long interval = policy.update(0, 0.9, 0);
+        System.out.println("Anomaly 0.9, no alerts: " + interval + " ms");
+        passed &= interval < 10_000;
+
+        // Alerts keep shortening it down to the minimum
+        for (int i = 0; i < 10; i++) {
+            interval = policy.update(3, 0, 0);
+        }
+        System.out.println("After alerts: " + interval + " ms");
+        passed &= interval == 1000;
+
+        // Idle checks, and a low anomaly score, back off towards the maximum
+        for (int i = 0; i < 20; i++) {
+            interval = policy.update(0, 0.1, 0);
+        }
+        System.out.println("After idle checks: " + interval + " ms");
+        passed &= interval == 80_000;
+
+        System.out.println(passed ? "\nAdaptive polling policy test passed!" : "\nAdaptive polling policy test FAILED");
+    }
+}
@@ -0,0 +1,240 @@
+package com.security.threatmonitor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Byte-level Aho-Corasick automaton over a fixed set of patterns, stored in direct buffers
+ * so that millions of indicators do not weigh on the heap. States are numbered in
+ * breadth-first order, which keeps the children of every state contiguous and sorted by
+ * label; transitions are found by binary search, except at the root which has a dense table.
+ */
+public class AhoCorasickAutomaton {
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+
+    private int stateCount;
+    private final ByteBuffer label;
+    private final IntBuffer firstChild;
+    private final IntBuffer childCount;
+    private final IntBuffer fail;
+    private final IntBuffer outputLink;
+    private final IntBuffer patternAt;
+    private final int[] rootTransitions;
+
+    private final int patternCount;
+    private final ByteBuffer patternBytes;
+    private final IntBuffer patternOffsets;
+    private final IntBuffer patternTags;
+
+    public static class Pattern {
+        final byte[] bytes;
+        final int tag;
+
+        public Pattern(byte[] bytes, int tag) {
+            this.bytes = bytes;
+            this.tag = tag;
+        }
+    }
+
+    private AhoCorasickAutomaton(int stateCapacity, int patternCount, int patternByteCount) {
+        this.label = ByteBuffer.allocateDirect(stateCapacity);
+        this.firstChild = allocateInts(stateCapacity);
+        this.childCount = allocateInts(stateCapacity);
+        this.fail = allocateInts(stateCapacity);
+        this.outputLink = allocateInts(stateCapacity);
+        this.patternAt = allocateInts(stateCapacity);
+        this.rootTransitions = new int[256];
+        this.patternCount = patternCount;
+        this.patternBytes = ByteBuffer.allocateDirect(Math.max(1, patternByteCount));
+        this.patternOffsets = allocateInts(patternCount + 1);
+        this.patternTags = allocateInts(Math.max(1, patternCount));
+    }
+
+    private static IntBuffer allocateInts(int count) {
+        return ByteBuffer.allocateDirect(Math.max(1, count) * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    public static AhoCorasickAutomaton build(List<Pattern> input) {
+        // Sort and deduplicate; the first tag wins for duplicate patterns
+        List<Pattern> patterns = new ArrayList<>(input.size());
+        for (Pattern pattern : input) {
+            if (pattern.bytes.length > 0) {
+                patterns.add(pattern);
+            }
+        }
+        patterns.sort((a, b) -> Arrays.compareUnsigned(a.bytes, b.bytes));
+        int unique = 0;
+        for (int i = 0; i < patterns.size(); i++) {
+            if (unique == 0 || !Arrays.equals(patterns.get(unique - 1).bytes, patterns.get(i).bytes)) {
+                patterns.set(unique++, patterns.get(i));
+            }
+        }
+        byte[][] sorted = new byte[unique][];
+        int totalBytes = 0;
+        for (int i = 0; i < unique; i++) {
+            sorted[i] = patterns.get(i).bytes;
+            totalBytes += sorted[i].length;
+        }
+
+        AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(totalBytes + 1, unique, totalBytes);
+        for (int i = 0; i < unique; i++) {
+            automaton.patternTags.put(i, patterns.get(i).tag);
+        }
+        automaton.stateCount = automaton.buildStates(sorted, totalBytes + 1);
+        return automaton;
+    }
+
+    // Breadth-first construction: each state covers the range of sorted patterns sharing its path
+    private int buildStates(byte[][] patterns, int capacity) {
+        IntBuffer rangeLo = allocateInts(capacity);
+        IntBuffer rangeHi = allocateInts(capacity);
+        IntBuffer depth = allocateInts(capacity);
+
+        int offset = 0;
+        for (int i = 0; i < patterns.length; i++) {
+            patternOffsets.put(i, offset);
+            patternBytes.put(offset, patterns[i]);
+            offset += patterns[i].length;
+        }
+        patternOffsets.put(patterns.length, offset);
+
+        rangeLo.put(ROOT, 0);
+        rangeHi.put(ROOT, patterns.length);
+        depth.put(ROOT, 0);
+        fail.put(ROOT, ROOT);
+        outputLink.put(ROOT, NONE);
+        patternAt.put(ROOT, NONE);
+
+        int next = 1;
+        for (int state = 0; state < next; state++) {
+            int lo = rangeLo.get(state);
+            int hi = rangeHi.get(state);
+            int d = depth.get(state);
+
+            // Patterns ending at this state sort first; the pattern of this state was recorded at creation
+            int i = lo;
+            while (i < hi && patterns[i].length == d) {
+                i++;
+            }
+
+            firstChild.put(state, next);
+            int children = 0;
+            while (i < hi) {
+                byte c = patterns[i][d];
+                int j = i;
+                while (j < hi && patterns[j][d] == c) {
+                    j++;
+                }
+
+                int child = next++;
+                label.put(child, c);
+                rangeLo.put(child, i);
+                rangeHi.put(child, j);
+                depth.put(child, d + 1);
+                patternAt.put(child, patterns[i].length == d + 1 ? i : NONE);
+                if (state == ROOT) {
+                    rootTransitions[c & 0xFF] = child;
+                }
+
+                // Failure state is the longest proper suffix that is also a path; it is always shallower
+                int failState = ROOT;
+                if (state != ROOT) {
+                    int f = fail.get(state);
+                    while (true) {
+                        int g = transition(f, c);
+                        if (g != NONE) {
+                            failState = g;
+                            break;
+                        }
+                        if (f == ROOT) {
+                            break;
+                        }
+                        f = fail.get(f);
+                    }
+                }
+                fail.put(child, failState);
+                outputLink.put(child, patternAt.get(failState) != NONE ? failState : outputLink.get(failState));
+
+                children++;
+                i = j;
+            }
+            childCount.put(state, children);
+        }
+        return next;
+    }
+
+    private int transition(int state, byte c) {
+        if (state == ROOT) {
+            int target = rootTransitions[c & 0xFF];
+            return target == ROOT ? NONE : target;
+        }
+        int lo = firstChild.get(state);
+        int hi = lo + childCount.get(state) - 1;
+        int key = c & 0xFF;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int midLabel = label.get(mid) & 0xFF;
+            if (midLabel < key) {
+                lo = mid + 1;
+            } else if (midLabel > key) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return NONE;
+    }
+
+    // Advances the automaton by one input byte
+    public int step(int state, int b) {
+        byte c = (byte) b;
+        while (state != ROOT) {
+            int target = transition(state, c);
+            if (target != NONE) {
+                return target;
+            }
+            state = fail.get(state);
+        }
+        return rootTransitions[b & 0xFF];
+    }
+
+    // Reports the id of every pattern that ends at the given state
+    public void forEachMatch(int state, IntConsumer consumer) {
+        int s = patternAt.get(state) != NONE ? state : outputLink.get(state);
+        while (s != NONE) {
+            consumer.accept(patternAt.get(s));
+            s = outputLink.get(s);
+        }
+    }
+
+    public int initialState() {
+        return ROOT;
+    }
+
+    public String getPattern(int patternId) {
+        int start = patternOffsets.get(patternId);
+        int end = patternOffsets.get(patternId + 1);
+        ByteBuffer slice = patternBytes.duplicate();
+        slice.limit(end).position(start);
+        return StandardCharsets.UTF_8.decode(slice).toString();
+    }
+
+    public int getPatternTag(int patternId) {
+        return patternTags.get(patternId);
+    }
+
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    public int getStateCount() {
+        return stateCount;
+    }
+}
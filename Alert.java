@@ -1,42 +1,118 @@
-package com.security.threatmonitor;
-
-import java.time.LocalDateTime;
-
-public class Alert {
-    private final LocalDateTime timestamp;
-    private final String source;
-    private final String message;
-    private final Severity severity;
-
-    public void setTitle(String databaseStatus) {
-
-    }
-
-    public enum Severity {
-        LOW, MEDIUM, HIGH, CRITICAL
-    }
-
-    public Alert(LocalDateTime timestamp, String source, String message, Severity severity) {
-        this.timestamp = timestamp;
-        this.source = source;
-        this.message = message;
-        this.severity = severity;
-    }
-
-    // Getters
-    public LocalDateTime getTimestamp() {
-        return timestamp;
-    }
-
-    public String getSource() {
-        return source;
-    }
-
-    public String getMessage() {
-        return message;
-    }
-
-    public Severity getSeverity() {
-        return severity;
-    }
-} 
\ No newline at end of file
+package com.security.threatmonitor;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * A security alert, from the monitors through storage to the dashboard. To keep millions
+ * of them cheap it holds the timestamp as epoch microseconds, the source as an
+ * {@link AlertSources} id and the severity as its ordinal. A message received as UTF-8
+ * bytes is decoded the first time it is read. The getters convert back on demand.
+ */
+public class Alert {
+    private static final Severity[] SEVERITIES = Severity.values();
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    // Stands for a null timestamp, e.g. in archive scans that skip the column
+    static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private final long epochMicros;
+    private final int sourceId;
+    private final byte severity;
+    // The message String, or its UTF-8 bytes until first read
+    private Object message;
+    // System.nanoTime() when the alert was created and queued, for metrics and tracing
+    final long createdNanos = System.nanoTime();
+    long queuedNanos;
+    // Stage times indexed by AlertTracer.Stage; null unless the alert is traced
+    long[] traceMarks;
+
+    public void setTitle(String databaseStatus) {
+
+    }
+
+    public enum Severity {
+        LOW, MEDIUM, HIGH, CRITICAL
+    }
+
+    public Alert(LocalDateTime timestamp, String source, String message, Severity severity) {
+        this(timestamp == null ? NO_TIMESTAMP : toEpochMicros(timestamp), AlertSources.idOf(source), message, severity);
+    }
+
+    public Alert(long epochMicros, String source, String message, Severity severity) {
+        this(epochMicros, AlertSources.idOf(source), message, severity);
+    }
+
+    // message is a String or UTF-8 bytes that the alert takes ownership of
+    Alert(long epochMicros, int sourceId, Object message, Severity severity) {
+        this.epochMicros = epochMicros;
+        this.sourceId = sourceId;
+        this.message = message;
+        this.severity = severity == null ? -1 : (byte) severity.ordinal();
+    }
+
+    // An alert whose message is decoded from the UTF-8 bytes only when first read
+    public static Alert fromUtf8(long epochMicros, int sourceId, byte[] message, Severity severity) {
+        return new Alert(epochMicros, sourceId, message, severity);
+    }
+
+    // Getters
+    public LocalDateTime getTimestamp() {
+        return epochMicros == NO_TIMESTAMP ? null : toLocalDateTime(epochMicros);
+    }
+
+    public long getEpochMicros() {
+        return epochMicros;
+    }
+
+    public long getEpochMillis() {
+        return Math.floorDiv(epochMicros, 1000);
+    }
+
+    public String getSource() {
+        return AlertSources.nameOf(sourceId);
+    }
+
+    public int getSourceId() {
+        return sourceId;
+    }
+
+    public String getMessage() {
+        Object current = message;
+        if (current instanceof byte[]) {
+            // Racing readers decode the same bytes to equal strings, so no lock is needed
+            current = new String((byte[]) current, StandardCharsets.UTF_8);
+            message = current;
+        }
+        return (String) current;
+    }
+
+    // The message as stored: a String, or UTF-8 bytes not decoded yet (never to be modified)
+    Object getRawMessage() {
+        return message;
+    }
+
+    public Severity getSeverity() {
+        return severity < 0 ? null : SEVERITIES[severity];
+    }
+
+    // Local wall-clock time (as the alert tables use) to epoch microseconds
+    public static long toEpochMicros(LocalDateTime timestamp) {
+        Instant instant = timestamp.atZone(ZONE).toInstant();
+        return Math.multiplyExact(instant.getEpochSecond(), 1_000_000L) + instant.getNano() / 1000;
+    }
+
+    public static LocalDateTime toLocalDateTime(long epochMicros) {
+        long seconds = Math.floorDiv(epochMicros, 1_000_000L);
+        int nanos = (int) Math.floorMod(epochMicros, 1_000_000L) * 1000;
+        ZoneOffset offset = ZONE.getRules().getOffset(Instant.ofEpochSecond(seconds));
+        return LocalDateTime.ofEpochSecond(seconds, nanos, offset);
+    }
+
+    public static long currentEpochMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000L + now.getNano() / 1000;
+    }
+}
@@ -0,0 +1,366 @@
+package com.security.threatmonitor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parallel reports over the alert archive: counts by source, severity and day, and the most
+ * frequent messages. Every overlapping segment is one partition, scanned on a ForkJoinPool
+ * into its own primitive counters; partial results are merged pairwise as the fork-join
+ * tree completes. Runs can be cancelled and report their progress while they run.
+ *
+ * <pre>
+ *   AlertAggregator.Job job = new AlertAggregator(core.getArchive()).start(from, to, 10);
+ *   while (!job.isDone()) { show(job.getProgress()); }
+ *   AlertAggregator.Result result = job.get();
+ * </pre>
+ */
+public class AlertAggregator {
+    private static final int SEVERITIES = Alert.Severity.values().length;
+    // Rows between cancellation checks and progress updates
+    private static final int CHECK_INTERVAL = 4096;
+    private static final int TOP_CANDIDATES_PER_K = 4;
+    private static final int CMS_WIDTH = 2048;
+    private static final int CMS_DEPTH = 4;
+    // Archive columns read for the counts, and with the top messages
+    private static final Set<ArchiveSegment.Column> COUNTED = Collections.unmodifiableSet(EnumSet.of(
+            ArchiveSegment.Column.TIMESTAMP, ArchiveSegment.Column.SEVERITY, ArchiveSegment.Column.SOURCE));
+    private static final Set<ArchiveSegment.Column> WITH_MESSAGES = Collections.unmodifiableSet(EnumSet.allOf(ArchiveSegment.Column.class));
+
+    private final AlertArchive archive;
+    private final ForkJoinPool pool;
+
+    public AlertAggregator(AlertArchive archive) {
+        this(archive, ForkJoinPool.commonPool());
+    }
+
+    public AlertAggregator(AlertArchive archive, ForkJoinPool pool) {
+        this.archive = archive;
+        this.pool = pool;
+    }
+
+    /**
+     * Starts aggregating the archived alerts in [from, to) (either may be null for the whole
+     * archive). Messages are read only if topMessages is positive.
+     */
+    public Job start(LocalDateTime from, LocalDateTime to, int topMessages) {
+        List<ArchiveSegment> partitions = new ArrayList<>();
+        long rows = 0;
+        for (ArchiveSegment segment : archive.getSegments()) {
+            if (segment.overlaps(from, to)) {
+                partitions.add(segment);
+                rows += segment.getRowCount();
+            }
+        }
+
+        LocalDate firstDay = from != null ? from.toLocalDate()
+                : partitions.isEmpty() ? LocalDate.now() : partitions.get(0).getMinTime().toLocalDate();
+        LocalDate lastDay = firstDay;
+        for (ArchiveSegment segment : partitions) {
+            LocalDate day = segment.getMaxTime().toLocalDate();
+            lastDay = day.isAfter(lastDay) ? day : lastDay;
+        }
+        if (to != null && to.toLocalDate().isBefore(lastDay)) {
+            lastDay = to.toLocalDate();
+        }
+
+        Job job = new Job(partitions.size(), rows);
+        job.task = new PartitionTask(job, partitions, 0, partitions.size(), from, to, firstDay,
+                (int) ChronoUnit.DAYS.between(firstDay, lastDay) + 1, topMessages);
+        pool.execute(job.task);
+        return job;
+    }
+
+    // A running aggregation
+    public static class Job {
+        private final int partitionCount;
+        private final long totalRows;
+        private final AtomicInteger partitionsDone = new AtomicInteger();
+        private final LongAdder rowsScanned = new LongAdder();
+        private volatile boolean cancelled;
+        private PartitionTask task;
+
+        private Job(int partitionCount, long totalRows) {
+            this.partitionCount = partitionCount;
+            this.totalRows = totalRows;
+        }
+
+        // Stops scanning at the next check; get() then throws CancellationException
+        public void cancel() {
+            cancelled = true;
+            task.cancel(false);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isDone() {
+            return task.isDone();
+        }
+
+        // Fraction of the rows in the overlapping segments scanned so far, 0-1
+        public double getProgress() {
+            if (task.isDone() && !task.isCompletedAbnormally()) {
+                return 1;
+            }
+            return totalRows == 0 ? 0 : Math.min(1, rowsScanned.sum() / (double) totalRows);
+        }
+
+        public long getRowsScanned() {
+            return rowsScanned.sum();
+        }
+
+        public int getPartitionsDone() {
+            return partitionsDone.get();
+        }
+
+        public int getPartitionCount() {
+            return partitionCount;
+        }
+
+        // Waits for the result; rethrows a segment read failure as UncheckedIOException
+        public Result get() {
+            return task.join();
+        }
+    }
+
+    // Splits its partitions in half until one is left, which it scans
+    private static final class PartitionTask extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final Job job;
+        private final List<ArchiveSegment> partitions;
+        private final int first;
+        private final int end;
+        private final LocalDateTime from;
+        private final LocalDateTime to;
+        private final LocalDate firstDay;
+        private final int dayCount;
+        private final int topMessages;
+
+        PartitionTask(Job job, List<ArchiveSegment> partitions, int first, int end, LocalDateTime from,
+                      LocalDateTime to, LocalDate firstDay, int dayCount, int topMessages) {
+            this.job = job;
+            this.partitions = partitions;
+            this.first = first;
+            this.end = end;
+            this.from = from;
+            this.to = to;
+            this.firstDay = firstDay;
+            this.dayCount = dayCount;
+            this.topMessages = topMessages;
+        }
+
+        @Override
+        protected Result compute() {
+            if (end - first <= 1) {
+                Result result = new Result(firstDay, dayCount, topMessages);
+                if (first < end) {
+                    scan(partitions.get(first), result);
+                    job.partitionsDone.incrementAndGet();
+                }
+                return result;
+            }
+
+            int middle = (first + end) >>> 1;
+            PartitionTask right = new PartitionTask(job, partitions, middle, end, from, to, firstDay, dayCount, topMessages);
+            right.fork();
+            Result left = new PartitionTask(job, partitions, first, middle, from, to, firstDay, dayCount, topMessages).compute();
+            left.merge(right.join());
+            return left;
+        }
+
+        private void scan(ArchiveSegment segment, Result result) {
+            // Counters of each dictionary source, looked up once per segment
+            List<String> sources = segment.getSources();
+            long[][] sourceCounts = new long[sources.size()][];
+            for (int i = 0; i < sourceCounts.length; i++) {
+                sourceCounts[i] = result.countsFor(sources.get(i));
+            }
+
+            // Rows are in time order, so the day changes rarely; cache its bounds
+            long[] day = {Long.MAX_VALUE, Long.MIN_VALUE, 0}; // start, end, index
+            int[] sinceCheck = {0};
+            try {
+                segment.scanRows(from, to, topMessages > 0 ? WITH_MESSAGES : COUNTED, (epochMillis, severity, source, message) -> {
+                    if (epochMillis < day[0] || epochMillis >= day[1]) {
+                        LocalDate date = Instant.ofEpochMilli(epochMillis).atZone(ZoneId.systemDefault()).toLocalDate();
+                        day[0] = ArchiveSegment.toEpochMillis(date.atStartOfDay());
+                        day[1] = ArchiveSegment.toEpochMillis(date.plusDays(1).atStartOfDay());
+                        day[2] = Math.max(0, Math.min(dayCount - 1, ChronoUnit.DAYS.between(firstDay, date)));
+                    }
+                    sourceCounts[source][(int) day[2] * SEVERITIES + severity]++;
+                    if (message != null) {
+                        result.messages.add(message);
+                    }
+
+                    if (++sinceCheck[0] == CHECK_INTERVAL) {
+                        job.rowsScanned.add(sinceCheck[0]);
+                        sinceCheck[0] = 0;
+                        if (job.cancelled) {
+                            throw new CancellationException();
+                        }
+                    }
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            job.rowsScanned.add(sinceCheck[0]);
+        }
+    }
+
+    /**
+     * Alert counts per source, severity and day, and the approximate top messages. Days
+     * outside the requested range (only possible at its ends) are counted in the nearest day.
+     */
+    public static class Result {
+        private final LocalDate firstDay;
+        private final int dayCount;
+        private final int topMessages;
+        // Per source: counts indexed by day * severities + severity
+        private final Map<String, long[]> counts = new HashMap<>();
+        private final HeavyHitters messages;
+
+        private Result(LocalDate firstDay, int dayCount, int topMessages) {
+            this.firstDay = firstDay;
+            this.dayCount = dayCount;
+            this.topMessages = topMessages;
+            this.messages = new HeavyHitters(Math.max(1, topMessages * TOP_CANDIDATES_PER_K), CMS_WIDTH, CMS_DEPTH);
+        }
+
+        private long[] countsFor(String source) {
+            return counts.computeIfAbsent(source, s -> new long[dayCount * SEVERITIES]);
+        }
+
+        private void merge(Result other) {
+            for (Map.Entry<String, long[]> entry : other.counts.entrySet()) {
+                long[] target = countsFor(entry.getKey());
+                long[] values = entry.getValue();
+                for (int i = 0; i < values.length; i++) {
+                    target[i] += values[i];
+                }
+            }
+            messages.merge(other.messages);
+        }
+
+        public long getTotal() {
+            long total = 0;
+            for (long[] values : counts.values()) {
+                for (long value : values) {
+                    total += value;
+                }
+            }
+            return total;
+        }
+
+        public long getCount(LocalDate day, String source, Alert.Severity severity) {
+            long[] values = counts.get(source);
+            long index = ChronoUnit.DAYS.between(firstDay, day);
+            if (values == null || index < 0 || index >= dayCount) {
+                return 0;
+            }
+            return values[(int) index * SEVERITIES + severity.ordinal()];
+        }
+
+        public Map<String, Long> getCountsBySource() {
+            Map<String, Long> result = new TreeMap<>();
+            for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+                long total = 0;
+                for (long value : entry.getValue()) {
+                    total += value;
+                }
+                result.put(entry.getKey(), total);
+            }
+            return result;
+        }
+
+        public Map<Alert.Severity, Long> getCountsBySeverity() {
+            long[] totals = new long[SEVERITIES];
+            for (long[] values : counts.values()) {
+                for (int i = 0; i < values.length; i++) {
+                    totals[i % SEVERITIES] += values[i];
+                }
+            }
+            Map<Alert.Severity, Long> result = new EnumMap<>(Alert.Severity.class);
+            for (Alert.Severity severity : Alert.Severity.values()) {
+                result.put(severity, totals[severity.ordinal()]);
+            }
+            return result;
+        }
+
+        // Alerts per day of the range, including days without alerts
+        public Map<LocalDate, Long> getDailyTotals() {
+            long[] totals = new long[dayCount];
+            for (long[] values : counts.values()) {
+                for (int i = 0; i < values.length; i++) {
+                    totals[i / SEVERITIES] += values[i];
+                }
+            }
+            Map<LocalDate, Long> result = new TreeMap<>();
+            for (int i = 0; i < dayCount; i++) {
+                result.put(firstDay.plusDays(i), totals[i]);
+            }
+            return result;
+        }
+
+        // Most frequent messages with estimated counts; empty unless requested at start
+        public List<HeavyHitters.Entry> getTopMessages() {
+            return topMessages > 0 ? messages.top(topMessages) : Collections.emptyList();
+        }
+    }
+
+    /**
+     * Prints a report over an archive directory.
+     *
+     * Usage: AlertAggregator archive-dir [from] [to] [top-messages]   (ISO local date-times)
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: AlertAggregator archive-dir [from] [to] [top-messages]");
+            System.exit(2);
+        }
+        LocalDateTime from = args.length > 1 ? LocalDateTime.parse(args[1]) : null;
+        LocalDateTime to = args.length > 2 ? LocalDateTime.parse(args[2]) : null;
+        int top = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        long startNanos = System.nanoTime();
+        Job job = new AlertAggregator(new AlertArchive(Paths.get(args[0]))).start(from, to, top);
+        while (!job.isDone()) {
+            System.err.printf("\r%5.1f%% (%d of %d segments)", job.getProgress() * 100,
+                    job.getPartitionsDone(), job.getPartitionCount());
+            Thread.sleep(200);
+        }
+        Result result = job.get();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.err.printf("\r%d alerts in %.2f s (%.0f/s)%n", result.getTotal(), seconds, result.getTotal() / seconds);
+
+        System.out.println("By severity: " + result.getCountsBySeverity());
+        System.out.println("By source:");
+        result.getCountsBySource().forEach((source, count) -> System.out.println("  " + source + ": " + count));
+        System.out.println("Top messages:");
+        for (HeavyHitters.Entry entry : result.getTopMessages()) {
+            System.out.println("  " + entry);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.security.threatmonitor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Long-term alert history outside SQLite. Each finished day is exported once into an
+ * {@link ArchiveSegment} file, and {@link AlertRetention} deletes rows from the database only
+ * once they are archived. Every export reads rows up to the newest row id, which its segments
+ * record; rows that arrive later for a day already archived are exported into an additional
+ * segment by the next export. Queries over the archive open only the segments whose time
+ * range overlaps the request.
+ */
+public class AlertArchive {
+    private static final Logger logger = Logger.getLogger(AlertArchive.class.getName());
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+    // Footers of the segments seen so far, keyed by file
+    private final Map<Path, ArchiveSegment> segments = new ConcurrentHashMap<>();
+
+    public AlertArchive(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Exports the rows that arrived for days already archived into one more segment, then
+     * every whole day before cutoffDay that is not archived yet, oldest first, leaving the rows
+     * in the database. Returns the number of alerts exported.
+     */
+    public int exportBefore(DatabaseManager dbManager, LocalDate cutoffDay) {
+        LocalDateTime cutoff = cutoffDay.atStartOfDay();
+        int exported = 0;
+
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Cannot create archive directory " + directory, e);
+            return 0;
+        }
+
+        // Rows stored from now on are left to the next export
+        long maxId = dbManager.getMaxAlertId();
+        LocalDateTime archivedUntil = getArchivedUntil();
+        long archivedRowId = getArchivedRowId();
+        if (archivedUntil != null && maxId > archivedRowId) {
+            int late = exportLate(dbManager, archivedUntil, archivedRowId, maxId);
+            if (late < 0) {
+                return 0;
+            }
+            exported += late;
+        }
+
+        LocalDateTime oldest;
+        while ((oldest = archivedUntil == null ? dbManager.getOldestAlertTimestamp()
+                : dbManager.getOldestAlertTimestamp(archivedUntil)) != null && oldest.isBefore(cutoff)) {
+            LocalDate day = oldest.toLocalDate();
+            LocalDateTime from = day.atStartOfDay();
+            LocalDateTime to = day.plusDays(1).atStartOfDay();
+
+            Path path = segmentPath(day);
+            int rows;
+            try (ArchiveSegment.Writer writer = new ArchiveSegment.Writer(path)) {
+                writer.setRowIdBound(maxId);
+                boolean complete = dbManager.forEachAlertBetween(from, to, maxId, entry -> {
+                    try {
+                        writer.add(entry);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                if (!complete) {
+                    return exported;
+                }
+                writer.finish();
+                rows = writer.getRowCount();
+            } catch (IOException | UncheckedIOException e) {
+                logger.log(Level.WARNING, "Error archiving alerts of " + day + ", will retry", e);
+                return exported;
+            }
+
+            exported += rows;
+            archivedUntil = to;
+            logger.info("Archived " + rows + " alerts of " + day + " to " + path.getFileName());
+        }
+        return exported;
+    }
+
+    // Exports rows of archived days with ids in (afterId, maxId]; returns the count or -1
+    private int exportLate(DatabaseManager dbManager, LocalDateTime archivedUntil, long afterId, long maxId) {
+        // Named after the last archived day, which most late rows belong to
+        Path path = segmentPath(archivedUntil.toLocalDate().minusDays(1));
+        try (ArchiveSegment.Writer writer = new ArchiveSegment.Writer(path)) {
+            writer.setRowIdBound(maxId);
+            boolean complete = dbManager.forEachAlertAfterId(afterId, maxId, archivedUntil, entry -> {
+                try {
+                    writer.add(entry);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            if (!complete) {
+                return -1;
+            }
+            // Without late rows, the next day's segment moves the row id bound on instead
+            if (writer.getRowCount() == 0) {
+                return 0;
+            }
+            writer.finish();
+            logger.info("Archived " + writer.getRowCount() + " late alerts to " + path.getFileName());
+            return writer.getRowCount();
+        } catch (IOException | UncheckedIOException e) {
+            logger.log(Level.WARNING, "Error archiving late alerts, will retry", e);
+            return -1;
+        }
+    }
+
+    /**
+     * Highest row id the archive covers: every alert before {@link #getArchivedUntil()} with
+     * an id up to this is in a segment. 0 if nothing has been archived.
+     */
+    public long getArchivedRowId() {
+        long rowId = 0;
+        for (ArchiveSegment segment : getSegments()) {
+            rowId = Math.max(rowId, segment.getRowIdBound());
+        }
+        return rowId;
+    }
+
+    /**
+     * End of the last archived day: alerts before it are in the archive, so the database may
+     * delete them. Null if nothing has been archived.
+     */
+    public LocalDateTime getArchivedUntil() {
+        LocalDateTime until = null;
+        for (ArchiveSegment segment : getSegments()) {
+            LocalDateTime end = segment.getMaxTime().toLocalDate().plusDays(1).atStartOfDay();
+            if (until == null || end.isAfter(until)) {
+                until = end;
+            }
+        }
+        return until;
+    }
+
+    // A new file per export, so segments are never rewritten
+    private Path segmentPath(LocalDate day) {
+        Path path = directory.resolve("alerts-" + day + SEGMENT_SUFFIX);
+        for (int i = 1; Files.exists(path); i++) {
+            path = directory.resolve("alerts-" + day + "-" + i + SEGMENT_SUFFIX);
+        }
+        return path;
+    }
+
+    // Deletes segments whose newest alert is older than the cutoff
+    public int deleteSegmentsBefore(LocalDateTime cutoff) {
+        int deleted = 0;
+        for (ArchiveSegment segment : getSegments()) {
+            if (segment.getMaxTime().isBefore(cutoff)) {
+                try {
+                    Files.deleteIfExists(segment.getPath());
+                    segments.remove(segment.getPath());
+                    deleted++;
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Error deleting archive segment " + segment.getPath(), e);
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Passes archived alerts in [from, to) to the consumer, reading only the given columns
+     * (others are null) and only the segments that overlap the range.
+     */
+    public void scan(LocalDateTime from, LocalDateTime to, Set<ArchiveSegment.Column> columns,
+                     Consumer<Alert> consumer) throws IOException {
+        for (ArchiveSegment segment : getSegments()) {
+            if (segment.overlaps(from, to)) {
+                segment.scan(from, to, columns, consumer);
+            }
+        }
+    }
+
+    // Segments in the archive directory, oldest first
+    public List<ArchiveSegment> getSegments() {
+        List<ArchiveSegment> result = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return result;
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                ArchiveSegment segment = segments.get(file);
+                if (segment == null) {
+                    try {
+                        segment = ArchiveSegment.open(file);
+                        segments.put(file, segment);
+                    } catch (IOException e) {
+                        logger.log(Level.WARNING, "Skipping unreadable archive segment " + file, e);
+                        continue;
+                    }
+                }
+                result.add(segment);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error listing archive directory " + directory, e);
+        }
+
+        result.sort(Comparator.comparing(ArchiveSegment::getMinTime));
+        return result;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+}
@@ -0,0 +1,93 @@
+package com.security.threatmonitor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Assigns severities to raw events using operator-defined rules from a rules file (see
+ * {@link ClassificationRuleSet} for the syntax). A changed file is compiled in the background
+ * and swapped in atomically; a file that fails to compile leaves the previous rules in place.
+ */
+public class AlertClassifier {
+    private static final Logger logger = Logger.getLogger(AlertClassifier.class.getName());
+
+    private final Path rulesFile;
+    private volatile ClassificationRuleSet ruleSet = ClassificationRuleSet.empty();
+    private FileTime loadedVersion;
+    private ScheduledExecutorService reloadScheduler;
+
+    public AlertClassifier(Path rulesFile) {
+        this.rulesFile = rulesFile;
+    }
+
+    // Recompiles the rules if the file changed since the last load. Returns true if swapped.
+    public synchronized boolean reload() {
+        FileTime version;
+        try {
+            version = Files.getLastModifiedTime(rulesFile);
+        } catch (IOException e) {
+            if (loadedVersion == null) {
+                logger.warning("Classification rules not found at " + rulesFile.toAbsolutePath());
+            }
+            return false;
+        }
+        if (Objects.equals(version, loadedVersion)) {
+            return false;
+        }
+        loadedVersion = version;
+
+        try {
+            List<String> lines = Files.readAllLines(rulesFile, StandardCharsets.UTF_8);
+            ruleSet = ClassificationRuleSet.parse(lines);
+            logger.info("Loaded " + ruleSet.size() + " classification rules from " + rulesFile);
+            return true;
+        } catch (ClassificationRuleSet.RuleSyntaxException e) {
+            logger.warning("Invalid classification rules in " + rulesFile + ", keeping previous rules: " + e.getMessage());
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error reading classification rules " + rulesFile, e);
+        }
+        return false;
+    }
+
+    public void startWatching(long intervalSeconds) {
+        reloadScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rules-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reloadScheduler.scheduleWithFixedDelay(this::reload, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public void stopWatching() {
+        if (reloadScheduler != null) {
+            reloadScheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Turns an event into an alert with the severity of the first matching rule, or the
+     * event's default severity if none matches. Returns null if a rule drops the event.
+     */
+    public Alert classify(SecurityEvent event) {
+        ClassificationRuleSet.Action action = ruleSet.classify(event);
+        if (action == null) {
+            return event.toAlert(event.getDefaultSeverity());
+        }
+        return action.isDrop() ? null : event.toAlert(action.getSeverity());
+    }
+
+    // Match counts and evaluation cost of the current rules
+    public List<ClassificationRuleSet.RuleStats> getRuleStats() {
+        return ruleSet.getRuleStats();
+    }
+}
@@ -0,0 +1,370 @@
+package com.security.threatmonitor;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary format for alerts, for spills, journals and network hops. Alerts travel in
+ * self-contained batches:
+ *
+ * <pre>
+ *   'A' 'L' version flags   count (int)   payload length (int)   payload   CRC32C (int)
+ * </pre>
+ *
+ * The CRC covers header and payload. Each record in the payload is the zigzag varint
+ * difference to the previous timestamp (epoch microseconds), the source as a varint
+ * reference into the batch's dictionary (0 null, 1 a new entry whose length-prefixed UTF-8
+ * name follows, n for entry n - 2), a severity byte (0xFF for null) and the message as
+ * a varint length + 1 (0 for null) and its UTF-8 bytes.
+ *
+ * Encoding writes straight into the caller's buffer, and a message that was never decoded
+ * is copied as bytes. Decoding leaves messages undecoded until they are read. An instance
+ * keeps scratch state between calls, so each thread needs its own.
+ */
+public class AlertCodec {
+    public static final byte VERSION = 1;
+    public static final int HEADER_BYTES = 12;
+    public static final int TRAILER_BYTES = 4;
+    // Refuses larger batches when decoding, so a corrupt length cannot cause a huge allocation
+    public static final int MAX_BATCH_BYTES = 64 * 1024 * 1024;
+    private static final byte MAGIC_0 = 'A';
+    private static final byte MAGIC_1 = 'L';
+    private static final int NULL_SEVERITY = 0xFF;
+    private static final Alert.Severity[] SEVERITIES = Alert.Severity.values();
+
+    private final CRC32C crc = new CRC32C();
+    // Encoder dictionary: local index by global source id, valid where the stamp is the current batch
+    private int[] localIndex = new int[256];
+    private int[] localStamp = new int[256];
+    private int[] addedSources = new int[64];
+    private int dictionarySize;
+    private int batchStamp;
+    // Decoder dictionary: global source ids by local index
+    private int[] decodedSources = new int[64];
+
+    /**
+     * Encodes alerts from index from onwards as one batch at the buffer's position, as many
+     * as fit before its limit, and returns how many that was. Returns 0, writing nothing, if
+     * not even the first fits.
+     */
+    public int encode(List<? extends Alert> alerts, int from, ByteBuffer out) {
+        int frameStart = out.position();
+        int limit = out.limit();
+        if (from >= alerts.size() || limit - frameStart < HEADER_BYTES + TRAILER_BYTES) {
+            return 0;
+        }
+        ByteOrder order = out.order();
+        out.order(ByteOrder.BIG_ENDIAN);
+        try {
+            out.put(MAGIC_0).put(MAGIC_1).put(VERSION).put((byte) 0).putInt(0).putInt(0);
+            startBatch();
+
+            int payloadStart = out.position();
+            int count = 0;
+            long previous = 0;
+            out.limit(limit - TRAILER_BYTES);
+            try {
+                for (int i = from; i < alerts.size(); i++) {
+                    int recordStart = out.position();
+                    int sourcesBefore = dictionarySize;
+                    try {
+                        previous = encodeRecord(alerts.get(i), previous, out);
+                        count++;
+                    } catch (BufferOverflowException e) {
+                        out.position(recordStart);
+                        rollBackDictionary(sourcesBefore);
+                        break;
+                    }
+                }
+            } finally {
+                out.limit(limit);
+            }
+            if (count == 0) {
+                out.position(frameStart);
+                return 0;
+            }
+
+            int payloadEnd = out.position();
+            out.putInt(frameStart + 4, count);
+            out.putInt(frameStart + 8, payloadEnd - payloadStart);
+            out.putInt(checksum(out, frameStart, payloadEnd));
+            return count;
+        } finally {
+            out.order(order);
+        }
+    }
+
+    private long encodeRecord(Alert alert, long previous, ByteBuffer out) {
+        long timestamp = alert.getEpochMicros();
+        long delta = timestamp - previous;
+        writeVarlong(out, (delta << 1) ^ (delta >> 63));
+
+        int sourceId = alert.getSourceId();
+        if (sourceId < 0) {
+            writeVarlong(out, 0);
+        } else if (sourceId < localIndex.length && localStamp[sourceId] == batchStamp) {
+            writeVarlong(out, localIndex[sourceId] + 2L);
+        } else {
+            writeVarlong(out, 1);
+            writeString(out, AlertSources.nameOf(sourceId));
+            addSource(sourceId);
+        }
+
+        Alert.Severity severity = alert.getSeverity();
+        out.put((byte) (severity == null ? NULL_SEVERITY : severity.ordinal()));
+
+        Object message = alert.getRawMessage();
+        if (message instanceof byte[]) {
+            byte[] bytes = (byte[]) message;
+            writeVarlong(out, bytes.length + 1L);
+            out.put(bytes);
+        } else {
+            writeString(out, (String) message);
+        }
+        return timestamp;
+    }
+
+    private void startBatch() {
+        dictionarySize = 0;
+        if (++batchStamp == 0) {
+            // Wrapped around: old stamps could look current again
+            Arrays.fill(localStamp, 0);
+            batchStamp = 1;
+        }
+    }
+
+    private void addSource(int sourceId) {
+        if (sourceId >= localIndex.length) {
+            int size = Math.max(sourceId + 1, localIndex.length * 2);
+            localIndex = Arrays.copyOf(localIndex, size);
+            localStamp = Arrays.copyOf(localStamp, size);
+        }
+        if (dictionarySize == addedSources.length) {
+            addedSources = Arrays.copyOf(addedSources, dictionarySize * 2);
+        }
+        localIndex[sourceId] = dictionarySize;
+        localStamp[sourceId] = batchStamp;
+        addedSources[dictionarySize++] = sourceId;
+    }
+
+    // Forgets sources added by a record that did not fit
+    private void rollBackDictionary(int size) {
+        while (dictionarySize > size) {
+            localStamp[addedSources[--dictionarySize]] = 0;
+        }
+    }
+
+    /**
+     * Decodes the batch at the buffer's position, passing its alerts to the consumer, and
+     * returns how many there were. Returns -1, consuming nothing, if the buffer does not
+     * hold the whole batch yet. A corrupt batch, including one with a wrong checksum, is an
+     * IOException and nothing of it reaches the consumer.
+     */
+    public int decode(ByteBuffer in, Consumer<? super Alert> consumer) throws IOException {
+        int frameStart = in.position();
+        if (in.remaining() < HEADER_BYTES) {
+            return -1;
+        }
+        ByteOrder order = in.order();
+        in.order(ByteOrder.BIG_ENDIAN);
+        try {
+            if (in.get(frameStart) != MAGIC_0 || in.get(frameStart + 1) != MAGIC_1) {
+                throw new IOException("Not an alert batch");
+            }
+            if (in.get(frameStart + 2) != VERSION) {
+                throw new IOException("Unsupported alert batch version " + in.get(frameStart + 2));
+            }
+            int count = in.getInt(frameStart + 4);
+            int payloadLength = in.getInt(frameStart + 8);
+            // Every record takes at least 4 bytes
+            if (count <= 0 || payloadLength < 4L * count || payloadLength > MAX_BATCH_BYTES) {
+                throw new IOException("Corrupt alert batch header: " + count + " alerts in " + payloadLength + " bytes");
+            }
+            int payloadStart = frameStart + HEADER_BYTES;
+            int payloadEnd = payloadStart + payloadLength;
+            if (in.limit() - payloadStart < payloadLength + TRAILER_BYTES) {
+                return -1;
+            }
+            if (checksum(in, frameStart, payloadEnd) != in.getInt(payloadEnd)) {
+                throw new IOException("Alert batch checksum mismatch");
+            }
+
+            // The checksum passed, so a failure below means an encoder bug or a forged batch
+            int limit = in.limit();
+            in.limit(payloadEnd).position(payloadStart);
+            List<Alert> alerts = new ArrayList<>(count);
+            try {
+                int sources = 0;
+                long previous = 0;
+                for (int i = 0; i < count; i++) {
+                    long zigzag = readVarlong(in);
+                    previous += (zigzag >>> 1) ^ -(zigzag & 1);
+
+                    long reference = readVarlong(in);
+                    int sourceId;
+                    if (reference == 0) {
+                        sourceId = -1;
+                    } else if (reference == 1) {
+                        sourceId = AlertSources.idOf(readString(in));
+                        if (sources == decodedSources.length) {
+                            decodedSources = Arrays.copyOf(decodedSources, sources * 2);
+                        }
+                        decodedSources[sources++] = sourceId;
+                    } else if (reference - 2 < sources) {
+                        sourceId = decodedSources[(int) (reference - 2)];
+                    } else {
+                        throw new IOException("Alert batch refers to unknown source " + (reference - 2));
+                    }
+
+                    int severity = in.get() & 0xFF;
+                    if (severity != NULL_SEVERITY && severity >= SEVERITIES.length) {
+                        throw new IOException("Invalid severity " + severity + " in alert batch");
+                    }
+                    byte[] message = readBytes(in);
+                    alerts.add(new Alert(previous, sourceId, message,
+                            severity == NULL_SEVERITY ? null : SEVERITIES[severity]));
+                }
+                if (in.hasRemaining()) {
+                    throw new IOException("Alert batch has " + in.remaining() + " bytes after its last record");
+                }
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Truncated record in alert batch", e);
+            } finally {
+                in.limit(limit);
+            }
+
+            in.position(payloadEnd + TRAILER_BYTES);
+            alerts.forEach(consumer);
+            return count;
+        } catch (IOException e) {
+            in.position(frameStart);
+            throw e;
+        } finally {
+            in.order(order);
+        }
+    }
+
+    // The alerts of the batch at the buffer's position, or null if it is incomplete
+    public List<Alert> decode(ByteBuffer in) throws IOException {
+        List<Alert> alerts = new ArrayList<>();
+        return decode(in, alerts::add) < 0 ? null : alerts;
+    }
+
+    private int checksum(ByteBuffer buffer, int start, int end) {
+        ByteBuffer covered = buffer.duplicate();
+        covered.limit(end).position(start);
+        crc.reset();
+        crc.update(covered);
+        return (int) crc.getValue();
+    }
+
+    private static void writeVarlong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static long readVarlong(ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint longer than 10 bytes in alert batch");
+    }
+
+    // Length + 1 (0 for null) and the UTF-8 bytes, encoded without an intermediate array
+    private static void writeString(ByteBuffer out, String value) {
+        if (value == null) {
+            writeVarlong(out, 0);
+            return;
+        }
+        writeVarlong(out, utf8Length(value) + 1L);
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out.put((byte) (0xF0 | codePoint >> 18)).put((byte) (0x80 | codePoint >> 12 & 0x3F))
+                        .put((byte) (0x80 | codePoint >> 6 & 0x3F)).put((byte) (0x80 | codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates become '?', as String.getBytes does
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    static int utf8Length(String value) {
+        int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x800) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    bytes += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    bytes += 2;
+                }
+            } else if (c >= 0x80) {
+                bytes++;
+            }
+        }
+        return bytes;
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = readLength(in);
+        if (length < 0) {
+            return null;
+        }
+        if (in.hasArray()) {
+            String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // The message bytes become the alert's own, so they are the only copy made
+    private static byte[] readBytes(ByteBuffer in) throws IOException {
+        int length = readLength(in);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    // -1 for null
+    private static int readLength(ByteBuffer in) throws IOException {
+        long encoded = readVarlong(in);
+        if (encoded - 1 > in.remaining()) {
+            throw new IOException("Alert batch string length " + (encoded - 1) + " exceeds the batch");
+        }
+        return (int) encoded - 1;
+    }
+}
@@ -0,0 +1,189 @@
+package com.security.threatmonitor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+public class AlertCodecTest {
+    private static final char[] ALPHABET = {'a', 'Z', '0', ' ', '\n', 'é', 'ß', '€', '中',
+            '\ud83d', '\ude00', '\u0000', '￿'};
+
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+        System.out.println("Testing alert codec with seed " + seed + "...");
+        Random random = new Random(seed);
+        AlertCodec codec = new AlertCodec();
+        int failures = 0;
+
+        try {
+            // Round trips of random batches through heap and direct buffers of either byte order
+            for (int round = 0; round < 2000; round++) {
+                List<Alert> alerts = randomAlerts(random, 1 + random.nextInt(200));
+                ByteBuffer buffer = random.nextBoolean()
+                        ? ByteBuffer.allocate(8 * 1024 + random.nextInt(56 * 1024))
+                        : ByteBuffer.allocateDirect(8 * 1024 + random.nextInt(56 * 1024));
+                buffer.order(random.nextBoolean() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+                // The longest message takes 6000 bytes; batches may start at an offset, after other data
+                int batchesStart = random.nextInt(16);
+                buffer.position(batchesStart);
+
+                List<Alert> decoded = new ArrayList<>();
+                int encoded = 0;
+                while (encoded < alerts.size()) {
+                    int position = buffer.position();
+                    int count = codec.encode(alerts, encoded, buffer);
+                    encoded += count;
+                    if (count == 0 || encoded == alerts.size()) {
+                        if (count == 0 && buffer.position() != position) {
+                            failures += fail("encoding nothing moved the position");
+                        }
+                        if (count == 0 && position == batchesStart) {
+                            failures += fail("alert does not fit an empty " + buffer.capacity() + " byte buffer");
+                            break;
+                        }
+                        // Full, or done: decode what is there and start over
+                        buffer.flip().position(batchesStart);
+                        decodeAll(codec, buffer, decoded);
+                        buffer.clear().position(batchesStart);
+                    }
+                }
+                failures += compare(alerts, decoded);
+            }
+            System.out.println("Round trips done");
+
+            // Truncated batches are incomplete, not errors, and consume nothing
+            List<Alert> alerts = randomAlerts(random, 50);
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            codec.encode(alerts, 0, buffer);
+            buffer.flip();
+            byte[] frame = new byte[buffer.remaining()];
+            buffer.get(frame);
+            for (int length = 0; length < frame.length; length++) {
+                ByteBuffer truncated = ByteBuffer.wrap(frame, 0, length);
+                if (codec.decode(truncated) != null || truncated.position() != 0) {
+                    failures += fail("truncated batch of " + length + " bytes was not incomplete");
+                }
+            }
+
+            // Every single bit flip is rejected
+            for (int bit = 0; bit < frame.length * 8; bit++) {
+                byte[] corrupt = frame.clone();
+                corrupt[bit / 8] ^= 1 << (bit % 8);
+                ByteBuffer in = ByteBuffer.wrap(corrupt);
+                try {
+                    List<Alert> result = codec.decode(in);
+                    // A flipped length may make the batch look longer than the buffer
+                    if (result != null) {
+                        failures += fail("bit flip " + bit + " was not detected");
+                    }
+                } catch (IOException expected) {
+                    if (in.position() != 0) {
+                        failures += fail("rejected batch moved the position");
+                    }
+                }
+            }
+            System.out.println("Truncation and corruption done");
+
+            // Random garbage never decodes to alerts or throws anything but IOException
+            for (int i = 0; i < 10_000; i++) {
+                byte[] garbage = new byte[random.nextInt(200)];
+                random.nextBytes(garbage);
+                if (garbage.length > 2 && random.nextBoolean()) {
+                    garbage[0] = 'A';
+                    garbage[1] = 'L';
+                    garbage[2] = AlertCodec.VERSION;
+                }
+                try {
+                    List<Alert> result = codec.decode(ByteBuffer.wrap(garbage));
+                    if (result != null) {
+                        failures += fail("garbage decoded to " + result.size() + " alerts");
+                    }
+                } catch (IOException expected) {
+                    // Rejected
+                }
+            }
+            System.out.println("Garbage done");
+        } catch (Exception e) {
+            System.err.println("Error during alert codec test: " + e.getMessage());
+            e.printStackTrace();
+            failures++;
+        }
+
+        System.out.println(failures == 0 ? "\nAlert codec test passed!" : "\nAlert codec test FAILED (" + failures + " failures)");
+    }
+
+    private static void decodeAll(AlertCodec codec, ByteBuffer buffer, List<Alert> decoded) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (codec.decode(buffer, decoded::add) < 0) {
+                throw new IOException("Complete batch reported as incomplete");
+            }
+        }
+    }
+
+    private static List<Alert> randomAlerts(Random random, int count) {
+        List<Alert> alerts = new ArrayList<>();
+        long timestamp = random.nextLong();
+        for (int i = 0; i < count; i++) {
+            switch (random.nextInt(6)) {
+                case 0:
+                    timestamp = random.nextLong();
+                    break;
+                case 1:
+                    timestamp = random.nextBoolean() ? Long.MIN_VALUE : Long.MAX_VALUE;
+                    break;
+                default:
+                    timestamp += random.nextInt(1_000_000);
+            }
+            String source = random.nextInt(10) == 0 ? null : "fuzz-source-" + random.nextInt(random.nextBoolean() ? 4 : 500);
+            Alert.Severity severity = random.nextInt(10) == 0 ? null
+                    : Alert.Severity.values()[random.nextInt(Alert.Severity.values().length)];
+            if (random.nextInt(10) == 0) {
+                alerts.add(new Alert(timestamp, source, null, severity));
+            } else if (random.nextBoolean()) {
+                // Undecoded bytes, as the syslog listener produces
+                byte[] message = randomString(random).getBytes(StandardCharsets.UTF_8);
+                alerts.add(Alert.fromUtf8(timestamp, AlertSources.idOf(source), message, severity));
+            } else {
+                alerts.add(new Alert(timestamp, source, randomString(random), severity));
+            }
+        }
+        return alerts;
+    }
+
+    private static String randomString(Random random) {
+        int length = random.nextInt(5) == 0 ? random.nextInt(2000) : random.nextInt(40);
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+        }
+        return builder.toString();
+    }
+
+    private static int compare(List<Alert> expected, List<Alert> actual) {
+        if (expected.size() != actual.size()) {
+            return fail(expected.size() + " alerts encoded, " + actual.size() + " decoded");
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            Alert a = expected.get(i);
+            Alert b = actual.get(i);
+            // Unpaired surrogates cannot be encoded and become '?'
+            String message = a.getMessage() == null ? null
+                    : new String(a.getMessage().getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+            if (a.getEpochMicros() != b.getEpochMicros() || !Objects.equals(a.getSource(), b.getSource())
+                    || a.getSeverity() != b.getSeverity() || !Objects.equals(message, b.getMessage())) {
+                return fail("alert " + i + " differs after the round trip");
+            }
+        }
+        return 0;
+    }
+
+    private static int fail(String message) {
+        System.out.println("FAILED: " + message);
+        return 1;
+    }
+}
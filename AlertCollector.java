@@ -0,0 +1,465 @@
+package com.security.threatmonitor;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Collector side of alert forwarding: accepts connections from any number of
+ * {@link AlertForwarder} agents on one selector thread and queues their alerts on the local
+ * AlertManager. A batch is acknowledged once its alerts are queued, and batches an agent
+ * sends again after a reconnect are acknowledged without being queued twice. Like the
+ * syslog listener, it stops reading while the alert queue is above the high water mark, so
+ * agents are held back by TCP flow control and their acknowledgement window.
+ */
+public class AlertCollector {
+    private static final Logger logger = Logger.getLogger(AlertCollector.class.getName());
+
+    private static final int HELLO_BYTES = 15;
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+    private static final long SELECT_TIMEOUT_MILLIS = 100;
+    // Sessions remembered for deduplication, oldest forgotten first
+    private static final int MAX_SESSIONS = 10_000;
+
+    private final AlertManager alertManager;
+    private final int highWaterMark;
+    private final int lowWaterMark;
+    private InetSocketAddress address;
+    private final Map<SocketChannel, Connection> connections = new ConcurrentHashMap<>();
+    // Highest sequence queued per agent session; only touched on the selector thread
+    private final Map<Long, Long> acknowledged = new LinkedHashMap<Long, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+            return size() > MAX_SESSIONS;
+        }
+    };
+    private final AlertCodec codec = new AlertCodec();
+    private final Inflater inflater = new Inflater();
+    private final List<Alert> batch = new ArrayList<>();
+    private final AtomicBoolean isRunning = new AtomicBoolean(false);
+    private ByteBuffer inflated = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread selectorThread;
+    private boolean paused;
+
+    private final AtomicLong alertsReceived = new AtomicLong();
+    private final AtomicLong batchesReceived = new AtomicLong();
+    private final AtomicLong duplicateBatches = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong protocolErrors = new AtomicLong();
+
+    public AlertCollector(AlertManager alertManager, InetSocketAddress address) {
+        this(alertManager, address, 50_000, 10_000);
+    }
+
+    /**
+     * @param highWaterMark queue depth at which reading is paused
+     * @param lowWaterMark  queue depth at which reading resumes
+     */
+    public AlertCollector(AlertManager alertManager, InetSocketAddress address, int highWaterMark, int lowWaterMark) {
+        if (lowWaterMark > highWaterMark) {
+            throw new IllegalArgumentException("Low water mark must not exceed high water mark");
+        }
+        this.alertManager = alertManager;
+        this.address = address;
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = lowWaterMark;
+    }
+
+    // A restarted collector binds the port it had before and still recognises resent batches
+    public void start() throws IOException {
+        if (isRunning.get()) {
+            return;
+        }
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        address = (InetSocketAddress) serverChannel.getLocalAddress();
+        logger.info("Alert collector bound to " + address);
+
+        isRunning.set(true);
+        paused = false;
+        selectorThread = new Thread(this::runLoop, "alert-collector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    public void stop() {
+        if (!isRunning.compareAndSet(true, false)) {
+            return;
+        }
+
+        selector.wakeup();
+        try {
+            selectorThread.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return address.getPort();
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    public long getAlertsReceived() {
+        return alertsReceived.get();
+    }
+
+    public long getBatchesReceived() {
+        return batchesReceived.get();
+    }
+
+    // Batches resent by agents that had already been queued
+    public long getDuplicateBatches() {
+        return duplicateBatches.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public long getProtocolErrors() {
+        return protocolErrors.get();
+    }
+
+    private void runLoop() {
+        logger.info("Alert collector started");
+
+        while (isRunning.get()) {
+            try {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        if (key.isWritable()) {
+                            try {
+                                writeAck(key);
+                            } catch (IOException e) {
+                                close((SocketChannel) key.channel());
+                                continue;
+                            }
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read(key);
+                        }
+                    }
+                }
+
+                applyBackpressure();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error in alert collector loop", e);
+            }
+        }
+
+        closeAll();
+        logger.info("Alert collector stopped");
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            Connection connection = new Connection(channel.getRemoteAddress());
+            connections.put(channel, connection);
+            channel.register(selector, paused ? 0 : SelectionKey.OP_READ, connection);
+        }
+    }
+
+    private void read(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+
+        try {
+            int read = channel.read(connection.buffer);
+            if (read < 0) {
+                close(channel);
+                return;
+            }
+            bytesReceived.addAndGet(read);
+            connection.buffer.flip();
+            try {
+                while (connection.hello ? readBatch(connection) : readHello(connection)) {
+                    // Keep going while whole messages are buffered
+                }
+            } finally {
+                connection.buffer.compact();
+            }
+            connection.ensureCapacity();
+            writeAck(key);
+        } catch (IOException e) {
+            if (!(e instanceof ProtocolException)) {
+                logger.log(Level.FINE, "Agent connection from " + connection.describe() + " failed", e);
+            } else {
+                protocolErrors.incrementAndGet();
+                logger.warning("Closing agent connection from " + connection.describe() + ": " + e.getMessage());
+            }
+            close(channel);
+        }
+    }
+
+    private boolean readHello(Connection connection) throws IOException {
+        ByteBuffer buffer = connection.buffer;
+        if (buffer.remaining() < HELLO_BYTES) {
+            return false;
+        }
+        int start = buffer.position();
+        if (buffer.getInt(start) != AlertForwarder.MAGIC) {
+            throw new ProtocolException("not an alert forwarder");
+        }
+        if (buffer.get(start + 4) != AlertForwarder.VERSION) {
+            throw new ProtocolException("unsupported forwarding version " + buffer.get(start + 4));
+        }
+        int idLength = buffer.getShort(start + 13) & 0xFFFF;
+        if (buffer.remaining() < HELLO_BYTES + idLength) {
+            return false;
+        }
+        connection.session = buffer.getLong(start + 5);
+        byte[] id = new byte[idLength];
+        buffer.position(start + HELLO_BYTES);
+        buffer.get(id);
+        connection.agentId = new String(id, StandardCharsets.UTF_8);
+        connection.hello = true;
+
+        // The reply tells the agent which of its batches need not be sent again
+        connection.ackDue = true;
+        Long last = acknowledged.get(connection.session);
+        connection.acked = last == null ? 0 : last;
+        logger.info("Agent " + connection.describe() + " connected"
+                + (connection.acked > 0 ? ", resuming after batch " + connection.acked : ""));
+        return true;
+    }
+
+    private boolean readBatch(Connection connection) throws IOException {
+        ByteBuffer buffer = connection.buffer;
+        if (buffer.remaining() < AlertForwarder.BATCH_HEADER_BYTES) {
+            return false;
+        }
+        int start = buffer.position();
+        long sequence = buffer.getLong(start);
+        byte flags = buffer.get(start + 8);
+        int rawLength = buffer.getInt(start + 9);
+        int length = buffer.getInt(start + 13);
+        if (length < 0 || length > AlertForwarder.MAX_BATCH_BYTES || rawLength < 0 || rawLength > AlertForwarder.MAX_BATCH_BYTES) {
+            throw new ProtocolException("invalid batch length " + length + "/" + rawLength);
+        }
+        if (buffer.remaining() < AlertForwarder.BATCH_HEADER_BYTES + length) {
+            connection.needed = AlertForwarder.BATCH_HEADER_BYTES + length;
+            return false;
+        }
+        int payloadStart = start + AlertForwarder.BATCH_HEADER_BYTES;
+        buffer.position(payloadStart + length);
+        batchesReceived.incrementAndGet();
+
+        Long last = acknowledged.get(connection.session);
+        if (last != null && sequence <= last) {
+            duplicateBatches.incrementAndGet();
+        } else {
+            ByteBuffer payload = buffer.duplicate();
+            payload.limit(payloadStart + length).position(payloadStart);
+            if ((flags & AlertForwarder.FLAG_DEFLATED) != 0) {
+                payload = inflate(payload, rawLength);
+            }
+            try {
+                while (payload.hasRemaining()) {
+                    if (codec.decode(payload, batch::add) < 0) {
+                        throw new IOException("truncated");
+                    }
+                }
+            } catch (IOException e) {
+                batch.clear();
+                throw new ProtocolException("corrupt alert batch " + sequence + ": " + e.getMessage());
+            }
+            alertManager.queueAlerts(batch);
+            alertsReceived.addAndGet(batch.size());
+            connection.alerts += batch.size();
+            batch.clear();
+            acknowledged.put(connection.session, sequence);
+        }
+        connection.acked = Math.max(connection.acked, sequence);
+        connection.ackDue = true;
+        return true;
+    }
+
+    private ByteBuffer inflate(ByteBuffer payload, int rawLength) throws IOException {
+        if (inflated.capacity() < rawLength) {
+            inflated = ByteBuffer.allocate(Math.max(rawLength, inflated.capacity() * 2));
+        }
+        inflated.clear().limit(rawLength);
+        inflater.reset();
+        inflater.setInput(payload);
+        try {
+            while (inflated.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(inflated) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ProtocolException("corrupt compressed batch: " + e.getMessage());
+        }
+        if (inflated.hasRemaining() || !inflater.finished()) {
+            throw new ProtocolException("compressed batch does not match its length " + rawLength);
+        }
+        return inflated.flip();
+    }
+
+    // Sends the latest acknowledgement; waits for OP_WRITE if the socket cannot take it now
+    private void writeAck(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        if (connection.ackDue && !connection.out.hasRemaining()) {
+            connection.out.clear();
+            connection.out.putLong(connection.acked).flip();
+            connection.ackDue = false;
+        }
+        if (connection.out.hasRemaining()) {
+            ((SocketChannel) key.channel()).write(connection.out);
+        }
+        int ops = key.interestOps();
+        key.interestOps(connection.out.hasRemaining() || connection.ackDue
+                ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE);
+    }
+
+    // Stop reading while the alert queue is above the high water mark; resume below the low one
+    private void applyBackpressure() {
+        int depth = alertManager.getQueueDepth();
+
+        if (!paused && depth >= highWaterMark) {
+            paused = true;
+            setReadInterest(false);
+            logger.warning("Alert queue depth " + depth + " reached high water mark, pausing agent connections");
+        } else if (paused && depth <= lowWaterMark) {
+            paused = false;
+            setReadInterest(true);
+            logger.info("Alert queue depth " + depth + " below low water mark, resuming agent connections");
+        }
+    }
+
+    private void setReadInterest(boolean enabled) {
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.attachment() instanceof Connection) {
+                int ops = key.interestOps();
+                key.interestOps(enabled ? ops | SelectionKey.OP_READ : ops & ~SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    private void close(SocketChannel channel) {
+        Connection connection = connections.remove(channel);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Error closing agent connection", e);
+        }
+        if (connection != null) {
+            logger.info("Agent " + connection.describe() + " disconnected after " + connection.alerts + " alerts");
+        }
+    }
+
+    private void closeAll() {
+        for (SocketChannel channel : new ArrayList<>(connections.keySet())) {
+            close(channel);
+        }
+        try {
+            serverChannel.close();
+            selector.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error closing alert collector channels", e);
+        }
+    }
+
+    /**
+     * collector.port (negative disables the collector), collector.bind, and the
+     * collector.queue.high and .low water marks.
+     */
+    public static AlertCollector fromConfig(ThreatMonitorConfig config, AlertManager alertManager) {
+        int port = config.getInt("collector.port", -1);
+        if (port < 0) {
+            return null;
+        }
+        return new AlertCollector(alertManager,
+                new InetSocketAddress(config.getString("collector.bind", "0.0.0.0"), port),
+                config.getInt("collector.queue.high", 50_000),
+                config.getInt("collector.queue.low", 10_000));
+    }
+
+    // A violation of the forwarding protocol, as opposed to a network failure
+    private static class ProtocolException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ProtocolException(String message) {
+            super(message);
+        }
+    }
+
+    private static class Connection {
+        private final SocketAddress remoteAddress;
+        private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+        private final ByteBuffer out = ByteBuffer.allocate(8).flip();
+        private boolean hello;
+        private String agentId;
+        private long session;
+        private long acked;
+        private boolean ackDue;
+        private long alerts;
+        // Bytes the batch at the front of the buffer needs, to grow the buffer for large ones
+        private int needed;
+
+        Connection(SocketAddress remoteAddress) {
+            this.remoteAddress = remoteAddress;
+        }
+
+        void ensureCapacity() {
+            if (needed > buffer.capacity()) {
+                ByteBuffer grown = ByteBuffer.allocate(needed);
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+            needed = 0;
+        }
+
+        String describe() {
+            return agentId == null ? String.valueOf(remoteAddress) : agentId + " (" + remoteAddress + ")";
+        }
+    }
+}
@@ -0,0 +1,481 @@
+package com.security.threatmonitor;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+/**
+ * Agent side of alert forwarding: a sink that sends every alert to an {@link AlertCollector}
+ * over one persistent TCP connection. Alerts are buffered, encoded with {@link AlertCodec} in
+ * batches, deflated and numbered. The collector acknowledges each batch once it has queued
+ * the alerts. Unacknowledged batches are kept and sent again after a reconnect, and the
+ * collector skips batches it has already seen, so a dropped connection loses nothing.
+ *
+ * Backpressure reaches the pipeline: at most a window of batches is unacknowledged, and
+ * once the buffer is full onAlert blocks the processing thread for up to the block time
+ * before it drops the alert.
+ *
+ * <pre>
+ *   hello     agent: magic, version, session (long), agent id (short length + UTF-8)
+ *             collector: the last batch it acknowledged for the session (long, 0 if none)
+ *   batch     agent: sequence (long), flags (byte), raw length (int), length (int), payload
+ *   ack       collector: the highest sequence queued so far (long)
+ * </pre>
+ */
+public class AlertForwarder implements AlertSink {
+    private static final Logger logger = Logger.getLogger(AlertForwarder.class.getName());
+
+    static final int MAGIC = 0x544D4657;  // "TMFW"
+    static final byte VERSION = 1;
+    static final int BATCH_HEADER_BYTES = 17;
+    static final byte FLAG_DEFLATED = 1;
+    static final int MAX_BATCH_BYTES = 16 * 1024 * 1024;
+    private static final int ENCODE_BUFFER_BYTES = 1024 * 1024;
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private final InetSocketAddress collector;
+    private final String agentId;
+    // Identifies this forwarder's sequence numbers to the collector across reconnects
+    private final long session = ThreadLocalRandom.current().nextLong();
+    private final BlockingQueue<Alert> buffer;
+    private int batchSize = 1000;
+    private long lingerMillis = 100;
+    private int window = 16;
+    private long blockMillis = 1000;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    // Sent but unacknowledged batches, oldest first; guarded by itself
+    private final ArrayDeque<Batch> unacked = new ArrayDeque<>();
+    private long nextSequence = 1;
+    private volatile SocketChannel channel;
+    private volatile boolean isRunning;
+    private Thread sender;
+
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong alertsSent = new AtomicLong();
+    private final AtomicLong alertsAcked = new AtomicLong();
+    private final AtomicLong alertsDropped = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private long lastDropWarningMillis;
+
+    public AlertForwarder(InetSocketAddress collector, String agentId, int bufferSize) {
+        this.collector = collector;
+        this.agentId = agentId;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+    }
+
+    // Most alerts per batch
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    // How long a batch waits to fill up before it is sent anyway
+    public void setLinger(long lingerMillis) {
+        this.lingerMillis = lingerMillis;
+    }
+
+    // Most batches sent but not yet acknowledged
+    public void setWindow(int window) {
+        this.window = Math.max(1, window);
+    }
+
+    // How long onAlert waits for room in a full buffer before dropping the alert
+    public void setBlockMillis(long blockMillis) {
+        this.blockMillis = blockMillis;
+    }
+
+    // Deflater level 1-9, or 0 to send batches uncompressed
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public synchronized void start() {
+        if (isRunning) {
+            return;
+        }
+        isRunning = true;
+        sender = new Thread(this::runSender, "alert-forwarder");
+        sender.setDaemon(true);
+        sender.start();
+        logger.info("Forwarding alerts to " + collector + " as " + agentId);
+    }
+
+    /**
+     * Stops forwarding after waiting up to the timeout for buffered and unacknowledged
+     * alerts to be delivered. Returns false if some were not.
+     */
+    public synchronized boolean stop(long timeout, TimeUnit unit) {
+        if (!isRunning) {
+            return true;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (getPendingAlerts() > 0 && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        boolean drained = getPendingAlerts() == 0;
+        isRunning = false;
+        closeChannel();
+        sender.interrupt();
+        try {
+            sender.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!drained) {
+            logger.warning("Stopped forwarding with " + getPendingAlerts() + " alerts undelivered");
+        }
+        return drained;
+    }
+
+    @Override
+    public void onAlert(Alert alert) {
+        // Counted first so that stop() never sees an accepted alert as delivered
+        pending.incrementAndGet();
+        try {
+            if (buffer.offer(alert) || buffer.offer(alert, blockMillis, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pending.decrementAndGet();
+        alertsDropped.incrementAndGet();
+        long now = System.currentTimeMillis();
+        if (now - lastDropWarningMillis > 10_000) {
+            lastDropWarningMillis = now;
+            logger.warning("Forwarding buffer full, dropped " + alertsDropped.get() + " alerts so far");
+        }
+    }
+
+    private void runSender() {
+        AlertCodec codec = new AlertCodec();
+        ByteBuffer encoded = ByteBuffer.allocate(ENCODE_BUFFER_BYTES);
+        Deflater deflater = new Deflater(compressionLevel == 0 ? Deflater.DEFAULT_COMPRESSION : compressionLevel);
+        List<Alert> alerts = new ArrayList<>(batchSize);
+        long backoff = MIN_BACKOFF_MILLIS;
+
+        try {
+            while (isRunning) {
+                try {
+                    connect();
+                    backoff = MIN_BACKOFF_MILLIS;
+                    while (isRunning) {
+                        awaitWindow();
+                        if (alerts.isEmpty()) {
+                            collect(alerts);
+                            if (alerts.isEmpty()) {
+                                continue;
+                            }
+                        }
+                        Batch batch = encode(codec, encoded, deflater, alerts);
+                        if (batch == null) {
+                            continue;
+                        }
+                        synchronized (unacked) {
+                            unacked.addLast(batch);
+                        }
+                        write(batch);
+                    }
+                } catch (IOException e) {
+                    if (isRunning) {
+                        logger.log(Level.WARNING, "Lost connection to collector " + collector + ", retrying in "
+                                + backoff + " ms: " + e.getMessage());
+                    }
+                    closeChannel();
+                    Thread.sleep(backoff);
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopping
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Connects, says hello and resends what the collector has not acknowledged
+    private void connect() throws IOException {
+        SocketChannel socket = SocketChannel.open();
+        try {
+            socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            socket.socket().connect(collector, CONNECT_TIMEOUT_MILLIS);
+
+            byte[] id = agentId.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer hello = ByteBuffer.allocate(15 + id.length);
+            hello.putInt(MAGIC).put(VERSION).putLong(session).putShort((short) id.length).put(id).flip();
+            writeFully(socket, hello);
+            ByteBuffer reply = ByteBuffer.allocate(8);
+            readFully(socket, reply);
+            acknowledge(reply.getLong(0));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+
+        channel = socket;
+        Thread reader = new Thread(() -> readAcks(socket), "alert-forwarder-acks");
+        reader.setDaemon(true);
+        reader.start();
+        List<Batch> resend;
+        synchronized (unacked) {
+            resend = new ArrayList<>(unacked);
+        }
+        for (Batch batch : resend) {
+            write(batch);
+        }
+        if (reconnects.getAndIncrement() > 0 || !resend.isEmpty()) {
+            logger.info("Reconnected to collector " + collector + ", resent " + resend.size() + " batches");
+        }
+    }
+
+    private void readAcks(SocketChannel socket) {
+        ByteBuffer ack = ByteBuffer.allocate(8);
+        try {
+            while (isRunning) {
+                ack.clear();
+                readFully(socket, ack);
+                acknowledge(ack.getLong(0));
+            }
+        } catch (IOException e) {
+            // The sender notices the broken connection on its next write
+            if (isRunning && channel == socket) {
+                logger.log(Level.FINE, "Acknowledgement stream from " + collector + " ended", e);
+                closeChannel();
+            }
+        }
+    }
+
+    // Everything up to and including the sequence has been queued by the collector
+    private void acknowledge(long sequence) {
+        synchronized (unacked) {
+            while (!unacked.isEmpty() && unacked.peekFirst().sequence <= sequence) {
+                int alerts = unacked.removeFirst().alerts;
+                alertsAcked.addAndGet(alerts);
+                pending.addAndGet(-alerts);
+            }
+            unacked.notifyAll();
+        }
+    }
+
+    private void awaitWindow() throws InterruptedException, IOException {
+        synchronized (unacked) {
+            while (unacked.size() >= window) {
+                if (channel == null) {
+                    throw new IOException("connection closed");
+                }
+                unacked.wait(100);
+            }
+        }
+        if (channel == null) {
+            throw new IOException("connection closed");
+        }
+    }
+
+    // Waits for the first alert, then up to the linger time for the batch to fill
+    private void collect(List<Alert> alerts) throws InterruptedException {
+        Alert first = buffer.poll(lingerMillis, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        alerts.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        while (alerts.size() < batchSize) {
+            buffer.drainTo(alerts, batchSize - alerts.size());
+            long remaining = deadline - System.nanoTime();
+            if (alerts.size() >= batchSize || remaining <= 0) {
+                break;
+            }
+            Alert next = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            alerts.add(next);
+        }
+    }
+
+    // Encodes as many of the alerts as fit one batch and removes them from the list
+    private Batch encode(AlertCodec codec, ByteBuffer encoded, Deflater deflater, List<Alert> alerts) {
+        encoded.clear();
+        int count = codec.encode(alerts, 0, encoded);
+        if (count == 0) {
+            logger.warning("Alert too large to forward, dropping it");
+            alerts.remove(0);
+            pending.decrementAndGet();
+            alertsDropped.incrementAndGet();
+            return null;
+        }
+        alerts.subList(0, count).clear();
+        encoded.flip();
+        int rawLength = encoded.remaining();
+
+        byte[] frame;
+        int length;
+        byte flags = 0;
+        if (compressionLevel != 0) {
+            deflater.reset();
+            deflater.setInput(encoded);
+            deflater.finish();
+            frame = new byte[BATCH_HEADER_BYTES + rawLength + rawLength / 1000 + 64];
+            length = 0;
+            while (!deflater.finished()) {
+                if (BATCH_HEADER_BYTES + length == frame.length) {
+                    frame = Arrays.copyOf(frame, frame.length * 2);
+                }
+                length += deflater.deflate(frame, BATCH_HEADER_BYTES + length, frame.length - BATCH_HEADER_BYTES - length);
+            }
+            flags = FLAG_DEFLATED;
+        } else {
+            length = rawLength;
+            frame = new byte[BATCH_HEADER_BYTES + length];
+            encoded.get(frame, BATCH_HEADER_BYTES, length);
+        }
+
+        long sequence = nextSequence++;
+        ByteBuffer.wrap(frame).putLong(sequence).put(flags).putInt(rawLength).putInt(length);
+        rawBytes.addAndGet(rawLength);
+        return new Batch(sequence, count, frame, BATCH_HEADER_BYTES + length);
+    }
+
+    private void write(Batch batch) throws IOException {
+        SocketChannel socket = channel;
+        if (socket == null) {
+            throw new IOException("connection closed");
+        }
+        writeFully(socket, ByteBuffer.wrap(batch.frame, 0, batch.length));
+        alertsSent.addAndGet(batch.alerts);
+        bytesSent.addAndGet(batch.length);
+    }
+
+    private void closeChannel() {
+        SocketChannel socket = channel;
+        channel = null;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing forwarding connection", e);
+            }
+        }
+        synchronized (unacked) {
+            unacked.notifyAll();
+        }
+    }
+
+    private static void writeFully(SocketChannel socket, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            socket.write(data);
+        }
+    }
+
+    private static void readFully(SocketChannel socket, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            if (socket.read(data) < 0) {
+                throw new IOException("collector closed the connection");
+            }
+        }
+    }
+
+    public boolean isConnected() {
+        return channel != null;
+    }
+
+    // Alerts accepted by onAlert but not yet acknowledged
+    public long getPendingAlerts() {
+        return pending.get();
+    }
+
+    // Including alerts sent again after a reconnect
+    public long getAlertsSent() {
+        return alertsSent.get();
+    }
+
+    public long getAlertsAcked() {
+        return alertsAcked.get();
+    }
+
+    public long getAlertsDropped() {
+        return alertsDropped.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    // Encoded bytes before compression, to compare with getBytesSent()
+    public long getRawBytes() {
+        return rawBytes.get();
+    }
+
+    public void setMetrics(MetricsRegistry metrics) {
+        metrics.gauge("forward.sent", alertsSent::get);
+        metrics.gauge("forward.acked", alertsAcked::get);
+        metrics.gauge("forward.dropped", alertsDropped::get);
+        metrics.gauge("forward.pending", this::getPendingAlerts);
+        metrics.gauge("forward.bytes", bytesSent::get);
+        metrics.gauge("forward.connected", () -> isConnected() ? 1 : 0);
+    }
+
+    /**
+     * forward.host and forward.port of the collector, forward.agent.id (default the host name),
+     * forward.buffer.alerts, .batch.alerts, .linger.ms, .window.batches, .block.ms and
+     * .compression.level.
+     */
+    public static AlertForwarder fromConfig(ThreatMonitorConfig config) {
+        String agentId = config.getString("forward.agent.id", "");
+        if (agentId.isEmpty()) {
+            try {
+                agentId = InetAddress.getLocalHost().getHostName();
+            } catch (IOException e) {
+                agentId = "agent";
+            }
+        }
+        AlertForwarder forwarder = new AlertForwarder(
+                new InetSocketAddress(config.getString("forward.host", "localhost"), config.getInt("forward.port", 6514)),
+                agentId, config.getInt("forward.buffer.alerts", 100_000));
+        forwarder.setBatchSize(config.getInt("forward.batch.alerts", 1000));
+        forwarder.setLinger(config.getLong("forward.linger.ms", 100));
+        forwarder.setWindow(config.getInt("forward.window.batches", 16));
+        forwarder.setBlockMillis(config.getLong("forward.block.ms", 1000));
+        forwarder.setCompressionLevel(config.getInt("forward.compression.level", Deflater.DEFAULT_COMPRESSION));
+        return forwarder;
+    }
+
+    private static class Batch {
+        final long sequence;
+        final int alerts;
+        final byte[] frame;
+        final int length;
+
+        Batch(long sequence, int alerts, byte[] frame, int length) {
+            this.sequence = sequence;
+            this.alerts = alerts;
+            this.frame = frame;
+            this.length = length;
+        }
+    }
+}
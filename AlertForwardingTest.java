@@ -0,0 +1,126 @@
+package com.security.threatmonitor;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+public class AlertForwardingTest {
+    private static final int AGENTS = 4;
+    private static final int ALERTS_PER_AGENT = 5000;
+
+    public static void main(String[] args) {
+        System.out.println("Testing alert forwarding over loopback...");
+        // The default handlers log every alert; keep only records that carry an exception
+        Logger.getLogger(AlertManager.class.getName()).setFilter(record -> record.getThrown() != null);
+
+        try {
+            // The collector's alert manager counts how often each message arrives
+            AlertManager collectorManager = new AlertManager(null);
+            Map<String, AtomicInteger> received = new ConcurrentHashMap<>();
+            collectorManager.addSink(alert -> received.computeIfAbsent(alert.getMessage(), m -> new AtomicInteger()).incrementAndGet());
+            collectorManager.startProcessing();
+
+            InetAddress loopback = InetAddress.getLoopbackAddress();
+            AlertCollector collector = new AlertCollector(collectorManager, new InetSocketAddress(loopback, 0));
+            collector.start();
+            System.out.println("Collector listening on " + collector.getPort());
+
+            List<AlertForwarder> forwarders = new ArrayList<>();
+            List<Thread> producers = new ArrayList<>();
+            for (int a = 0; a < AGENTS; a++) {
+                AlertForwarder forwarder = new AlertForwarder(new InetSocketAddress(loopback, collector.getPort()), "agent-" + a, 1000);
+                forwarder.setBatchSize(100);
+                forwarder.setLinger(5);
+                forwarder.setWindow(4);
+                forwarder.setBlockMillis(TimeUnit.SECONDS.toMillis(30));
+                forwarder.start();
+                forwarders.add(forwarder);
+
+                String agent = "agent-" + a;
+                Thread producer = new Thread(() -> {
+                    for (int i = 0; i < ALERTS_PER_AGENT; i++) {
+                        forwarder.onAlert(new Alert(Alert.currentEpochMicros(), agent,
+                                "Port scan from 10.0.0." + (i % 256) + " seen by " + agent + " #" + i, Alert.Severity.MEDIUM));
+                        if (i % 500 == 0) {
+                            sleep(20);
+                        }
+                    }
+                });
+                producers.add(producer);
+                producer.start();
+            }
+
+            // Restart the collector while the agents are sending; they reconnect and resend
+            sleep(100);
+            collector.stop();
+            System.out.println("Collector stopped after " + collector.getAlertsReceived() + " alerts");
+            sleep(300);
+            collector.start();
+            System.out.println("Collector restarted");
+
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            boolean drained = true;
+            long sent = 0;
+            long bytes = 0;
+            long raw = 0;
+            for (AlertForwarder forwarder : forwarders) {
+                drained &= forwarder.stop(30, TimeUnit.SECONDS);
+                sent += forwarder.getAlertsSent();
+                bytes += forwarder.getBytesSent();
+                raw += forwarder.getRawBytes();
+            }
+
+            // A connection speaking another protocol is closed without harm
+            try (Socket socket = new Socket(loopback, collector.getPort())) {
+                OutputStream out = socket.getOutputStream();
+                out.write("<34>1 - host app - - - not a forwarder\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                sleep(200);
+            }
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (collectorManager.getQueueDepth() > 0 && System.currentTimeMillis() < deadline) {
+                sleep(20);
+            }
+            collector.stop();
+            collectorManager.stopProcessing();
+
+            int duplicates = 0;
+            for (AtomicInteger count : received.values()) {
+                duplicates += count.get() - 1;
+            }
+            System.out.println("Alerts sent (with resends): " + sent);
+            System.out.println("Alerts received: " + collector.getAlertsReceived());
+            System.out.println("Distinct alerts processed: " + received.size() + ", processed twice: " + duplicates);
+            System.out.println("Duplicate batches skipped: " + collector.getDuplicateBatches());
+            System.out.println("Protocol errors: " + collector.getProtocolErrors());
+            System.out.printf("Compression: %d bytes sent for %d encoded (%.1fx)%n", bytes, raw, (double) raw / bytes);
+
+            boolean passed = drained && received.size() == AGENTS * ALERTS_PER_AGENT && duplicates == 0
+                    && collector.getProtocolErrors() == 1;
+            System.out.println(passed ? "\nAlert forwarding test passed!" : "\nAlert forwarding test FAILED");
+        } catch (Exception e) {
+            System.err.println("Error during alert forwarding test: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,32 +1,72 @@
 package com.security.threatmonitor;
 
-import javafx.application.Platform;
-import javafx.collections.ObservableList;
-import java.time.LocalDateTime;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Queues alerts and processes them: storage, sinks and per-severity handlers. Processing can
+ * be split into shards, each with its own queue and worker thread, so it scales across cores.
+ * Alerts are routed to a shard by a key (the source, by default), so alerts with the same
+ * key are still processed in the order they were queued. With a spill directory set, a shard
+ * whose queue grows too long overflows to segment files on disk and refills from them as
+ * it catches up, and alerts still queued when processing stops are kept there for the next
+ * start.
+ */
 public class AlertManager {
     private static final Logger logger = Logger.getLogger(AlertManager.class.getName());
+    // Most alerts a shard takes from its queue and stores in one transaction
+    private static final int MAX_BATCH_SIZE = 256;
+    // Spilled alerts are written and read back this many at a time
+    private static final int SPILL_BATCH_SIZE = 1024;
+    private static final long POLL_MILLIS = 100;
     
-    private final BlockingQueue<Alert> alertQueue;
+    // Shard keys; alerts with equal keys go to the same shard
+    public static final ToIntFunction<Alert> BY_SOURCE = Alert::getSourceId;
+    // The first IPv4 address in the message, or the source if there is none
+    public static final ToIntFunction<Alert> BY_ADDRESS = alert -> {
+        String message = alert.getMessage();
+        return message == null ? alert.getSourceId() : Ipv4Scanner.firstAddress(message, alert.getSourceId());
+    };
+    
+    private final Shard[] shards;
+    private volatile ToIntFunction<Alert> shardKey = BY_SOURCE;
+    private int spillHighWater;
+    private int spillLowWater;
     private final Map<Alert.Severity, List<AlertHandler>> handlers;
-    private final ObservableList<DatabaseManager.AlertEntry> alertTableData;
-    private final Runnable chartUpdater;
+    private final List<AlertSink> sinks;
     private final DatabaseManager dbManager;
+    private volatile IndicatorMatcher indicatorMatcher;
+    private volatile AlertClassifier classifier;
+    private volatile AlertSketches sketches;
+    private volatile Metrics metrics;
+    private volatile AlertTracer tracer;
     private ExecutorService processingService;
     private final AtomicBoolean isRunning;
     
-    public AlertManager(ObservableList<DatabaseManager.AlertEntry> alertTableData,
-                         Runnable chartUpdater, DatabaseManager dbManager) {
-        this.alertQueue = new LinkedBlockingQueue<>();
+    public AlertManager(DatabaseManager dbManager) {
+        this(dbManager, 1);
+    }
+    
+    public AlertManager(DatabaseManager dbManager, int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("At least one shard is needed, not " + shardCount);
+        }
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard();
+        }
         this.handlers = new EnumMap<>(Alert.Severity.class);
+        this.sinks = new CopyOnWriteArrayList<>();
         this.isRunning = new AtomicBoolean(false);
-        this.alertTableData = alertTableData;
-        this.chartUpdater = chartUpdater;
         this.dbManager = dbManager;
 
         // Initialize handlers for each severity level
@@ -48,6 +88,102 @@ public class AlertManager {
         handlers.get(severity).add(handler);
     }
     
+    public void setClassifier(AlertClassifier classifier) {
+        this.classifier = classifier;
+    }
+    
+    public void setIndicatorMatcher(IndicatorMatcher indicatorMatcher) {
+        this.indicatorMatcher = indicatorMatcher;
+    }
+    
+    // Also receives the numeric fields of classified events; add it as a sink for the alerts
+    public void setSketches(AlertSketches sketches) {
+        this.sketches = sketches;
+    }
+    
+    // Set before processing starts; changing the key while alerts are queued breaks their order
+    public void setShardKey(ToIntFunction<Alert> shardKey) {
+        this.shardKey = shardKey;
+    }
+    
+    // Sinks are called from every shard's worker, so they must be thread-safe
+    public void addSink(AlertSink sink) {
+        sinks.add(sink);
+        Metrics current = metrics;
+        if (current != null) {
+            current.addSink(sink);
+        }
+    }
+    
+    public void removeSink(AlertSink sink) {
+        sinks.remove(sink);
+    }
+    
+    // Metrics created once here so that recording them per alert does not allocate
+    private static final class Metrics {
+        final MetricsRegistry registry;
+        final MetricsRegistry.Counter queued;
+        final MetricsRegistry.Counter processed;
+        final MetricsRegistry.Counter failed;
+        final LatencyHistogram enqueueToPersist;
+        final LatencyHistogram persist;
+        final Map<Alert.Severity, LatencyHistogram> handlerTimes = new EnumMap<>(Alert.Severity.class);
+        final Map<AlertSink, LatencyHistogram> sinkTimes = new ConcurrentHashMap<>();
+
+        Metrics(MetricsRegistry registry) {
+            this.registry = registry;
+            queued = registry.counter("alerts.queued");
+            processed = registry.counter("alerts.processed");
+            failed = registry.counter("alerts.failed");
+            enqueueToPersist = registry.histogram("alerts.enqueueToPersist");
+            persist = registry.histogram("alerts.persist");
+            for (Alert.Severity severity : Alert.Severity.values()) {
+                handlerTimes.put(severity, registry.histogram("alerts.handlers." + severity));
+            }
+        }
+
+        // Sinks are named after their class; lambdas (such as the dashboard's) by position
+        void addSink(AlertSink sink) {
+            Class<?> type = sink.getClass();
+            String name = type.isSynthetic() || type.isAnonymousClass()
+                    ? "sink" + sinkTimes.size() : type.getSimpleName();
+            sinkTimes.put(sink, registry.histogram("alerts.sinks." + name));
+        }
+    }
+    
+    // Reports queue, processing, storage, sink and handler metrics into the registry
+    public void setMetrics(MetricsRegistry registry) {
+        Metrics created = new Metrics(registry);
+        for (AlertSink sink : sinks) {
+            created.addSink(sink);
+        }
+        registry.gauge("alerts.queue.depth", this::getQueueDepth);
+        if (shards.length > 1) {
+            for (int i = 0; i < shards.length; i++) {
+                Shard shard = shards[i];
+                registry.gauge("alerts.shard." + i + ".depth", shard.queue::size);
+            }
+        }
+        registry.gauge("alerts.spilled", this::getSpilledCount);
+        metrics = created;
+    }
+    
+    // Null unless setMetrics() was called; monitors report into the same registry
+    public MetricsRegistry getMetrics() {
+        Metrics current = metrics;
+        return current == null ? null : current.registry;
+    }
+    
+    // Traces every alert queued from now on through the pipeline stages
+    public void setTracer(AlertTracer tracer) {
+        this.tracer = tracer;
+    }
+    
+    // Null unless setTracer() was called; the dashboard marks alerts as rendered through it
+    public AlertTracer getTracer() {
+        return tracer;
+    }
+    
     private void registerDefaultHandlers() {
         // Register default handlers for each severity level
         registerHandler(Alert.Severity.LOW, alert -> 
@@ -69,57 +205,337 @@ public class AlertManager {
     
     public void queueAlert(Alert alert) {
         try {
-            alertQueue.put(alert);
+            markQueued(alert);
+            enqueue(alert);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             logger.log(Level.WARNING, "Interrupted while queuing alert", e);
         }
     }
     
+    public void queueAlerts(Collection<Alert> alerts) {
+        try {
+            for (Alert alert : alerts) {
+                markQueued(alert);
+                enqueue(alert);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.log(Level.WARNING, "Interrupted while queuing alert batch", e);
+        }
+    }
+    
+    /**
+     * Spills alerts to segment files in a directory per shard while a shard has more than
+     * highWater alerts queued in memory, and reads them back once it is down to lowWater.
+     * Alerts spilled by an earlier run are replayed first. Call before startProcessing().
+     */
+    public void setSpill(Path directory, int highWater, int lowWater, long segmentBytes) throws IOException {
+        if (lowWater > highWater) {
+            throw new IllegalArgumentException("Low water mark must not exceed high water mark");
+        }
+        spillHighWater = highWater;
+        spillLowWater = lowWater;
+        for (int i = 0; i < shards.length; i++) {
+            shards[i].spill = new AlertSpillQueue(directory.resolve("shard-" + i), segmentBytes);
+            shards[i].spilling = shards[i].spill.size() > 0;
+        }
+        
+        // Alerts spilled by a run with more shards are queued again for the current ones
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(directory, "shard-*")) {
+            for (Path dir : dirs) {
+                String index = dir.getFileName().toString().substring("shard-".length());
+                if (!index.matches("\\d+") || Integer.parseInt(index) < shards.length) {
+                    continue;
+                }
+                try (AlertSpillQueue orphan = new AlertSpillQueue(dir, segmentBytes)) {
+                    List<Alert> alerts = new ArrayList<>();
+                    while (orphan.poll(alerts, SPILL_BATCH_SIZE) > 0) {
+                        queueAlerts(alerts);
+                        alerts.clear();
+                    }
+                }
+                Files.deleteIfExists(dir.resolve("read.offset"));
+                Files.deleteIfExists(dir);
+            }
+        }
+    }
+    
+    // Alerts spilled to disk across all shards
+    public long getSpilledCount() {
+        long spilled = 0;
+        for (Shard shard : shards) {
+            if (shard.spill != null) {
+                spilled += shard.spill.size();
+            }
+        }
+        return spilled;
+    }
+    
+    // Behind the spilled alerts if the shard is spilling, so the shard's queue order holds
+    private void enqueue(Alert alert) throws InterruptedException {
+        Shard shard = shardFor(alert);
+        if (shard.spill == null || (!shard.spilling && shard.queue.size() < spillHighWater)) {
+            shard.queue.put(alert);
+            return;
+        }
+        synchronized (shard) {
+            if (!shard.spilling && shard.queue.size() < spillHighWater) {
+                shard.queue.put(alert);
+                return;
+            }
+            if (!shard.spilling) {
+                logger.warning("Alert queue depth " + shard.queue.size() + " reached the spill mark, spilling alerts to disk");
+            }
+            shard.spilling = true;
+            shard.spillBuffer.add(alert);
+            if (shard.spillBuffer.size() >= SPILL_BATCH_SIZE) {
+                writeSpill(shard);
+            }
+        }
+    }
+    
+    // Keeps the alerts in memory if the disk write fails; they are written with the next batch
+    private void writeSpill(Shard shard) {
+        try {
+            shard.spill.append(shard.spillBuffer);
+            shard.spillBuffer.clear();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error spilling " + shard.spillBuffer.size() + " alerts to disk", e);
+        }
+    }
+    
+    // Moves spilled alerts back into the queue; once the disk is empty the shard stops spilling
+    private void refill(Shard shard) {
+        List<Alert> alerts = new ArrayList<>(SPILL_BATCH_SIZE);
+        try {
+            // Only this shard's worker reads, so the read needs no shard lock
+            shard.spill.poll(alerts, SPILL_BATCH_SIZE);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error reading spilled alerts", e);
+        }
+        shard.queue.addAll(alerts);
+        if (shard.spill.size() == 0) {
+            synchronized (shard) {
+                if (shard.spill.size() == 0) {
+                    shard.queue.addAll(shard.spillBuffer);
+                    shard.spillBuffer.clear();
+                    shard.spilling = false;
+                    logger.info("Spilled alerts drained, alert queue back in memory");
+                }
+            }
+        }
+    }
+    
+    private Shard shardFor(Alert alert) {
+        if (shards.length == 1) {
+            return shards[0];
+        }
+        int hash = shardKey.applyAsInt(alert) * 0x9E3779B9;
+        return shards[Math.floorMod(hash ^ (hash >>> 16), shards.length)];
+    }
+    
+    private void markQueued(Alert alert) {
+        alert.queuedNanos = System.nanoTime();
+        Metrics current = metrics;
+        if (current != null) {
+            current.queued.increment();
+        }
+        AlertTracer currentTracer = tracer;
+        if (currentTracer != null) {
+            currentTracer.start(alert);
+        }
+    }
+    
+    // Classifies a raw event and queues the resulting alert; returns null if a rule dropped it
+    public Alert queueEvent(SecurityEvent event) {
+        Alert alert = classifyEvent(event);
+        if (alert != null) {
+            queueAlert(alert);
+        }
+        return alert;
+    }
+    
+    // Classifies a raw event without queueing it, for callers that decide what to queue
+    public Alert classifyEvent(SecurityEvent event) {
+        AlertClassifier eventClassifier = classifier;
+        Alert alert = eventClassifier != null
+                ? eventClassifier.classify(event)
+                : event.toAlert(event.getDefaultSeverity());
+        if (alert != null) {
+            AlertSketches eventSketches = sketches;
+            if (eventSketches != null) {
+                eventSketches.recordEvent(event);
+            }
+        }
+        return alert;
+    }
+    
+    // Alerts queued across all shards
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Shard shard : shards) {
+            depth += shard.queue.size();
+        }
+        return depth;
+    }
+    
+    /**
+     * Milliseconds the oldest alert in the memory queues has been waiting, or 0 when they
+     * are empty. Alerts read back from the spill have lost their queue time, so their own
+     * timestamp is used instead.
+     */
+    public long getOldestQueuedMillis() {
+        long oldest = 0;
+        for (Shard shard : shards) {
+            Alert head = shard.queue.peek();
+            if (head != null) {
+                long age = head.queuedNanos != 0
+                        ? (System.nanoTime() - head.queuedNanos) / 1_000_000
+                        : (Alert.currentEpochMicros() - head.getEpochMicros()) / 1000;
+                oldest = Math.max(oldest, age);
+            }
+        }
+        return oldest;
+    }
+    
+    public int getShardCount() {
+        return shards.length;
+    }
+    
+    public int[] getShardQueueDepths() {
+        int[] depths = new int[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            depths[i] = shards[i].queue.size();
+        }
+        return depths;
+    }
+    
     public void startProcessing() {
         if (isRunning.get()) {
             return;
         }
         
         isRunning.set(true);
-        processingService = Executors.newSingleThreadExecutor();
-        
-        processingService.submit(() -> {
-            logger.info("Alert processing started");
-            
-            while (isRunning.get()) {
-                try {
-                    Alert alert = alertQueue.take();
-                    processAlert(alert);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    logger.log(Level.WARNING, "Alert processing interrupted", e);
-                    break;
-                } catch (Exception e) {
-                    logger.log(Level.SEVERE, "Error processing alert", e);
+        AtomicInteger threads = new AtomicInteger();
+        processingService = Executors.newFixedThreadPool(shards.length, r ->
+                new Thread(r, shards.length == 1 ? "alert-processor" : "alert-shard-" + threads.getAndIncrement()));
+        
+        for (Shard shard : shards) {
+            processingService.submit(() -> runShard(shard));
+        }
+    }
+    
+    // Takes whatever is queued, up to a batch, so that a busy shard stores alerts in batches
+    private void runShard(Shard shard) {
+        logger.info("Alert processing started");
+        List<Alert> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        
+        // Without a spill the queue is processed to the end before the worker stops
+        while (isRunning.get() || (shard.spill == null && !shard.queue.isEmpty())) {
+            try {
+                if (shard.spilling && shard.queue.size() <= spillLowWater) {
+                    refill(shard);
+                }
+                Alert first = shard.queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
                 }
+                batch.add(first);
+                shard.queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                for (Alert alert : batch) {
+                    mark(alert, AlertTracer.Stage.DEQUEUED);
+                }
+                processBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.log(Level.WARNING, "Alert processing interrupted", e);
+                break;
+            } finally {
+                batch.clear();
             }
-            
-            logger.info("Alert processing stopped");
-        });
+        }
+        
+        logger.info("Alert processing stopped");
+    }
+    
+    private void processBatch(List<Alert> batch) {
+        Metrics current = metrics;
+        boolean stored = false;
+        if (dbManager != null && batch.size() > 1) {
+            long start = System.nanoTime();
+            try {
+                stored = dbManager.storeAlerts(batch);
+            } catch (RuntimeException e) {
+                // Stored one at a time below, so only the bad alert fails
+                logger.log(Level.FINE, "Batch store failed, storing alerts one at a time", e);
+            }
+            if (stored && current != null) {
+                // One sample per batch
+                current.persist.recordSince(start);
+                for (Alert alert : batch) {
+                    if (alert.queuedNanos != 0) {
+                        current.enqueueToPersist.recordSince(alert.queuedNanos);
+                    }
+                }
+            }
+        }
+        
+        for (Alert alert : batch) {
+            try {
+                processAlert(alert, !stored);
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Error processing alert", e);
+                if (current != null) {
+                    current.failed.increment();
+                }
+            }
+        }
     }
     
-    private void processAlert(Alert alert) {
-        // Store alert in database
-        if (dbManager != null) {
+    private void processAlert(Alert alert, boolean store) {
+        // Check the alert text against threat intelligence; matches raise their own alert
+        IndicatorMatcher matcher = indicatorMatcher;
+        if (matcher != null && !IndicatorMatcher.SOURCE.equals(alert.getSource())) {
+            List<IndicatorMatcher.IndicatorMatch> matches = matcher.match(alert.getMessage());
+            if (!matches.isEmpty()) {
+                queueAlert(matcher.toAlert(alert, matches));
+            }
+        }
+        
+        Metrics current = metrics;
+        
+        // Store alert in database, unless it was stored with its batch
+        if (store && dbManager != null) {
+            long start = System.nanoTime();
             dbManager.storeAlert(alert);
+            if (current != null) {
+                current.persist.recordSince(start);
+                if (alert.queuedNanos != 0) {
+                    current.enqueueToPersist.recordSince(alert.queuedNanos);
+                }
+            }
         }
+        mark(alert, AlertTracer.Stage.PERSISTED);
         
-        // Update UI with the new alert
-        Platform.runLater(() -> {
-            alertTableData.add(0, new DatabaseManager.AlertEntry(
-                alert.getTimestamp(), alert.getSource(), alert.getMessage(), alert.getSeverity()));
-            
-            // Update chart data
-            chartUpdater.run();
-        });
+        // Notify subscribers (the dashboard, when one is attached)
+        for (AlertSink sink : sinks) {
+            long start = System.nanoTime();
+            try {
+                sink.onAlert(alert);
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Error in alert sink: " + e.getMessage(), e);
+            }
+            if (current != null) {
+                LatencyHistogram sinkTime = current.sinkTimes.get(sink);
+                if (sinkTime != null) {
+                    sinkTime.recordSince(start);
+                }
+            }
+        }
         
         // Process through all handlers
+        long handlersStart = System.nanoTime();
         List<AlertHandler> handlersForSeverity = handlers.get(alert.getSeverity());
         for (AlertHandler handler : handlersForSeverity) {
             try {
@@ -128,8 +544,24 @@ public class AlertManager {
                 logger.log(Level.SEVERE, "Error in alert handler: " + e.getMessage(), e);
             }
         }
+        if (current != null) {
+            current.handlerTimes.get(alert.getSeverity()).recordSince(handlersStart);
+            current.processed.increment();
+        }
+        mark(alert, AlertTracer.Stage.HANDLED);
+    }
+    
+    private void mark(Alert alert, AlertTracer.Stage stage) {
+        AlertTracer currentTracer = tracer;
+        if (currentTracer != null) {
+            currentTracer.mark(alert, stage);
+        }
     }
     
+    /**
+     * Stops the workers after their current batch. Queued alerts are written to the spill
+     * for the next start; without one, the workers first process them, for up to 5 seconds.
+     */
     public void stopProcessing() {
         if (!isRunning.get()) {
             return;
@@ -148,5 +580,52 @@ public class AlertManager {
                 Thread.currentThread().interrupt();
             }
         }
+        
+        long kept = 0;
+        long lost = 0;
+        for (Shard shard : shards) {
+            if (shard.spill == null) {
+                lost += shard.queue.size();
+            } else {
+                kept += spillQueued(shard);
+            }
+        }
+        if (kept > 0) {
+            logger.info(kept + " queued alerts kept on disk for the next start");
+        }
+        if (lost > 0) {
+            logger.warning(lost + " queued alerts were not processed before stopping");
+        }
+    }
+    
+    // Writes the shard's queue to disk ahead of what is already there; returns the alerts on disk
+    private long spillQueued(Shard shard) {
+        synchronized (shard) {
+            List<Alert> queued = new ArrayList<>();
+            shard.queue.drainTo(queued);
+            try {
+                shard.spill.prepend(queued);
+                queued.clear();
+                shard.spill.append(shard.spillBuffer);
+                shard.spillBuffer.clear();
+                shard.spill.checkpoint();
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Error spilling queued alerts at shutdown", e);
+                shard.queue.addAll(queued);
+            }
+            shard.spilling = shard.spill.size() > 0 || !shard.spillBuffer.isEmpty();
+            return shard.spill.size();
+        }
+    }
+    
+    // One partition of the alerts; only its own worker takes from the queue
+    private static final class Shard {
+        final BlockingQueue<Alert> queue = new LinkedBlockingQueue<>();
+        // Null unless spilling is configured
+        AlertSpillQueue spill;
+        // While set, new alerts go behind the spilled ones: into the buffer, then to disk
+        volatile boolean spilling;
+        // Guarded by the shard
+        final List<Alert> spillBuffer = new ArrayList<>();
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,204 @@
+package com.security.threatmonitor;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * A filtered, paged query over stored alerts, newest first. Each predicate becomes a
+ * parameterized condition; severity, source and time ranges can use the alerts indexes.
+ * The message prefix is a range comparison rather than LIKE, so it stays case-sensitive and
+ * needs no escaping of % and _; there is no index on message, so it only narrows the rows
+ * the other conditions select. Pages are keyset-paginated, so
+ * fetching page n does not re-read the n - 1 pages before it.
+ *
+ * <pre>
+ *   AlertQuery.Page page = dbManager.findAlerts(new AlertQuery()
+ *           .severities(Alert.Severity.HIGH, Alert.Severity.CRITICAL)
+ *           .sources("Network Monitor").messagePrefix("Port scan").limit(100));
+ *   page = dbManager.findAlerts(page.getNextQuery());
+ * </pre>
+ */
+public class AlertQuery {
+    private final EnumSet<Alert.Severity> severities = EnumSet.noneOf(Alert.Severity.class);
+    private final List<String> sources = new ArrayList<>();
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private String messagePrefix;
+    private int limit = 100;
+    // Position after the last row of the previous page
+    private Timestamp afterTimestamp;
+    private long afterId;
+
+    public AlertQuery severities(Alert.Severity... values) {
+        severities.addAll(Arrays.asList(values));
+        return this;
+    }
+
+    public AlertQuery severities(Collection<Alert.Severity> values) {
+        severities.addAll(values);
+        return this;
+    }
+
+    public AlertQuery sources(String... values) {
+        sources.addAll(Arrays.asList(values));
+        return this;
+    }
+
+    // Inclusive start, exclusive end; either may be null
+    public AlertQuery between(LocalDateTime from, LocalDateTime to) {
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    public AlertQuery messagePrefix(String prefix) {
+        this.messagePrefix = prefix == null || prefix.isEmpty() ? null : prefix;
+        return this;
+    }
+
+    public AlertQuery limit(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page size " + pageSize);
+        }
+        this.limit = pageSize;
+        return this;
+    }
+
+    // The same filters, continuing after the given row
+    AlertQuery after(Timestamp timestamp, long id) {
+        AlertQuery next = new AlertQuery();
+        next.severities.addAll(severities);
+        next.sources.addAll(sources);
+        next.from = from;
+        next.to = to;
+        next.messagePrefix = messagePrefix;
+        next.limit = limit;
+        next.afterTimestamp = timestamp;
+        next.afterId = id;
+        return next;
+    }
+
+    // Builds the SQL for one page (one row more than the limit, to detect a next page)
+    String toSql(List<Object> parameters) {
+        StringBuilder sql = new StringBuilder(
+                "SELECT id, timestamp, source, message, severity FROM alerts WHERE 1 = 1");
+
+        if (!severities.isEmpty()) {
+            sql.append(" AND severity IN (").append(placeholders(severities.size())).append(")");
+            for (Alert.Severity severity : severities) {
+                parameters.add(severity.toString());
+            }
+        }
+        if (!sources.isEmpty()) {
+            sql.append(" AND source IN (").append(placeholders(sources.size())).append(")");
+            parameters.addAll(sources);
+        }
+        if (from != null) {
+            sql.append(" AND timestamp >= ?");
+            parameters.add(Timestamp.valueOf(from));
+        }
+        if (to != null) {
+            sql.append(" AND timestamp < ?");
+            parameters.add(Timestamp.valueOf(to));
+        }
+        if (messagePrefix != null) {
+            // Every string with the prefix sorts between the prefix and its successor
+            sql.append(" AND message >= ?");
+            parameters.add(messagePrefix);
+            String upperBound = prefixUpperBound(messagePrefix);
+            if (upperBound != null) {
+                sql.append(" AND message < ?");
+                parameters.add(upperBound);
+            }
+        }
+        if (afterTimestamp != null) {
+            sql.append(" AND (timestamp < ? OR (timestamp = ? AND id < ?))");
+            parameters.add(afterTimestamp);
+            parameters.add(afterTimestamp);
+            parameters.add(afterId);
+        }
+
+        sql.append(" ORDER BY timestamp DESC, id DESC LIMIT ?");
+        parameters.add(limit + 1);
+        return sql.toString();
+    }
+
+    // The least string above every string with the prefix, or null if there is none
+    private static String prefixUpperBound(String prefix) {
+        // A trailing '\uFFFF' cannot be incremented, so the bound moves to the char before it
+        int last = prefix.length() - 1;
+        while (last >= 0 && prefix.charAt(last) == Character.MAX_VALUE) {
+            last--;
+        }
+        if (last < 0) {
+            return null;
+        }
+        return prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(i == 0 ? "?" : ", ?");
+        }
+        return builder.toString();
+    }
+
+    // True if a newly processed alert belongs in this query's results
+    public boolean matches(Alert alert) {
+        return (severities.isEmpty() || severities.contains(alert.getSeverity()))
+                && (sources.isEmpty() || sources.contains(alert.getSource()))
+                && (from == null || !alert.getTimestamp().isBefore(from))
+                && (to == null || alert.getTimestamp().isBefore(to))
+                && (messagePrefix == null || (alert.getMessage() != null && alert.getMessage().startsWith(messagePrefix)));
+    }
+
+    public Set<Alert.Severity> getSeverities() {
+        return Collections.unmodifiableSet(severities);
+    }
+
+    public List<String> getSources() {
+        return Collections.unmodifiableList(sources);
+    }
+
+    public LocalDateTime getFrom() {
+        return from;
+    }
+
+    public LocalDateTime getTo() {
+        return to;
+    }
+
+    public String getMessagePrefix() {
+        return messagePrefix;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    // One page of results and the query for the next page, if there is one
+    public static class Page {
+        private final List<Alert> alerts;
+        private final AlertQuery nextQuery;
+
+        Page(List<Alert> alerts, AlertQuery nextQuery) {
+            this.alerts = alerts;
+            this.nextQuery = nextQuery;
+        }
+
+        public List<Alert> getAlerts() {
+            return alerts;
+        }
+
+        public boolean hasMore() {
+            return nextQuery != null;
+        }
+
+        // Null on the last page
+        public AlertQuery getNextQuery() {
+            return nextQuery;
+        }
+    }
+}
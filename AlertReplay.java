@@ -0,0 +1,355 @@
+package com.security.threatmonitor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Replays stored, archived or synthetic alerts through a fresh AlertManager and
+ * DatabaseManager pipeline to reproduce incident load. Alerts are injected with
+ * {@link AlertManager#queueAlert(Alert)} at their original pace, N times faster or as fast
+ * as possible, and the run reports throughput, queue depth over time and end-to-end
+ * latency percentiles (queueAlert to the last sink). Runs are headless; synthetic runs
+ * with the same seed inject the same alerts.
+ *
+ * Usage: AlertReplay [options]
+ * <pre>
+ *   --source db:FILE | archive:DIR | synthetic   (default synthetic)
+ *   --from TIME --to TIME      range to replay from a database or archive (ISO local time)
+ *   --speed realtime | Nx | max                  (default max)
+ *   --rate N --duration SECONDS --seed N         synthetic profile (default 1000/s for 10 s)
+ *   --target FILE              scratch database, recreated for each run (default replay.db)
+ *   --depth-csv FILE           queue depth samples, one line per 100 ms
+ *   --drain-timeout SECONDS    wait for the queue to empty after injecting (default 60)
+ *   --verbose                  keep the per-alert log output of the default handlers
+ * </pre>
+ */
+public class AlertReplay {
+    private static final Logger logger = Logger.getLogger(AlertReplay.class.getName());
+    private static final long DEPTH_SAMPLE_MILLIS = 100;
+    private static final String[] SYNTHETIC_SOURCES = {
+            "Network Monitor", "Login Monitor", "File System Monitor", "System Resource Monitor", "Syslog"
+    };
+    // Synthetic severity mix, LOW to CRITICAL
+    private static final double[] SYNTHETIC_SEVERITY_WEIGHTS = {0.55, 0.30, 0.12, 0.03};
+
+    private final AlertManager alertManager;
+    // Injection time of each alert still in the pipeline, by identity
+    private final Map<Alert, Long> inFlight = new ConcurrentHashMap<>();
+    private final TDigest latencies = new TDigest(100);
+    private final AtomicLong injected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final List<long[]> depthSamples = new ArrayList<>();
+    private double speed = 0; // 0 = as fast as possible
+
+    public AlertReplay(AlertManager alertManager) {
+        this.alertManager = alertManager;
+        // Registered last, so the latency covers storage and every other sink
+        alertManager.addSink(alert -> {
+            Long start = inFlight.remove(alert);
+            if (start != null) {
+                long nanos = System.nanoTime() - start;
+                synchronized (latencies) {
+                    latencies.add(nanos / 1000.0);
+                }
+                completed.incrementAndGet();
+            }
+        });
+    }
+
+    // Speed-up relative to the original pace; 1 is real time, 0 is as fast as possible
+    public void setSpeed(double speed) {
+        if (speed < 0) {
+            throw new IllegalArgumentException("Invalid replay speed " + speed);
+        }
+        this.speed = speed;
+    }
+
+    /**
+     * Injects the alerts the source produces, oldest first, pacing them by the gaps between
+     * their original timestamps. Replayed alerts are stamped with the injection time.
+     */
+    public void replay(Consumer<Consumer<Alert>> source) {
+        long startNanos = System.nanoTime();
+        long[] firstMillis = {Long.MIN_VALUE};
+
+        source.accept(entry -> {
+            long millis = toMillis(entry.getTimestamp());
+            if (firstMillis[0] == Long.MIN_VALUE) {
+                firstMillis[0] = millis;
+            }
+            if (speed > 0) {
+                long due = startNanos + (long) ((millis - firstMillis[0]) * 1_000_000L / speed);
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+
+            Alert alert = new Alert(Alert.currentEpochMicros(), entry.getSource(), entry.getMessage(), entry.getSeverity());
+            inFlight.put(alert, System.nanoTime());
+            injected.incrementAndGet();
+            alertManager.queueAlert(alert);
+        });
+    }
+
+    // Waits until every injected alert has passed through the pipeline; false on timeout
+    public boolean drain(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (completed.get() < injected.get()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    // Records the queue depth every 100 ms until the returned scheduler is shut down
+    public ScheduledExecutorService sampleQueueDepth() {
+        long startNanos = System.nanoTime();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replay-depth-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(() -> {
+            synchronized (depthSamples) {
+                depthSamples.add(new long[] {
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), alertManager.getQueueDepth()
+                });
+            }
+        }, 0, DEPTH_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+        return sampler;
+    }
+
+    // Alerts read from a database between from and to
+    public static Consumer<Consumer<Alert>> databaseSource(DatabaseManager source,
+            LocalDateTime from, LocalDateTime to) {
+        return consumer -> {
+            if (!source.forEachAlertBetween(from, to, Long.MAX_VALUE, consumer)) {
+                logger.warning("Replay source query failed; the replay is incomplete");
+            }
+        };
+    }
+
+    // Alerts read from archive segments between from and to
+    public static Consumer<Consumer<Alert>> archiveSource(AlertArchive archive,
+            LocalDateTime from, LocalDateTime to) {
+        return consumer -> {
+            try {
+                archive.scan(from, to, EnumSet.allOf(ArchiveSegment.Column.class), consumer);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error reading archive; the replay is incomplete", e);
+            }
+        };
+    }
+
+    /**
+     * A synthetic profile: Poisson arrivals at ratePerSecond for the given duration, with a
+     * fixed severity mix and a few recurring sources and addresses. The same seed always
+     * produces the same alerts.
+     */
+    public static Consumer<Consumer<Alert>> syntheticSource(double ratePerSecond,
+            Duration duration, long seed) {
+        return consumer -> {
+            Random random = new Random(seed);
+            LocalDateTime start = LocalDateTime.of(2026, 1, 1, 0, 0);
+            double endSeconds = duration.toMillis() / 1000.0;
+            double seconds = 0;
+            while ((seconds += -Math.log(1 - random.nextDouble()) / ratePerSecond) < endSeconds) {
+                String source = SYNTHETIC_SOURCES[random.nextInt(SYNTHETIC_SOURCES.length)];
+                String address = "10.0." + random.nextInt(16) + "." + random.nextInt(256);
+                consumer.accept(new Alert(
+                        start.plusNanos((long) (seconds * 1e9)), source,
+                        "Suspicious activity from " + address + " (event " + random.nextInt(100000) + ")",
+                        syntheticSeverity(random)));
+            }
+        };
+    }
+
+    private static Alert.Severity syntheticSeverity(Random random) {
+        double r = random.nextDouble();
+        Alert.Severity[] severities = Alert.Severity.values();
+        for (int i = 0; i < severities.length - 1; i++) {
+            r -= SYNTHETIC_SEVERITY_WEIGHTS[i];
+            if (r < 0) {
+                return severities[i];
+            }
+        }
+        return severities[severities.length - 1];
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    public long getInjected() {
+        return injected.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    // End-to-end latency in microseconds at quantile q
+    public double getLatencyMicros(double q) {
+        synchronized (latencies) {
+            return latencies.quantile(q);
+        }
+    }
+
+    public List<long[]> getDepthSamples() {
+        synchronized (depthSamples) {
+            return new ArrayList<>(depthSamples);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        if (options == null) {
+            System.err.println("Usage: AlertReplay [--source db:FILE|archive:DIR|synthetic] [--from TIME] [--to TIME]"
+                    + " [--speed realtime|Nx|max] [--rate N] [--duration SECONDS] [--seed N] [--target FILE]"
+                    + " [--depth-csv FILE] [--drain-timeout SECONDS] [--verbose]");
+            System.exit(2);
+            return;
+        }
+        if (!options.containsKey("verbose")) {
+            // The default handlers log every alert, which would dominate a fast replay; keep
+            // only records that carry an exception
+            Logger.getLogger(AlertManager.class.getName()).setFilter(record -> record.getThrown() != null);
+        }
+
+        Path target = Paths.get(options.getOrDefault("target", "replay.db"));
+        String sourceSpec = options.getOrDefault("source", "synthetic");
+        if (sourceSpec.startsWith("db:") && Paths.get(sourceSpec.substring(3)).toAbsolutePath().equals(target.toAbsolutePath())) {
+            System.err.println("The replay target must not be the source database");
+            System.exit(2);
+            return;
+        }
+        Files.deleteIfExists(target);
+
+        // The same pipeline as ThreatMonitorCore, on a scratch database
+        DatabaseManager dbManager = new DatabaseManager("jdbc:sqlite:" + target, "", "");
+        dbManager.initialize();
+        dbManager.enableRecentCache(5000, Duration.ZERO);
+        AlertManager alertManager = new AlertManager(dbManager);
+        AlertRollups rollups = new AlertRollups(dbManager, Duration.ofDays(2), Duration.ofDays(90));
+        alertManager.addSink(rollups);
+        alertManager.addSink(new AlertTotals());
+        alertManager.addSink(new AlertSketches(Duration.ofMinutes(1), 60));
+        AlertReplay replay = new AlertReplay(alertManager);
+
+        String speedSpec = options.getOrDefault("speed", "max");
+        if (speedSpec.equals("realtime")) {
+            replay.setSpeed(1);
+        } else if (!speedSpec.equals("max")) {
+            replay.setSpeed(Double.parseDouble(speedSpec.endsWith("x")
+                    ? speedSpec.substring(0, speedSpec.length() - 1) : speedSpec));
+        }
+
+        LocalDateTime from = options.containsKey("from") ? LocalDateTime.parse(options.get("from")) : LocalDateTime.of(1970, 1, 1, 0, 0);
+        LocalDateTime to = options.containsKey("to") ? LocalDateTime.parse(options.get("to")) : LocalDateTime.now().plusDays(1);
+        DatabaseManager sourceDb = null;
+        Consumer<Consumer<Alert>> source;
+        if (sourceSpec.startsWith("db:")) {
+            sourceDb = new DatabaseManager("jdbc:sqlite:" + sourceSpec.substring(3), "", "");
+            sourceDb.initialize();
+            source = databaseSource(sourceDb, from, to);
+        } else if (sourceSpec.startsWith("archive:")) {
+            source = archiveSource(new AlertArchive(Paths.get(sourceSpec.substring(8))), from, to);
+        } else {
+            source = syntheticSource(Double.parseDouble(options.getOrDefault("rate", "1000")),
+                    Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "10"))),
+                    Long.parseLong(options.getOrDefault("seed", "1")));
+        }
+
+        alertManager.startProcessing();
+        ScheduledExecutorService sampler = replay.sampleQueueDepth();
+        long startNanos = System.nanoTime();
+        replay.replay(source);
+        long injectNanos = System.nanoTime() - startNanos;
+        boolean drained = replay.drain(Duration.ofSeconds(Long.parseLong(options.getOrDefault("drain-timeout", "60"))));
+        long totalNanos = System.nanoTime() - startNanos;
+        sampler.shutdownNow();
+
+        alertManager.stopProcessing();
+        rollups.flush();
+        if (sourceDb != null) {
+            sourceDb.close();
+        }
+        dbManager.close();
+
+        printReport(replay, injectNanos, totalNanos, drained);
+        if (options.containsKey("depth-csv")) {
+            writeDepthCsv(replay.getDepthSamples(), Paths.get(options.get("depth-csv")));
+        }
+        System.exit(drained ? 0 : 1);
+    }
+
+    private static void printReport(AlertReplay replay, long injectNanos, long totalNanos, boolean drained) {
+        double totalSeconds = totalNanos / 1e9;
+        long maxDepth = 0;
+        for (long[] sample : replay.getDepthSamples()) {
+            maxDepth = Math.max(maxDepth, sample[1]);
+        }
+
+        System.out.println("Replay " + (drained ? "complete" : "INCOMPLETE (drain timed out)"));
+        System.out.printf("  injected     %d alerts in %.2f s (%.0f/s)%n",
+                replay.getInjected(), injectNanos / 1e9, replay.getInjected() / Math.max(injectNanos / 1e9, 1e-9));
+        System.out.printf("  processed    %d alerts in %.2f s (%.0f/s end to end)%n",
+                replay.getCompleted(), totalSeconds, replay.getCompleted() / Math.max(totalSeconds, 1e-9));
+        System.out.printf("  queue depth  max %d%n", maxDepth);
+        System.out.printf("  latency      p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                replay.getLatencyMicros(0.5) / 1000, replay.getLatencyMicros(0.95) / 1000,
+                replay.getLatencyMicros(0.99) / 1000, replay.getLatencyMicros(1) / 1000);
+    }
+
+    private static void writeDepthCsv(List<long[]> samples, Path file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file))) {
+            writer.println("elapsed_ms,queue_depth");
+            for (long[] sample : samples) {
+                writer.println(sample[0] + "," + sample[1]);
+            }
+        }
+    }
+
+    // --name value pairs and bare --flags; null if the arguments are malformed
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                return null;
+            }
+            String name = args[i].substring(2);
+            if (name.equals("verbose")) {
+                options.put(name, "");
+            } else if (i + 1 < args.length) {
+                options.put(name, args[++i]);
+            } else {
+                return null;
+            }
+        }
+        return options;
+    }
+}
@@ -0,0 +1,320 @@
+package com.security.threatmonitor;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Deletes expired alerts in small chunks so ingestion never waits long for the database.
+ * Retention can differ per severity and per source, so alerts are expired one group with a
+ * common retention at a time: a severity, for one source with its own retention or for all
+ * the other sources. Each group is read oldest first through the timestamp indexes, only up
+ * to its expiry, so alerts that are kept are not read. The ids in each chunk are deleted in
+ * one short statement, and the service pauses after every chunk. The pause is at least as
+ * long as the chunk took, and longer while the alert queue is backed up. Freed pages are
+ * returned with incremental vacuum.
+ */
+public class AlertRetention {
+    private static final Logger logger = Logger.getLogger(AlertRetention.class.getName());
+    // Longest wait for the alert queue to drain before deleting the next chunk anyway
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final long BACKOFF_STEP_MILLIS = 100;
+    private static final int VACUUM_PAGES_PER_STEP = 256;
+
+    private final DatabaseManager dbManager;
+    private final Policy policy;
+    private final IntSupplier queueDepth;
+    private volatile AlertArchive archive;
+    private int chunkSize = 500;
+    private long pauseMillis = 20;
+    private int maxQueueDepth = 100;
+
+    /**
+     * How long alerts are kept. An alert is kept for the longest retention that applies to
+     * its severity or source, or the default if neither has one.
+     */
+    public static class Policy {
+        private final Duration defaultRetention;
+        private final Map<Alert.Severity, Duration> bySeverity = new EnumMap<>(Alert.Severity.class);
+        private final Map<String, Duration> bySource = new HashMap<>();
+
+        public Policy(Duration defaultRetention) {
+            this.defaultRetention = defaultRetention;
+        }
+
+        public Policy severity(Alert.Severity severity, Duration retention) {
+            bySeverity.put(severity, retention);
+            return this;
+        }
+
+        public Policy source(String source, Duration retention) {
+            bySource.put(source, retention);
+            return this;
+        }
+
+        public Duration retentionOf(Alert.Severity severity, String source) {
+            Duration forSeverity = bySeverity.get(severity);
+            Duration forSource = bySource.get(source);
+            if (forSeverity == null && forSource == null) {
+                return defaultRetention;
+            }
+            if (forSeverity == null || forSource == null) {
+                return forSeverity != null ? forSeverity : forSource;
+            }
+            return forSeverity.compareTo(forSource) >= 0 ? forSeverity : forSource;
+        }
+
+        // No alert is kept for less than this
+        public Duration getShortest() {
+            Duration shortest = defaultRetention;
+            for (Duration retention : bySeverity.values()) {
+                shortest = retention.compareTo(shortest) < 0 ? retention : shortest;
+            }
+            for (Duration retention : bySource.values()) {
+                shortest = retention.compareTo(shortest) < 0 ? retention : shortest;
+            }
+            return shortest;
+        }
+
+        // One scan per severity for the sources without their own retention, and one per severity and source with one
+        List<ExpiryScan> scans(LocalDateTime now, LocalDateTime archivedUntil) {
+            List<ExpiryScan> scans = new ArrayList<>();
+            for (Alert.Severity severity : Alert.Severity.values()) {
+                Duration retention = bySeverity.getOrDefault(severity, defaultRetention);
+                scans.add(new ExpiryScan(severity, null, bySource.keySet(), expiry(now, retention, archivedUntil)));
+                for (String source : bySource.keySet()) {
+                    scans.add(new ExpiryScan(severity, source, null,
+                            expiry(now, retentionOf(severity, source), archivedUntil)));
+                }
+            }
+            return scans;
+        }
+
+        // Alerts before this have expired and, with an archive, are archived
+        private static LocalDateTime expiry(LocalDateTime now, Duration retention, LocalDateTime archivedUntil) {
+            LocalDateTime expiry = now.minus(retention);
+            return archivedUntil != null && archivedUntil.isBefore(expiry) ? archivedUntil : expiry;
+        }
+
+        // retention.days, retention.severity.<SEVERITY> and retention.source.<source>, in days
+        public static Policy fromConfig(ThreatMonitorConfig config) {
+            Policy policy = new Policy(Duration.ofDays(config.getInt("retention.days", 30)));
+            for (Alert.Severity severity : Alert.Severity.values()) {
+                int days = config.getInt("retention.severity." + severity, -1);
+                if (days >= 0) {
+                    policy.severity(severity, Duration.ofDays(days));
+                }
+            }
+            for (Map.Entry<String, String> entry : config.getPrefixed("retention.source.").entrySet()) {
+                int days = config.getInt("retention.source." + entry.getKey(), -1);
+                if (days >= 0) {
+                    policy.source(entry.getKey(), Duration.ofDays(days));
+                }
+            }
+            return policy;
+        }
+    }
+
+    /**
+     * The expired alerts of one severity, either of a single source or of every source except
+     * the excluded ones. Read oldest first, a chunk at a time, continuing after the last row.
+     */
+    static final class ExpiryScan {
+        private final Alert.Severity severity;
+        private final String source;
+        private final Collection<String> excludedSources;
+        private final Timestamp before;
+        // Position after the last row read
+        private Timestamp afterTimestamp;
+        private long afterId;
+
+        ExpiryScan(Alert.Severity severity, String source, Collection<String> excludedSources, LocalDateTime before) {
+            this.severity = severity;
+            this.source = source;
+            this.excludedSources = excludedSources;
+            this.before = Timestamp.valueOf(before);
+        }
+
+        // Builds the SQL for the next chunk of at most limit rows
+        String toSql(List<Object> parameters, int limit) {
+            StringBuilder sql = new StringBuilder(
+                    "SELECT id, timestamp, source, severity FROM alerts WHERE severity = ? AND timestamp < ?");
+            parameters.add(severity.toString());
+            parameters.add(before);
+
+            if (source != null) {
+                sql.append(" AND source = ?");
+                parameters.add(source);
+            } else if (excludedSources != null && !excludedSources.isEmpty()) {
+                sql.append(" AND (source IS NULL OR source NOT IN (").append(placeholders(excludedSources.size())).append("))");
+                parameters.addAll(excludedSources);
+            }
+            if (afterTimestamp != null) {
+                // Rows kept by the last chunk (not archived yet) are not read again
+                sql.append(" AND timestamp >= ? AND (timestamp > ? OR id > ?)");
+                parameters.add(afterTimestamp);
+                parameters.add(afterTimestamp);
+                parameters.add(afterId);
+            }
+
+            sql.append(" ORDER BY timestamp, id LIMIT ?");
+            parameters.add(limit);
+            return sql.toString();
+        }
+
+        void advance(Timestamp timestamp, long id) {
+            afterTimestamp = timestamp;
+            afterId = id;
+        }
+
+        private static String placeholders(int count) {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                builder.append(i == 0 ? "?" : ", ?");
+            }
+            return builder.toString();
+        }
+    }
+
+    // queueDepth reports the write backlog, e.g. AlertManager::getQueueDepth
+    public AlertRetention(DatabaseManager dbManager, Policy policy, IntSupplier queueDepth) {
+        this.dbManager = dbManager;
+        this.policy = policy;
+        this.queueDepth = queueDepth;
+    }
+
+    // Alerts are deleted only once this archive holds them
+    public void setArchive(AlertArchive archive) {
+        this.archive = archive;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid retention chunk size " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    // Minimum pause between chunks
+    public void setPause(Duration pause) {
+        this.pauseMillis = pause.toMillis();
+    }
+
+    // Queue depth above which deletion waits for the queue to drain
+    public void setMaxQueueDepth(int maxQueueDepth) {
+        this.maxQueueDepth = maxQueueDepth;
+    }
+
+    /**
+     * Deletes every expired alert, chunk by chunk, then reclaims the freed pages. Returns the
+     * number of alerts deleted; stops early if the thread is interrupted.
+     */
+    public int run() {
+        LocalDateTime now = LocalDateTime.now();
+        AlertArchive currentArchive = archive;
+        LocalDateTime archivedUntil = null;
+        long archivedRowId = Long.MAX_VALUE;
+        if (currentArchive != null) {
+            archivedUntil = currentArchive.getArchivedUntil();
+            if (archivedUntil == null) {
+                return 0;
+            }
+            // Rows stored since the last export are not in a segment yet, even in archived days
+            archivedRowId = currentArchive.getArchivedRowId();
+        }
+        long maxDeletableId = archivedRowId;
+
+        long[] expired = new long[chunkSize];
+        int[] expiredCount = new int[1];
+        int deleted = 0;
+        int chunks = 0;
+        long startNanos = System.nanoTime();
+
+        scanning:
+        for (ExpiryScan scan : policy.scans(now, archivedUntil)) {
+            while (!Thread.currentThread().isInterrupted()) {
+                long chunkStart = System.nanoTime();
+                expiredCount[0] = 0;
+                int read = dbManager.forEachExpiredAlert(scan, chunkSize, (id, entry) -> {
+                    if (id <= maxDeletableId) {
+                        expired[expiredCount[0]++] = id;
+                    }
+                });
+                if (read < 0) {
+                    break scanning;
+                }
+                if (read == 0) {
+                    break;
+                }
+
+                int count = dbManager.deleteAlertsById(expired, expiredCount[0]);
+                if (count < 0) {
+                    break scanning;
+                }
+                deleted += count;
+                chunks++;
+
+                if (!pauseAfter(System.nanoTime() - chunkStart)) {
+                    break scanning;
+                }
+                if (read < chunkSize) {
+                    break;
+                }
+            }
+        }
+
+        int freedPages = reclaimSpace();
+        if (deleted > 0) {
+            // Deleted rows may still be cached; reloading is cheaper than tracking them
+            dbManager.reloadRecentCache();
+        }
+        logger.info("Retention deleted " + deleted + " alerts in " + chunks + " chunks ("
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms), freed " + freedPages + " pages");
+        return deleted;
+    }
+
+    // Waits at least as long as the chunk took, longer while the queue is backed up
+    private boolean pauseAfter(long chunkNanos) {
+        try {
+            Thread.sleep(Math.max(pauseMillis, TimeUnit.NANOSECONDS.toMillis(chunkNanos)));
+            long waited = 0;
+            while (queueDepth.getAsInt() > maxQueueDepth && waited < MAX_BACKOFF_MILLIS) {
+                Thread.sleep(BACKOFF_STEP_MILLIS);
+                waited += BACKOFF_STEP_MILLIS;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Incremental vacuum in small steps, with the same pauses as deletion
+    private int reclaimSpace() {
+        if (!dbManager.isIncrementalVacuumEnabled()) {
+            return 0;
+        }
+        int freed = 0;
+        int step;
+        long stepStart;
+        do {
+            stepStart = System.nanoTime();
+            step = dbManager.incrementalVacuum(VACUUM_PAGES_PER_STEP);
+            freed += step;
+        } while (step == VACUUM_PAGES_PER_STEP && pauseAfter(System.nanoTime() - stepStart));
+        return freed;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+}
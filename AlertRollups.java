@@ -0,0 +1,292 @@
+package com.security.threatmonitor;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Alert counts per (source, severity) over time, for trend charts that must not scan the
+ * alerts table. Processed alerts are counted per minute in memory and flushed to the minute
+ * rollup table; as rows age they are compacted into hour and then day rollups, which are
+ * kept independently of the raw alert retention. Buckets are aligned to UTC.
+ * Counting takes no shared lock: each processing thread counts into its own stripe, and a
+ * flush adds the stripes up.
+ */
+public class AlertRollups implements AlertSink {
+    private static final Logger logger = Logger.getLogger(AlertRollups.class.getName());
+    private static final int SEVERITIES = Alert.Severity.values().length;
+    // A power of two, at least the usual number of alert shards
+    private static final int STRIPES = 16;
+
+    public enum Resolution {
+        MINUTE(60_000L, "alert_rollups_minute"),
+        HOUR(3_600_000L, "alert_rollups_hour"),
+        DAY(86_400_000L, "alert_rollups_day");
+
+        private final long bucketMillis;
+        private final String tableName;
+
+        Resolution(long bucketMillis, String tableName) {
+            this.bucketMillis = bucketMillis;
+            this.tableName = tableName;
+        }
+
+        public long getBucketMillis() {
+            return bucketMillis;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public long bucketStart(long epochMillis) {
+            return Math.floorDiv(epochMillis, bucketMillis) * bucketMillis;
+        }
+    }
+
+    private final DatabaseManager dbManager;
+    private final Duration minuteRetention;
+    private final Duration hourRetention;
+    private final Object flushLock = new Object();
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    // Minute rollups older than minuteRetention become hour rollups, which become day rollups after hourRetention
+    public AlertRollups(DatabaseManager dbManager, Duration minuteRetention, Duration hourRetention) {
+        this.dbManager = dbManager;
+        this.minuteRetention = minuteRetention;
+        this.hourRetention = hourRetention;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    // Counts not yet flushed, keyed by minute bucket start and indexed by sourceId * SEVERITIES + severity
+    private static final class Stripe {
+        Map<Long, int[]> pending = new HashMap<>();
+        // The minute counted last, so most alerts skip the map lookup
+        long minute = Long.MIN_VALUE;
+        int[] counts;
+
+        void forget() {
+            minute = Long.MIN_VALUE;
+            counts = null;
+        }
+    }
+
+    @Override
+    public void onAlert(Alert alert) {
+        int sourceId = alert.getSourceId();
+        if (sourceId < 0) {
+            // No source to roll up under
+            return;
+        }
+        long minute = Resolution.MINUTE.bucketStart(alert.getEpochMillis());
+        int index = sourceId * SEVERITIES + alert.getSeverity().ordinal();
+
+        // Each shard's worker is one thread, so stripes by thread are rarely contended
+        Stripe stripe = stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+        synchronized (stripe) {
+            int[] counts = stripe.minute == minute ? stripe.counts : stripe.pending.get(minute);
+            if (counts == null || counts.length <= index) {
+                int length = Math.max(index + 1, AlertSources.size() * SEVERITIES);
+                counts = counts == null ? new int[length] : Arrays.copyOf(counts, length);
+                stripe.pending.put(minute, counts);
+            }
+            stripe.minute = minute;
+            stripe.counts = counts;
+            counts[index]++;
+        }
+    }
+
+    // Takes the counts of every stripe, summed per minute
+    private Map<Long, int[]> takePending() {
+        Map<Long, int[]> taken = new HashMap<>();
+        for (Stripe stripe : stripes) {
+            Map<Long, int[]> pending;
+            synchronized (stripe) {
+                if (stripe.pending.isEmpty()) {
+                    continue;
+                }
+                pending = stripe.pending;
+                stripe.pending = new HashMap<>();
+                stripe.forget();
+            }
+            for (Map.Entry<Long, int[]> entry : pending.entrySet()) {
+                mergeCounts(taken, entry.getKey(), entry.getValue());
+            }
+        }
+        return taken;
+    }
+
+    // Writes the counts collected since the last flush to the minute rollup table
+    public void flush() {
+        synchronized (flushLock) {
+            Map<Long, int[]> flushing = takePending();
+            if (flushing.isEmpty()) {
+                return;
+            }
+
+            List<DatabaseManager.RollupCount> rows = new ArrayList<>();
+            for (Map.Entry<Long, int[]> entry : flushing.entrySet()) {
+                int[] counts = entry.getValue();
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] > 0) {
+                        rows.add(new DatabaseManager.RollupCount(entry.getKey(), AlertSources.nameOf(i / SEVERITIES),
+                                Alert.Severity.values()[i % SEVERITIES], counts[i]));
+                    }
+                }
+            }
+
+            if (!dbManager.addRollupCounts(rows)) {
+                // Keep the counts for the next attempt
+                Stripe stripe = stripes[0];
+                synchronized (stripe) {
+                    for (Map.Entry<Long, int[]> entry : flushing.entrySet()) {
+                        mergeCounts(stripe.pending, entry.getKey(), entry.getValue());
+                    }
+                    stripe.forget();
+                }
+            }
+        }
+    }
+
+    private static void mergeCounts(Map<Long, int[]> target, long minute, int[] counts) {
+        int[] existing = target.get(minute);
+        if (existing == null) {
+            target.put(minute, counts);
+            return;
+        }
+        if (existing.length < counts.length) {
+            existing = Arrays.copyOf(existing, counts.length);
+            target.put(minute, existing);
+        }
+        for (int i = 0; i < counts.length; i++) {
+            existing[i] += counts[i];
+        }
+    }
+
+    // Moves aged minute rollups into hours and aged hour rollups into days
+    public void compact() {
+        long now = System.currentTimeMillis();
+        synchronized (flushLock) {
+            dbManager.compactRollups(Resolution.MINUTE, Resolution.HOUR,
+                    Resolution.HOUR.bucketStart(now - minuteRetention.toMillis()));
+            dbManager.compactRollups(Resolution.HOUR, Resolution.DAY,
+                    Resolution.DAY.bucketStart(now - hourRetention.toMillis()));
+        }
+        logger.fine("Alert rollups compacted");
+    }
+
+    /**
+     * Alert counts per severity in consecutive buckets of the given size covering [from, to),
+     * optionally for one source only (null for all). Ranges that have been compacted are only
+     * as fine as their rollups: an hour or day rollup is counted in the bucket its start falls in.
+     */
+    public Histogram histogram(LocalDateTime from, LocalDateTime to, Duration bucketSize, String source) {
+        long fromMillis = toEpochMillis(from);
+        long toMillis = toEpochMillis(to);
+        long bucketMillis = bucketSize.toMillis();
+        if (bucketMillis <= 0 || toMillis <= fromMillis) {
+            throw new IllegalArgumentException("Invalid histogram range or bucket size");
+        }
+
+        int buckets = (int) ((toMillis - fromMillis + bucketMillis - 1) / bucketMillis);
+        long[] counts = new long[buckets * SEVERITIES];
+
+        synchronized (flushLock) {
+            for (DatabaseManager.RollupCount row : dbManager.getRollupCounts(fromMillis, toMillis)) {
+                if (source == null || source.equals(row.getSource())) {
+                    int bucket = (int) ((row.getBucketStart() - fromMillis) / bucketMillis);
+                    counts[bucket * SEVERITIES + row.getSeverity().ordinal()] += row.getCount();
+                }
+            }
+
+            // Add the minutes that have not been flushed yet
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    for (Map.Entry<Long, int[]> entry : stripe.pending.entrySet()) {
+                        long minute = entry.getKey();
+                        if (minute < fromMillis || minute >= toMillis) {
+                            continue;
+                        }
+                        int bucket = (int) ((minute - fromMillis) / bucketMillis);
+                        int[] minuteCounts = entry.getValue();
+                        for (int i = 0; i < minuteCounts.length; i++) {
+                            if (minuteCounts[i] > 0 && (source == null || source.equals(AlertSources.nameOf(i / SEVERITIES)))) {
+                                counts[bucket * SEVERITIES + i % SEVERITIES] += minuteCounts[i];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return new Histogram(fromMillis, bucketMillis, counts);
+    }
+
+    private static long toEpochMillis(LocalDateTime timestamp) {
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    // Counts per severity for each bucket of a histogram query
+    public static class Histogram {
+        private final long fromMillis;
+        private final long bucketMillis;
+        private final long[] counts;
+
+        Histogram(long fromMillis, long bucketMillis, long[] counts) {
+            this.fromMillis = fromMillis;
+            this.bucketMillis = bucketMillis;
+            this.counts = counts;
+        }
+
+        public int getBucketCount() {
+            return counts.length / SEVERITIES;
+        }
+
+        public LocalDateTime getBucketStart(int bucket) {
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(fromMillis + bucket * bucketMillis), ZoneId.systemDefault());
+        }
+
+        public long getCount(int bucket, Alert.Severity severity) {
+            return counts[bucket * SEVERITIES + severity.ordinal()];
+        }
+
+        public long getTotal(int bucket) {
+            long total = 0;
+            for (int i = 0; i < SEVERITIES; i++) {
+                total += counts[bucket * SEVERITIES + i];
+            }
+            return total;
+        }
+
+        long getFromMillis() {
+            return fromMillis;
+        }
+
+        long getBucketMillis() {
+            return bucketMillis;
+        }
+
+        // Counts indexed by bucket * severities + severity ordinal
+        long[] getCounts() {
+            return counts.clone();
+        }
+
+        public long getTotal(Alert.Severity severity) {
+            long total = 0;
+            for (int bucket = 0; bucket < getBucketCount(); bucket++) {
+                total += getCount(bucket, severity);
+            }
+            return total;
+        }
+    }
+}
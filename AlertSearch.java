@@ -0,0 +1,120 @@
+package com.security.threatmonitor;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * A full-text search over alert messages, optionally narrowed by severity, source and time.
+ * Words in the text must all occur in the message; a trailing * makes a word a prefix.
+ *
+ * <pre>
+ *   new AlertSearch("port scan").severities(Alert.Severity.HIGH, Alert.Severity.CRITICAL)
+ *           .between(from, to).page(0, 50)
+ * </pre>
+ */
+public class AlertSearch {
+    public enum Order {
+        RELEVANCE, NEWEST
+    }
+
+    private final String text;
+    private final EnumSet<Alert.Severity> severities = EnumSet.noneOf(Alert.Severity.class);
+    private final List<String> sources = new ArrayList<>();
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private Order order = Order.RELEVANCE;
+    private int limit = 50;
+    private int offset;
+
+    public AlertSearch(String text) {
+        this.text = text == null ? "" : text.trim();
+    }
+
+    public AlertSearch severities(Alert.Severity... values) {
+        severities.addAll(Arrays.asList(values));
+        return this;
+    }
+
+    public AlertSearch sources(String... values) {
+        sources.addAll(Arrays.asList(values));
+        return this;
+    }
+
+    // Inclusive start, exclusive end; either may be null
+    public AlertSearch between(LocalDateTime from, LocalDateTime to) {
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    public AlertSearch orderBy(Order order) {
+        this.order = order;
+        return this;
+    }
+
+    public AlertSearch page(int pageNumber, int pageSize) {
+        if (pageNumber < 0 || pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page " + pageNumber + " of size " + pageSize);
+        }
+        this.limit = pageSize;
+        this.offset = pageNumber * pageSize;
+        return this;
+    }
+
+    /**
+     * The text as an FTS5 query: every word becomes a quoted phrase so punctuation in IPs
+     * and paths is matched literally instead of being read as query syntax.
+     */
+    public String toMatchExpression() {
+        StringBuilder expression = new StringBuilder();
+        for (String word : text.split("\\s+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            boolean prefix = word.endsWith("*") && word.length() > 1;
+            if (prefix) {
+                word = word.substring(0, word.length() - 1);
+            }
+            if (expression.length() > 0) {
+                expression.append(' ');
+            }
+            expression.append('"').append(word.replace("\"", "\"\"")).append('"');
+            if (prefix) {
+                expression.append('*');
+            }
+        }
+        return expression.toString();
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public Set<Alert.Severity> getSeverities() {
+        return Collections.unmodifiableSet(severities);
+    }
+
+    public List<String> getSources() {
+        return Collections.unmodifiableList(sources);
+    }
+
+    public LocalDateTime getFrom() {
+        return from;
+    }
+
+    public LocalDateTime getTo() {
+        return to;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+}
@@ -0,0 +1,10 @@
+package com.security.threatmonitor;
+
+/**
+ * Subscriber notified of every alert after it has been persisted. The core pipeline only
+ * talks to sinks, so it runs the same with or without a UI attached.
+ */
+@FunctionalInterface
+public interface AlertSink {
+    void onAlert(Alert alert);
+}
@@ -0,0 +1,194 @@
+package com.security.threatmonitor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Streaming analytics over recent alerts in fixed memory: distinct IPv4 addresses seen in
+ * alert messages (HyperLogLog), the most frequent addresses and sources (Count-Min with a
+ * candidate set) and quantiles of numeric event fields such as cpu (t-digest). Sketches are
+ * kept per time bucket in a ring; a query merges the buckets that fall in its window.
+ */
+public class AlertSketches implements AlertSink {
+    private static final int HLL_PRECISION = 12;
+    private static final int CMS_WIDTH = 512;
+    private static final int CMS_DEPTH = 4;
+    private static final int TOP_CANDIDATES = 64;
+    private static final double DIGEST_COMPRESSION = 100;
+    // Bounds memory if events carry many distinct numeric fields
+    private static final int MAX_NUMERIC_FIELDS = 16;
+
+    private final long bucketMillis;
+    private final Bucket[] buckets;
+
+    private static final class Bucket {
+        final long start;
+        final HyperLogLog addresses = new HyperLogLog(HLL_PRECISION);
+        final HeavyHitters topAddresses = new HeavyHitters(TOP_CANDIDATES, CMS_WIDTH, CMS_DEPTH);
+        final HeavyHitters topSources = new HeavyHitters(TOP_CANDIDATES, CMS_WIDTH, CMS_DEPTH);
+        final Map<String, TDigest> numericFields = new HashMap<>();
+
+        Bucket(long start) {
+            this.start = start;
+        }
+
+        void merge(Bucket other) {
+            addresses.merge(other.addresses);
+            topAddresses.merge(other.topAddresses);
+            topSources.merge(other.topSources);
+            for (Map.Entry<String, TDigest> field : other.numericFields.entrySet()) {
+                numericFields.computeIfAbsent(field.getKey(), k -> new TDigest(DIGEST_COMPRESSION)).merge(field.getValue());
+            }
+        }
+    }
+
+    // Covers bucketCount buckets of bucketSize, e.g. 60 one-minute buckets for the last hour
+    public AlertSketches(Duration bucketSize, int bucketCount) {
+        if (bucketSize.toMillis() <= 0 || bucketCount <= 0) {
+            throw new IllegalArgumentException("Sketch buckets must have a positive size and count");
+        }
+        this.bucketMillis = bucketSize.toMillis();
+        this.buckets = new Bucket[bucketCount];
+    }
+
+    @Override
+    public synchronized void onAlert(Alert alert) {
+        Bucket bucket = currentBucket();
+        // Alerts without a source still count their addresses
+        if (alert.getSource() != null) {
+            bucket.topSources.add(alert.getSource());
+        }
+        if (alert.getMessage() != null) {
+            Ipv4Scanner.forEachAddress(alert.getMessage(), address -> {
+                bucket.addresses.add(address);
+                bucket.topAddresses.add(Ipv4Scanner.format(address));
+            });
+        }
+    }
+
+    // Adds the numeric fields of an event that produced an alert
+    public synchronized void recordEvent(SecurityEvent event) {
+        Bucket bucket = currentBucket();
+        for (Map.Entry<String, String> field : event.getFields().entrySet()) {
+            double value;
+            try {
+                value = Double.parseDouble(field.getValue());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            TDigest digest = bucket.numericFields.get(field.getKey());
+            if (digest == null) {
+                if (bucket.numericFields.size() >= MAX_NUMERIC_FIELDS) {
+                    continue;
+                }
+                digest = new TDigest(DIGEST_COMPRESSION);
+                bucket.numericFields.put(field.getKey(), digest);
+            }
+            digest.add(value);
+        }
+    }
+
+    private Bucket currentBucket() {
+        long start = Math.floorDiv(System.currentTimeMillis(), bucketMillis) * bucketMillis;
+        int index = (int) Math.floorMod(start / bucketMillis, (long) buckets.length);
+        if (buckets[index] == null || buckets[index].start != start) {
+            buckets[index] = new Bucket(start);
+        }
+        return buckets[index];
+    }
+
+    // Merges the buckets overlapping the last window (at most the whole ring)
+    private synchronized Bucket merged(Duration window) {
+        long now = System.currentTimeMillis();
+        long oldest = Math.floorDiv(now - window.toMillis(), bucketMillis) * bucketMillis;
+        Bucket result = new Bucket(oldest);
+        for (Bucket bucket : buckets) {
+            if (bucket != null && bucket.start >= oldest && bucket.start <= now) {
+                result.merge(bucket);
+            }
+        }
+        return result;
+    }
+
+    // Approximate number of distinct IPv4 addresses in alert messages during the window
+    public long distinctAddresses(Duration window) {
+        return merged(window).addresses.estimate();
+    }
+
+    public List<HeavyHitters.Entry> topAddresses(Duration window, int k) {
+        return merged(window).topAddresses.top(k);
+    }
+
+    public List<HeavyHitters.Entry> topSources(Duration window, int k) {
+        return merged(window).topSources.top(k);
+    }
+
+    // Approximate value of a numeric event field at quantile q, or NaN if the field was not seen
+    public double quantile(String field, double q, Duration window) {
+        TDigest digest = merged(window).numericFields.get(field);
+        return digest == null ? Double.NaN : digest.quantile(q);
+    }
+
+    public synchronized Set<String> getNumericFields() {
+        Set<String> fields = new TreeSet<>();
+        for (Bucket bucket : buckets) {
+            if (bucket != null) {
+                fields.addAll(bucket.numericFields.keySet());
+            }
+        }
+        return fields;
+    }
+
+    // The longest window the ring can answer
+    public Duration getRetention() {
+        return Duration.ofMillis(bucketMillis * buckets.length);
+    }
+
+    // Several statistics from one merge, for dashboards that show them together
+    public synchronized Summary summarize(Duration window, int k) {
+        Bucket bucket = merged(window);
+        Map<String, double[]> percentiles = new HashMap<>();
+        for (Map.Entry<String, TDigest> field : bucket.numericFields.entrySet()) {
+            TDigest digest = field.getValue();
+            percentiles.put(field.getKey(), new double[] {digest.quantile(0.5), digest.quantile(0.95), digest.quantile(0.99)});
+        }
+        return new Summary(bucket.addresses.estimate(), bucket.topAddresses.top(k), bucket.topSources.top(k), percentiles);
+    }
+
+    public static class Summary {
+        private final long distinctAddresses;
+        private final List<HeavyHitters.Entry> topAddresses;
+        private final List<HeavyHitters.Entry> topSources;
+        private final Map<String, double[]> percentiles;
+
+        Summary(long distinctAddresses, List<HeavyHitters.Entry> topAddresses, List<HeavyHitters.Entry> topSources,
+                Map<String, double[]> percentiles) {
+            this.distinctAddresses = distinctAddresses;
+            this.topAddresses = new ArrayList<>(topAddresses);
+            this.topSources = new ArrayList<>(topSources);
+            this.percentiles = percentiles;
+        }
+
+        public long getDistinctAddresses() {
+            return distinctAddresses;
+        }
+
+        public List<HeavyHitters.Entry> getTopAddresses() {
+            return topAddresses;
+        }
+
+        public List<HeavyHitters.Entry> getTopSources() {
+            return topSources;
+        }
+
+        // p50, p95 and p99 of a numeric field, or null if the field was not seen
+        public double[] getPercentiles(String field) {
+            return percentiles.get(field);
+        }
+    }
+}
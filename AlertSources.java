@@ -0,0 +1,66 @@
+package com.security.threatmonitor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide table of alert source names. Alerts keep the small id of their source
+ * instead of a String, so each distinct source name is held once. Lookups in both
+ * directions take no lock; only registering a new source does.
+ */
+public final class AlertSources {
+    private static final Logger logger = Logger.getLogger(AlertSources.class.getName());
+    // Guards against unbounded growth, e.g. from spoofed syslog host names
+    static final int MAX_SOURCES = 1 << 16;
+    static final String OVERFLOW_SOURCE = "(other)";
+
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[64];
+    private static int count;
+
+    private AlertSources() {
+    }
+
+    // Id of the source, registering it if it is new; null stays null (id -1)
+    public static int idOf(String source) {
+        if (source == null) {
+            return -1;
+        }
+        Integer id = ids.get(source);
+        return id != null ? id : register(source);
+    }
+
+    private static synchronized int register(String source) {
+        Integer id = ids.get(source);
+        if (id != null) {
+            return id;
+        }
+        // The last id is kept for the overflow name
+        if (count >= MAX_SOURCES - 1 && !source.equals(OVERFLOW_SOURCE)) {
+            if (!ids.containsKey(OVERFLOW_SOURCE)) {
+                logger.warning("More than " + (MAX_SOURCES - 1) + " alert sources, recording new ones as " + OVERFLOW_SOURCE);
+            }
+            return idOf(OVERFLOW_SOURCE);
+        }
+        String[] current = names;
+        if (count == current.length) {
+            String[] grown = new String[current.length * 2];
+            System.arraycopy(current, 0, grown, 0, count);
+            current = grown;
+        }
+        current[count] = source;
+        // Publish the name before the id so a reader holding the id always finds it
+        names = current;
+        ids.put(source, count);
+        return count++;
+    }
+
+    public static String nameOf(int id) {
+        return id < 0 ? null : names[id];
+    }
+
+    public static synchronized int size() {
+        return count;
+    }
+}
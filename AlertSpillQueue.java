@@ -0,0 +1,307 @@
+package com.security.threatmonitor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * First-in first-out queue of alerts in segment files, for alerts that do not fit in memory.
+ * Alerts are appended in {@link AlertCodec} batches to the newest segment and read back from
+ * the oldest, which is deleted once read. Writes are sequential and not forced to disk one
+ * by one; {@link #checkpoint()} forces them and records how far the oldest segment has been
+ * read. After a crash, alerts read since the last checkpoint are read again.
+ */
+public class AlertSpillQueue implements Closeable {
+    private static final Logger logger = Logger.getLogger(AlertSpillQueue.class.getName());
+    private static final String PREFIX = "spill-";
+    private static final String SUFFIX = ".seg";
+    private static final String OFFSET_FILE = "read.offset";
+    private static final int BUFFER_BYTES = 1024 * 1024;
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final AlertCodec codec = new AlertCodec();
+    // Oldest first; the last one is being written to
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(BUFFER_BYTES);
+    private ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_BYTES).flip();
+    private FileChannel writer;
+    private FileChannel reader;
+    private long size;
+
+    public AlertSpillQueue(Path directory, long segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    // Finds the segments left by an earlier run and counts their alerts
+    private void recover() throws IOException {
+        List<Segment> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    found.add(new Segment(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), file));
+                } catch (NumberFormatException e) {
+                    logger.warning("Ignoring unexpected file in spill directory: " + file);
+                }
+            }
+        }
+        found.sort(Comparator.comparingLong(segment -> segment.sequence));
+
+        // Where reading stopped at the last checkpoint; removed so it cannot apply to a later segment
+        long offsetSequence = 0;
+        long offset = 0;
+        Path offsetFile = directory.resolve(OFFSET_FILE);
+        if (Files.exists(offsetFile)) {
+            String[] parts = new String(Files.readAllBytes(offsetFile), StandardCharsets.US_ASCII).trim().split(" ");
+            offsetSequence = Long.parseLong(parts[0]);
+            offset = Long.parseLong(parts[1]);
+            Files.delete(offsetFile);
+        }
+
+        for (Segment segment : found) {
+            segment.readOffset = segment.sequence == offsetSequence ? offset : 0;
+            countAlerts(segment);
+            if (segment.remaining > 0) {
+                segments.addLast(segment);
+                size += segment.remaining;
+            } else {
+                Files.delete(segment.file);
+            }
+        }
+        if (size > 0) {
+            logger.info("Found " + size + " spilled alerts in " + segments.size() + " segments in " + directory);
+        }
+    }
+
+    // Reads only the batch headers; a torn batch at the end (from a crash) is cut off
+    private void countAlerts(Segment segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(AlertCodec.HEADER_BYTES);
+            long position = segment.readOffset;
+            long length = channel.size();
+            while (position + AlertCodec.HEADER_BYTES <= length) {
+                header.clear();
+                channel.read(header, position);
+                int payloadLength = header.getInt(8);
+                long end = position + AlertCodec.HEADER_BYTES + payloadLength + AlertCodec.TRAILER_BYTES;
+                if (header.get(0) != 'A' || payloadLength < 0 || end > length) {
+                    break;
+                }
+                segment.remaining += header.getInt(4);
+                position = end;
+            }
+            if (position < length) {
+                logger.warning("Truncating " + (length - position) + " unreadable bytes at the end of " + segment.file);
+                channel.truncate(position);
+            }
+        }
+    }
+
+    // Alerts in the queue
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized void append(Collection<Alert> alerts) throws IOException {
+        if (alerts.isEmpty()) {
+            return;
+        }
+        if (writer == null || segments.isEmpty() || writer.size() >= segmentBytes) {
+            long sequence = segments.isEmpty() ? 0 : segments.peekLast().sequence + 1;
+            startSegment(sequence);
+        }
+        segments.peekLast().remaining += write(writer, alerts);
+        size += alerts.size();
+    }
+
+    /**
+     * Writes the alerts into a new segment before all others, so they are read first. Used
+     * at shutdown for alerts that were queued in memory ahead of the spilled ones.
+     */
+    public synchronized void prepend(Collection<Alert> alerts) throws IOException {
+        if (alerts.isEmpty()) {
+            return;
+        }
+        if (segments.isEmpty()) {
+            append(alerts);
+            return;
+        }
+        Segment segment = new Segment(segments.peekFirst().sequence - 1, null);
+        segment.file = directory.resolve(PREFIX + segment.sequence + SUFFIX);
+        try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            segment.remaining = write(channel, alerts);
+            channel.force(false);
+        }
+        // The reader moves to the new first segment; the one it was reading keeps its offset
+        if (reader != null) {
+            segments.peekFirst().readOffset = reader.position() - readBuffer.remaining();
+            reader.close();
+            reader = null;
+            readBuffer.clear().flip();
+        }
+        segments.addFirst(segment);
+        size += alerts.size();
+    }
+
+    private void startSegment(long sequence) throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+        Segment segment = new Segment(sequence, directory.resolve(PREFIX + sequence + SUFFIX));
+        writer = FileChannel.open(segment.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segments.addLast(segment);
+    }
+
+    private int write(FileChannel channel, Collection<Alert> alerts) throws IOException {
+        List<Alert> list = alerts instanceof List ? (List<Alert>) alerts : new ArrayList<>(alerts);
+        int from = 0;
+        while (from < list.size()) {
+            writeBuffer.clear();
+            int count = codec.encode(list, from, writeBuffer);
+            if (count == 0) {
+                // A single alert larger than the buffer
+                writeBuffer = ByteBuffer.allocate(writeBuffer.capacity() * 2);
+                continue;
+            }
+            writeBuffer.flip();
+            while (writeBuffer.hasRemaining()) {
+                channel.write(writeBuffer);
+            }
+            from += count;
+        }
+        return list.size();
+    }
+
+    /**
+     * Moves up to max of the oldest alerts into the list, whole batches at a time (so it
+     * may move more), and returns how many it moved.
+     */
+    public synchronized int poll(List<Alert> into, int max) throws IOException {
+        int moved = 0;
+        while (moved < max && size > 0) {
+            Segment head = segments.peekFirst();
+            if (reader == null) {
+                reader = FileChannel.open(head.file, StandardOpenOption.READ);
+                reader.position(head.readOffset);
+                readBuffer.clear().flip();
+            }
+
+            int count;
+            try {
+                count = codec.decode(readBuffer, into::add);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Dropping " + head.remaining + " unreadable spilled alerts in " + head.file, e);
+                size -= head.remaining;
+                head.remaining = 0;
+                count = 0;
+            }
+            if (count > 0) {
+                moved += count;
+                head.remaining -= count;
+                size -= count;
+            } else if (head.remaining > 0) {
+                if (fill()) {
+                    continue;
+                }
+                // Truncated behind our back; nothing more will ever arrive in this segment
+                logger.warning("Dropping " + head.remaining + " spilled alerts missing from the end of " + head.file);
+                size -= head.remaining;
+                head.remaining = 0;
+            }
+            if (head.remaining == 0) {
+                deleteHead();
+            }
+        }
+        return moved;
+    }
+
+    // Reads more of the current segment; false at its end
+    private boolean fill() throws IOException {
+        if (readBuffer.position() == 0 && readBuffer.limit() == readBuffer.capacity()) {
+            // A batch larger than the buffer
+            ByteBuffer grown = ByteBuffer.allocate(readBuffer.capacity() * 2);
+            grown.put(readBuffer).flip();
+            readBuffer = grown;
+        }
+        readBuffer.compact();
+        int read = reader.read(readBuffer);
+        readBuffer.flip();
+        return read > 0;
+    }
+
+    private void deleteHead() throws IOException {
+        Segment head = segments.removeFirst();
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+        readBuffer.clear().flip();
+        if (segments.isEmpty() && writer != null) {
+            writer.close();
+            writer = null;
+        }
+        Files.deleteIfExists(head.file);
+        Files.deleteIfExists(directory.resolve(OFFSET_FILE));
+    }
+
+    // Forces written alerts to disk and records the read position, so a restart resumes there
+    public synchronized void checkpoint() throws IOException {
+        if (writer != null) {
+            writer.force(false);
+        }
+        if (reader != null) {
+            segments.peekFirst().readOffset = reader.position() - readBuffer.remaining();
+        }
+        // Only one segment is ever partly read, but after prepend() it is not the first
+        Path offsetFile = directory.resolve(OFFSET_FILE);
+        for (Segment segment : segments) {
+            if (segment.readOffset > 0) {
+                Files.write(offsetFile, (segment.sequence + " " + segment.readOffset).getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+        }
+        Files.deleteIfExists(offsetFile);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        checkpoint();
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+
+    private static class Segment {
+        final long sequence;
+        Path file;
+        long remaining;
+        long readOffset;
+
+        Segment(long sequence, Path file) {
+            this.sequence = sequence;
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.security.threatmonitor;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+public class AlertSpillTest {
+    private static final int SOURCES = 8;
+    private static final int ALERTS_PER_SOURCE = 50_000;
+
+    public static void main(String[] args) {
+        System.out.println("Testing alert spill to disk...");
+        // The default handlers log every alert; keep only records that carry an exception
+        Logger.getLogger(AlertManager.class.getName()).setFilter(record -> record.getThrown() != null);
+
+        Path dir = null;
+        try {
+            dir = Files.createTempDirectory("alert-spill-test");
+            Map<String, AtomicInteger> delivered = new ConcurrentHashMap<>();
+            Map<Integer, Integer> lastSequence = new ConcurrentHashMap<>();
+            AtomicInteger outOfOrder = new AtomicInteger();
+            AlertSink checker = alert -> {
+                delivered.computeIfAbsent(alert.getMessage(), m -> new AtomicInteger()).incrementAndGet();
+                String[] parts = alert.getMessage().split("#");
+                Integer previous = lastSequence.put(alert.getSourceId(), Integer.parseInt(parts[1]));
+                if (previous != null && previous >= Integer.parseInt(parts[1])) {
+                    outOfOrder.incrementAndGet();
+                }
+            };
+
+            // A slow sink on two shards: most alerts spill, and stopping keeps the rest on disk
+            AlertManager first = new AlertManager(null, 2);
+            first.setSpill(dir, 1000, 100, 256 * 1024);
+            first.addSink(checker);
+            first.addSink(alert -> {
+                if (alert.getMessage().endsWith("00")) {
+                    sleep(1);
+                }
+            });
+            first.startProcessing();
+            long start = System.nanoTime();
+            for (int i = 0; i < ALERTS_PER_SOURCE; i++) {
+                for (int s = 0; s < SOURCES; s++) {
+                    first.queueAlert(new Alert(Alert.currentEpochMicros(), "spill-source-" + s,
+                            "Port scan from 10.0.0." + s + " #" + i, Alert.Severity.LOW));
+                }
+            }
+            double rate = SOURCES * ALERTS_PER_SOURCE * 1e9 / (System.nanoTime() - start);
+            System.out.printf("Queued %d alerts at %.0f/s; %d in memory, %d spilled%n",
+                    SOURCES * ALERTS_PER_SOURCE, rate, first.getQueueDepth(), first.getSpilledCount());
+            first.stopProcessing();
+            long kept = first.getSpilledCount();
+            System.out.println("Stopped after " + delivered.size() + " alerts, " + kept + " kept on disk");
+
+            // A fresh manager on one shard replays everything, including the second shard's spill
+            AlertManager second = new AlertManager(null, 1);
+            second.setSpill(dir, 1000, 100, 256 * 1024);
+            second.addSink(checker);
+            second.startProcessing();
+            long deadline = System.currentTimeMillis() + 60_000;
+            while ((second.getSpilledCount() > 0 || second.getQueueDepth() > 0) && System.currentTimeMillis() < deadline) {
+                sleep(20);
+            }
+            second.stopProcessing();
+
+            int duplicates = 0;
+            for (AtomicInteger count : delivered.values()) {
+                duplicates += count.get() - 1;
+            }
+            long leftover;
+            try (Stream<Path> files = Files.walk(dir)) {
+                leftover = files.filter(file -> file.toString().endsWith(".seg")).count();
+            }
+            System.out.println("Delivered: " + delivered.size() + ", twice: " + duplicates
+                    + ", out of order: " + outOfOrder.get() + ", segment files left: " + leftover);
+
+            // A segment cut short while open loses its tail instead of blocking the reader
+            Path truncatedDir = dir.resolve("truncated");
+            int truncatedRead;
+            long truncatedSize;
+            try (AlertSpillQueue queue = new AlertSpillQueue(truncatedDir, 1024 * 1024)) {
+                List<Alert> alerts = new ArrayList<>();
+                for (int i = 0; i < 1000; i++) {
+                    alerts.add(new Alert(Alert.currentEpochMicros(), "spill-source-0", "Truncated #" + i, Alert.Severity.LOW));
+                }
+                for (int i = 0; i < 10; i++) {
+                    queue.append(alerts.subList(i * 100, (i + 1) * 100));
+                }
+                try (FileChannel channel = FileChannel.open(truncatedDir.resolve("spill-0.seg"), StandardOpenOption.WRITE)) {
+                    channel.truncate(channel.size() / 2);
+                }
+                List<Alert> read = new ArrayList<>();
+                queue.poll(read, 2000);
+                truncatedRead = read.size();
+                truncatedSize = queue.size();
+            }
+            System.out.println("Read " + truncatedRead + " of 1000 alerts from a truncated segment, " + truncatedSize + " left");
+
+            boolean passed = kept > 0 && delivered.size() == SOURCES * ALERTS_PER_SOURCE
+                    && duplicates == 0 && outOfOrder.get() == 0 && leftover == 0
+                    && truncatedRead > 0 && truncatedRead < 1000 && truncatedSize == 0;
+            System.out.println(passed ? "\nAlert spill test passed!" : "\nAlert spill test FAILED");
+        } catch (Exception e) {
+            System.err.println("Error during alert spill test: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            if (dir != null) {
+                try (Stream<Path> files = Files.walk(dir)) {
+                    files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+                } catch (Exception e) {
+                    // Temporary files only
+                }
+            }
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.security.threatmonitor;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running number of stored alerts per severity. Starts from a baseline (a snapshot or a
+ * database count) and adds every alert processed since; {@link #reconcile} replaces the
+ * baseline with a fresh database count without losing alerts counted in the meantime.
+ */
+public class AlertTotals implements AlertSink {
+    private static final int SEVERITIES = Alert.Severity.values().length;
+
+    private final LongAdder[] processed = new LongAdder[SEVERITIES];
+    // Baseline minus the processed count at the time it was taken
+    private final long[] offsets = new long[SEVERITIES];
+
+    public AlertTotals() {
+        for (int i = 0; i < SEVERITIES; i++) {
+            processed[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void onAlert(Alert alert) {
+        processed[alert.getSeverity().ordinal()].increment();
+    }
+
+    // Counts alerts processed so far; pass the result to reconcile() after querying the database
+    public long[] mark() {
+        long[] mark = new long[SEVERITIES];
+        for (int i = 0; i < SEVERITIES; i++) {
+            mark[i] = processed[i].sum();
+        }
+        return mark;
+    }
+
+    // Uses totals counted when mark was taken (by a snapshot or the database) as the baseline
+    public synchronized void reconcile(long[] totals, long[] mark) {
+        for (int i = 0; i < SEVERITIES; i++) {
+            offsets[i] = totals[i] - mark[i];
+        }
+    }
+
+    public synchronized long get(Alert.Severity severity) {
+        return offsets[severity.ordinal()] + processed[severity.ordinal()].sum();
+    }
+
+    // Totals indexed by severity ordinal
+    public synchronized long[] getAll() {
+        long[] totals = new long[SEVERITIES];
+        for (int i = 0; i < SEVERITIES; i++) {
+            totals[i] = offsets[i] + processed[i].sum();
+        }
+        return totals;
+    }
+}
@@ -0,0 +1,195 @@
+package com.security.threatmonitor;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Follows each alert from creation to the dashboard. Every stage an alert passes is stamped
+ * with System.nanoTime(), and the time since the preceding stage goes into per-severity and
+ * per-source histograms of the metrics registry, e.g. {@code trace.CRITICAL.persisted}.
+ * End-to-end times are kept as {@code trace.<SEVERITY>.total.handled} and
+ * {@code trace.<SEVERITY>.total.rendered}; the latter is the time until an alert is visible.
+ * Alerts slower than a per-severity threshold can be logged with their full breakdown.
+ */
+public class AlertTracer {
+    private static final Logger logger = Logger.getLogger(AlertTracer.class.getName());
+    private static final Logger slowLogger = Logger.getLogger(AlertTracer.class.getName() + ".slow");
+    private static final int MAX_SLOW_LOGS_PER_SECOND = 10;
+    private static final String OTHER_SOURCES = "other";
+
+    // Each stage is measured from its predecessor; sinks (the dashboard) run right after persisting
+    public enum Stage {
+        CREATED(null),
+        QUEUED(CREATED),
+        DEQUEUED(QUEUED),
+        PERSISTED(DEQUEUED),
+        HANDLED(PERSISTED),
+        RENDERED(PERSISTED);
+
+        private final Stage previous;
+
+        Stage(Stage previous) {
+            this.previous = previous;
+        }
+
+        public Stage getPrevious() {
+            return previous;
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final MetricsRegistry metrics;
+    private final int maxSources;
+    private final Map<Alert.Severity, LatencyHistogram[]> bySeverity = new EnumMap<>(Alert.Severity.class);
+    private final Map<String, LatencyHistogram[]> bySource = new ConcurrentHashMap<>();
+    private final Map<Alert.Severity, Long> slowNanos = new EnumMap<>(Alert.Severity.class);
+    private final MetricsRegistry.Counter slowAlerts;
+    private final AtomicLong slowLogSecond = new AtomicLong();
+    private final AtomicInteger slowLogsThisSecond = new AtomicInteger();
+
+    // Sources beyond the first maxSources seen share the "other" histograms
+    public AlertTracer(MetricsRegistry metrics, int maxSources) {
+        this.metrics = metrics;
+        this.maxSources = maxSources;
+        for (Alert.Severity severity : Alert.Severity.values()) {
+            bySeverity.put(severity, histograms("trace." + severity + "."));
+        }
+        slowAlerts = metrics.counter("trace.slow");
+    }
+
+    // Interval histograms indexed by stage, then the two end-to-end totals
+    private LatencyHistogram[] histograms(String prefix) {
+        LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length + 2];
+        for (Stage stage : STAGES) {
+            if (stage.previous != null) {
+                histograms[stage.ordinal()] = metrics.histogram(prefix + name(stage));
+            }
+        }
+        histograms[STAGES.length] = metrics.histogram(prefix + "total.handled");
+        histograms[STAGES.length + 1] = metrics.histogram(prefix + "total.rendered");
+        return histograms;
+    }
+
+    private static String name(Stage stage) {
+        return stage.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Logs alerts of the severity that take longer than threshold to be handled or rendered
+     * (at most 10 a second); a zero threshold turns the log off again.
+     */
+    public synchronized void setSlowThreshold(Alert.Severity severity, long threshold, TimeUnit unit) {
+        if (threshold > 0) {
+            slowNanos.put(severity, unit.toNanos(threshold));
+        } else {
+            slowNanos.remove(severity);
+        }
+    }
+
+    // Starts tracing the alert; called when it is queued
+    public void start(Alert alert) {
+        long[] marks = new long[STAGES.length];
+        marks[Stage.CREATED.ordinal()] = alert.createdNanos;
+        alert.traceMarks = marks;
+        mark(alert, Stage.QUEUED);
+    }
+
+    // Stamps the stage and records the time since its predecessor; untraced alerts are ignored
+    public void mark(Alert alert, Stage stage) {
+        long[] marks = alert.traceMarks;
+        if (marks == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        marks[stage.ordinal()] = now;
+
+        long since = marks[stage.previous.ordinal()];
+        LatencyHistogram[] severityHistograms = bySeverity.get(alert.getSeverity());
+        LatencyHistogram[] sourceHistograms = sourceHistograms(alert.getSource());
+        if (since != 0) {
+            severityHistograms[stage.ordinal()].recordNanos(now - since);
+            sourceHistograms[stage.ordinal()].recordNanos(now - since);
+        }
+
+        if (stage == Stage.HANDLED || stage == Stage.RENDERED) {
+            int total = stage == Stage.HANDLED ? STAGES.length : STAGES.length + 1;
+            long totalNanos = now - marks[Stage.CREATED.ordinal()];
+            severityHistograms[total].recordNanos(totalNanos);
+            sourceHistograms[total].recordNanos(totalNanos);
+            checkSlow(alert, stage, marks, totalNanos);
+        }
+    }
+
+    // Alerts without a source count with the overflow sources
+    private LatencyHistogram[] sourceHistograms(String source) {
+        if (source == null) {
+            source = OTHER_SOURCES;
+        }
+        LatencyHistogram[] histograms = bySource.get(source);
+        if (histograms != null) {
+            return histograms;
+        }
+        String key = bySource.size() < maxSources ? source : OTHER_SOURCES;
+        return bySource.computeIfAbsent(key, s -> histograms("trace.source." + s + "."));
+    }
+
+    private void checkSlow(Alert alert, Stage stage, long[] marks, long totalNanos) {
+        Long threshold;
+        synchronized (this) {
+            threshold = slowNanos.get(alert.getSeverity());
+        }
+        if (threshold == null || totalNanos <= threshold) {
+            return;
+        }
+        slowAlerts.increment();
+
+        long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        long previousSecond = slowLogSecond.get();
+        if (second != previousSecond && slowLogSecond.compareAndSet(previousSecond, second)) {
+            slowLogsThisSecond.set(0);
+        }
+        if (slowLogsThisSecond.incrementAndGet() <= MAX_SLOW_LOGS_PER_SECOND) {
+            slowLogger.warning(describe(alert, stage, marks, totalNanos));
+        }
+    }
+
+    // e.g. "Slow CRITICAL alert from auth: rendered after 153.20 ms (queued 0.01, dequeued 120.30, ...)"
+    static String describe(Alert alert, Stage last, long[] marks, long totalNanos) {
+        StringBuilder text = new StringBuilder("Slow ").append(alert.getSeverity())
+                .append(" alert from ").append(alert.getSource()).append(": ").append(name(last))
+                .append(String.format(Locale.ROOT, " after %.2f ms (", totalNanos / 1e6));
+        boolean first = true;
+        for (Stage stage : STAGES) {
+            long at = marks[stage.ordinal()];
+            long since = stage.previous == null ? 0 : marks[stage.previous.ordinal()];
+            if (stage.previous == null || at == 0 || since == 0) {
+                continue;
+            }
+            text.append(first ? "" : ", ").append(name(stage))
+                    .append(String.format(Locale.ROOT, " %.2f", (at - since) / 1e6));
+            first = false;
+        }
+        return text.append(" ms): ").append(alert.getMessage()).toString();
+    }
+
+    // trace.slow.ms for every severity, trace.slow.ms.<SEVERITY> to override one
+    public static AlertTracer fromConfig(ThreatMonitorConfig config, MetricsRegistry metrics) {
+        AlertTracer tracer = new AlertTracer(metrics, config.getInt("trace.sources.max", 16));
+        long slowMillis = config.getLong("trace.slow.ms", 0);
+        for (Alert.Severity severity : Alert.Severity.values()) {
+            long millis = config.getLong("trace.slow.ms." + severity, slowMillis);
+            tracer.setSlowThreshold(severity, millis, TimeUnit.MILLISECONDS);
+            if (millis > 0) {
+                logger.info("Logging " + severity + " alerts slower than " + millis + " ms");
+            }
+        }
+        return tracer;
+    }
+}
@@ -0,0 +1,475 @@
+package com.security.threatmonitor;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * An immutable, compressed, column-oriented file of archived alerts, sorted by time.
+ * Timestamps are stored as zig-zag varint deltas, severities and sources as dictionary
+ * codes, and messages in separately deflated blocks. The footer records the time range,
+ * column offsets and message block index, so readers can skip whole segments by time and
+ * decode only the columns (and message blocks) a query needs. It also records the highest
+ * row id the export covered, so the database knows which rows are archived.
+ *
+ * <pre>
+ *   [message blocks][timestamps][severities][sources][footer][footer length][magic]
+ * </pre>
+ */
+public class ArchiveSegment {
+    private static final int MAGIC = 0x544d4153; // "TMAS"
+    private static final int VERSION = 2;
+    private static final int MESSAGE_BLOCK_BYTES = 64 * 1024;
+
+    public enum Column {
+        TIMESTAMP, SEVERITY, SOURCE, MESSAGE
+    }
+
+    private final Path path;
+    private final int rowCount;
+    private final long minMillis;
+    private final long maxMillis;
+    private final long[] columnOffsets;
+    private final int[] columnLengths;
+    private final List<String> sourceDictionary;
+    private final long[] blockOffsets;
+    private final int[] blockLengths;
+    private final int[] blockFirstRows;
+    private final long rowIdBound;
+
+    private ArchiveSegment(Path path, DataInputStream footer) throws IOException {
+        this.path = path;
+        int version = footer.readInt();
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unsupported archive segment version in " + path);
+        }
+        rowCount = footer.readInt();
+        minMillis = footer.readLong();
+        maxMillis = footer.readLong();
+
+        columnOffsets = new long[3];
+        columnLengths = new int[3];
+        for (int i = 0; i < 3; i++) {
+            columnOffsets[i] = footer.readLong();
+            columnLengths[i] = footer.readInt();
+        }
+
+        int sources = footer.readInt();
+        sourceDictionary = new ArrayList<>(sources);
+        for (int i = 0; i < sources; i++) {
+            sourceDictionary.add(footer.readUTF());
+        }
+
+        int blocks = footer.readInt();
+        blockOffsets = new long[blocks];
+        blockLengths = new int[blocks];
+        blockFirstRows = new int[blocks];
+        for (int i = 0; i < blocks; i++) {
+            blockOffsets[i] = footer.readLong();
+            blockLengths[i] = footer.readInt();
+            blockFirstRows[i] = footer.readInt();
+        }
+        // Version 1 did not record it; their days' rows count as unarchived and are exported again
+        rowIdBound = version == 1 ? 0 : footer.readLong();
+    }
+
+    // Reads only the footer; columns are read when scanned
+    public static ArchiveSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer tail = read(channel, size - 8, 8);
+            int footerLength = tail.getInt();
+            if (tail.getInt() != MAGIC || footerLength <= 0 || footerLength > size - 8) {
+                throw new IOException("Not an archive segment: " + path);
+            }
+            ByteBuffer footer = read(channel, size - 8 - footerLength, footerLength);
+            return new ArchiveSegment(path, new DataInputStream(new ByteArrayInputStream(footer.array())));
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of archive segment");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    public boolean overlaps(LocalDateTime from, LocalDateTime to) {
+        return (from == null || maxMillis >= toEpochMillis(from)) && (to == null || minMillis < toEpochMillis(to));
+    }
+
+    /**
+     * Passes the alerts in [from, to) (either may be null) to the consumer in time order.
+     * Only the requested columns are decoded; the others are null in the entries.
+     */
+    public void scan(LocalDateTime from, LocalDateTime to, Set<Column> columns,
+                     Consumer<Alert> consumer) throws IOException {
+        boolean withTimestamps = columns.contains(Column.TIMESTAMP);
+        boolean withSeverities = columns.contains(Column.SEVERITY);
+        boolean withSources = columns.contains(Column.SOURCE);
+        Alert.Severity[] severityValues = Alert.Severity.values();
+        scanRows(from, to, columns, (epochMillis, severity, source, message) ->
+                consumer.accept(new Alert(
+                        withTimestamps ? epochMillis * 1000 : Alert.NO_TIMESTAMP,
+                        withSources ? sourceDictionary.get(source) : null,
+                        message,
+                        withSeverities ? severityValues[severity] : null)));
+    }
+
+    // Receives decoded rows without allocating per row; source indexes getSources(), -1 if not decoded
+    @FunctionalInterface
+    public interface RowVisitor {
+        void visit(long epochMillis, int severity, int source, String message);
+    }
+
+    /**
+     * Passes the rows in [from, to) (either may be null) to the visitor in time order.
+     * Only the requested columns are decoded; severity and source are -1 and the message is
+     * null otherwise. Timestamps are always decoded to find the rows in range.
+     */
+    public void scanRows(LocalDateTime from, LocalDateTime to, Set<Column> columns, RowVisitor visitor) throws IOException {
+        if (rowCount == 0 || !overlaps(from, to)) {
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // Timestamps are needed to find the rows in range even if not returned
+            long[] timestamps = decodeTimestamps(inflate(read(channel, columnOffsets[0], columnLengths[0]).array()));
+            int first = 0;
+            int end = rowCount;
+            if (from != null) {
+                first = lowerBound(timestamps, toEpochMillis(from));
+            }
+            if (to != null) {
+                end = lowerBound(timestamps, toEpochMillis(to));
+            }
+            if (first >= end) {
+                return;
+            }
+
+            byte[] severities = columns.contains(Column.SEVERITY)
+                    ? inflate(read(channel, columnOffsets[1], columnLengths[1]).array()) : null;
+            int[] sources = columns.contains(Column.SOURCE)
+                    ? decodeVarints(inflate(read(channel, columnOffsets[2], columnLengths[2]).array())) : null;
+            String[] messages = columns.contains(Column.MESSAGE) ? readMessages(channel, first, end) : null;
+
+            for (int row = first; row < end; row++) {
+                visitor.visit(timestamps[row],
+                        severities == null ? -1 : severities[row],
+                        sources == null ? -1 : sources[row],
+                        messages == null ? null : messages[row - first]);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt archive segment " + path, e);
+        }
+    }
+
+    // Decodes only the message blocks holding rows [first, end)
+    private String[] readMessages(FileChannel channel, int first, int end) throws IOException, DataFormatException {
+        String[] messages = new String[end - first];
+        for (int block = 0; block < blockOffsets.length; block++) {
+            int blockFirst = blockFirstRows[block];
+            int blockEnd = block + 1 < blockOffsets.length ? blockFirstRows[block + 1] : rowCount;
+            if (blockEnd <= first || blockFirst >= end) {
+                continue;
+            }
+
+            ByteBuffer data = ByteBuffer.wrap(inflate(read(channel, blockOffsets[block], blockLengths[block]).array()));
+            for (int row = blockFirst; row < blockEnd; row++) {
+                byte[] bytes = new byte[readVarint(data)];
+                data.get(bytes);
+                if (row >= first && row < end) {
+                    messages[row - first] = new String(bytes, StandardCharsets.UTF_8);
+                }
+            }
+        }
+        return messages;
+    }
+
+    private static int lowerBound(long[] sorted, long value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private long[] decodeTimestamps(byte[] column) {
+        ByteBuffer data = ByteBuffer.wrap(column);
+        long[] timestamps = new long[rowCount];
+        long previous = 0;
+        for (int i = 0; i < rowCount; i++) {
+            long zigzag = readVarlong(data);
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            timestamps[i] = previous;
+        }
+        return timestamps;
+    }
+
+    private int[] decodeVarints(byte[] column) {
+        ByteBuffer data = ByteBuffer.wrap(column);
+        int[] values = new int[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            values[i] = readVarint(data);
+        }
+        return values;
+    }
+
+    private static byte[] inflate(byte[] compressed) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+            byte[] chunk = new byte[16 * 1024];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(chunk);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated compressed column");
+                }
+                out.write(chunk, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static int readVarint(ByteBuffer data) {
+        return (int) readVarlong(data);
+    }
+
+    private static long readVarlong(ByteBuffer data) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static void writeVarlong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long toEpochMillis(LocalDateTime timestamp) {
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    // Source names by the index passed to RowVisitor
+    public List<String> getSources() {
+        return Collections.unmodifiableList(sourceDictionary);
+    }
+
+    public LocalDateTime getMinTime() {
+        return toLocalDateTime(minMillis);
+    }
+
+    // Every row of the exported range with an id up to this is in the segment
+    public long getRowIdBound() {
+        return rowIdBound;
+    }
+
+    public LocalDateTime getMaxTime() {
+        return toLocalDateTime(maxMillis);
+    }
+
+    /**
+     * Writes one segment. Alerts must be added in time order; message blocks are written as
+     * they fill, the small columns and the footer on {@link #finish()}. The file only appears
+     * under its final name once it is complete.
+     */
+    public static class Writer implements AutoCloseable {
+        private final Path path;
+        private final Path tempPath;
+        private final DataOutputStream out;
+        private long position;
+
+        private final ByteArrayOutputStream timestamps = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream severities = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream sources = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream messageBlock = new ByteArrayOutputStream(MESSAGE_BLOCK_BYTES + 1024);
+        private final Map<String, Integer> sourceCodes = new HashMap<>();
+        private final List<String> sourceDictionary = new ArrayList<>();
+        private final List<long[]> blocks = new ArrayList<>(); // offset, length, first row
+        private int blockFirstRow;
+        private int rowCount;
+        private long previousMillis;
+        private long minMillis = Long.MAX_VALUE;
+        private long maxMillis = Long.MIN_VALUE;
+        private long rowIdBound;
+        private boolean finished;
+
+        public Writer(Path path) throws IOException {
+            this.path = path;
+            this.tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+            OutputStream fileOut = Files.newOutputStream(tempPath);
+            this.out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+        }
+
+        // Highest row id the export read up to, recorded in the footer
+        public void setRowIdBound(long rowIdBound) {
+            this.rowIdBound = rowIdBound;
+        }
+
+        public void add(Alert entry) throws IOException {
+            long millis = entry.getEpochMillis();
+            if (millis < maxMillis) {
+                throw new IllegalArgumentException("Archive segment rows must be in time order");
+            }
+            long delta = millis - previousMillis;
+            writeVarlong(timestamps, (delta << 1) ^ (delta >> 63));
+            previousMillis = millis;
+            minMillis = Math.min(minMillis, millis);
+            maxMillis = millis;
+
+            severities.write(entry.getSeverity().ordinal());
+
+            String source = entry.getSource() == null ? "" : entry.getSource();
+            Integer code = sourceCodes.get(source);
+            if (code == null) {
+                code = sourceDictionary.size();
+                sourceCodes.put(source, code);
+                sourceDictionary.add(source);
+            }
+            writeVarlong(sources, code);
+
+            byte[] message = (entry.getMessage() == null ? "" : entry.getMessage()).getBytes(StandardCharsets.UTF_8);
+            writeVarlong(messageBlock, message.length);
+            messageBlock.write(message);
+            rowCount++;
+            if (messageBlock.size() >= MESSAGE_BLOCK_BYTES) {
+                flushMessageBlock();
+            }
+        }
+
+        private void flushMessageBlock() throws IOException {
+            if (rowCount == blockFirstRow) {
+                return;
+            }
+            int length = writeDeflated(messageBlock.toByteArray());
+            blocks.add(new long[] {position - length, length, blockFirstRow});
+            messageBlock.reset();
+            blockFirstRow = rowCount;
+        }
+
+        private int writeDeflated(byte[] data) throws IOException {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64);
+            try (DeflaterOutputStream deflater = new DeflaterOutputStream(compressed, new Deflater(Deflater.BEST_COMPRESSION))) {
+                deflater.write(data);
+            }
+            compressed.writeTo(out);
+            position += compressed.size();
+            return compressed.size();
+        }
+
+        // Writes the remaining columns and the footer and moves the file into place
+        public void finish() throws IOException {
+            flushMessageBlock();
+
+            long[] offsets = new long[3];
+            int[] lengths = new int[3];
+            ByteArrayOutputStream[] columns = {timestamps, severities, sources};
+            for (int i = 0; i < columns.length; i++) {
+                lengths[i] = writeDeflated(columns[i].toByteArray());
+                offsets[i] = position - lengths[i];
+            }
+
+            ByteArrayOutputStream footerBytes = new ByteArrayOutputStream();
+            DataOutputStream footer = new DataOutputStream(footerBytes);
+            footer.writeInt(VERSION);
+            footer.writeInt(rowCount);
+            footer.writeLong(rowCount == 0 ? 0 : minMillis);
+            footer.writeLong(rowCount == 0 ? 0 : maxMillis);
+            for (int i = 0; i < 3; i++) {
+                footer.writeLong(offsets[i]);
+                footer.writeInt(lengths[i]);
+            }
+            footer.writeInt(sourceDictionary.size());
+            for (String source : sourceDictionary) {
+                footer.writeUTF(source);
+            }
+            footer.writeInt(blocks.size());
+            for (long[] block : blocks) {
+                footer.writeLong(block[0]);
+                footer.writeInt((int) block[1]);
+                footer.writeInt((int) block[2]);
+            }
+            footer.writeLong(rowIdBound);
+            footer.flush();
+
+            footerBytes.writeTo(out);
+            out.writeInt(footerBytes.size());
+            out.writeInt(MAGIC);
+            out.close();
+            Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+        }
+
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        // Discards the partial file unless finish() succeeded
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                out.close();
+                Files.deleteIfExists(tempPath);
+            }
+        }
+    }
+}
@@ -0,0 +1,742 @@
+package com.security.threatmonitor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * An immutable, compiled set of classification rules. Rules are written one per line:
+ *
+ * <pre>
+ *   name: condition [and condition ...] => LOW | MEDIUM | HIGH | CRITICAL | DROP
+ *
+ *   field == "text"   field != "text"   field contains "text"   field startsWith "text"
+ *   field ~ /regex/i  field > 90   field >= 90   field < 10   field <= 10
+ * </pre>
+ *
+ * Fields are source, message, severity (the monitor's default) or any event field. The first
+ * matching rule in file order decides. Equality tests are indexed per field, so one hash
+ * lookup per field removes every rule that cannot match. All contains literals and the
+ * literals every regex requires are found with one Aho-Corasick pass per field, and a regex
+ * only runs when its literal is present. Within a rule, cheaper conditions run first.
+ */
+public class ClassificationRuleSet {
+
+    public static class RuleSyntaxException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public RuleSyntaxException(int line, String message) {
+            super("line " + line + ": " + message);
+        }
+    }
+
+    // Outcome of classification: a severity, or drop the event
+    public static class Action {
+        static final Action DROP = new Action(null);
+
+        private final Alert.Severity severity;
+
+        private Action(Alert.Severity severity) {
+            this.severity = severity;
+        }
+
+        public boolean isDrop() {
+            return severity == null;
+        }
+
+        public Alert.Severity getSeverity() {
+            return severity;
+        }
+    }
+
+    public static class RuleStats {
+        private final String name;
+        private final LongAdder evaluations = new LongAdder();
+        private final LongAdder matches = new LongAdder();
+        private final LongAdder evaluationNanos = new LongAdder();
+
+        RuleStats(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getEvaluations() {
+            return evaluations.sum();
+        }
+
+        public long getMatches() {
+            return matches.sum();
+        }
+
+        public long getEvaluationNanos() {
+            return evaluationNanos.sum();
+        }
+
+        public double getAverageNanos() {
+            long count = evaluations.sum();
+            return count == 0 ? 0 : (double) evaluationNanos.sum() / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d matches / %d evaluations, %.0f ns avg",
+                    name, getMatches(), getEvaluations(), getAverageNanos());
+        }
+    }
+
+    private abstract static class Condition {
+        final String field;
+
+        Condition(String field) {
+            this.field = field;
+        }
+
+        abstract int cost();
+
+        abstract boolean test(String value, EvaluationContext context);
+    }
+
+    private static class EqualsCondition extends Condition {
+        final String expected;
+        final boolean negate;
+
+        EqualsCondition(String field, String expected, boolean negate) {
+            super(field);
+            this.expected = expected;
+            this.negate = negate;
+        }
+
+        int cost() {
+            return 1;
+        }
+
+        boolean test(String value, EvaluationContext context) {
+            return expected.equals(value) != negate;
+        }
+    }
+
+    private static class NumericCondition extends Condition {
+        final String operator;
+        final double threshold;
+
+        NumericCondition(String field, String operator, double threshold) {
+            super(field);
+            this.operator = operator;
+            this.threshold = threshold;
+        }
+
+        int cost() {
+            return 2;
+        }
+
+        boolean test(String value, EvaluationContext context) {
+            double number = context.number(field, value);
+            if (Double.isNaN(number)) {
+                return false;
+            }
+            switch (operator) {
+                case ">":
+                    return number > threshold;
+                case ">=":
+                    return number >= threshold;
+                case "<":
+                    return number < threshold;
+                default:
+                    return number <= threshold;
+            }
+        }
+    }
+
+    private static class StartsWithCondition extends Condition {
+        final String prefix;
+
+        StartsWithCondition(String field, String prefix) {
+            super(field);
+            this.prefix = prefix;
+        }
+
+        int cost() {
+            return 2;
+        }
+
+        boolean test(String value, EvaluationContext context) {
+            return value.startsWith(prefix);
+        }
+    }
+
+    // Case-insensitive substring, answered from the field's literal scan
+    private static class ContainsCondition extends Condition {
+        final String literal;
+        int literalId;
+
+        ContainsCondition(String field, String literal) {
+            super(field);
+            this.literal = literal;
+        }
+
+        int cost() {
+            return 3;
+        }
+
+        boolean test(String value, EvaluationContext context) {
+            return context.literalPresent(field, value, literalId);
+        }
+    }
+
+    private static class RegexCondition extends Condition {
+        final Pattern pattern;
+        final String requiredLiteral;
+        int literalId = -1;
+
+        RegexCondition(String field, Pattern pattern, String requiredLiteral) {
+            super(field);
+            this.pattern = pattern;
+            this.requiredLiteral = requiredLiteral;
+        }
+
+        int cost() {
+            return 10;
+        }
+
+        boolean test(String value, EvaluationContext context) {
+            if (literalId >= 0 && !context.literalPresent(field, value, literalId)) {
+                return false;
+            }
+            return pattern.matcher(value).find();
+        }
+    }
+
+    private static class Rule {
+        final int index;
+        final Action action;
+        final List<Condition> conditions;
+        final RuleStats stats;
+
+        Rule(int index, String name, Action action, List<Condition> conditions) {
+            this.index = index;
+            this.action = action;
+            this.conditions = conditions;
+            this.stats = new RuleStats(name);
+        }
+    }
+
+    // Equality index for one field: rules still possible for each value
+    private static class FieldIndex {
+        final String field;
+        final Map<String, BitSet> allowedByValue = new HashMap<>();
+        final BitSet allowedOtherwise = new BitSet();
+
+        FieldIndex(String field) {
+            this.field = field;
+        }
+    }
+
+    // Per-field automaton over every literal the rules look for in that field
+    private static class LiteralScanner {
+        final AhoCorasickAutomaton automaton;
+
+        LiteralScanner(List<String> literals) {
+            List<AhoCorasickAutomaton.Pattern> patterns = new ArrayList<>();
+            for (int i = 0; i < literals.size(); i++) {
+                patterns.add(new AhoCorasickAutomaton.Pattern(literals.get(i).getBytes(StandardCharsets.UTF_8), i));
+            }
+            automaton = AhoCorasickAutomaton.build(patterns);
+        }
+
+        BitSet scan(String value) {
+            BitSet present = new BitSet();
+            int state = automaton.initialState();
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            for (byte b : bytes) {
+                int c = b >= 'A' && b <= 'Z' ? b + 32 : b & 0xFF;
+                state = automaton.step(state, c);
+                automaton.forEachMatch(state, id -> present.set(automaton.getPatternTag(id)));
+            }
+            return present;
+        }
+    }
+
+    // Lazily computed per-event facts shared by all rules
+    private class EvaluationContext {
+        private Map<String, BitSet> literalHits;
+        private Map<String, Double> numbers;
+
+        boolean literalPresent(String field, String value, int literalId) {
+            if (literalHits == null) {
+                literalHits = new HashMap<>();
+            }
+            BitSet hits = literalHits.get(field);
+            if (hits == null) {
+                hits = literalScanners.get(field).scan(value);
+                literalHits.put(field, hits);
+            }
+            return hits.get(literalId);
+        }
+
+        double number(String field, String value) {
+            if (numbers == null) {
+                numbers = new HashMap<>();
+            }
+            return numbers.computeIfAbsent(field, f -> {
+                try {
+                    return Double.parseDouble(value.trim());
+                } catch (NumberFormatException e) {
+                    return Double.NaN;
+                }
+            });
+        }
+    }
+
+    private final List<Rule> rules;
+    private final BitSet allRules = new BitSet();
+    private final List<FieldIndex> fieldIndexes = new ArrayList<>();
+    private final Map<String, LiteralScanner> literalScanners = new HashMap<>();
+
+    private ClassificationRuleSet(List<Rule> rules) {
+        this.rules = rules;
+        allRules.set(0, rules.size());
+        compile();
+    }
+
+    public static ClassificationRuleSet empty() {
+        return new ClassificationRuleSet(new ArrayList<>());
+    }
+
+    public static ClassificationRuleSet parse(List<String> lines) throws RuleSyntaxException {
+        List<Rule> rules = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+
+        for (int lineNumber = 1; lineNumber <= lines.size(); lineNumber++) {
+            String line = lines.get(lineNumber - 1).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new RuleSyntaxException(lineNumber, "expected 'name: conditions => action'");
+            }
+            String name = line.substring(0, colon).trim();
+            if (!names.add(name)) {
+                throw new RuleSyntaxException(lineNumber, "duplicate rule name " + name);
+            }
+
+            Tokenizer tokenizer = new Tokenizer(line.substring(colon + 1), lineNumber);
+            List<Condition> conditions = new ArrayList<>();
+            do {
+                conditions.add(parseCondition(tokenizer));
+            } while (tokenizer.acceptWord("and"));
+            tokenizer.expect("=>");
+            String action = tokenizer.word().toUpperCase(Locale.ROOT);
+            tokenizer.expectEnd();
+
+            Action parsedAction;
+            if ("DROP".equals(action)) {
+                parsedAction = Action.DROP;
+            } else {
+                try {
+                    parsedAction = new Action(Alert.Severity.valueOf(action));
+                } catch (IllegalArgumentException e) {
+                    throw new RuleSyntaxException(lineNumber, "unknown action " + action);
+                }
+            }
+            rules.add(new Rule(rules.size(), name, parsedAction, conditions));
+        }
+        return new ClassificationRuleSet(rules);
+    }
+
+    private static Condition parseCondition(Tokenizer tokenizer) throws RuleSyntaxException {
+        String field = tokenizer.word();
+        String operator = tokenizer.operator();
+        switch (operator) {
+            case "==":
+                return new EqualsCondition(field, tokenizer.string(), false);
+            case "!=":
+                return new EqualsCondition(field, tokenizer.string(), true);
+            case "contains":
+                return new ContainsCondition(field, lowerAscii(tokenizer.string()));
+            case "startswith":
+                return new StartsWithCondition(field, tokenizer.string());
+            case "~":
+                String[] regex = tokenizer.regex();
+                try {
+                    int flags = regex[1].contains("i") ? Pattern.CASE_INSENSITIVE : 0;
+                    return new RegexCondition(field, Pattern.compile(regex[0], flags), requiredLiteral(regex[0]));
+                } catch (PatternSyntaxException e) {
+                    throw new RuleSyntaxException(tokenizer.lineNumber, "invalid regex: " + e.getDescription());
+                }
+            default:
+                return new NumericCondition(field, operator, tokenizer.number());
+        }
+    }
+
+    private void compile() {
+        Map<String, List<String>> literalsByField = new HashMap<>();
+        Map<String, FieldIndex> indexes = new LinkedHashMap<>();
+
+        for (Rule rule : rules) {
+            Set<String> indexedFields = new HashSet<>();
+            List<Condition> remaining = new ArrayList<>();
+
+            for (Condition condition : rule.conditions) {
+                // The first positive equality per field goes into that field's index
+                if (condition instanceof EqualsCondition && !((EqualsCondition) condition).negate
+                        && indexedFields.add(condition.field)) {
+                    FieldIndex index = indexes.computeIfAbsent(condition.field, FieldIndex::new);
+                    index.allowedByValue.computeIfAbsent(((EqualsCondition) condition).expected, v -> new BitSet())
+                            .set(rule.index);
+                    continue;
+                }
+                if (condition instanceof ContainsCondition) {
+                    ContainsCondition contains = (ContainsCondition) condition;
+                    contains.literalId = literalId(literalsByField, contains.field, contains.literal);
+                } else if (condition instanceof RegexCondition && ((RegexCondition) condition).requiredLiteral != null) {
+                    RegexCondition regex = (RegexCondition) condition;
+                    regex.literalId = literalId(literalsByField, regex.field, lowerAscii(regex.requiredLiteral));
+                }
+                remaining.add(condition);
+            }
+
+            remaining.sort(Comparator.comparingInt(Condition::cost));
+            rule.conditions.clear();
+            rule.conditions.addAll(remaining);
+        }
+
+        // Rules without an equality on a field stay possible whatever its value
+        for (FieldIndex index : indexes.values()) {
+            for (Rule rule : rules) {
+                boolean indexed = false;
+                for (BitSet allowed : index.allowedByValue.values()) {
+                    indexed |= allowed.get(rule.index);
+                }
+                if (!indexed) {
+                    index.allowedOtherwise.set(rule.index);
+                }
+            }
+            for (BitSet allowed : index.allowedByValue.values()) {
+                allowed.or(index.allowedOtherwise);
+            }
+            fieldIndexes.add(index);
+        }
+
+        for (Map.Entry<String, List<String>> entry : literalsByField.entrySet()) {
+            literalScanners.put(entry.getKey(), new LiteralScanner(entry.getValue()));
+        }
+    }
+
+    private static int literalId(Map<String, List<String>> literalsByField, String field, String literal) {
+        List<String> literals = literalsByField.computeIfAbsent(field, f -> new ArrayList<>());
+        int id = literals.indexOf(literal);
+        if (id < 0) {
+            id = literals.size();
+            literals.add(literal);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the action of the first matching rule, or null if none matches.
+     */
+    public Action classify(SecurityEvent event) {
+        if (rules.isEmpty()) {
+            return null;
+        }
+
+        BitSet candidates = (BitSet) allRules.clone();
+        for (FieldIndex index : fieldIndexes) {
+            String value = event.get(index.field);
+            BitSet allowed = value == null ? null : index.allowedByValue.get(value);
+            candidates.and(allowed != null ? allowed : index.allowedOtherwise);
+        }
+
+        EvaluationContext context = new EvaluationContext();
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            Rule rule = rules.get(i);
+            long startNanos = System.nanoTime();
+            boolean matched = true;
+            for (Condition condition : rule.conditions) {
+                String value = event.get(condition.field);
+                if (value == null || !condition.test(value, context)) {
+                    matched = false;
+                    break;
+                }
+            }
+            rule.stats.evaluationNanos.add(System.nanoTime() - startNanos);
+            rule.stats.evaluations.increment();
+            if (matched) {
+                rule.stats.matches.increment();
+                return rule.action;
+            }
+        }
+        return null;
+    }
+
+    public List<RuleStats> getRuleStats() {
+        List<RuleStats> stats = new ArrayList<>();
+        for (Rule rule : rules) {
+            stats.add(rule.stats);
+        }
+        return stats;
+    }
+
+    public int size() {
+        return rules.size();
+    }
+
+    /**
+     * Longest run of literal characters that every match of the regex must contain, or null
+     * when the pattern has alternation or is too irregular to tell.
+     */
+    static String requiredLiteral(String regex) {
+        if (regex.indexOf('|') >= 0) {
+            return null;
+        }
+        String best = "";
+        StringBuilder current = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char ch = regex.charAt(i);
+            boolean literal = false;
+            if (ch == '\\' && i + 1 < regex.length()) {
+                char next = regex.charAt(++i);
+                literal = !Character.isLetterOrDigit(next);
+                ch = next;
+                if (!literal) {
+                    // Classes, hex/octal/unicode escapes, quotes and backreferences end the run
+                    i = escapeEnd(regex, i);
+                }
+            } else if (ch == '(' || ch == '[' || ch == '{') {
+                depth++;
+            } else if (ch == ')' || ch == ']' || ch == '}') {
+                depth--;
+            } else {
+                literal = depth == 0 && ".^$*+?".indexOf(ch) < 0;
+            }
+
+            // A quantifier makes the previous character optional or repeated
+            char following = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+            if (literal && (following == '*' || following == '?' || following == '{')) {
+                literal = false;
+            }
+
+            if (literal) {
+                current.append(ch);
+            }
+            if (!literal || following == '+') {
+                if (current.length() > best.length()) {
+                    best = current.toString();
+                }
+                current.setLength(0);
+            }
+        }
+        if (current.length() > best.length()) {
+            best = current.toString();
+        }
+        return best.length() >= 3 ? best : null;
+    }
+
+    // Index of the last character of the escape whose letter or digit is at i
+    private static int escapeEnd(String regex, int i) {
+        int length = regex.length();
+        switch (regex.charAt(i)) {
+            case 'x':
+                if (i + 1 < length && regex.charAt(i + 1) == '{') {
+                    return closing(regex, i + 1, "}");
+                }
+                return Math.min(i + 2, length - 1);
+            case 'u':
+                return Math.min(i + 4, length - 1);
+            case '0': {
+                // \0n, \0nn or \0mnn where m is at most 3
+                int end = i;
+                while (end + 1 < length && end - i < 3 && regex.charAt(end + 1) >= '0' && regex.charAt(end + 1) <= '7'
+                        && (end - i < 2 || regex.charAt(i + 1) <= '3')) {
+                    end++;
+                }
+                return end;
+            }
+            case 'c':
+                return Math.min(i + 1, length - 1);
+            case 'p':
+            case 'P':
+            case 'N':
+                if (i + 1 < length && regex.charAt(i + 1) == '{') {
+                    return closing(regex, i + 1, "}");
+                }
+                return Math.min(i + 1, length - 1);
+            case 'k':
+                return closing(regex, i + 1, ">");
+            case 'Q':
+                return closing(regex, i + 1, "\\E");
+            default: {
+                // A backreference takes all the digits that follow
+                int end = i;
+                if (Character.isDigit(regex.charAt(i))) {
+                    while (end + 1 < length && Character.isDigit(regex.charAt(end + 1))) {
+                        end++;
+                    }
+                }
+                return end;
+            }
+        }
+    }
+
+    // Index of the last character of the terminator at or after from, or the end of the regex
+    private static int closing(String regex, int from, String terminator) {
+        int at = regex.indexOf(terminator, from);
+        return at < 0 ? regex.length() - 1 : at + terminator.length() - 1;
+    }
+
+    private static String lowerAscii(String value) {
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            builder.append(ch >= 'A' && ch <= 'Z' ? (char) (ch + 32) : ch);
+        }
+        return builder.toString();
+    }
+
+    private static class Tokenizer {
+        private final String text;
+        private final int lineNumber;
+        private int pos;
+
+        Tokenizer(String text, int lineNumber) {
+            this.text = text;
+            this.lineNumber = lineNumber;
+        }
+
+        private void skipSpaces() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        String word() throws RuleSyntaxException {
+            skipSpaces();
+            int start = pos;
+            while (pos < text.length() && (Character.isLetterOrDigit(text.charAt(pos)) || text.charAt(pos) == '_'
+                    || text.charAt(pos) == '.')) {
+                pos++;
+            }
+            if (start == pos) {
+                throw error("expected a name");
+            }
+            return text.substring(start, pos);
+        }
+
+        boolean acceptWord(String word) {
+            skipSpaces();
+            if (text.regionMatches(true, pos, word, 0, word.length())
+                    && (pos + word.length() == text.length() || Character.isWhitespace(text.charAt(pos + word.length())))) {
+                pos += word.length();
+                return true;
+            }
+            return false;
+        }
+
+        String operator() throws RuleSyntaxException {
+            skipSpaces();
+            for (String op : new String[] {"==", "!=", ">=", "<=", ">", "<", "~"}) {
+                if (text.startsWith(op, pos)) {
+                    pos += op.length();
+                    return op;
+                }
+            }
+            if (acceptWord("contains")) {
+                return "contains";
+            }
+            if (acceptWord("startsWith")) {
+                return "startswith";
+            }
+            throw error("expected an operator");
+        }
+
+        String string() throws RuleSyntaxException {
+            skipSpaces();
+            if (pos >= text.length() || text.charAt(pos) != '"') {
+                throw error("expected a quoted string");
+            }
+            StringBuilder value = new StringBuilder();
+            pos++;
+            while (pos < text.length() && text.charAt(pos) != '"') {
+                char ch = text.charAt(pos++);
+                if (ch == '\\' && pos < text.length()) {
+                    ch = text.charAt(pos++);
+                }
+                value.append(ch);
+            }
+            if (pos >= text.length()) {
+                throw error("unterminated string");
+            }
+            pos++;
+            return value.toString();
+        }
+
+        // Returns {pattern, flags}
+        String[] regex() throws RuleSyntaxException {
+            skipSpaces();
+            if (pos >= text.length() || text.charAt(pos) != '/') {
+                throw error("expected /regex/");
+            }
+            StringBuilder value = new StringBuilder();
+            pos++;
+            while (pos < text.length() && text.charAt(pos) != '/') {
+                char ch = text.charAt(pos++);
+                if (ch == '\\' && pos < text.length() && text.charAt(pos) == '/') {
+                    ch = text.charAt(pos++);
+                } else if (ch == '\\' && pos < text.length()) {
+                    value.append(ch);
+                    ch = text.charAt(pos++);
+                }
+                value.append(ch);
+            }
+            if (pos >= text.length()) {
+                throw error("unterminated regex");
+            }
+            pos++;
+            int flagsStart = pos;
+            while (pos < text.length() && Character.isLetter(text.charAt(pos))) {
+                pos++;
+            }
+            return new String[] {value.toString(), text.substring(flagsStart, pos)};
+        }
+
+        double number() throws RuleSyntaxException {
+            skipSpaces();
+            int start = pos;
+            while (pos < text.length() && (Character.isDigit(text.charAt(pos)) || "+-.eE".indexOf(text.charAt(pos)) >= 0)) {
+                pos++;
+            }
+            try {
+                return Double.parseDouble(text.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw error("expected a number");
+            }
+        }
+
+        void expect(String token) throws RuleSyntaxException {
+            skipSpaces();
+            if (!text.startsWith(token, pos)) {
+                throw error("expected '" + token + "'");
+            }
+            pos += token.length();
+        }
+
+        void expectEnd() throws RuleSyntaxException {
+            skipSpaces();
+            if (pos < text.length()) {
+                throw error("unexpected '" + text.substring(pos) + "'");
+            }
+        }
+
+        private RuleSyntaxException error(String message) {
+            return new RuleSyntaxException(lineNumber, message + " at column " + (pos + 1));
+        }
+    }
+}
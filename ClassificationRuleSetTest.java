@@ -0,0 +1,38 @@
+package com.security.threatmonitor;
+
+import java.util.regex.Pattern;
+
+public class ClassificationRuleSetTest {
+    private static boolean passed = true;
+
+    public static void main(String[] args) {
+        System.out.println("Testing the literal prefilter of rule patterns...");
+
+        // Pattern, a text it matches, and the literal every match must contain
+        check("failed login", "Failed login for root", "failed login");
+        check("port \\d+ scan", "port 22 scan", "port ");
+        check("\\x41BCDE", "ABCDE", "BCDE");
+        check("\\x{41}BCDE", "ABCDE", "BCDE");
+        check("\\u0041BCDE", "ABCDE", "BCDE");
+        check("\\0101BCDE", "ABCDE", "BCDE");
+        check("\\cAabcd", "\u0001abcd", "abcd");
+        check("(ab)\\1xyz", "ababxyz", "xyz");
+        check("(?<g>ab)\\k<g>tail", "ababtail", "tail");
+        check("\\Qa.b\\Ecdef", "a.bcdef", "cdef");
+        check("\\p{Alpha}login", "xlogin", "login");
+        check("\\pLlogin", "xlogin", "login");
+        check("\\x41", "A", null);
+
+        System.out.println(passed ? "\nRule prefilter test passed!" : "\nRule prefilter test FAILED");
+    }
+
+    private static void check(String regex, String text, String expected) {
+        String literal = ClassificationRuleSet.requiredLiteral(regex);
+        boolean matches = Pattern.compile(regex, Pattern.CASE_INSENSITIVE).matcher(text).find();
+        // The prefilter must never rule out a text the pattern matches
+        boolean ok = matches && (literal == null ? expected == null : literal.equals(expected)
+                && text.toLowerCase().contains(literal.toLowerCase()));
+        passed &= ok;
+        System.out.println((ok ? "ok    " : "WRONG ") + regex + " -> " + (literal == null ? "(none)" : "\"" + literal + "\""));
+    }
+}
@@ -0,0 +1,69 @@
+package com.security.threatmonitor;
+
+/**
+ * Approximate counts per key in width x depth counters. An estimate never undercounts and
+ * overcounts by at most about e/width of the total with probability 1 - e^-depth. Sketches of
+ * the same shape merge by adding counters.
+ */
+public class CountMinSketch {
+    private final int width;
+    private final int depth;
+    private final long[] counters;
+    private long total;
+
+    // Width must be a power of two
+    public CountMinSketch(int width, int depth) {
+        if (width <= 0 || Integer.bitCount(width) != 1 || depth <= 0) {
+            throw new IllegalArgumentException("Count-Min width must be a power of two and depth positive");
+        }
+        this.width = width;
+        this.depth = depth;
+        this.counters = new long[width * depth];
+    }
+
+    public void add(String key, long count) {
+        long hash = SketchHashing.hash(key);
+        for (int row = 0; row < depth; row++) {
+            counters[row * width + column(hash, row)] += count;
+        }
+        total += count;
+    }
+
+    public long estimate(String key) {
+        long hash = SketchHashing.hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters[row * width + column(hash, row)]);
+        }
+        return estimate;
+    }
+
+    // Row hashes derived from the two halves of one 64-bit hash (Kirsch-Mitzenmacher)
+    private int column(long hash, int row) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        return (h1 + row * h2) & (width - 1);
+    }
+
+    public void merge(CountMinSketch other) {
+        if (other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("Cannot merge Count-Min sketches of different shape");
+        }
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] += other.counters[i];
+        }
+        total += other.total;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+}
@@ -0,0 +1,181 @@
+package com.security.threatmonitor;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * What the dashboard needs right after startup: alert totals per severity, the recent trend
+ * from the rollups and the newest alerts. Written to a small binary file so the next start
+ * can show it with one mapped read instead of querying the database.
+ */
+public class DashboardSnapshot {
+    private static final Logger logger = Logger.getLogger(DashboardSnapshot.class.getName());
+    private static final int MAGIC = 0x544d5353; // "TMSS"
+    private static final int VERSION = 2;
+
+    private final long writtenAtMillis;
+    private final long maxAlertId;
+    private final long[] severityTotals;
+    private final AlertRollups.Histogram trend;
+    private final List<Alert> recentAlerts;
+
+    // maxAlertId is the newest alert row when the snapshot was taken; recentAlerts are newest first
+    public DashboardSnapshot(long writtenAtMillis, long maxAlertId, long[] severityTotals,
+                             AlertRollups.Histogram trend, List<Alert> recentAlerts) {
+        this.writtenAtMillis = writtenAtMillis;
+        this.maxAlertId = maxAlertId;
+        this.severityTotals = severityTotals.clone();
+        this.trend = trend;
+        this.recentAlerts = Collections.unmodifiableList(new ArrayList<>(recentAlerts));
+    }
+
+    // Writes to a temporary file first so a crash never leaves a truncated snapshot behind
+    public void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream fileOut = Files.newOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(writtenAtMillis);
+            out.writeLong(maxAlertId);
+            for (long total : severityTotals) {
+                out.writeLong(total);
+            }
+
+            long[] trendCounts = trend.getCounts();
+            out.writeLong(trend.getFromMillis());
+            out.writeLong(trend.getBucketMillis());
+            out.writeInt(trendCounts.length);
+            for (long count : trendCounts) {
+                out.writeLong(count);
+            }
+
+            out.writeInt(recentAlerts.size());
+            for (Alert entry : recentAlerts) {
+                out.writeLong(entry.getEpochMicros());
+                out.writeByte(entry.getSeverity().ordinal());
+                writeString(out, entry.getSource());
+                writeString(out, entry.getMessage());
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Length-prefixed UTF-8; a length of -1 stands for null
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Returns null if there is no snapshot or it cannot be read
+    public static DashboardSnapshot read(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return decode(buffer);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Ignoring unreadable dashboard snapshot " + file, e);
+            return null;
+        }
+    }
+
+    private static DashboardSnapshot decode(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a version " + VERSION + " dashboard snapshot");
+            }
+            long writtenAtMillis = buffer.getLong();
+            long maxAlertId = buffer.getLong();
+            long[] severityTotals = new long[Alert.Severity.values().length];
+            for (int i = 0; i < severityTotals.length; i++) {
+                severityTotals[i] = buffer.getLong();
+            }
+
+            long trendFrom = buffer.getLong();
+            long trendBucket = buffer.getLong();
+            long[] trendCounts = new long[checkedLength(buffer, buffer.getInt(), Long.BYTES)];
+            buffer.asLongBuffer().get(trendCounts);
+            buffer.position(buffer.position() + trendCounts.length * Long.BYTES);
+
+            int alertCount = checkedLength(buffer, buffer.getInt(), Long.BYTES + 1 + 2 * Integer.BYTES);
+            List<Alert> recentAlerts = new ArrayList<>(alertCount);
+            Alert.Severity[] severities = Alert.Severity.values();
+            for (int i = 0; i < alertCount; i++) {
+                long epochMicros = buffer.getLong();
+                Alert.Severity severity = severities[buffer.get()];
+                String source = readString(buffer);
+                String message = readString(buffer);
+                recentAlerts.add(new Alert(epochMicros, source, message, severity));
+            }
+
+            return new DashboardSnapshot(writtenAtMillis, maxAlertId, severityTotals,
+                    new AlertRollups.Histogram(trendFrom, trendBucket, trendCounts), recentAlerts);
+        } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated or corrupt dashboard snapshot", e);
+        }
+    }
+
+    // Rejects lengths that cannot fit in the rest of the file before allocating for them
+    private static int checkedLength(ByteBuffer buffer, int length, int minBytesEach) throws IOException {
+        if (length < 0 || (long) length * minBytesEach > buffer.remaining()) {
+            throw new IOException("Corrupt dashboard snapshot length " + length);
+        }
+        return length;
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[checkedLength(buffer, length, 1)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public LocalDateTime getWrittenAt() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(writtenAtMillis), ZoneId.systemDefault());
+    }
+
+    public long getMaxAlertId() {
+        return maxAlertId;
+    }
+
+    public long[] getSeverityTotals() {
+        return severityTotals.clone();
+    }
+
+    public AlertRollups.Histogram getTrend() {
+        return trend;
+    }
+
+    public List<Alert> getRecentAlerts() {
+        return recentAlerts;
+    }
+}
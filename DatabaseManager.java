@@ -1,18 +1,51 @@
 package com.security.threatmonitor;
 
 import java.sql.*;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class DatabaseManager {
     private static final Logger logger = Logger.getLogger(DatabaseManager.class.getName());
+    // One connection for every thread: each statement and transaction holds this object's
+    // monitor so that no statement can run inside another thread's transaction. Take
+    // cacheLock, where needed, before it.
     private Connection connection;
     private final String dbUrl;
     private final String username;
     private final String password;
+    private boolean fullTextAvailable;
+    private volatile RecentAlertCache recentCache;
+    private final Object cacheLock = new Object();
+    // Indexed by Timed.ordinal(); null until setMetrics() is called
+    private volatile LatencyHistogram[] timings;
+
+    // Statements whose latency is recorded, with their metric names
+    private enum Timed {
+        INSERT("db.insert"),
+        INSERT_BATCH("db.insertBatch"),
+        QUERY("db.query"),
+        FIND("db.find"),
+        SEARCH("db.search"),
+        COUNT_BY_SEVERITY("db.countBySeverity"),
+        SCAN("db.scan"),
+        RETENTION_SELECT("db.retention.select"),
+        RETENTION_DELETE("db.retention.delete"),
+        ROLLUPS_UPSERT("db.rollups.upsert"),
+        ROLLUPS_COMPACT("db.rollups.compact"),
+        ROLLUPS_SELECT("db.rollups.select");
+
+        private final String metricName;
+
+        Timed(String metricName) {
+            this.metricName = metricName;
+        }
+    }
 
     // SQL statements
     private static final String CREATE_ALERTS_TABLE =
@@ -31,11 +64,96 @@ public class DatabaseManager {
             "SELECT timestamp, source, message, severity FROM alerts " +
                     "ORDER BY timestamp DESC LIMIT ?";
 
+    private static final String SELECT_ALERTS_BY_SEVERITY =
+            "SELECT timestamp, source, message, severity FROM alerts WHERE severity = ? " +
+                    "ORDER BY timestamp DESC LIMIT ?";
+
+    private static final String SELECT_ALERTS_BY_SOURCE =
+            "SELECT timestamp, source, message, severity FROM alerts WHERE source = ? " +
+                    "ORDER BY timestamp DESC LIMIT ?";
+
+    private static final String SELECT_ALERTS_SINCE =
+            "SELECT timestamp, source, message, severity FROM alerts WHERE timestamp >= ? " +
+                    "ORDER BY timestamp DESC";
+
+    private static final String SELECT_ALERTS_IN_RANGE =
+            "SELECT timestamp, source, message, severity FROM alerts " +
+                    "WHERE timestamp >= ? AND timestamp < ? AND id <= ? ORDER BY timestamp, id";
+
+    private static final String SELECT_OLDEST_TIMESTAMP =
+            "SELECT MIN(timestamp) FROM alerts";
+
+    private static final String SELECT_OLDEST_TIMESTAMP_SINCE =
+            "SELECT MIN(timestamp) FROM alerts WHERE timestamp >= ?";
+
+    // Rows added since an id bound that belong before a time; the id range drives the lookup
+    private static final String SELECT_LATE_ALERTS =
+            "SELECT timestamp, source, message, severity FROM alerts " +
+                    "WHERE id > ? AND id <= ? AND +timestamp < ? ORDER BY timestamp, id";
+
+    private static final String DELETE_ALERTS_BY_ID =
+            "DELETE FROM alerts WHERE id IN (%s)";
+
+    private static final String SELECT_MAX_ALERT_ID =
+            "SELECT MAX(id) FROM alerts";
+
     private static final String COUNT_ALERTS_BY_SEVERITY =
             "SELECT severity, COUNT(*) as count FROM alerts GROUP BY severity";
 
-    private static final String DELETE_OLD_ALERTS =
-            "DELETE FROM alerts WHERE timestamp < ?";
+    private static final String CREATE_TIMESTAMP_INDEX =
+            "CREATE INDEX IF NOT EXISTS idx_alerts_timestamp ON alerts (timestamp)";
+
+    // Serve AlertQuery filters on severity or source in timestamp order
+    private static final String CREATE_SEVERITY_INDEX =
+            "CREATE INDEX IF NOT EXISTS idx_alerts_severity_timestamp ON alerts (severity, timestamp)";
+
+    private static final String CREATE_SOURCE_INDEX =
+            "CREATE INDEX IF NOT EXISTS idx_alerts_source_timestamp ON alerts (source, timestamp)";
+
+    // Full-text index over messages, kept in sync with the alerts table by triggers
+    private static final String FTS_TABLE_EXISTS =
+            "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'alerts_fts'";
+
+    private static final String CREATE_FTS_TABLE =
+            "CREATE VIRTUAL TABLE IF NOT EXISTS alerts_fts USING fts5(" +
+                    "message, content='alerts', content_rowid='id')";
+
+    private static final String CREATE_FTS_INSERT_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS alerts_fts_insert AFTER INSERT ON alerts BEGIN " +
+                    "INSERT INTO alerts_fts (rowid, message) VALUES (new.id, new.message); END";
+
+    private static final String CREATE_FTS_DELETE_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS alerts_fts_delete AFTER DELETE ON alerts BEGIN " +
+                    "INSERT INTO alerts_fts (alerts_fts, rowid, message) VALUES ('delete', old.id, old.message); END";
+
+    private static final String REBUILD_FTS =
+            "INSERT INTO alerts_fts (alerts_fts) VALUES ('rebuild')";
+
+    // Alert counts per (bucket, source, severity); one table per rollup resolution
+    private static final String CREATE_ROLLUP_TABLE =
+            "CREATE TABLE IF NOT EXISTS %s (" +
+                    "bucket_start INTEGER NOT NULL, " +
+                    "source VARCHAR(100) NOT NULL, " +
+                    "severity VARCHAR(20) NOT NULL, " +
+                    "count INTEGER NOT NULL, " +
+                    "PRIMARY KEY (bucket_start, source, severity)) WITHOUT ROWID";
+
+    private static final String UPSERT_ROLLUP =
+            "INSERT INTO %s (bucket_start, source, severity, count) VALUES (?, ?, ?, ?) " +
+                    "ON CONFLICT (bucket_start, source, severity) DO UPDATE SET count = count + excluded.count";
+
+    private static final String COMPACT_ROLLUPS =
+            "INSERT INTO %s (bucket_start, source, severity, count) " +
+                    "SELECT (bucket_start / ?) * ?, source, severity, SUM(count) FROM %s " +
+                    "WHERE bucket_start < ? GROUP BY 1, source, severity " +
+                    "ON CONFLICT (bucket_start, source, severity) DO UPDATE SET count = count + excluded.count";
+
+    private static final String DELETE_ROLLUPS =
+            "DELETE FROM %s WHERE bucket_start < ?";
+
+    private static final String SELECT_ROLLUPS =
+            "SELECT bucket_start, source, severity, count FROM %s " +
+                    "WHERE bucket_start >= ? AND bucket_start < ?";
 
     public DatabaseManager(String dbUrl, String username, String password) {
         this.dbUrl = dbUrl;
@@ -43,7 +161,7 @@ public class DatabaseManager {
         this.password = password;
     }
 
-    public void initialize() {
+    public synchronized void initialize() {
         try {
             // Load the SQLite JDBC driver
             Class.forName("org.sqlite.JDBC");
@@ -54,9 +172,19 @@ public class DatabaseManager {
 
             // Create tables if they don't exist
             try (Statement statement = connection.createStatement()) {
+                // Lets retention reclaim space in steps; only takes effect on a new database
+                statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
                 statement.execute(CREATE_ALERTS_TABLE);
+                statement.execute(CREATE_TIMESTAMP_INDEX);
+                statement.execute(CREATE_SEVERITY_INDEX);
+                statement.execute(CREATE_SOURCE_INDEX);
+                for (AlertRollups.Resolution resolution : AlertRollups.Resolution.values()) {
+                    statement.execute(String.format(CREATE_ROLLUP_TABLE, resolution.getTableName()));
+                }
                 logger.info("Alerts table created or already exists");
             }
+
+            initializeFullTextIndex();
         } catch (ClassNotFoundException e) {
             logger.log(Level.SEVERE, "JDBC driver not found", e);
         } catch (SQLException e) {
@@ -64,35 +192,181 @@ public class DatabaseManager {
         }
     }
 
+    private void initializeFullTextIndex() {
+        try (Statement statement = connection.createStatement()) {
+            boolean exists;
+            try (ResultSet resultSet = statement.executeQuery(FTS_TABLE_EXISTS)) {
+                exists = resultSet.next();
+            }
+
+            statement.execute(CREATE_FTS_TABLE);
+            statement.execute(CREATE_FTS_INSERT_TRIGGER);
+            statement.execute(CREATE_FTS_DELETE_TRIGGER);
+
+            // Index alerts stored before the full-text table existed
+            if (!exists) {
+                statement.execute(REBUILD_FTS);
+                logger.info("Full-text index built over existing alerts");
+            }
+            fullTextAvailable = true;
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Full-text search unavailable (FTS5 missing?), falling back to LIKE", e);
+        }
+    }
+
+    /**
+     * Keeps the newest stored alerts in memory (at most capacity of them, and none older than
+     * maxAge if given) so recent-alert queries do not reach SQLite. Call after initialize().
+     */
+    public void enableRecentCache(int capacity, Duration maxAge) {
+        enableRecentCache(capacity, maxAge, null);
+    }
+
+    // Starts the cache from alerts known from elsewhere (newest first) instead of a query
+    public void enableRecentCache(int capacity, Duration maxAge, List<Alert> warmAlerts) {
+        RecentAlertCache cache = new RecentAlertCache(capacity, maxAge);
+        if (warmAlerts != null) {
+            cache.load(warmAlerts, false);
+        } else {
+            List<Alert> stored = queryAlerts(SELECT_ALERTS, capacity);
+            cache.load(stored, stored.size() < capacity);
+        }
+        recentCache = cache;
+        logger.info("Recent alert cache enabled with " + cache.size() + " of " + capacity + " alerts");
+    }
+
+    // Refills the cache from the database, e.g. after it was started from a stale snapshot
+    public void reloadRecentCache() {
+        RecentAlertCache cache = recentCache;
+        if (cache == null) {
+            return;
+        }
+        synchronized (cacheLock) {
+            List<Alert> stored = queryAlerts(SELECT_ALERTS, cache.getCapacity());
+            cache.load(stored, stored.size() < cache.getCapacity());
+        }
+    }
+
     public void storeAlert(Alert alert) {
-        try (PreparedStatement statement = connection.prepareStatement(INSERT_ALERT)) {
-            statement.setTimestamp(1, Timestamp.valueOf(alert.getTimestamp()));
-            statement.setString(2, alert.getSource());
-            statement.setString(3, alert.getMessage());
-            statement.setString(4, alert.getSeverity().toString());
-            statement.executeUpdate();
+        // Serialized with reloadRecentCache() so a reload cannot drop an alert stored meanwhile
+        synchronized (cacheLock) {
+            synchronized (this) {
+                long startNanos = System.nanoTime();
+                try (PreparedStatement statement = connection.prepareStatement(INSERT_ALERT)) {
+                    statement.setTimestamp(1, new Timestamp(alert.getEpochMillis()));
+                    statement.setString(2, alert.getSource());
+                    statement.setString(3, alert.getMessage());
+                    statement.setString(4, alert.getSeverity().toString());
+                    statement.executeUpdate();
+                    recordTime(Timed.INSERT, startNanos);
+                } catch (SQLException e) {
+                    logger.log(Level.WARNING, "Error storing alert in database", e);
+                    return;
+                }
+            }
+
+            RecentAlertCache cache = recentCache;
+            if (cache != null) {
+                cache.add(alert);
+            }
+        }
+    }
+
+    // Stores the alerts in one transaction; returns false (storing none) if it failed
+    public boolean storeAlerts(Collection<Alert> alerts) {
+        synchronized (cacheLock) {
+            synchronized (this) {
+                long startNanos = System.nanoTime();
+                try {
+                    connection.setAutoCommit(false);
+                    try (PreparedStatement statement = connection.prepareStatement(INSERT_ALERT)) {
+                        for (Alert alert : alerts) {
+                            statement.setTimestamp(1, new Timestamp(alert.getEpochMillis()));
+                            statement.setString(2, alert.getSource());
+                            statement.setString(3, alert.getMessage());
+                            statement.setString(4, alert.getSeverity().toString());
+                            statement.addBatch();
+                        }
+                        statement.executeBatch();
+                        connection.commit();
+                        recordTime(Timed.INSERT_BATCH, startNanos);
+                    } catch (SQLException e) {
+                        connection.rollback();
+                        throw e;
+                    } finally {
+                        connection.setAutoCommit(true);
+                    }
+                } catch (SQLException e) {
+                    logger.log(Level.WARNING, "Error storing " + alerts.size() + " alerts in database", e);
+                    return false;
+                }
+            }
+
+            RecentAlertCache cache = recentCache;
+            if (cache != null) {
+                for (Alert alert : alerts) {
+                    cache.add(alert);
+                }
+            }
+            return true;
+        }
+    }
+
+    // Row id of the newest alert, or 0 if there are none
+    public synchronized long getMaxAlertId() {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(SELECT_MAX_ALERT_ID)) {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
         } catch (SQLException e) {
-            logger.log(Level.WARNING, "Error storing alert in database", e);
+            logger.log(Level.WARNING, "Error retrieving newest alert id", e);
+            return 0;
         }
     }
 
-    public List<AlertEntry> getRecentAlerts(int limit) {
-        List<AlertEntry> alerts = new ArrayList<>();
+    public List<Alert> getRecentAlerts(int limit) {
+        List<Alert> cached = recentCache == null ? null : recentCache.recent(limit, null);
+        return cached != null ? cached : queryAlerts(SELECT_ALERTS, limit);
+    }
+
+    public List<Alert> getRecentAlerts(int limit, Alert.Severity severity) {
+        List<Alert> cached = recentCache == null ? null
+                : recentCache.recent(limit, entry -> entry.getSeverity() == severity);
+        return cached != null ? cached : queryAlerts(SELECT_ALERTS_BY_SEVERITY, severity.toString(), limit);
+    }
+
+    public List<Alert> getRecentAlerts(int limit, String source) {
+        List<Alert> cached = recentCache == null ? null
+                : recentCache.recent(limit, entry -> source != null && source.equals(entry.getSource()));
+        return cached != null ? cached : queryAlerts(SELECT_ALERTS_BY_SOURCE, source, limit);
+    }
+
+    // Alerts at or after since, newest first
+    public List<Alert> getAlertsSince(LocalDateTime since) {
+        List<Alert> cached = recentCache == null ? null : recentCache.since(since);
+        return cached != null ? cached : queryAlerts(SELECT_ALERTS_SINCE, Timestamp.valueOf(since));
+    }
+
+    private synchronized List<Alert> queryAlerts(String sql, Object... parameters) {
+        List<Alert> alerts = new ArrayList<>();
+        long startNanos = System.nanoTime();
 
-        try (PreparedStatement statement = connection.prepareStatement(SELECT_ALERTS)) {
-            statement.setInt(1, limit);
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
 
             try (ResultSet resultSet = statement.executeQuery()) {
                 while (resultSet.next()) {
-                    LocalDateTime timestamp = resultSet.getTimestamp("timestamp").toLocalDateTime();
+                    long epochMicros = epochMicros(resultSet.getTimestamp("timestamp"));
                     String source = resultSet.getString("source");
                     String message = resultSet.getString("message");
                     Alert.Severity severity = Alert.Severity.valueOf(resultSet.getString("severity"));
 
-                    alerts.add(new AlertEntry(
-                            timestamp, source, message, severity));
+                    alerts.add(new Alert(
+                            epochMicros, source, message, severity));
                 }
             }
+            recordTime(Timed.QUERY, startNanos);
         } catch (SQLException e) {
             logger.log(Level.WARNING, "Error retrieving alerts from database", e);
         }
@@ -100,19 +374,451 @@ public class DatabaseManager {
         return alerts;
     }
 
-    public void cleanupOldAlerts(int daysToKeep) {
-        LocalDateTime cutoffDate = LocalDateTime.now().minusDays(daysToKeep);
+    // One page of alerts matching the query, newest first
+    public synchronized AlertQuery.Page findAlerts(AlertQuery query) {
+        List<Alert> alerts = new ArrayList<>();
+        List<Object> parameters = new ArrayList<>();
+        String sql = query.toSql(parameters);
+        AlertQuery nextQuery = null;
+        long startNanos = System.nanoTime();
+
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.size(); i++) {
+                statement.setObject(i + 1, parameters.get(i));
+            }
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                Timestamp lastTimestamp = null;
+                long lastId = 0;
+                while (resultSet.next()) {
+                    if (alerts.size() == query.getLimit()) {
+                        // The extra row only shows that another page exists
+                        nextQuery = query.after(lastTimestamp, lastId);
+                        break;
+                    }
+                    lastId = resultSet.getLong("id");
+                    lastTimestamp = resultSet.getTimestamp("timestamp");
+                    alerts.add(new Alert(
+                            epochMicros(lastTimestamp),
+                            resultSet.getString("source"),
+                            resultSet.getString("message"),
+                            Alert.Severity.valueOf(resultSet.getString("severity"))));
+                }
+            }
+            recordTime(Timed.FIND, startNanos);
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Error querying alerts", e);
+        }
+
+        return new AlertQuery.Page(alerts, nextQuery);
+    }
+
+    /**
+     * Searches alert messages and returns one page of hits, best matches first (or newest
+     * first for {@link AlertSearch.Order#NEWEST}). Ordering by newest is the cheap option
+     * for very common words, because it does not need to score every match.
+     */
+    public synchronized List<SearchHit> searchAlerts(AlertSearch search) {
+        List<SearchHit> hits = new ArrayList<>();
+        List<Object> parameters = new ArrayList<>();
+        StringBuilder sql = new StringBuilder();
+        String matchExpression = search.toMatchExpression();
+        boolean fullText = fullTextAvailable && !matchExpression.isEmpty();
+
+        if (fullText) {
+            sql.append("SELECT a.id, a.timestamp, a.source, a.message, a.severity, bm25(alerts_fts) AS score ")
+                    .append("FROM alerts_fts JOIN alerts a ON a.id = alerts_fts.rowid ")
+                    .append("WHERE alerts_fts MATCH ?");
+            parameters.add(matchExpression);
+        } else {
+            sql.append("SELECT a.id, a.timestamp, a.source, a.message, a.severity, 0 AS score ")
+                    .append("FROM alerts a WHERE 1 = 1");
+            for (String word : search.getText().split("\\s+")) {
+                if (!word.isEmpty()) {
+                    sql.append(" AND a.message LIKE ? ESCAPE '\\'");
+                    parameters.add("%" + word.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");
+                }
+            }
+        }
+
+        if (!search.getSeverities().isEmpty()) {
+            sql.append(" AND a.severity IN (").append(placeholders(search.getSeverities().size())).append(")");
+            for (Alert.Severity severity : search.getSeverities()) {
+                parameters.add(severity.toString());
+            }
+        }
+        if (!search.getSources().isEmpty()) {
+            sql.append(" AND a.source IN (").append(placeholders(search.getSources().size())).append(")");
+            parameters.addAll(search.getSources());
+        }
+        if (search.getFrom() != null) {
+            sql.append(" AND a.timestamp >= ?");
+            parameters.add(Timestamp.valueOf(search.getFrom()));
+        }
+        if (search.getTo() != null) {
+            sql.append(" AND a.timestamp < ?");
+            parameters.add(Timestamp.valueOf(search.getTo()));
+        }
+
+        if (fullText && search.getOrder() == AlertSearch.Order.RELEVANCE) {
+            sql.append(" ORDER BY score, a.id DESC");
+        } else {
+            sql.append(" ORDER BY a.id DESC");
+        }
+        sql.append(" LIMIT ? OFFSET ?");
+        parameters.add(search.getLimit());
+        parameters.add(search.getOffset());
+
+        long startNanos = System.nanoTime();
+        try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+            for (int i = 0; i < parameters.size(); i++) {
+                statement.setObject(i + 1, parameters.get(i));
+            }
 
-        try (PreparedStatement statement = connection.prepareStatement(DELETE_OLD_ALERTS)) {
-            statement.setTimestamp(1, Timestamp.valueOf(cutoffDate));
-            int rowsDeleted = statement.executeUpdate();
-            logger.info("Deleted " + rowsDeleted + " alerts older than " + daysToKeep + " days");
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    hits.add(new SearchHit(
+                            resultSet.getLong("id"),
+                            epochMicros(resultSet.getTimestamp("timestamp")),
+                            resultSet.getString("source"),
+                            resultSet.getString("message"),
+                            Alert.Severity.valueOf(resultSet.getString("severity")),
+                            -resultSet.getDouble("score")));
+                }
+            }
+            recordTime(Timed.SEARCH, startNanos);
         } catch (SQLException e) {
-            logger.log(Level.WARNING, "Error cleaning up old alerts", e);
+            logger.log(Level.WARNING, "Error searching alerts", e);
         }
+
+        return hits;
+    }
+
+    // Stored timestamps have millisecond precision
+    private static long epochMicros(Timestamp timestamp) {
+        return timestamp.getTime() * 1000;
     }
 
-    public void close() {
+    private static String placeholders(int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(i == 0 ? "?" : ", ?");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Streams the alerts in [from, to) with row ids up to maxId to the consumer, oldest first.
+     * Returns false if the query failed part way.
+     */
+    public synchronized boolean forEachAlertBetween(LocalDateTime from, LocalDateTime to, long maxId, Consumer<Alert> consumer) {
+        long startNanos = System.nanoTime();
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_ALERTS_IN_RANGE)) {
+            statement.setTimestamp(1, Timestamp.valueOf(from));
+            statement.setTimestamp(2, Timestamp.valueOf(to));
+            statement.setLong(3, maxId);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    consumer.accept(new Alert(
+                            epochMicros(resultSet.getTimestamp("timestamp")),
+                            resultSet.getString("source"),
+                            resultSet.getString("message"),
+                            Alert.Severity.valueOf(resultSet.getString("severity"))));
+                }
+            }
+            recordTime(Timed.SCAN, startNanos);
+            return true;
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Error reading alerts for archiving", e);
+            return false;
+        }
+    }
+
+    // Timestamp of the oldest stored alert, or null if there are none
+    public synchronized LocalDateTime getOldestAlertTimestamp() {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(SELECT_OLDEST_TIMESTAMP)) {
+            if (resultSet.next()) {
+                Timestamp oldest = resultSet.getTimestamp(1);
+                return oldest == null ? null : oldest.toLocalDateTime();
+            }
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Error retrieving oldest alert", e);
+        }
+        return null;
+    }
+
+    // Timestamp of the oldest alert at or after since, or null if there is none
+    public synchronized LocalDateTime getOldestAlertTimestamp(LocalDateTime since) {
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_OLDEST_TIMESTAMP_SINCE)) {
+            statement.setTimestamp(1, Timestamp.valueOf(since));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    Timestamp oldest = resultSet.getTimestamp(1);
+                    return oldest == null ? null : oldest.toLocalDateTime();
+                }
+            }
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Error retrieving oldest alert", e);
+        }
+        return null;
+    }
+
+    /**
+     * Streams the alerts before the given time with row ids in (afterId, maxId] to the
+     * consumer, oldest first. Returns false if the query failed part way.
+     */
+    public synchronized boolean forEachAlertAfterId(long afterId, long maxId, LocalDateTime before, Consumer<Alert> consumer) {
+        long startNanos = System.nanoTime();
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_LATE_ALERTS)) {
+            statement.setLong(1, afterId);
+            statement.setLong(2, maxId);
+            statement.setTimestamp(3, Timestamp.valueOf(before));
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    consumer.accept(new Alert(
+                            epochMicros(resultSet.getTimestamp("timestamp")),
+                            resultSet.getString("source"),
+                            resultSet.getString("message"),
+                            Alert.Severity.valueOf(resultSet.getString("severity"))));
+                }
+            }
+            recordTime(Timed.SCAN, startNanos);
+            return true;
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Error reading late alerts for archiving", e);
+            return false;
+        }
+    }
+
+    // Receives stored alerts with their row ids
+    @FunctionalInterface
+    public interface StoredAlertConsumer {
+        void accept(long id, Alert entry);
+    }
+
+    /**
+     * Passes the next limit alerts of a retention scan to the consumer, oldest first and
+     * without their messages, and moves the scan past them. Returns the number read, or -1
+     * if the query failed.
+     */
+    public synchronized int forEachExpiredAlert(AlertRetention.ExpiryScan scan, int limit, StoredAlertConsumer consumer) {
+        List<Object> parameters = new ArrayList<>();
+        String sql = scan.toSql(parameters, limit);
+        long startNanos = System.nanoTime();
+
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.size(); i++) {
+                statement.setObject(i + 1, parameters.get(i));
+            }
+
+            int read = 0;
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    long id = resultSet.getLong("id");
+                    Timestamp timestamp = resultSet.getTimestamp("timestamp");
+                    consumer.accept(id, new Alert(
+                            epochMicros(timestamp),
+                            resultSet.getString("source"),
+                            null,
+                            Alert.Severity.valueOf(resultSet.getString("severity"))));
+                    scan.advance(timestamp, id);
+                    read++;
+                }
+            }
+            recordTime(Timed.RETENTION_SELECT, startNanos);
+            return read;
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Error reading alerts for retention", e);
+            return -1;
+        }
+    }
+
+    // Deletes the first count ids in one statement; returns the number deleted or -1
+    public synchronized int deleteAlertsById(long[] ids, int count) {
+        if (count == 0) {
+            return 0;
+        }
+        long startNanos = System.nanoTime();
+        try (PreparedStatement statement = connection.prepareStatement(
+                String.format(DELETE_ALERTS_BY_ID, placeholders(count)))) {
+            for (int i = 0; i < count; i++) {
+                statement.setLong(i + 1, ids[i]);
+            }
+            int deleted = statement.executeUpdate();
+            recordTime(Timed.RETENTION_DELETE, startNanos);
+            return deleted;
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Error deleting expired alerts", e);
+            return -1;
+        }
+    }
+
+    public synchronized boolean isIncrementalVacuumEnabled() {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("PRAGMA auto_vacuum")) {
+            return resultSet.next() && resultSet.getInt(1) == 2;
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Error reading auto_vacuum mode", e);
+            return false;
+        }
+    }
+
+    /**
+     * Switches a database created without incremental vacuum over to it. This rewrites the
+     * whole file with a full VACUUM, so it is done once, on request.
+     */
+    public synchronized boolean convertToIncrementalVacuum() {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            statement.execute("VACUUM");
+            logger.info("Database converted to incremental vacuum");
+            return true;
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Error converting database to incremental vacuum", e);
+            return false;
+        }
+    }
+
+    // Returns up to maxPages free pages to the file system; returns the number freed
+    public synchronized int incrementalVacuum(int maxPages) {
+        try (Statement statement = connection.createStatement()) {
+            int before = freePages(statement);
+            // execute() would step the pragma once and free a single page
+            statement.executeUpdate("PRAGMA incremental_vacuum(" + maxPages + ")");
+            return before - freePages(statement);
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Error running incremental vacuum", e);
+            return 0;
+        }
+    }
+
+    private static int freePages(Statement statement) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery("PRAGMA freelist_count")) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    // Adds per-minute counts to the minute rollup table in one transaction
+    public synchronized boolean addRollupCounts(List<RollupCount> counts) {
+        String sql = String.format(UPSERT_ROLLUP, AlertRollups.Resolution.MINUTE.getTableName());
+        long startNanos = System.nanoTime();
+        try {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (RollupCount count : counts) {
+                    statement.setLong(1, count.getBucketStart());
+                    statement.setString(2, count.getSource());
+                    statement.setString(3, count.getSeverity().toString());
+                    statement.setLong(4, count.getCount());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                connection.commit();
+                recordTime(Timed.ROLLUPS_UPSERT, startNanos);
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Error storing alert rollups", e);
+            return false;
+        }
+    }
+
+    // Folds rollup rows older than the cutoff into the next coarser resolution
+    public synchronized void compactRollups(AlertRollups.Resolution from, AlertRollups.Resolution to, long cutoffMillis) {
+        String compact = String.format(COMPACT_ROLLUPS, to.getTableName(), from.getTableName());
+        String delete = String.format(DELETE_ROLLUPS, from.getTableName());
+        long startNanos = System.nanoTime();
+        try {
+            connection.setAutoCommit(false);
+            try (PreparedStatement compactStatement = connection.prepareStatement(compact);
+                 PreparedStatement deleteStatement = connection.prepareStatement(delete)) {
+                compactStatement.setLong(1, to.getBucketMillis());
+                compactStatement.setLong(2, to.getBucketMillis());
+                compactStatement.setLong(3, cutoffMillis);
+                compactStatement.executeUpdate();
+                deleteStatement.setLong(1, cutoffMillis);
+                int rowsCompacted = deleteStatement.executeUpdate();
+                connection.commit();
+                recordTime(Timed.ROLLUPS_COMPACT, startNanos);
+                if (rowsCompacted > 0) {
+                    logger.info("Compacted " + rowsCompacted + " " + from + " rollups into " + to + " rollups");
+                }
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Error compacting alert rollups", e);
+        }
+    }
+
+    // Rollup rows of every resolution whose bucket starts in [fromMillis, toMillis)
+    public synchronized List<RollupCount> getRollupCounts(long fromMillis, long toMillis) {
+        List<RollupCount> counts = new ArrayList<>();
+        long startNanos = System.nanoTime();
+
+        for (AlertRollups.Resolution resolution : AlertRollups.Resolution.values()) {
+            String sql = String.format(SELECT_ROLLUPS, resolution.getTableName());
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setLong(1, fromMillis);
+                statement.setLong(2, toMillis);
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        counts.add(new RollupCount(
+                                resultSet.getLong("bucket_start"),
+                                resultSet.getString("source"),
+                                Alert.Severity.valueOf(resultSet.getString("severity")),
+                                resultSet.getLong("count")));
+                    }
+                }
+            } catch (SQLException e) {
+                logger.log(Level.WARNING, "Error retrieving alert rollups", e);
+            }
+        }
+        recordTime(Timed.ROLLUPS_SELECT, startNanos);
+
+        return counts;
+    }
+
+    /**
+     * Records statement latencies into the registry (one histogram per kind of statement)
+     * and reports the recent cache's hits, misses and size as gauges.
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        LatencyHistogram[] histograms = new LatencyHistogram[Timed.values().length];
+        for (Timed statement : Timed.values()) {
+            histograms[statement.ordinal()] = metrics.histogram(statement.metricName);
+        }
+        timings = histograms;
+        metrics.gauge("db.cache.hits", () -> recentCache == null ? 0 : recentCache.getHits());
+        metrics.gauge("db.cache.misses", () -> recentCache == null ? 0 : recentCache.getMisses());
+        metrics.gauge("db.cache.size", () -> recentCache == null ? 0 : recentCache.size());
+    }
+
+    private void recordTime(Timed statement, long startNanos) {
+        LatencyHistogram[] histograms = timings;
+        if (histograms != null) {
+            histograms[statement.ordinal()].recordSince(startNanos);
+        }
+    }
+
+    // Null unless enableRecentCache() was called
+    public RecentAlertCache getRecentCache() {
+        return recentCache;
+    }
+
+    public synchronized void close() {
         if (connection != null) {
             try {
                 connection.close();
@@ -123,8 +829,9 @@ public class DatabaseManager {
         }
     }
 
-    public int[] getAlertCountsBySeverity() {
+    public synchronized int[] getAlertCountsBySeverity() {
         int[] counts = new int[4]; // LOW, MEDIUM, HIGH, CRITICAL
+        long startNanos = System.nanoTime();
 
         try (Statement statement = connection.createStatement();
              ResultSet resultSet = statement.executeQuery(COUNT_ALERTS_BY_SEVERITY)) {
@@ -148,6 +855,7 @@ public class DatabaseManager {
                         break;
                 }
             }
+            recordTime(Timed.COUNT_BY_SEVERITY, startNanos);
         } catch (SQLException e) {
             logger.log(Level.WARNING, "Error retrieving alert counts by severity", e);
         }
@@ -155,33 +863,55 @@ public class DatabaseManager {
         return counts;
     }
     
-    public static class AlertEntry {
-        private final LocalDateTime timestamp;
+    // A search result: the alert, its row id and its relevance (higher is better)
+    public static class SearchHit extends Alert {
+        private final long id;
+        private final double score;
+
+        public SearchHit(long id, long epochMicros, String source, String message,
+                         Alert.Severity severity, double score) {
+            super(epochMicros, source, message, severity);
+            this.id = id;
+            this.score = score;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public double getScore() {
+            return score;
+        }
+    }
+
+    // Number of alerts from one source with one severity in the bucket starting at bucketStart
+    public static class RollupCount {
+        private final long bucketStart;
         private final String source;
-        private final String message;
         private final Alert.Severity severity;
+        private final long count;
 
-        public AlertEntry(LocalDateTime timestamp, String source, String message, Alert.Severity severity) {
-            this.timestamp = timestamp;
+        public RollupCount(long bucketStart, String source, Alert.Severity severity, long count) {
+            this.bucketStart = bucketStart;
             this.source = source;
-            this.message = message;
             this.severity = severity;
+            this.count = count;
         }
 
-        public LocalDateTime getTimestamp() {
-            return timestamp;
+        public long getBucketStart() {
+            return bucketStart;
         }
 
         public String getSource() {
             return source;
         }
 
-        public String getMessage() {
-            return message;
-        }
-
         public Alert.Severity getSeverity() {
             return severity;
         }
+
+        public long getCount() {
+            return count;
+        }
     }
-} 
\ No newline at end of file
+}
@@ -25,7 +25,7 @@ public class DatabaseTest {
             
             // Retrieve alerts to verify storage
             System.out.println("Retrieving alerts from database:");
-            for (DatabaseManager.AlertEntry entry : dbManager.getRecentAlerts(10)) {
+            for (Alert entry : dbManager.getRecentAlerts(10)) {
                 System.out.println(entry.getTimestamp() + " [" + entry.getSeverity() + "] " + 
                                   entry.getSource() + ": " + entry.getMessage());
             }
@@ -0,0 +1,59 @@
+package com.security.threatmonitor;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+public class FileSystemMonitor extends PollingMonitor {
+    private static final Logger logger = Logger.getLogger(FileSystemMonitor.class.getName());
+    
+    private final Random random = new Random();
+    private final Path monitoredPath = Paths.get(System.getProperty("user.home"));
+    
+    public FileSystemMonitor(AlertManager alertManager, AdaptivePollingPolicy policy) {
+        super("File System Monitor", alertManager, TimeUnit.SECONDS.toMillis(2), policy);
+    }
+    
+    @Override
+    protected void check() {
+        // For demonstration, generate random file system alerts
+        if (random.nextInt(10) < 3) {  // 30% chance of alert
+            SecurityEvent event;
+            
+            int type = random.nextInt(4);
+            switch (type) {
+                case 0:
+                    Path documents = monitoredPath.resolve("Documents");
+                    event = new SecurityEvent(LocalDateTime.now(), "File Monitor",
+                            "Suspicious file access in " + documents, Alert.Severity.LOW)
+                            .with("type", "suspicious_access").with("path", documents);
+                    break;
+                case 1:
+                    Path downloads = monitoredPath.resolve("Downloads");
+                    event = new SecurityEvent(LocalDateTime.now(), "File Monitor",
+                            "Unusual file modification pattern detected in " + downloads, Alert.Severity.MEDIUM)
+                            .with("type", "unusual_modification").with("path", downloads);
+                    break;
+                case 2:
+                    event = new SecurityEvent(LocalDateTime.now(), "File Monitor",
+                            "Possible ransomware activity: rapid file changes in " + monitoredPath, Alert.Severity.HIGH)
+                            .with("type", "ransomware").with("path", monitoredPath);
+                    break;
+                default:
+                    Path systemPath = Paths.get(System.getProperty("user.dir"));
+                    event = new SecurityEvent(LocalDateTime.now(), "File Monitor",
+                            "Critical: Multiple system files modified in " + systemPath, Alert.Severity.CRITICAL)
+                            .with("type", "system_files_modified").with("path", systemPath);
+                    break;
+            }
+            
+            Alert alert = raise(event);
+            if (alert != null) {
+                logger.info("File system alert generated: " + alert.getSeverity() + " - " + alert.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.security.threatmonitor;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the detection pipeline without the JavaFX toolkit.
+ *
+ * Usage: HeadlessLauncher [config-file] [--load RATE]
+ *
+ * The config file defaults to threatmonitor.properties. --load adds the synthetic load
+ * generator at RATE alerts per second, configured by the monitor.load.* keys.
+ */
+public class HeadlessLauncher {
+    private static final Logger logger = Logger.getLogger(HeadlessLauncher.class.getName());
+
+    public static void main(String[] args) {
+        long startNanos = System.nanoTime();
+
+        String configFile = ThreatMonitorConfig.DEFAULT_FILE;
+        String loadRate = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--load") && i + 1 < args.length) {
+                loadRate = args[++i];
+            } else {
+                configFile = args[i];
+            }
+        }
+
+        ThreatMonitorConfig config = ThreatMonitorConfig.load(Paths.get(configFile));
+        if (loadRate != null) {
+            List<String> monitors = config.getList("monitors", "file,network,resource,login");
+            if (!monitors.contains("load")) {
+                monitors.add("load");
+            }
+            config.set("monitors", String.join(",", monitors));
+            config.set("monitor.load.rate", loadRate);
+        }
+        Logger.getLogger("").setLevel(Level.parse(config.getString("log.level", "INFO")));
+
+        ThreatMonitorCore core = new ThreatMonitorCore(config);
+        Runtime.getRuntime().addShutdownHook(new Thread(core::close, "shutdown"));
+        core.start();
+
+        logger.info("Headless threat monitor started in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms");
+    }
+}
@@ -0,0 +1,100 @@
+package com.security.threatmonitor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The most frequent keys of a stream in fixed memory: a {@link CountMinSketch} estimates each
+ * key's count and a bounded candidate set keeps the keys with the highest estimates. Merging
+ * adds the sketches and re-ranks the union of both candidate sets.
+ */
+public class HeavyHitters {
+    private final CountMinSketch counts;
+    private final int capacity;
+    private final Map<String, Long> candidates;
+
+    // Tracks up to capacity candidates; keep it a few times the largest k queried
+    public HeavyHitters(int capacity, int width, int depth) {
+        this.counts = new CountMinSketch(width, depth);
+        this.capacity = capacity;
+        this.candidates = new HashMap<>(capacity * 2);
+    }
+
+    public void add(String key) {
+        counts.add(key, 1);
+        long estimate = counts.estimate(key);
+
+        if (candidates.containsKey(key) || candidates.size() < capacity) {
+            candidates.put(key, estimate);
+            return;
+        }
+
+        Map.Entry<String, Long> smallest = null;
+        for (Map.Entry<String, Long> candidate : candidates.entrySet()) {
+            if (smallest == null || candidate.getValue() < smallest.getValue()) {
+                smallest = candidate;
+            }
+        }
+        if (estimate > smallest.getValue()) {
+            candidates.remove(smallest.getKey());
+            candidates.put(key, estimate);
+        }
+    }
+
+    public void merge(HeavyHitters other) {
+        counts.merge(other.counts);
+
+        Map<String, Long> union = new HashMap<>(candidates);
+        union.putAll(other.candidates);
+        List<Map.Entry<String, Long>> ranked = new ArrayList<>();
+        for (String key : union.keySet()) {
+            ranked.add(Map.entry(key, counts.estimate(key)));
+        }
+        ranked.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+
+        candidates.clear();
+        for (int i = 0; i < Math.min(capacity, ranked.size()); i++) {
+            candidates.put(ranked.get(i).getKey(), ranked.get(i).getValue());
+        }
+    }
+
+    // The k keys with the highest estimated counts, highest first
+    public List<Entry> top(int k) {
+        List<Entry> entries = new ArrayList<>();
+        for (Map.Entry<String, Long> candidate : candidates.entrySet()) {
+            entries.add(new Entry(candidate.getKey(), candidate.getValue()));
+        }
+        entries.sort((a, b) -> Long.compare(b.getCount(), a.getCount()));
+        return entries.size() > k ? new ArrayList<>(entries.subList(0, k)) : entries;
+    }
+
+    public long getTotal() {
+        return counts.getTotal();
+    }
+
+    public static class Entry {
+        private final String key;
+        private final long count;
+
+        public Entry(String key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        // Estimated; may overcount, never undercounts
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return key + " (" + count + ")";
+        }
+    }
+}
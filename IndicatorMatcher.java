@@ -0,0 +1,321 @@
+package com.security.threatmonitor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Matches alert text against threat-intelligence indicator feeds. Each feed is a local text
+ * file with one indicator per line ('#' starts a comment). IP addresses and CIDR ranges go
+ * into a {@link PrefixTrie}; everything else (domains, hashes, path fragments) is matched
+ * case-insensitively as a substring by an {@link AhoCorasickAutomaton}. A single pass over
+ * the message drives the automaton and extracts IPv4 literals for the trie.
+ *
+ * Feeds are rebuilt off to the side and swapped in atomically, so reloads never block matching.
+ */
+public class IndicatorMatcher {
+    private static final Logger logger = Logger.getLogger(IndicatorMatcher.class.getName());
+
+    public static final String SOURCE = "Threat Intel";
+
+    private final List<Path> feedFiles;
+    private final Alert.Severity matchSeverity;
+    private final Map<Path, FileTime> loadedVersions = new HashMap<>();
+    private volatile IndicatorSet indicators = IndicatorSet.EMPTY;
+    private ScheduledExecutorService reloadScheduler;
+
+    private final AtomicLong messagesScanned = new AtomicLong();
+    private final AtomicLong messagesMatched = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+
+    public enum IndicatorType {
+        ADDRESS, SUBSTRING
+    }
+
+    public static class IndicatorMatch {
+        private final IndicatorType type;
+        private final String indicator;
+        private final String matchedText;
+        private final String feed;
+
+        public IndicatorMatch(IndicatorType type, String indicator, String matchedText, String feed) {
+            this.type = type;
+            this.indicator = indicator;
+            this.matchedText = matchedText;
+            this.feed = feed;
+        }
+
+        public IndicatorType getType() {
+            return type;
+        }
+
+        public String getIndicator() {
+            return indicator;
+        }
+
+        public String getMatchedText() {
+            return matchedText;
+        }
+
+        public String getFeed() {
+            return feed;
+        }
+
+        @Override
+        public String toString() {
+            return type == IndicatorType.ADDRESS && !indicator.equals(matchedText)
+                    ? matchedText + " in " + indicator + " (" + feed + ")"
+                    : indicator + " (" + feed + ")";
+        }
+    }
+
+    private static class IndicatorSet {
+        static final IndicatorSet EMPTY = new IndicatorSet(
+                AhoCorasickAutomaton.build(Collections.emptyList()),
+                PrefixTrie.build(Collections.emptyList()), Collections.emptyList());
+
+        final AhoCorasickAutomaton automaton;
+        final PrefixTrie prefixes;
+        final List<String> feeds;
+
+        IndicatorSet(AhoCorasickAutomaton automaton, PrefixTrie prefixes, List<String> feeds) {
+            this.automaton = automaton;
+            this.prefixes = prefixes;
+            this.feeds = feeds;
+        }
+    }
+
+    public IndicatorMatcher(List<Path> feedFiles, Alert.Severity matchSeverity) {
+        this.feedFiles = new ArrayList<>(feedFiles);
+        this.matchSeverity = matchSeverity;
+    }
+
+    // Rebuilds the indicator set if any feed changed since the last load. Returns true if swapped.
+    public synchronized boolean reload() {
+        Map<Path, FileTime> versions = new HashMap<>();
+        for (Path file : feedFiles) {
+            try {
+                versions.put(file, Files.getLastModifiedTime(file));
+            } catch (IOException e) {
+                versions.put(file, null);
+            }
+        }
+        if (versions.equals(loadedVersions)) {
+            return false;
+        }
+
+        long startNanos = System.nanoTime();
+        List<AhoCorasickAutomaton.Pattern> patterns = new ArrayList<>();
+        List<PrefixTrie.Prefix> prefixes = new ArrayList<>();
+        List<String> feeds = new ArrayList<>();
+
+        for (Path file : feedFiles) {
+            int tag = feeds.size();
+            String name = file.getFileName().toString();
+            feeds.add(name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name);
+
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int comment = line.indexOf('#');
+                    String value = (comment >= 0 ? line.substring(0, comment) : line).trim();
+                    if (value.isEmpty()) {
+                        continue;
+                    }
+                    PrefixTrie.Prefix prefix = PrefixTrie.parse(value, tag);
+                    if (prefix != null) {
+                        prefixes.add(prefix);
+                    } else {
+                        patterns.add(new AhoCorasickAutomaton.Pattern(
+                                lowerAscii(value).getBytes(StandardCharsets.UTF_8), tag));
+                    }
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error reading indicator feed " + file + ", keeping previous indicators", e);
+                return false;
+            }
+        }
+
+        IndicatorSet updated = new IndicatorSet(AhoCorasickAutomaton.build(patterns), PrefixTrie.build(prefixes), feeds);
+        indicators = updated;
+        loadedVersions.clear();
+        loadedVersions.putAll(versions);
+        reloads.incrementAndGet();
+
+        logger.info("Loaded " + updated.automaton.getPatternCount() + " substring and "
+                + updated.prefixes.size() + " network indicators from " + feeds.size() + " feeds in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms");
+        return true;
+    }
+
+    public void startWatching(long intervalSeconds) {
+        reloadScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "indicator-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reloadScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                reload();
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Error reloading indicator feeds", e);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public void stopWatching() {
+        if (reloadScheduler != null) {
+            reloadScheduler.shutdownNow();
+        }
+    }
+
+    public List<IndicatorMatch> match(String text) {
+        IndicatorSet set = indicators;
+        messagesScanned.incrementAndGet();
+        if (text == null || text.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        AhoCorasickAutomaton automaton = set.automaton;
+        PrefixTrie prefixes = set.prefixes;
+        boolean scanSubstrings = automaton.getPatternCount() > 0;
+        boolean scanAddresses = prefixes.size() > 0;
+        MatchCollector collector = new MatchCollector();
+        Ipv4Scanner scanner = new Ipv4Scanner();
+        List<IndicatorMatch> matches = null;
+
+        int state = automaton.initialState();
+        int length = text.length();
+
+        // One pass: each character advances both the automaton and the address scanner
+        for (int i = 0; i <= length; i++) {
+            char ch = i < length ? text.charAt(i) : ' ';
+
+            if (scanAddresses && scanner.accept(ch)) {
+                int address = scanner.completed();
+                int tag = prefixes.lookupIpv4(address);
+                if (tag >= 0) {
+                    if (matches == null) {
+                        matches = new ArrayList<>();
+                    }
+                    String prefix = prefixes.describeIpv4Match(address);
+                    matches.add(new IndicatorMatch(IndicatorType.ADDRESS,
+                            prefix.endsWith("/32") ? prefix.substring(0, prefix.length() - 3) : prefix,
+                            Ipv4Scanner.format(address), set.feeds.get(tag)));
+                }
+            }
+
+            if (scanSubstrings && i < length) {
+                // Feed the automaton UTF-8 bytes, lower-casing ASCII
+                if (ch < 0x80) {
+                    state = automaton.step(state, ch >= 'A' && ch <= 'Z' ? ch + 32 : ch);
+                    automaton.forEachMatch(state, collector);
+                } else {
+                    int codePoint = ch;
+                    if (Character.isHighSurrogate(ch) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                        codePoint = Character.toCodePoint(ch, text.charAt(++i));
+                    }
+                    for (int b : utf8(codePoint)) {
+                        state = automaton.step(state, b);
+                        automaton.forEachMatch(state, collector);
+                    }
+                }
+            }
+        }
+
+        if (collector.hits != null) {
+            if (matches == null) {
+                matches = new ArrayList<>();
+            }
+            for (int patternId : collector.hits) {
+                String indicator = automaton.getPattern(patternId);
+                matches.add(new IndicatorMatch(IndicatorType.SUBSTRING, indicator, indicator,
+                        set.feeds.get(automaton.getPatternTag(patternId))));
+            }
+        }
+
+        if (matches == null) {
+            return Collections.emptyList();
+        }
+        messagesMatched.incrementAndGet();
+        return matches;
+    }
+
+    private static int[] utf8(int codePoint) {
+        if (codePoint < 0x800) {
+            return new int[] {0xC0 | (codePoint >> 6), 0x80 | (codePoint & 0x3F)};
+        }
+        if (codePoint < 0x10000) {
+            return new int[] {0xE0 | (codePoint >> 12), 0x80 | ((codePoint >> 6) & 0x3F), 0x80 | (codePoint & 0x3F)};
+        }
+        return new int[] {0xF0 | (codePoint >> 18), 0x80 | ((codePoint >> 12) & 0x3F),
+                0x80 | ((codePoint >> 6) & 0x3F), 0x80 | (codePoint & 0x3F)};
+    }
+
+    private static String lowerAscii(String value) {
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            builder.append(ch >= 'A' && ch <= 'Z' ? (char) (ch + 32) : ch);
+        }
+        return builder.toString();
+    }
+
+    // Builds the alert raised for an alert whose text hit one or more indicators
+    public Alert toAlert(Alert original, List<IndicatorMatch> matches) {
+        StringBuilder message = new StringBuilder("Indicator match in ").append(original.getSource()).append(" alert: ");
+        for (int i = 0; i < matches.size(); i++) {
+            if (i > 0) {
+                message.append(", ");
+            }
+            message.append(matches.get(i));
+        }
+        Alert.Severity severity = original.getSeverity().compareTo(matchSeverity) > 0 ? original.getSeverity() : matchSeverity;
+        return new Alert(LocalDateTime.now(), SOURCE, message.toString(), severity);
+    }
+
+    public int getSubstringIndicatorCount() {
+        return indicators.automaton.getPatternCount();
+    }
+
+    public int getNetworkIndicatorCount() {
+        return indicators.prefixes.size();
+    }
+
+    public long getMessagesScanned() {
+        return messagesScanned.get();
+    }
+
+    public long getMessagesMatched() {
+        return messagesMatched.get();
+    }
+
+    public long getReloadCount() {
+        return reloads.get();
+    }
+
+    // Collects the ids of matched substring patterns, allocating only on the first hit
+    private static final class MatchCollector implements IntConsumer {
+        private Set<Integer> hits;
+
+        @Override
+        public void accept(int patternId) {
+            if (hits == null) {
+                hits = new LinkedHashSet<>();
+            }
+            hits.add(patternId);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.security.threatmonitor;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Recognises dotted-quad IPv4 literals one character at a time, so callers that already walk
+ * a message (such as {@link IndicatorMatcher}) can find addresses in the same pass.
+ */
+final class Ipv4Scanner {
+    private int octets;
+    private int value;
+    private int digits;
+    private int address;
+    private boolean invalid;
+    private boolean previousWordChar;
+    private boolean pendingDot;
+    private int completed;
+
+    // Returns true when the character ends an address; the address is then available from completed()
+    boolean accept(char ch) {
+        boolean digit = ch >= '0' && ch <= '9';
+
+        if (pendingDot) {
+            // A dot after four octets ends the address; digits after it start the next one,
+            // so that trailing numbers (1.2.3.4.5) cannot hide the address
+            pendingDot = false;
+            reset(false);
+            if (digit) {
+                acceptDigit(ch);
+            } else {
+                previousWordChar = isWordChar(ch);
+            }
+            return true;
+        }
+
+        if (digit) {
+            acceptDigit(ch);
+            return false;
+        }
+
+        if (ch == '.') {
+            if (digits == 0 || value > 255 || invalid) {
+                // Not part of an address; leading dots or a bad octet (..10.0.0.1) cannot hide one after it
+                reset(false);
+                return false;
+            }
+            if (octets == 3) {
+                completed = (address << 8) | value;
+                pendingDot = true;
+                return false;
+            }
+            address = (address << 8) | value;
+            octets++;
+            value = 0;
+            digits = 0;
+            previousWordChar = false;
+            return false;
+        }
+
+        boolean complete = !invalid && octets == 3 && digits > 0 && value <= 255 && !isWordChar(ch);
+        completed = (address << 8) | value;
+        reset(isWordChar(ch));
+        return complete;
+    }
+
+    private void acceptDigit(char ch) {
+        if (digits == 0 && octets == 0 && previousWordChar) {
+            invalid = true;
+        }
+        previousWordChar = true;
+        if (++digits > 3) {
+            invalid = true;
+        }
+        value = value * 10 + (ch - '0');
+    }
+
+    int completed() {
+        return completed;
+    }
+
+    private void reset(boolean wordChar) {
+        octets = 0;
+        value = 0;
+        digits = 0;
+        address = 0;
+        invalid = false;
+        previousWordChar = wordChar;
+    }
+
+    private static boolean isWordChar(char ch) {
+        return Character.isLetterOrDigit(ch) || ch == '_';
+    }
+
+    // Calls the consumer with every IPv4 address in the text
+    static void forEachAddress(String text, IntConsumer consumer) {
+        Ipv4Scanner scanner = new Ipv4Scanner();
+        int length = text.length();
+        for (int i = 0; i <= length; i++) {
+            if (scanner.accept(i < length ? text.charAt(i) : ' ')) {
+                consumer.accept(scanner.completed());
+            }
+        }
+    }
+
+    // The first IPv4 address in the text, or the fallback if there is none
+    static int firstAddress(String text, int fallback) {
+        Ipv4Scanner scanner = new Ipv4Scanner();
+        int length = text.length();
+        for (int i = 0; i <= length; i++) {
+            if (scanner.accept(i < length ? text.charAt(i) : ' ')) {
+                return scanner.completed();
+            }
+        }
+        return fallback;
+    }
+
+    static String format(int address) {
+        return ((address >>> 24) & 0xFF) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+    }
+}
@@ -0,0 +1,39 @@
+package com.security.threatmonitor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Ipv4ScannerTest {
+    private static boolean passed = true;
+
+    public static void main(String[] args) {
+        System.out.println("Testing IPv4 address scanning...");
+
+        check("Connection from 10.0.0.1 refused", "10.0.0.1");
+        check("10.0.0.1", "10.0.0.1");
+        check("Blocked 192.168.1.20, 172.16.0.5.", "192.168.1.20", "172.16.0.5");
+        // Leading dots, words and bad octets must not hide the address after them
+        check("...10.0.0.1", "10.0.0.1");
+        check("x.1.2.3.4", "1.2.3.4");
+        check("1..2.3.4.5.6.7.8", "2.3.4.5");
+        check("300.1.2.3.4", "1.2.3.4");
+        check("1234.5.6.7.8", "5.6.7.8");
+        // Trailing numbers must not hide it either
+        check("1.2.3.4.5.6.7.8", "1.2.3.4", "5.6.7.8");
+        // Not addresses
+        check("1.2.3");
+        check("1.2.3.256");
+        check("a1.2.3.4b");
+        check("1.2.3.4567");
+
+        System.out.println(passed ? "\nIPv4 scanner test passed!" : "\nIPv4 scanner test FAILED");
+    }
+
+    private static void check(String text, String... expected) {
+        List<String> found = new ArrayList<>();
+        Ipv4Scanner.forEachAddress(text, address -> found.add(Ipv4Scanner.format(address)));
+        boolean ok = found.equals(List.of(expected));
+        passed &= ok;
+        System.out.println((ok ? "ok    " : "WRONG ") + "\"" + text + "\" -> " + found);
+    }
+}
@@ -0,0 +1,112 @@
+package com.security.threatmonitor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram in the style of HdrHistogram: 32 linear sub-buckets per power of two,
+ * so every recorded value is kept to within about 3% from 1 ns up to about 18 minutes.
+ * Recording is an index computation and two atomic increments, with no allocation and no
+ * lock, so it is safe on hot paths and from many threads.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values above this (about 18 minutes in nanoseconds) are counted in the last bucket
+    private static final long MAX_TRACKABLE = (1L << 40) - 1;
+    private static final int BUCKET_COUNT = indexOf(MAX_TRACKABLE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void recordNanos(long nanos) {
+        long value = Math.max(0, Math.min(nanos, MAX_TRACKABLE));
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    // Records the time elapsed since startNanos (a System.nanoTime() value)
+    public void recordSince(long startNanos) {
+        recordNanos(System.nanoTime() - startNanos);
+    }
+
+    // Values below 2 * SUB_BUCKETS get a bucket each; above that each octave has SUB_BUCKETS
+    private static int indexOf(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    private static long lowestValueAt(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return (long) (index - (shift << SUB_BUCKET_BITS)) << shift;
+    }
+
+    private static long highestValueAt(int index) {
+        return index + 1 < BUCKET_COUNT ? lowestValueAt(index + 1) - 1 : MAX_TRACKABLE;
+    }
+
+    // A consistent-enough copy for reporting; concurrent recording may skew it by a few values
+    public Snapshot getSnapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, sum.sum(), max.get());
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : sum / (double) count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        // Highest value equivalent to the value at quantile q (0-1), or 0 if empty
+        public long getValueAtQuantile(double q) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(q * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueAt(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
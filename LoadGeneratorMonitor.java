@@ -0,0 +1,309 @@
+package com.security.threatmonitor;
+
+import java.lang.reflect.Array;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Generates synthetic alerts at a configured rate for capacity planning. The rate is split
+ * across worker threads. It can follow a daily curve (peaking at a given hour) and can burst
+ * to a multiple of the base rate for a few seconds at a time. Sources and severities are
+ * drawn from weighted mixes, and messages from a pool of fixed size. Everything is built
+ * when the monitor starts; per alert a worker only draws from ThreadLocalRandom and
+ * allocates the Alert. Workers shed load instead of queueing once the alert queue is longer
+ * than the configured limit.
+ */
+public class LoadGeneratorMonitor implements Monitor {
+    private static final Logger logger = Logger.getLogger(LoadGeneratorMonitor.class.getName());
+    // Entries in the weighted lookup tables; weights are kept to within 0.1%
+    private static final int MIX_TABLE_SIZE = 1000;
+    private static final int MAX_BATCH = 1000;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final String[] MESSAGE_TEMPLATES = {
+        "Synthetic port scan from %s (probe %d)",
+        "Synthetic failed login for user%d from %s",
+        "Synthetic outbound connection to %s (flow %d)",
+        "Synthetic file change detected on host %s (inode %d)",
+    };
+
+    private final AlertManager alertManager;
+    private final double ratePerSecond;
+    private final int threads;
+    private Map<String, Double> sourceMix = new LinkedHashMap<>();
+    private Map<Alert.Severity, Double> severityMix = new LinkedHashMap<>();
+    private int messageCount = 1000;
+    private double burstFactor = 1;
+    private long burstNanos;
+    private long burstEveryNanos;
+    private double diurnalAmplitude;
+    private int peakHour = 14;
+    private int maxQueueDepth = 100_000;
+
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean isRunning;
+    private volatile long startNanos;
+    // Built in startMonitoring() and only read by the workers afterwards
+    private String[] sourceTable;
+    private Alert.Severity[] severityTable;
+    private String[] messages;
+
+    public LoadGeneratorMonitor(AlertManager alertManager, double ratePerSecond, int threads) {
+        if (ratePerSecond <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("Invalid load: " + ratePerSecond + "/s on " + threads + " threads");
+        }
+        this.alertManager = alertManager;
+        this.ratePerSecond = ratePerSecond;
+        this.threads = threads;
+        sourceMix.put("load-web", 5.0);
+        sourceMix.put("load-db", 3.0);
+        sourceMix.put("load-auth", 2.0);
+        severityMix.put(Alert.Severity.LOW, 60.0);
+        severityMix.put(Alert.Severity.MEDIUM, 25.0);
+        severityMix.put(Alert.Severity.HIGH, 10.0);
+        severityMix.put(Alert.Severity.CRITICAL, 5.0);
+    }
+
+    // Relative weights of the sources alerts come from
+    public void setSourceMix(Map<String, Double> sourceMix) {
+        this.sourceMix = new LinkedHashMap<>(sourceMix);
+    }
+
+    public void setSeverityMix(Map<Alert.Severity, Double> severityMix) {
+        this.severityMix = new LinkedHashMap<>(severityMix);
+    }
+
+    // Number of distinct messages
+    public void setMessageCount(int messageCount) {
+        this.messageCount = Math.max(1, messageCount);
+    }
+
+    // Runs at factor times the rate for the first length of every period
+    public void setBurst(double factor, Duration length, Duration period) {
+        this.burstFactor = factor;
+        this.burstNanos = length.toNanos();
+        this.burstEveryNanos = period.toNanos();
+    }
+
+    /**
+     * Varies the rate over the day by +/- amplitude (0-1) of the configured rate, highest at
+     * peakHour local time. The configured rate stays the daily average.
+     */
+    public void setDiurnal(double amplitude, int peakHour) {
+        this.diurnalAmplitude = Math.max(0, Math.min(1, amplitude));
+        this.peakHour = peakHour;
+    }
+
+    // Alerts are shed rather than queued while the queue is longer than this
+    public void setMaxQueueDepth(int maxQueueDepth) {
+        this.maxQueueDepth = maxQueueDepth;
+    }
+
+    @Override
+    public synchronized void startMonitoring() {
+        if (isRunning) {
+            return;
+        }
+        sourceTable = mixTable(sourceMix, String.class);
+        severityTable = mixTable(severityMix, Alert.Severity.class);
+        messages = buildMessages(messageCount);
+
+        MetricsRegistry metrics = alertManager.getMetrics();
+        if (metrics != null) {
+            metrics.gauge("load.generated", generated::sum);
+            metrics.gauge("load.shed", shed::sum);
+            metrics.gauge("load.targetRate", () -> (long) currentRate());
+        }
+
+        logger.info("Starting load generator: " + ratePerSecond + " alerts/s on " + threads + " threads");
+        startNanos = System.nanoTime();
+        isRunning = true;
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::generate, "load-generator-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    @Override
+    public synchronized void stopMonitoring() {
+        isRunning = false;
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        workers.clear();
+        logger.info("Stopped load generator: " + generated.sum() + " alerts generated, " + shed.sum() + " shed");
+    }
+
+    // Each worker owes its share of the rate for the time since its last batch and pays it in batches
+    private void generate() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<Alert> batch = new ArrayList<>(MAX_BATCH);
+        long lastNanos = System.nanoTime();
+        double owed = 0;
+
+        while (isRunning) {
+            long now = System.nanoTime();
+            owed += ratePerSecond * rateFactor(now - startNanos) / threads * (now - lastNanos) / 1e9;
+            lastNanos = now;
+            // A stalled worker catches up with at most two full batches
+            owed = Math.min(owed, 2 * MAX_BATCH);
+            int count = (int) Math.min(owed, MAX_BATCH);
+            if (count == 0) {
+                LockSupport.parkNanos(TICK_NANOS);
+                continue;
+            }
+            owed -= count;
+
+            if (alertManager.getQueueDepth() > maxQueueDepth) {
+                shed.add(count);
+                LockSupport.parkNanos(TICK_NANOS);
+                continue;
+            }
+            long timestamp = Alert.currentEpochMicros();
+            for (int i = 0; i < count; i++) {
+                batch.add(new Alert(timestamp,
+                        sourceTable[random.nextInt(MIX_TABLE_SIZE)],
+                        messages[random.nextInt(messages.length)],
+                        severityTable[random.nextInt(MIX_TABLE_SIZE)]));
+            }
+            alertManager.queueAlerts(batch);
+            generated.add(count);
+            batch.clear();
+        }
+    }
+
+    // Multiplier on the configured rate at the given time since the start
+    private double rateFactor(long elapsedNanos) {
+        double factor = 1;
+        if (diurnalAmplitude > 0) {
+            double hours = LocalTime.now().toSecondOfDay() / 3600.0;
+            factor += diurnalAmplitude * Math.cos(2 * Math.PI * (hours - peakHour) / 24);
+        }
+        if (burstFactor != 1 && burstEveryNanos > 0 && elapsedNanos % burstEveryNanos < burstNanos) {
+            factor *= burstFactor;
+        }
+        return factor;
+    }
+
+    // The rate the workers are currently aiming for, in alerts per second
+    public double currentRate() {
+        return isRunning ? ratePerSecond * rateFactor(System.nanoTime() - startNanos) : 0;
+    }
+
+    // Lookup table in which each value fills a share of the entries proportional to its weight
+    @SuppressWarnings("unchecked")
+    private static <T> T[] mixTable(Map<T, Double> weights, Class<T> type) {
+        double total = 0;
+        for (double weight : weights.values()) {
+            total += Math.max(0, weight);
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("Load generator mix has no positive weight: " + weights);
+        }
+        T[] table = (T[]) Array.newInstance(type, MIX_TABLE_SIZE);
+        int filled = 0;
+        double cumulative = 0;
+        T last = null;
+        for (Map.Entry<T, Double> entry : weights.entrySet()) {
+            cumulative += Math.max(0, entry.getValue());
+            int end = (int) Math.round(cumulative / total * MIX_TABLE_SIZE);
+            while (filled < end) {
+                table[filled++] = entry.getKey();
+            }
+            last = entry.getValue() > 0 ? entry.getKey() : last;
+        }
+        while (filled < MIX_TABLE_SIZE) {
+            table[filled++] = last;
+        }
+        return table;
+    }
+
+    private static String[] buildMessages(int count) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String[] messages = new String[count];
+        for (int i = 0; i < count; i++) {
+            String address = "10." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+            String template = MESSAGE_TEMPLATES[i % MESSAGE_TEMPLATES.length];
+            messages[i] = template.startsWith("Synthetic failed login")
+                    ? String.format(template, i, address) : String.format(template, address, i);
+        }
+        return messages;
+    }
+
+    public long getGenerated() {
+        return generated.sum();
+    }
+
+    public long getShed() {
+        return shed.sum();
+    }
+
+    @Override
+    public String getName() {
+        return "Load Generator";
+    }
+
+    /**
+     * monitor.load.rate (alerts per second), .threads, .sources (name:weight,...),
+     * .severities (SEVERITY:weight,...), .messages, .burst.factor, .burst.seconds,
+     * .burst.every.seconds, .diurnal.amplitude, .diurnal.peak.hour and .max.queue.depth.
+     */
+    public static LoadGeneratorMonitor fromConfig(ThreatMonitorConfig config, AlertManager alertManager) {
+        String prefix = "monitor.load.";
+        LoadGeneratorMonitor monitor = new LoadGeneratorMonitor(alertManager,
+                config.getDouble(prefix + "rate", 1000),
+                config.getInt(prefix + "threads", Runtime.getRuntime().availableProcessors()));
+
+        Map<String, Double> sources = weights(config.getList(prefix + "sources", ""));
+        if (!sources.isEmpty()) {
+            monitor.setSourceMix(sources);
+        }
+        Map<String, Double> severityWeights = weights(config.getList(prefix + "severities", ""));
+        if (!severityWeights.isEmpty()) {
+            Map<Alert.Severity, Double> severities = new LinkedHashMap<>();
+            for (Map.Entry<String, Double> entry : severityWeights.entrySet()) {
+                severities.put(Alert.Severity.valueOf(entry.getKey()), entry.getValue());
+            }
+            monitor.setSeverityMix(severities);
+        }
+        monitor.setMessageCount(config.getInt(prefix + "messages", 1000));
+        monitor.setBurst(config.getDouble(prefix + "burst.factor", 1),
+                Duration.ofSeconds(config.getLong(prefix + "burst.seconds", 5)),
+                Duration.ofSeconds(config.getLong(prefix + "burst.every.seconds", 60)));
+        monitor.setDiurnal(config.getDouble(prefix + "diurnal.amplitude", 0),
+                config.getInt(prefix + "diurnal.peak.hour", 14));
+        monitor.setMaxQueueDepth(config.getInt(prefix + "max.queue.depth", 100_000));
+        return monitor;
+    }
+
+    // "name:weight" entries; an entry without a weight counts as 1
+    private static Map<String, Double> weights(List<String> entries) {
+        Map<String, Double> weights = new LinkedHashMap<>();
+        for (String entry : entries) {
+            int colon = entry.lastIndexOf(':');
+            if (colon < 0) {
+                weights.put(entry, 1.0);
+            } else {
+                weights.put(entry.substring(0, colon).trim(), Double.parseDouble(entry.substring(colon + 1).trim()));
+            }
+        }
+        return weights;
+    }
+}
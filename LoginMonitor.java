@@ -0,0 +1,69 @@
+package com.security.threatmonitor;
+
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+public class LoginMonitor extends PollingMonitor {
+    private static final Logger logger = Logger.getLogger(LoginMonitor.class.getName());
+    
+    private final Random random = new Random();
+    
+    public LoginMonitor(AlertManager alertManager, AdaptivePollingPolicy policy) {
+        super("Login Monitor", alertManager, TimeUnit.SECONDS.toMillis(7), policy);
+    }
+    
+    @Override
+    protected void check() {
+        // For demonstration, generate random login alerts
+        if (random.nextInt(10) < 2) {  // 20% chance of alert
+            SecurityEvent event;
+            
+            int type = random.nextInt(4);
+            switch (type) {
+                case 0:
+                    event = new SecurityEvent(LocalDateTime.now(), "Login Monitor",
+                            "Failed login attempt for user: guest", Alert.Severity.LOW)
+                            .with("type", "failed_login").with("user", "guest");
+                    break;
+                case 1:
+                    String ip = "10.0." + random.nextInt(255) + "." + random.nextInt(255);
+                    event = new SecurityEvent(LocalDateTime.now(), "Login Monitor",
+                            "Multiple failed login attempts from IP: " + ip, Alert.Severity.MEDIUM)
+                            .with("type", "repeated_failed_login").with("ip", ip);
+                    break;
+                case 2:
+                    String location = getRandomLocation();
+                    event = new SecurityEvent(LocalDateTime.now(), "Login Monitor",
+                            "Successful login from unusual location: " + location, Alert.Severity.HIGH)
+                            .with("type", "unusual_location").with("location", location);
+                    break;
+                default:
+                    event = new SecurityEvent(LocalDateTime.now(), "Login Monitor",
+                            "Critical: Admin account login attempt after hours", Alert.Severity.CRITICAL)
+                            .with("type", "after_hours_admin").with("user", "admin");
+                    break;
+            }
+            
+            Alert alert = raise(event);
+            if (alert != null) {
+                logger.info("Login alert generated: " + alert.getSeverity() + " - " + alert.getMessage());
+            }
+        }
+    }
+    
+    private String getRandomLocation() {
+        String[] locations = {
+            "Moscow, Russia", 
+            "Beijing, China", 
+            "Pyongyang, North Korea", 
+            "Tehran, Iran", 
+            "Lagos, Nigeria",
+            "Bucharest, Romania",
+            "Kiev, Ukraine",
+            "São Paulo, Brazil"
+        };
+        return locations[random.nextInt(locations.length)];
+    }
+}
@@ -0,0 +1,222 @@
+package com.security.threatmonitor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Named counters, gauges and latency histograms that the pipeline reports into. Metrics
+ * are created once (usually into a field) and then updated without allocating. The whole
+ * registry is exposed as one JMX MBean, with an attribute per counter and gauge and
+ * count, mean, p50, p99, p999 and max attributes per histogram (in microseconds), and can
+ * be dumped as text or JSON.
+ */
+public class MetricsRegistry {
+    private static final Logger logger = Logger.getLogger(MetricsRegistry.class.getName());
+    public static final String OBJECT_NAME = "com.security.threatmonitor:type=Metrics";
+
+    private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+    private ObjectName registeredName;
+
+    // A monotonically increasing count
+    public static class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long getCount() {
+            return value.sum();
+        }
+    }
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    // Sampled when read; a later gauge with the same name replaces the earlier one
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    public void remove(String name) {
+        counters.remove(name);
+        gauges.remove(name);
+        histograms.remove(name);
+    }
+
+    // Current values by attribute name, as exposed over JMX; histogram values in microseconds
+    public Map<String, Number> getValues() {
+        Map<String, Number> values = new ConcurrentSkipListMap<>();
+        for (Map.Entry<String, Counter> counter : counters.entrySet()) {
+            values.put(counter.getKey(), counter.getValue().getCount());
+        }
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            try {
+                values.put(gauge.getKey(), gauge.getValue().getAsLong());
+            } catch (RuntimeException e) {
+                logger.log(Level.FINE, "Gauge " + gauge.getKey() + " failed", e);
+            }
+        }
+        for (Map.Entry<String, LatencyHistogram> histogram : histograms.entrySet()) {
+            LatencyHistogram.Snapshot snapshot = histogram.getValue().getSnapshot();
+            String name = histogram.getKey();
+            values.put(name + ".count", snapshot.getCount());
+            values.put(name + ".meanUs", snapshot.getMean() / 1000);
+            values.put(name + ".p50Us", snapshot.getValueAtQuantile(0.5) / 1000.0);
+            values.put(name + ".p99Us", snapshot.getValueAtQuantile(0.99) / 1000.0);
+            values.put(name + ".p999Us", snapshot.getValueAtQuantile(0.999) / 1000.0);
+            values.put(name + ".maxUs", snapshot.getMax() / 1000.0);
+        }
+        return values;
+    }
+
+    public void writeText(Writer writer) throws IOException {
+        for (Map.Entry<String, Number> value : getValues().entrySet()) {
+            writer.write(value.getKey() + " " + format(value.getValue()) + "\n");
+        }
+    }
+
+    public void writeJson(Writer writer) throws IOException {
+        writer.write("{\n");
+        int i = 0;
+        Map<String, Number> values = getValues();
+        for (Map.Entry<String, Number> value : values.entrySet()) {
+            writer.write("  \"" + value.getKey().replace("\\", "\\\\").replace("\"", "\\\"") + "\": "
+                    + format(value.getValue()) + (++i < values.size() ? ",\n" : "\n"));
+        }
+        writer.write("}\n");
+    }
+
+    private static String format(Number value) {
+        return value instanceof Double ? String.format(Locale.ROOT, "%.3f", value.doubleValue()) : value.toString();
+    }
+
+    // Writes a JSON dump if the file name ends in .json, text otherwise; replaced atomically
+    public void dump(Path file) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                if (file.getFileName().toString().endsWith(".json")) {
+                    writeJson(writer);
+                } else {
+                    writeText(writer);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error writing metrics to " + file, e);
+        }
+    }
+
+    // Registers the registry with the platform MBean server under OBJECT_NAME
+    public synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new MBean(), name);
+            registeredName = name;
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Error registering metrics MBean", e);
+        }
+    }
+
+    public synchronized void unregisterMBean() {
+        if (registeredName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException e) {
+            logger.log(Level.FINE, "Error unregistering metrics MBean", e);
+        }
+        registeredName = null;
+    }
+
+    // Read-only attributes; the attribute list follows the metrics created so far
+    private class MBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = getValues().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Number> values = getValues();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                Number value = values.get(attribute);
+                if (value != null) {
+                    list.add(new Attribute(attribute, value));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Map.Entry<String, Number> value : getValues().entrySet()) {
+                attributes.add(new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(),
+                        value.getKey(), true, false, false));
+            }
+            return new MBeanInfo(MetricsRegistry.class.getName(), "Threat monitor metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
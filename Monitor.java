@@ -0,0 +1,19 @@
+package com.security.threatmonitor;
+
+public interface Monitor {
+    void startMonitoring();
+    void stopMonitoring();
+
+    default String getName() {
+        return getClass().getSimpleName();
+    }
+
+    // Current effective polling interval, or -1 for monitors that do not poll
+    default long getCurrentIntervalMillis() {
+        return -1;
+    }
+
+    // Called by the PipelineThrottle when the pipeline falls behind; monitors that cannot shed load ignore it
+    default void setThrottleLevel(PipelineThrottle.Level level) {
+    }
+}
@@ -0,0 +1,94 @@
+package com.security.threatmonitor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A reusable alert for parsers on the ingest path. A parser fills it field by field straight
+ * from its receive buffer, and only {@link #toAlert()} allocates, so frames that are rejected
+ * cost nothing. Consecutive frames from the same source resolve its id without building a
+ * String. Not thread-safe; each ingest thread keeps its own.
+ */
+public class MutableAlert {
+    private long epochMicros;
+    private int sourceId = -1;
+    private Alert.Severity severity;
+    private byte[] message = new byte[256];
+    private int messageLength;
+    // Bytes of the last source name looked up, and its id
+    private byte[] lastSource = new byte[0];
+    private int lastSourceId = -1;
+
+    public MutableAlert clear() {
+        epochMicros = 0;
+        sourceId = -1;
+        severity = null;
+        messageLength = 0;
+        return this;
+    }
+
+    public MutableAlert setEpochMicros(long epochMicros) {
+        this.epochMicros = epochMicros;
+        return this;
+    }
+
+    public MutableAlert setSource(String source) {
+        this.sourceId = AlertSources.idOf(source);
+        return this;
+    }
+
+    // Source name given as ASCII bytes [start, end) of the buffer
+    public MutableAlert setSource(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        boolean same = length == lastSource.length;
+        for (int i = 0; same && i < length; i++) {
+            same = buffer.get(start + i) == lastSource[i];
+        }
+        if (!same) {
+            lastSource = new byte[length];
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                lastSource[i] = buffer.get(start + i);
+                chars[i] = (char) (lastSource[i] & 0x7F);
+            }
+            lastSourceId = AlertSources.idOf(new String(chars));
+        }
+        sourceId = lastSourceId;
+        return this;
+    }
+
+    public MutableAlert setSeverity(Alert.Severity severity) {
+        this.severity = severity;
+        return this;
+    }
+
+    // Message given as UTF-8 bytes [start, end) of the buffer; copied, not decoded
+    public MutableAlert setMessage(ByteBuffer buffer, int start, int end) {
+        int length = Math.max(0, end - start);
+        if (length > message.length) {
+            message = new byte[Math.max(length, message.length * 2)];
+        }
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(start + length).position(start);
+        slice.get(message, 0, length);
+        messageLength = length;
+        return this;
+    }
+
+    public long getEpochMicros() {
+        return epochMicros;
+    }
+
+    public String getSource() {
+        return AlertSources.nameOf(sourceId);
+    }
+
+    public Alert.Severity getSeverity() {
+        return severity;
+    }
+
+    // An immutable alert with a copy of the message bytes, decoded when first read
+    public Alert toAlert() {
+        return Alert.fromUtf8(epochMicros, sourceId, Arrays.copyOf(message, messageLength), severity);
+    }
+}
@@ -0,0 +1,54 @@
+package com.security.threatmonitor;
+
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+public class NetworkMonitor extends PollingMonitor {
+    private static final Logger logger = Logger.getLogger(NetworkMonitor.class.getName());
+    
+    private final Random random = new Random();
+    
+    public NetworkMonitor(AlertManager alertManager, AdaptivePollingPolicy policy) {
+        super("Network Monitor", alertManager, TimeUnit.SECONDS.toMillis(5), policy);
+    }
+    
+    @Override
+    protected void check() {
+        // For demonstration, generate random network alerts
+        if (random.nextInt(10) < 4) {  // 40% chance of alert
+            SecurityEvent event;
+            
+            int type = random.nextInt(4);
+            switch (type) {
+                case 0:
+                    event = new SecurityEvent(LocalDateTime.now(), "Network Monitor",
+                            "Unusual outbound connection to port 8080", Alert.Severity.LOW)
+                            .with("type", "outbound_connection").with("port", 8080);
+                    break;
+                case 1:
+                    String ip = "192.168." + random.nextInt(255) + "." + random.nextInt(255);
+                    event = new SecurityEvent(LocalDateTime.now(), "Network Monitor",
+                            "Multiple connection attempts to IP: " + ip, Alert.Severity.MEDIUM)
+                            .with("type", "repeated_connection").with("ip", ip);
+                    break;
+                case 2:
+                    event = new SecurityEvent(LocalDateTime.now(), "Network Monitor",
+                            "Possible data exfiltration detected: Large upload to unknown host", Alert.Severity.HIGH)
+                            .with("type", "exfiltration");
+                    break;
+                default:
+                    event = new SecurityEvent(LocalDateTime.now(), "Network Monitor",
+                            "Critical: Port scan detected from external network", Alert.Severity.CRITICAL)
+                            .with("type", "port_scan");
+                    break;
+            }
+            
+            Alert alert = raise(event);
+            if (alert != null) {
+                logger.info("Network alert generated: " + alert.getSeverity() + " - " + alert.getMessage());
+            }
+        }
+    }
+}
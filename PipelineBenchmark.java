@@ -0,0 +1,543 @@
+package com.security.threatmonitor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Microbenchmarks for the alert pipeline and the persistence layer, with JMH-style warmup
+ * and measurement iterations. Results are printed as a table and written as JSON in the
+ * layout of JMH's -rf json output, so runs can be compared between releases.
+ *
+ * <pre>
+ *   pipeline.queueAlert          alerts/s through queueAlert and processAlert, 1-16 producers
+ *   pipeline.shards              alerts/s with 1-16 processing shards and a CPU-bound sink
+ *   db.storeAlert                alerts/s, one insert per alert
+ *   db.storeAlerts               alerts/s, batches of 100 in one transaction
+ *   db.getRecentAlerts           us/op, newest 100 alerts from SQLite
+ *   db.getRecentAlerts.cached    us/op, the same through the recent-alert cache
+ *   db.getAlertCountsBySeverity  ms/op, full count by severity
+ *   codec.encode                 alerts/s, AlertCodec batches into a direct buffer
+ *   codec.decode                 alerts/s, the same batches decoded again
+ * </pre>
+ *
+ * Usage: PipelineBenchmark [--rows 1000000,10000000] [--warmup 3] [--iterations 5]
+ * [--time SECONDS] [--only REGEX] [--dir DIR] [--out FILE]
+ *
+ * The read benchmarks run against bench-ROWS.db in --dir, which is generated on first use
+ * and reused afterwards; 100M rows take a long time and tens of GB.
+ */
+public class PipelineBenchmark {
+    private static final Logger logger = Logger.getLogger(PipelineBenchmark.class.getName());
+    private static final int[] PRODUCERS = {1, 4, 16};
+    private static final int[] SHARDS = {1, 2, 4, 8, 16};
+    private static final int BATCH_SIZE = 100;
+    private static final int RECENT_LIMIT = 100;
+    // Producers pause above this depth so the unbounded queue cannot exhaust the heap
+    private static final int MAX_QUEUE_DEPTH = 10_000;
+    private static final String[] SOURCES = {"Network Monitor", "Login Monitor", "File System Monitor", "Syslog"};
+
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationNanos;
+    private final Pattern only;
+    private final List<Result> results = new ArrayList<>();
+    private volatile boolean producersStopped;
+    // Keeps the shard benchmark's work from being optimised away
+    private static long workSink;
+
+    // A measured operation; returns how many operations one call performed
+    @FunctionalInterface
+    private interface Operation {
+        long run() throws Exception;
+    }
+
+    public PipelineBenchmark(int warmupIterations, int measurementIterations, Duration iterationTime, Pattern only) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationNanos = iterationTime.toNanos();
+        this.only = only;
+    }
+
+    // One benchmark's iteration scores, in the result unit
+    public static class Result {
+        private final String benchmark;
+        private final String mode;
+        private final int threads;
+        private final Map<String, String> params;
+        private final String unit;
+        private final double[] scores;
+
+        Result(String benchmark, String mode, int threads, Map<String, String> params, String unit, double[] scores) {
+            this.benchmark = benchmark;
+            this.mode = mode;
+            this.threads = threads;
+            this.params = params;
+            this.unit = unit;
+            this.scores = scores;
+        }
+
+        public double getScore() {
+            return Arrays.stream(scores).average().orElse(Double.NaN);
+        }
+
+        // Half-width of the 99.9% confidence interval (normal approximation)
+        public double getScoreError() {
+            if (scores.length < 2) {
+                return Double.NaN;
+            }
+            double mean = getScore();
+            double variance = 0;
+            for (double score : scores) {
+                variance += (score - mean) * (score - mean);
+            }
+            return 3.291 * Math.sqrt(variance / (scores.length - 1)) / Math.sqrt(scores.length);
+        }
+    }
+
+    private boolean selected(String benchmark) {
+        return only == null || only.matcher(benchmark).find();
+    }
+
+    // Runs op repeatedly for each iteration and scores it as operations per second
+    private void throughput(String benchmark, Map<String, String> params, Operation op) throws Exception {
+        double[] scores = new double[measurementIterations];
+        for (int i = -warmupIterations; i < measurementIterations; i++) {
+            long ops = 0;
+            long start = System.nanoTime();
+            long elapsed;
+            do {
+                ops += op.run();
+            } while ((elapsed = System.nanoTime() - start) < iterationNanos);
+            if (i >= 0) {
+                scores[i] = ops * 1e9 / elapsed;
+            }
+        }
+        record(new Result(benchmark, "thrpt", 1, params, "ops/s", scores));
+    }
+
+    // Runs op repeatedly for each iteration and scores it as the average time per operation
+    private void averageTime(String benchmark, Map<String, String> params, TimeUnit unit, Operation op) throws Exception {
+        double[] scores = new double[measurementIterations];
+        double nanosPerUnit = unit.toNanos(1);
+        for (int i = -warmupIterations; i < measurementIterations; i++) {
+            long ops = 0;
+            long start = System.nanoTime();
+            long elapsed;
+            do {
+                ops += op.run();
+            } while ((elapsed = System.nanoTime() - start) < iterationNanos);
+            if (i >= 0) {
+                scores[i] = elapsed / nanosPerUnit / ops;
+            }
+        }
+        record(new Result(benchmark, "avgt", 1, params, unitName(unit) + "/op", scores));
+    }
+
+    private void record(Result result) {
+        results.add(result);
+        System.out.printf(Locale.ROOT, "%-30s %-24s %12.3f +- %10.3f %s%n", result.benchmark,
+                result.params.isEmpty() ? "" : result.params.toString(), result.getScore(), result.getScoreError(), result.unit);
+    }
+
+    private static String unitName(TimeUnit unit) {
+        switch (unit) {
+            case NANOSECONDS:
+                return "ns";
+            case MICROSECONDS:
+                return "us";
+            case MILLISECONDS:
+                return "ms";
+            default:
+                return "s";
+        }
+    }
+
+    /**
+     * Producers call queueAlert as fast as the queue allows while the single processing
+     * thread runs processAlert with a counting sink; the score is alerts processed per
+     * second. No database is attached, so this measures queue contention and dispatch.
+     */
+    public void pipelineThroughput() throws Exception {
+        if (!selected("pipeline.queueAlert")) {
+            return;
+        }
+        Alert[] alerts = new Alert[SOURCES.length];
+        for (int i = 0; i < alerts.length; i++) {
+            alerts[i] = new Alert(LocalDateTime.now(), SOURCES[i], "Benchmark alert " + i, Alert.Severity.LOW);
+        }
+        for (int producers : PRODUCERS) {
+            AlertManager alertManager = new AlertManager(null);
+            LongAdder processed = new LongAdder();
+            alertManager.addSink(alert -> processed.increment());
+            double[] scores = measureProcessing(alertManager, processed, producers, alerts);
+
+            Map<String, String> params = new LinkedHashMap<>();
+            params.put("producers", String.valueOf(producers));
+            record(new Result("pipeline.queueAlert", "thrpt", producers, params, "ops/s", scores));
+        }
+    }
+
+    /**
+     * The same with 1 to 16 shards, four producers and alerts from 64 sources. A sink spends
+     * about a microsecond of CPU on each alert, standing in for enrichment and handlers, which
+     * is the work sharding spreads over the cores. Scaling stops at the number of cores.
+     */
+    public void shardThroughput() throws Exception {
+        if (!selected("pipeline.shards")) {
+            return;
+        }
+        Alert[] alerts = new Alert[64];
+        for (int i = 0; i < alerts.length; i++) {
+            alerts[i] = new Alert(LocalDateTime.now(), "Shard Source " + i, "Port scan detected from 10.0.0." + i, Alert.Severity.LOW);
+        }
+        for (int shards : SHARDS) {
+            AlertManager alertManager = new AlertManager(null, shards);
+            LongAdder processed = new LongAdder();
+            alertManager.addSink(alert -> {
+                work(alert);
+                processed.increment();
+            });
+            double[] scores = measureProcessing(alertManager, processed, 4, alerts);
+
+            Map<String, String> params = new LinkedHashMap<>();
+            params.put("shards", String.valueOf(shards));
+            record(new Result("pipeline.shards", "thrpt", 4, params, "ops/s", scores));
+        }
+    }
+
+    private static void work(Alert alert) {
+        long hash = alert.getSourceId();
+        for (int i = 0; i < 500; i++) {
+            hash = hash * 0x9E3779B97F4A7C15L + i;
+        }
+        if (hash == 42) {
+            workSink++;
+        }
+    }
+
+    // Producers keep the queue topped up while processing runs; scores are alerts processed per second
+    private double[] measureProcessing(AlertManager alertManager, LongAdder processed, int producers, Alert[] alerts)
+            throws InterruptedException {
+        alertManager.startProcessing();
+        producersStopped = false;
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int first = p;
+            Thread thread = new Thread(() -> {
+                int next = first;
+                while (!producersStopped) {
+                    if (alertManager.getQueueDepth() > MAX_QUEUE_DEPTH) {
+                        Thread.yield();
+                        continue;
+                    }
+                    alertManager.queueAlert(alerts[next++ % alerts.length]);
+                }
+            }, "benchmark-producer-" + p);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+
+        double[] scores = new double[measurementIterations];
+        for (int i = -warmupIterations; i < measurementIterations; i++) {
+            long before = processed.sum();
+            long start = System.nanoTime();
+            Thread.sleep(TimeUnit.NANOSECONDS.toMillis(iterationNanos));
+            long elapsed = System.nanoTime() - start;
+            if (i >= 0) {
+                scores[i] = (processed.sum() - before) * 1e9 / elapsed;
+            }
+        }
+
+        producersStopped = true;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        alertManager.stopProcessing();
+        return scores;
+    }
+
+    // Single inserts against batched inserts into a fresh database
+    public void storeThroughput(Path dir) throws Exception {
+        if (selected("db.storeAlert")) {
+            DatabaseManager dbManager = freshDatabase(dir.resolve("bench-store.db"));
+            Alert alert = new Alert(LocalDateTime.now(), "Network Monitor", "Port scan detected from 10.0.0.1", Alert.Severity.MEDIUM);
+            throughput("db.storeAlert", new LinkedHashMap<>(), () -> {
+                dbManager.storeAlert(alert);
+                return 1;
+            });
+            dbManager.close();
+        }
+        if (selected("db.storeAlerts")) {
+            DatabaseManager dbManager = freshDatabase(dir.resolve("bench-store.db"));
+            List<Alert> batch = new ArrayList<>();
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                batch.add(new Alert(LocalDateTime.now(), "Network Monitor", "Port scan detected from 10.0.0." + i, Alert.Severity.MEDIUM));
+            }
+            Map<String, String> params = new LinkedHashMap<>();
+            params.put("batch", String.valueOf(BATCH_SIZE));
+            throughput("db.storeAlerts", params, () -> {
+                dbManager.storeAlerts(batch);
+                return BATCH_SIZE;
+            });
+            dbManager.close();
+        }
+    }
+
+    // Encoding and decoding with AlertCodec, in batches as large as the buffer holds
+    public void codecThroughput() throws Exception {
+        if (!selected("codec.encode") && !selected("codec.decode")) {
+            return;
+        }
+        Random random = new Random(42);
+        List<Alert> alerts = new ArrayList<>();
+        long timestamp = Alert.currentEpochMicros();
+        for (int i = 0; i < 10_000; i++) {
+            timestamp += random.nextInt(1000);
+            alerts.add(new Alert(timestamp, SOURCES[random.nextInt(SOURCES.length)],
+                    "Port scan detected from 10.0." + random.nextInt(256) + "." + random.nextInt(256),
+                    Alert.Severity.values()[random.nextInt(4)]));
+        }
+        AlertCodec codec = new AlertCodec();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("bufferBytes", String.valueOf(buffer.capacity()));
+
+        if (selected("codec.encode")) {
+            throughput("codec.encode", params, () -> {
+                int encoded = 0;
+                while (encoded < alerts.size()) {
+                    buffer.clear();
+                    encoded += codec.encode(alerts, encoded, buffer);
+                }
+                return encoded;
+            });
+        }
+        if (selected("codec.decode")) {
+            buffer.clear();
+            int batchSize = codec.encode(alerts, 0, buffer);
+            buffer.flip();
+            LongAdder decoded = new LongAdder();
+            throughput("codec.decode", params, () -> {
+                buffer.rewind();
+                codec.decode(buffer, alert -> decoded.increment());
+                return batchSize;
+            });
+        }
+    }
+
+    private static DatabaseManager freshDatabase(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        DatabaseManager dbManager = new DatabaseManager("jdbc:sqlite:" + file, "", "");
+        dbManager.initialize();
+        return dbManager;
+    }
+
+    // Reads against a database of the given size
+    public void readLatency(Path dir, long rows) throws Exception {
+        if (!selected("db.getRecentAlerts") && !selected("db.getRecentAlerts.cached")
+                && !selected("db.getAlertCountsBySeverity")) {
+            return;
+        }
+        Path file = dir.resolve("bench-" + rows + ".db");
+        populate(file, rows);
+
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("rows", String.valueOf(rows));
+        DatabaseManager dbManager = new DatabaseManager("jdbc:sqlite:" + file, "", "");
+        dbManager.initialize();
+
+        if (selected("db.getRecentAlerts")) {
+            averageTime("db.getRecentAlerts", params, TimeUnit.MICROSECONDS, () -> {
+                dbManager.getRecentAlerts(RECENT_LIMIT);
+                return 1;
+            });
+        }
+        if (selected("db.getAlertCountsBySeverity")) {
+            averageTime("db.getAlertCountsBySeverity", params, TimeUnit.MILLISECONDS, () -> {
+                dbManager.getAlertCountsBySeverity();
+                return 1;
+            });
+        }
+        if (selected("db.getRecentAlerts.cached")) {
+            dbManager.enableRecentCache(5000, Duration.ZERO);
+            averageTime("db.getRecentAlerts.cached", params, TimeUnit.MICROSECONDS, () -> {
+                dbManager.getRecentAlerts(RECENT_LIMIT);
+                return 1;
+            });
+        }
+        dbManager.close();
+    }
+
+    // Fills the database to the given number of rows, unless it already has them
+    private static void populate(Path file, long rows) throws Exception {
+        DatabaseManager schema = new DatabaseManager("jdbc:sqlite:" + file, "", "");
+        schema.initialize();
+        schema.close();
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file)) {
+            long existing;
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM alerts")) {
+                existing = resultSet.next() ? resultSet.getLong(1) : 0;
+                // Only for generating data; a crash just means regenerating the file
+                statement.execute("PRAGMA synchronous = OFF");
+                statement.execute("PRAGMA journal_mode = MEMORY");
+            }
+            if (existing >= rows) {
+                return;
+            }
+
+            logger.info("Generating " + (rows - existing) + " alerts in " + file);
+            long startNanos = System.nanoTime();
+            Random random = new Random(existing);
+            Alert.Severity[] severities = Alert.Severity.values();
+            // Spread over the last 30 days, oldest first, like real inserts
+            long endMillis = System.currentTimeMillis();
+            long spanMillis = TimeUnit.DAYS.toMillis(30);
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO alerts (timestamp, source, message, severity) VALUES (?, ?, ?, ?)")) {
+                for (long i = existing; i < rows; i++) {
+                    insert.setTimestamp(1, new Timestamp(endMillis - spanMillis + spanMillis * i / rows));
+                    insert.setString(2, SOURCES[random.nextInt(SOURCES.length)]);
+                    insert.setString(3, "Suspicious activity from 10.0." + random.nextInt(256) + "." + random.nextInt(256));
+                    insert.setString(4, severities[random.nextInt(severities.length)].toString());
+                    insert.addBatch();
+                    if ((i + 1) % 10_000 == 0) {
+                        insert.executeBatch();
+                        connection.commit();
+                    }
+                }
+                insert.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+            logger.info("Generated in " + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos) + " s");
+        }
+    }
+
+    // JSON in the layout of JMH's -rf json output
+    public void writeJson(Path file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file))) {
+            writer.println("[");
+            for (int r = 0; r < results.size(); r++) {
+                Result result = results.get(r);
+                writer.println("  {");
+                writer.println("    \"jmhVersion\" : \"n/a\",");
+                writer.println("    \"benchmark\" : \"" + json(PipelineBenchmark.class.getName() + "." + result.benchmark) + "\",");
+                writer.println("    \"mode\" : \"" + result.mode + "\",");
+                writer.println("    \"threads\" : " + result.threads + ",");
+                writer.println("    \"forks\" : 0,");
+                writer.println("    \"jdkVersion\" : \"" + json(System.getProperty("java.version")) + "\",");
+                writer.println("    \"vmName\" : \"" + json(System.getProperty("java.vm.name")) + "\",");
+                writer.println("    \"warmupIterations\" : " + warmupIterations + ",");
+                writer.println("    \"warmupTime\" : \"" + TimeUnit.NANOSECONDS.toMillis(iterationNanos) + " ms\",");
+                writer.println("    \"measurementIterations\" : " + measurementIterations + ",");
+                writer.println("    \"measurementTime\" : \"" + TimeUnit.NANOSECONDS.toMillis(iterationNanos) + " ms\",");
+                if (!result.params.isEmpty()) {
+                    writer.println("    \"params\" : {");
+                    int p = 0;
+                    for (Map.Entry<String, String> param : result.params.entrySet()) {
+                        writer.println("      \"" + json(param.getKey()) + "\" : \"" + json(param.getValue()) + "\""
+                                + (++p < result.params.size() ? "," : ""));
+                    }
+                    writer.println("    },");
+                }
+                double score = result.getScore();
+                double error = result.getScoreError();
+                writer.println("    \"primaryMetric\" : {");
+                writer.println("      \"score\" : " + number(score) + ",");
+                writer.println("      \"scoreError\" : " + number(error) + ",");
+                writer.println("      \"scoreConfidence\" : [ " + number(score - error) + ", " + number(score + error) + " ],");
+                writer.println("      \"scoreUnit\" : \"" + result.unit + "\",");
+                StringBuilder raw = new StringBuilder();
+                for (int i = 0; i < result.scores.length; i++) {
+                    raw.append(i == 0 ? "" : ", ").append(number(result.scores[i]));
+                }
+                writer.println("      \"rawData\" : [ [ " + raw + " ] ]");
+                writer.println("    }");
+                writer.println("  }" + (r + 1 < results.size() ? "," : ""));
+            }
+            writer.println("]");
+        }
+    }
+
+    private static String json(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String number(double value) {
+        return Double.isFinite(value) ? String.format(Locale.ROOT, "%.6f", value) : "\"NaN\"";
+    }
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                break;
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        if (args.length % 2 != 0) {
+            System.err.println("Usage: PipelineBenchmark [--rows 1000000,10000000] [--warmup 3] [--iterations 5]"
+                    + " [--time SECONDS] [--only REGEX] [--dir DIR] [--out FILE]");
+            System.exit(2);
+        }
+
+        // The default handlers log every alert; keep only records that carry an exception
+        Logger.getLogger(AlertManager.class.getName()).setFilter(record -> record.getThrown() != null);
+        Logger.getLogger(DatabaseManager.class.getName()).setLevel(Level.WARNING);
+
+        PipelineBenchmark benchmark = new PipelineBenchmark(
+                Integer.parseInt(options.getOrDefault("warmup", "3")),
+                Integer.parseInt(options.getOrDefault("iterations", "5")),
+                Duration.ofSeconds(Long.parseLong(options.getOrDefault("time", "1"))),
+                options.containsKey("only") ? Pattern.compile(options.get("only")) : null);
+        Path dir = Paths.get(options.getOrDefault("dir", "bench"));
+        Files.createDirectories(dir);
+
+        benchmark.pipelineThroughput();
+        benchmark.shardThroughput();
+        benchmark.storeThroughput(dir);
+        benchmark.codecThroughput();
+        for (String rows : options.getOrDefault("rows", "1000000").split(",")) {
+            benchmark.readLatency(dir, Long.parseLong(rows.trim()));
+        }
+
+        Path out = Paths.get(options.getOrDefault("out", "benchmark-results.json"));
+        benchmark.writeJson(out);
+        System.out.println("Results written to " + out.toAbsolutePath());
+    }
+}
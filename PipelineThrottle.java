@@ -0,0 +1,216 @@
+package com.security.threatmonitor;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Feedback loop that throttles the monitors when the alert pipeline falls behind. Every
+ * tick it compares the queued alerts, the age of the oldest one and the recent storage
+ * time per batch against their limits; the worst ratio is the pressure. At a pressure of
+ * 1 or more that is not already falling the throttle level rises one step, at the release
+ * ratio it falls one step, and each level is held for a while before the next change so
+ * that it does not oscillate.
+ */
+public class PipelineThrottle {
+    private static final Logger logger = Logger.getLogger(PipelineThrottle.class.getName());
+    public static final String SOURCE = "Pipeline Throttle";
+
+    /** What monitors do at each level; every level includes the ones before it. */
+    public enum Level {
+        // No throttling
+        NORMAL,
+        // Polling intervals are stretched
+        COARSE,
+        // Low and medium alerts are counted locally and queued as periodic summaries
+        AGGREGATE,
+        // Monitors marked as sheddable skip their checks
+        SHED
+    }
+
+    private final AlertManager alertManager;
+    private final List<Monitor> monitors;
+    private final int maxQueueDepth;
+    private final long maxOldestMillis;
+    private final double maxStoreMillis;
+    private double releaseRatio = 0.5;
+    private long raiseHoldMillis = TimeUnit.SECONDS.toMillis(3);
+    private long lowerHoldMillis = TimeUnit.SECONDS.toMillis(30);
+    private Level maxLevel = Level.SHED;
+    private ScheduledExecutorService scheduler;
+
+    private volatile Level level = Level.NORMAL;
+    private volatile double pressure;
+    private long lastChangeMillis;
+    // Storage samples seen at the previous tick, to take the mean of the new ones only
+    private long lastStoreCount;
+    private double lastStoreTotal;
+    // Null unless setMetrics() was called
+    private LatencyHistogram storeTimes;
+    private MetricsRegistry.Counter raised;
+    private MetricsRegistry.Counter lowered;
+
+    public PipelineThrottle(AlertManager alertManager, List<Monitor> monitors, int maxQueueDepth,
+                            long maxOldestMillis, double maxStoreMillis) {
+        if (maxQueueDepth <= 0 || maxOldestMillis <= 0 || maxStoreMillis <= 0) {
+            throw new IllegalArgumentException("Throttle limits must be positive");
+        }
+        this.alertManager = alertManager;
+        this.monitors = monitors;
+        this.maxQueueDepth = maxQueueDepth;
+        this.maxOldestMillis = maxOldestMillis;
+        this.maxStoreMillis = maxStoreMillis;
+    }
+
+    public static PipelineThrottle fromConfig(ThreatMonitorConfig config, AlertManager alertManager, List<Monitor> monitors) {
+        if (!config.getBoolean("throttle.enabled", true)) {
+            return null;
+        }
+        PipelineThrottle throttle = new PipelineThrottle(alertManager, monitors,
+                config.getInt("throttle.queue.depth", 50_000),
+                config.getLong("throttle.oldest.ms", 5000),
+                config.getDouble("throttle.store.ms", 250));
+        throttle.setReleaseRatio(config.getDouble("throttle.release", 0.5));
+        throttle.setHold(TimeUnit.SECONDS.toMillis(config.getLong("throttle.raise.seconds", 3)),
+                TimeUnit.SECONDS.toMillis(config.getLong("throttle.lower.seconds", 30)));
+        throttle.setMaxLevel(Level.valueOf(config.getString("throttle.max.level", "SHED").toUpperCase()));
+        return throttle;
+    }
+
+    // Pressure at or below which the level steps down, as a fraction of the limits
+    public void setReleaseRatio(double releaseRatio) {
+        if (releaseRatio <= 0 || releaseRatio >= 1) {
+            throw new IllegalArgumentException("Release ratio must be between 0 and 1");
+        }
+        this.releaseRatio = releaseRatio;
+    }
+
+    // How long a level is kept before stepping up or down from it
+    public void setHold(long raiseHoldMillis, long lowerHoldMillis) {
+        this.raiseHoldMillis = raiseHoldMillis;
+        this.lowerHoldMillis = lowerHoldMillis;
+    }
+
+    public void setMaxLevel(Level maxLevel) {
+        this.maxLevel = maxLevel;
+    }
+
+    // Reads storage times from the alert manager's registry and reports decisions into it
+    public void setMetrics(MetricsRegistry registry) {
+        storeTimes = registry.histogram("alerts.persist");
+        raised = registry.counter("throttle.raised");
+        lowered = registry.counter("throttle.lowered");
+        registry.gauge("throttle.level", () -> level.ordinal());
+        registry.gauge("throttle.pressurePct", () -> Math.round(pressure * 100));
+    }
+
+    public synchronized void start(long intervalMillis) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pipeline-throttle");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                update(System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                logger.log(java.util.logging.Level.WARNING, "Error updating pipeline throttle", e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Stops the loop and releases the monitors
+    public synchronized void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        scheduler = null;
+        if (level != Level.NORMAL) {
+            level = Level.NORMAL;
+            for (Monitor monitor : monitors) {
+                monitor.setThrottleLevel(Level.NORMAL);
+            }
+        }
+    }
+
+    /**
+     * Samples the pipeline and moves the level at most one step. Called by the loop every
+     * interval; returns the level in force afterwards.
+     */
+    public synchronized Level update(long nowMillis) {
+        long queued = alertManager.getQueueDepth() + alertManager.getSpilledCount();
+        long oldest = alertManager.getOldestQueuedMillis();
+        double storeMillis = recentStoreMillis();
+        double previous = pressure;
+        pressure = Math.max(queued / (double) maxQueueDepth,
+                Math.max(oldest / (double) maxOldestMillis, storeMillis / maxStoreMillis));
+
+        long held = nowMillis - lastChangeMillis;
+        Level next = level;
+        // A falling pressure means the last step is working through the backlog
+        if (pressure >= 1 && pressure >= previous && level.compareTo(maxLevel) < 0 && held >= raiseHoldMillis) {
+            next = Level.values()[level.ordinal() + 1];
+        } else if (pressure <= releaseRatio && level != Level.NORMAL && held >= lowerHoldMillis) {
+            next = Level.values()[level.ordinal() - 1];
+        }
+        if (next != level) {
+            String lag = String.format("%d alerts queued (limit %d), oldest %d ms (limit %d), storage %.1f ms per batch (limit %.0f)",
+                    queued, maxQueueDepth, oldest, maxOldestMillis, storeMillis, maxStoreMillis);
+            change(next, lag, nowMillis);
+        }
+        return level;
+    }
+
+    // Mean storage time of the batches stored since the last tick, 0 if none were
+    private double recentStoreMillis() {
+        LatencyHistogram histogram = storeTimes;
+        if (histogram == null) {
+            return 0;
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        double total = snapshot.getMean() * snapshot.getCount();
+        long count = snapshot.getCount() - lastStoreCount;
+        double mean = count > 0 ? (total - lastStoreTotal) / count / 1_000_000 : 0;
+        lastStoreCount = snapshot.getCount();
+        lastStoreTotal = total;
+        return mean;
+    }
+
+    private void change(Level next, String lag, long nowMillis) {
+        boolean raising = next.compareTo(level) > 0;
+        level = next;
+        lastChangeMillis = nowMillis;
+        for (Monitor monitor : monitors) {
+            monitor.setThrottleLevel(next);
+        }
+
+        MetricsRegistry.Counter counter = raising ? raised : lowered;
+        if (counter != null) {
+            counter.increment();
+        }
+        String message = (raising ? "Pipeline falling behind, monitors throttled to " : "Pipeline catching up, monitors throttled to ")
+                + next + ": " + lag;
+        if (raising) {
+            logger.warning(message);
+        } else {
+            logger.info(message);
+        }
+        Alert.Severity severity = !raising ? Alert.Severity.LOW
+                : next == Level.SHED ? Alert.Severity.HIGH : Alert.Severity.MEDIUM;
+        alertManager.queueAlert(new Alert(Alert.currentEpochMicros(), SOURCE, message, severity));
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public double getPressure() {
+        return pressure;
+    }
+}
@@ -0,0 +1,157 @@
+package com.security.threatmonitor;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+public class PipelineThrottleTest {
+    private static final AtomicInteger highRaised = new AtomicInteger();
+
+    // Raises a burst of low alerts and a few high ones every 20 ms, or less often when coarsened
+    private static class BurstMonitor extends PollingMonitor {
+        private final int highPerCheck;
+
+        BurstMonitor(String name, AlertManager alertManager, int highPerCheck) {
+            super(name, alertManager, 0, new AdaptivePollingPolicy(name, 20, 20, 1000, null));
+            this.highPerCheck = highPerCheck;
+        }
+
+        @Override
+        protected void check() {
+            for (int i = 0; i < 20; i++) {
+                raise(new SecurityEvent(LocalDateTime.now(), getName(), "Outbound connection to port 8080", Alert.Severity.LOW));
+            }
+            for (int i = 0; i < highPerCheck; i++) {
+                if (raise(new SecurityEvent(LocalDateTime.now(), getName(), "Port scan detected", Alert.Severity.HIGH)) != null) {
+                    highRaised.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        System.out.println("Testing pipeline throttling...");
+        // The default handlers log every alert; keep only records that carry an exception
+        Logger.getLogger(AlertManager.class.getName()).setFilter(record -> record.getThrown() != null);
+
+        try {
+            AlertManager alertManager = new AlertManager(null);
+            MetricsRegistry metrics = new MetricsRegistry();
+            alertManager.setMetrics(metrics);
+
+            // Storage that manages about 40 alerts a second until it recovers
+            AtomicInteger sinkMillis = new AtomicInteger(25);
+            AtomicInteger highReceived = new AtomicInteger();
+            AtomicInteger summaries = new AtomicInteger();
+            List<Alert> decisions = new CopyOnWriteArrayList<>();
+            alertManager.addSink(alert -> {
+                if (PipelineThrottle.SOURCE.equals(alert.getSource())) {
+                    decisions.add(alert);
+                } else if (alert.getSeverity() == Alert.Severity.HIGH) {
+                    highReceived.incrementAndGet();
+                } else if (alert.getMessage().contains("aggregated")) {
+                    summaries.incrementAndGet();
+                }
+                sleep(sinkMillis.get());
+            });
+            alertManager.startProcessing();
+
+            // Coarsened 4x, the high alerts alone outrun storage (62/s) until the sheddable
+            // monitor stops; the essential one's (12/s) then leave room to drain the queue
+            BurstMonitor sheddable = new BurstMonitor("Burst A", alertManager, 4);
+            sheddable.setSheddable(true);
+            sheddable.setAggregateWindow(500);
+            sheddable.setCoarseFactor(4);
+            BurstMonitor essential = new BurstMonitor("Burst B", alertManager, 1);
+            essential.setAggregateWindow(500);
+            essential.setCoarseFactor(4);
+            List<Monitor> monitors = Arrays.asList(sheddable, essential);
+            for (Monitor monitor : monitors) {
+                monitor.startMonitoring();
+            }
+
+            PipelineThrottle throttle = new PipelineThrottle(alertManager, monitors, 500, 2000, 250);
+            throttle.setMetrics(metrics);
+            throttle.setHold(300, 1000);
+            throttle.start(50);
+
+            // The monitors outrun storage until the throttle sheds enough of their load
+            List<PipelineThrottle.Level> levels = new ArrayList<>();
+            long deadline = System.currentTimeMillis() + 15_000;
+            while (throttle.getLevel() != PipelineThrottle.Level.SHED && System.currentTimeMillis() < deadline) {
+                sleep(50);
+            }
+            // The worker takes alerts off the queue in batches, so the backlog includes the one it is working on
+            PipelineThrottle.Level highest = throttle.getLevel();
+            long backlogAtShed = backlog(metrics);
+            sleep(2000);
+            long backlogLater = backlog(metrics);
+            boolean drainingAtShed = backlogLater < backlogAtShed;
+            System.out.println("Highest level: " + highest + ", backlog: " + backlogAtShed + ", two seconds later: " + backlogLater);
+
+            // Storage recovers; the throttle steps back down one level at a time
+            sinkMillis.set(0);
+            deadline = System.currentTimeMillis() + 15_000;
+            while (throttle.getLevel() != PipelineThrottle.Level.NORMAL && System.currentTimeMillis() < deadline) {
+                sleep(50);
+            }
+            PipelineThrottle.Level recovered = throttle.getLevel();
+            long skipped = metrics.counter("monitor.BurstA.skipped").getCount();
+            long skippedEssential = metrics.counter("monitor.BurstB.skipped").getCount();
+
+            throttle.stop();
+            for (Monitor monitor : monitors) {
+                monitor.stopMonitoring();
+            }
+            deadline = System.currentTimeMillis() + 5000;
+            while (alertManager.getQueueDepth() > 0 && System.currentTimeMillis() < deadline) {
+                sleep(20);
+            }
+            alertManager.stopProcessing();
+
+            // Each decision was an alert and a metric, and levels changed one step at a time
+            long raised = metrics.counter("throttle.raised").getCount();
+            long lowered = metrics.counter("throttle.lowered").getCount();
+            for (Alert decision : decisions) {
+                String message = decision.getMessage();
+                levels.add(PipelineThrottle.Level.valueOf(message.substring(message.indexOf(" to ") + 4, message.indexOf(':'))));
+            }
+            boolean oneStep = true;
+            PipelineThrottle.Level previous = PipelineThrottle.Level.NORMAL;
+            for (PipelineThrottle.Level level : levels) {
+                oneStep &= Math.abs(level.ordinal() - previous.ordinal()) == 1;
+                previous = level;
+            }
+            System.out.println("Decisions: " + levels + " (" + raised + " raised, " + lowered + " lowered)");
+            System.out.println("High alerts raised: " + highRaised.get() + ", delivered: " + highReceived.get());
+            System.out.println("Summaries of aggregated alerts: " + summaries.get());
+            System.out.println("Checks skipped: " + skipped + " (sheddable), " + skippedEssential + " (essential)");
+
+            boolean passed = highest == PipelineThrottle.Level.SHED && drainingAtShed
+                    && recovered == PipelineThrottle.Level.NORMAL && oneStep
+                    && decisions.size() == raised + lowered && levels.size() <= 8
+                    && highReceived.get() == highRaised.get() && summaries.get() > 0
+                    && skipped > 0 && skippedEssential == 0;
+            System.out.println(passed ? "\nPipeline throttle test passed!" : "\nPipeline throttle test FAILED");
+        } catch (Exception e) {
+            System.err.println("Error during pipeline throttle test: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static long backlog(MetricsRegistry metrics) {
+        return metrics.counter("alerts.queued").getCount() - metrics.counter("alerts.processed").getCount();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.security.threatmonitor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global CPU budget shared by all polling monitors. The budget is a fraction of one core,
+ * split evenly between participants; a participant whose checks cost C nanoseconds may
+ * not poll more often than once every C / share nanoseconds.
+ */
+public class PollingBudget {
+    private static final double COST_SMOOTHING = 0.2;
+
+    private final double cpuFraction;
+    private final Map<String, Double> averageCostNanos = new ConcurrentHashMap<>();
+
+    public PollingBudget(double cpuFraction) {
+        if (cpuFraction <= 0) {
+            throw new IllegalArgumentException("CPU budget must be positive");
+        }
+        this.cpuFraction = cpuFraction;
+    }
+
+    // Records the cost of one check and returns the shortest interval the budget allows
+    public long recordCost(String participant, long costNanos) {
+        double average = averageCostNanos.merge(participant, (double) costNanos,
+                (old, cost) -> old + COST_SMOOTHING * (cost - old));
+        double share = cpuFraction / averageCostNanos.size();
+        return (long) (average / share / 1_000_000);
+    }
+
+    public double getCpuFraction() {
+        return cpuFraction;
+    }
+}
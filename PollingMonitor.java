@@ -0,0 +1,256 @@
+package com.security.threatmonitor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Base class for monitors that run a periodic check. Each check reschedules the next one
+ * using the interval chosen by the monitor's {@link AdaptivePollingPolicy}, stretched while
+ * the {@link PipelineThrottle} reports that the alert pipeline is behind.
+ */
+public abstract class PollingMonitor implements Monitor {
+    private static final Logger logger = Logger.getLogger(PollingMonitor.class.getName());
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    protected final AlertManager alertManager;
+    private final String name;
+    private final long initialDelayMillis;
+    private final AdaptivePollingPolicy policy;
+    private ScheduledExecutorService scheduler;
+    private volatile boolean isRunning;
+    // Null unless the alert manager reports metrics
+    private LatencyHistogram checkTimes;
+    private MetricsRegistry.Counter alertsCounter;
+    private MetricsRegistry.Counter skippedCounter;
+    private MetricsRegistry.Counter aggregatedCounter;
+
+    // Throttling: set by the PipelineThrottle, configured before start
+    private volatile PipelineThrottle.Level throttleLevel = PipelineThrottle.Level.NORMAL;
+    private int coarseFactor = 4;
+    private long aggregateWindowMillis = TimeUnit.SECONDS.toMillis(60);
+    private boolean sheddable;
+
+    // Activity of the check in progress; only touched from the scheduler thread
+    private int alertsRaised;
+    private double anomalyScore;
+    // Alerts held back while aggregating, by source and severity
+    private final Map<String, Aggregate> aggregates = new LinkedHashMap<>();
+    private long aggregateStartMillis;
+
+    protected PollingMonitor(String name, AlertManager alertManager, long initialDelayMillis,
+                             AdaptivePollingPolicy policy) {
+        this.name = name;
+        this.alertManager = alertManager;
+        this.initialDelayMillis = initialDelayMillis;
+        this.policy = policy;
+    }
+
+    @Override
+    public void startMonitoring() {
+        logger.info("Starting " + name);
+        MetricsRegistry metrics = alertManager.getMetrics();
+        if (metrics != null) {
+            String prefix = "monitor." + name.replaceAll("\\s+", "") + ".";
+            checkTimes = metrics.histogram(prefix + "check");
+            alertsCounter = metrics.counter(prefix + "alerts");
+            metrics.gauge(prefix + "intervalMs", this::getCurrentIntervalMillis);
+            skippedCounter = metrics.counter(prefix + "skipped");
+            aggregatedCounter = metrics.counter(prefix + "aggregated");
+        }
+        scheduler = Executors.newScheduledThreadPool(1);
+        isRunning = true;
+        scheduler.schedule(this::runCheck, initialDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stopMonitoring() {
+        logger.info("Stopping " + name);
+        isRunning = false;
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                if (!scheduler.awaitTermination(2, TimeUnit.SECONDS)) {
+                    scheduler.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                scheduler.shutdownNow();
+            }
+        }
+        // The scheduler thread has stopped, so the aggregates are safe to touch here
+        flushAggregates();
+    }
+
+    private void runCheck() {
+        if (!isRunning) {
+            return;
+        }
+
+        PipelineThrottle.Level level = throttleLevel;
+        long nextDelay;
+        if (sheddable && level == PipelineThrottle.Level.SHED) {
+            // Skipped checks say nothing about activity, so the policy is left as it was
+            if (skippedCounter != null) {
+                skippedCounter.increment();
+            }
+            nextDelay = policy.getCurrentIntervalMillis();
+        } else {
+            alertsRaised = 0;
+            anomalyScore = 0;
+            long startCpu = cpuTime();
+            long startNanos = System.nanoTime();
+            try {
+                check();
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Error in " + name + " check", e);
+            }
+            if (checkTimes != null) {
+                checkTimes.recordSince(startNanos);
+            }
+            nextDelay = policy.update(alertsRaised, anomalyScore, cpuTime() - startCpu);
+        }
+        if (!aggregates.isEmpty() && (level.compareTo(PipelineThrottle.Level.AGGREGATE) < 0
+                || System.currentTimeMillis() - aggregateStartMillis >= aggregateWindowMillis)) {
+            flushAggregates();
+        }
+        if (level != PipelineThrottle.Level.NORMAL) {
+            nextDelay *= coarseFactor;
+        }
+
+        if (isRunning) {
+            try {
+                scheduler.schedule(this::runCheck, nextDelay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Stopped while the check was running
+            }
+        }
+    }
+
+    // Performs one check, reporting findings through raise() and reportAnomaly()
+    protected abstract void check();
+
+    /**
+     * Classifies and queues the event; returns the resulting alert, or null if a rule dropped
+     * it. While the pipeline is throttled to {@code AGGREGATE} or beyond, low and medium
+     * alerts are held back and queued as one summary per source and severity instead.
+     */
+    protected Alert raise(SecurityEvent event) {
+        Alert alert;
+        if (throttleLevel.compareTo(PipelineThrottle.Level.AGGREGATE) < 0) {
+            alert = alertManager.queueEvent(event);
+        } else {
+            alert = alertManager.classifyEvent(event);
+            if (alert != null) {
+                if (alert.getSeverity().compareTo(Alert.Severity.HIGH) < 0) {
+                    aggregate(alert);
+                } else {
+                    alertManager.queueAlert(alert);
+                }
+            }
+        }
+        if (alert != null) {
+            alertsRaised++;
+            if (alertsCounter != null) {
+                alertsCounter.increment();
+            }
+            reportAnomaly(severityScore(alert.getSeverity()));
+        }
+        return alert;
+    }
+
+    private void aggregate(Alert alert) {
+        if (aggregates.isEmpty()) {
+            aggregateStartMillis = System.currentTimeMillis();
+        }
+        aggregates.computeIfAbsent(alert.getSource() + '\0' + alert.getSeverity(), key -> new Aggregate(alert)).count++;
+        if (aggregatedCounter != null) {
+            aggregatedCounter.increment();
+        }
+    }
+
+    // Queues one alert per source and severity for the alerts held back since the last flush
+    private void flushAggregates() {
+        for (Aggregate aggregate : aggregates.values()) {
+            Alert first = aggregate.first;
+            if (aggregate.count == 1) {
+                alertManager.queueAlert(first);
+            } else {
+                alertManager.queueAlert(new Alert(first.getEpochMicros(), first.getSource(),
+                        aggregate.count + " " + first.getSeverity() + " alerts aggregated while the pipeline was throttled; first: "
+                                + first.getMessage(), first.getSeverity()));
+            }
+        }
+        aggregates.clear();
+    }
+
+    // Lets a check signal suspicious activity that did not (yet) produce an alert
+    protected void reportAnomaly(double score) {
+        anomalyScore = Math.max(anomalyScore, Math.min(1.0, score));
+    }
+
+    private static double severityScore(Alert.Severity severity) {
+        return (severity.ordinal() + 1) / (double) Alert.Severity.values().length;
+    }
+
+    private static long cpuTime() {
+        return threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCurrentIntervalMillis() {
+        long interval = policy.getCurrentIntervalMillis();
+        return throttleLevel == PipelineThrottle.Level.NORMAL ? interval : interval * coarseFactor;
+    }
+
+    @Override
+    public void setThrottleLevel(PipelineThrottle.Level level) {
+        throttleLevel = level;
+    }
+
+    public PipelineThrottle.Level getThrottleLevel() {
+        return throttleLevel;
+    }
+
+    // How much longer the polling interval is while the pipeline is throttled
+    public void setCoarseFactor(int coarseFactor) {
+        if (coarseFactor < 1) {
+            throw new IllegalArgumentException("Coarse factor must be at least 1");
+        }
+        this.coarseFactor = coarseFactor;
+    }
+
+    // How long low and medium alerts are held back before their summary is queued
+    public void setAggregateWindow(long aggregateWindowMillis) {
+        this.aggregateWindowMillis = aggregateWindowMillis;
+    }
+
+    // Sheddable monitors skip their checks entirely at the SHED level
+    public void setSheddable(boolean sheddable) {
+        this.sheddable = sheddable;
+    }
+
+    public AdaptivePollingPolicy getPolicy() {
+        return policy;
+    }
+
+    private static final class Aggregate {
+        final Alert first;
+        int count;
+
+        Aggregate(Alert first) {
+            this.first = first;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.security.threatmonitor;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Path-compressed binary (PATRICIA) trie of IP prefixes, held in direct buffers. Addresses
+ * are 128-bit; IPv4 is mapped into ::ffff:0:0/96. Prefixes covered by a broader prefix
+ * are dropped at build time, so the remaining leaves are disjoint and a lookup is a walk
+ * down the branch bits followed by a single comparison at the leaf.
+ */
+public class PrefixTrie {
+    private static final long IPV4_MAPPED_HI = 0L;
+    private static final long IPV4_MAPPED_LO = 0x0000FFFF00000000L;
+
+    // Internal nodes: branch bit and children (>= 0 internal node, < 0 leaf ~index)
+    private final IntBuffer branchBit;
+    private final IntBuffer left;
+    private final IntBuffer right;
+
+    // Leaves
+    private final LongBuffer leafKeys;
+    private final IntBuffer leafLength;
+    private final IntBuffer leafTag;
+    private final int leafCount;
+    private final int root;
+    private int nextInternal;
+
+    public static class Prefix {
+        final long hi;
+        final long lo;
+        final int length;
+        final int tag;
+
+        public Prefix(long hi, long lo, int length, int tag) {
+            this.hi = length >= 64 ? hi : hi & highMask(length);
+            this.lo = length >= 64 ? lo & highMask(length - 64) : 0L;
+            this.length = length;
+            this.tag = tag;
+        }
+    }
+
+    private PrefixTrie(List<Prefix> prefixes) {
+        leafCount = prefixes.size();
+        branchBit = allocateInts(leafCount);
+        left = allocateInts(leafCount);
+        right = allocateInts(leafCount);
+        leafKeys = ByteBuffer.allocateDirect(Math.max(1, leafCount) * 2 * Long.BYTES)
+                .order(ByteOrder.nativeOrder()).asLongBuffer();
+        leafLength = allocateInts(leafCount);
+        leafTag = allocateInts(leafCount);
+
+        for (int i = 0; i < leafCount; i++) {
+            Prefix prefix = prefixes.get(i);
+            leafKeys.put(2 * i, prefix.hi);
+            leafKeys.put(2 * i + 1, prefix.lo);
+            leafLength.put(i, prefix.length);
+            leafTag.put(i, prefix.tag);
+        }
+        root = leafCount == 0 ? 0 : buildNode(0, leafCount);
+    }
+
+    private static IntBuffer allocateInts(int count) {
+        return ByteBuffer.allocateDirect(Math.max(1, count) * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    public static PrefixTrie build(List<Prefix> input) {
+        List<Prefix> sorted = new ArrayList<>(input);
+        sorted.sort((a, b) -> {
+            int c = Long.compareUnsigned(a.hi, b.hi);
+            if (c == 0) {
+                c = Long.compareUnsigned(a.lo, b.lo);
+            }
+            return c != 0 ? c : Integer.compare(a.length, b.length);
+        });
+
+        // Drop prefixes covered by the previously kept (broader or equal) prefix
+        List<Prefix> disjoint = new ArrayList<>(sorted.size());
+        for (Prefix prefix : sorted) {
+            if (disjoint.isEmpty() || !covers(disjoint.get(disjoint.size() - 1), prefix.hi, prefix.lo)) {
+                disjoint.add(prefix);
+            }
+        }
+        return new PrefixTrie(disjoint);
+    }
+
+    // Leaves in [lo, hi) share their first bits up to the first bit on which the outer two differ
+    private int buildNode(int lo, int hi) {
+        if (hi - lo == 1) {
+            return ~lo;
+        }
+
+        int bit = firstDifferingBit(lo, hi - 1);
+        int split = lo + 1;
+        int a = lo + 1;
+        int b = hi - 1;
+        while (a <= b) {
+            int mid = (a + b) >>> 1;
+            if (bitAt(leafKeys.get(2 * mid), leafKeys.get(2 * mid + 1), bit)) {
+                split = mid;
+                b = mid - 1;
+            } else {
+                a = mid + 1;
+            }
+        }
+
+        int node = nextInternal++;
+        branchBit.put(node, bit);
+        left.put(node, buildNode(lo, split));
+        right.put(node, buildNode(split, hi));
+        return node;
+    }
+
+    private int firstDifferingBit(int a, int b) {
+        long hi = leafKeys.get(2 * a) ^ leafKeys.get(2 * b);
+        if (hi != 0) {
+            return Long.numberOfLeadingZeros(hi);
+        }
+        return 64 + Long.numberOfLeadingZeros(leafKeys.get(2 * a + 1) ^ leafKeys.get(2 * b + 1));
+    }
+
+    /**
+     * @return the tag of the prefix covering the address, or -1
+     */
+    public int lookup(long hi, long lo) {
+        int leaf = findLeaf(hi, lo);
+        return leaf < 0 ? -1 : leafTag.get(leaf);
+    }
+
+    public int lookupIpv4(int address) {
+        return lookup(IPV4_MAPPED_HI, ipv4Lo(address));
+    }
+
+    // Returns the prefix covering the IPv4 address in CIDR notation, or null
+    public String describeIpv4Match(int address) {
+        int leaf = findLeaf(IPV4_MAPPED_HI, ipv4Lo(address));
+        return leaf < 0 ? null : format(leafKeys.get(2 * leaf), leafKeys.get(2 * leaf + 1), leafLength.get(leaf));
+    }
+
+    private int findLeaf(long hi, long lo) {
+        if (leafCount == 0) {
+            return -1;
+        }
+        int node = root;
+        while (node >= 0) {
+            node = bitAt(hi, lo, branchBit.get(node)) ? right.get(node) : left.get(node);
+        }
+        int leaf = ~node;
+        int length = leafLength.get(leaf);
+        long keyHi = leafKeys.get(2 * leaf);
+        long keyLo = leafKeys.get(2 * leaf + 1);
+        boolean matches = length >= 64
+                ? hi == keyHi && ((lo ^ keyLo) & highMask(length - 64)) == 0
+                : ((hi ^ keyHi) & highMask(length)) == 0;
+        return matches ? leaf : -1;
+    }
+
+    private static long ipv4Lo(int address) {
+        return IPV4_MAPPED_LO | (address & 0xFFFFFFFFL);
+    }
+
+    public int size() {
+        return leafCount;
+    }
+
+    /**
+     * Parses an address or CIDR such as 10.0.0.0/8, 203.0.113.7 or 2001:db8::/32.
+     * Returns null if the text is not an IP literal.
+     */
+    public static Prefix parse(String text, int tag) {
+        int slash = text.indexOf('/');
+        String address = slash < 0 ? text : text.substring(0, slash);
+        if (address.isEmpty() || !(Character.digit(address.charAt(0), 16) >= 0 || address.charAt(0) == ':')
+                || (address.indexOf(':') < 0 && !address.matches("\\d{1,3}(\\.\\d{1,3}){3}"))) {
+            return null;
+        }
+
+        try {
+            // Only literals reach this point, so no name resolution happens
+            byte[] bytes = InetAddress.getByName(address).getAddress();
+            boolean ipv4 = bytes.length == 4;
+            int length = slash < 0 ? (ipv4 ? 32 : 128) : Integer.parseInt(text.substring(slash + 1));
+            if (length < 0 || length > (ipv4 ? 32 : 128)) {
+                return null;
+            }
+
+            long hi = 0;
+            long lo = 0;
+            if (ipv4) {
+                hi = IPV4_MAPPED_HI;
+                lo = ipv4Lo(ByteBuffer.wrap(bytes).getInt());
+                length += 96;
+            } else {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                hi = buffer.getLong();
+                lo = buffer.getLong();
+            }
+            return new Prefix(hi, lo, length, tag);
+        } catch (UnknownHostException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean covers(Prefix prefix, long hi, long lo) {
+        int length = prefix.length;
+        if (length >= 64) {
+            return hi == prefix.hi && ((lo ^ prefix.lo) & highMask(length - 64)) == 0;
+        }
+        return ((hi ^ prefix.hi) & highMask(length)) == 0;
+    }
+
+    private static boolean bitAt(long hi, long lo, int bit) {
+        return bit < 64 ? (hi & (1L << (63 - bit))) != 0 : (lo & (1L << (127 - bit))) != 0;
+    }
+
+    // Mask with the top n bits set, for 0 <= n <= 64
+    private static long highMask(int n) {
+        return n == 0 ? 0L : -1L << (64 - n);
+    }
+
+    private static String format(long hi, long lo, int length) {
+        if (hi == IPV4_MAPPED_HI && (lo & 0xFFFFFFFF00000000L) == IPV4_MAPPED_LO && length >= 96) {
+            return ((lo >>> 24) & 0xFF) + "." + ((lo >>> 16) & 0xFF) + "." + ((lo >>> 8) & 0xFF) + "." + (lo & 0xFF)
+                    + "/" + (length - 96);
+        }
+        try {
+            byte[] bytes = ByteBuffer.allocate(16).putLong(hi).putLong(lo).array();
+            return InetAddress.getByAddress(bytes).getHostAddress() + "/" + length;
+        } catch (UnknownHostException e) {
+            return Long.toHexString(hi) + Long.toHexString(lo) + "/" + length;
+        }
+    }
+}
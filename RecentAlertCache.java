@@ -0,0 +1,140 @@
+package com.security.threatmonitor;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * The most recently stored alerts, newest last, in a fixed-size ring. Alerts leave the ring
+ * when it is full or, if a maximum age is set, once they are older than that. Queries return
+ * null when the ring cannot answer them completely, so the caller can go to the database.
+ */
+public class RecentAlertCache {
+    private final Alert[] ring;
+    private final Duration maxAge;
+    private int head;   // index of the oldest entry
+    private int size;
+    // True while the ring holds every stored alert, so even short answers are complete
+    private boolean complete = true;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // A null or zero maxAge keeps alerts until the ring is full
+    public RecentAlertCache(int capacity, Duration maxAge) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Cache capacity must be positive: " + capacity);
+        }
+        this.ring = new Alert[capacity];
+        this.maxAge = maxAge == null || maxAge.isZero() ? null : maxAge;
+    }
+
+    // Fills the cache from the newest stored alerts; complete means these are all of them
+    public synchronized void load(List<Alert> newestFirst, boolean complete) {
+        head = 0;
+        size = 0;
+        this.complete = complete;
+        for (int i = newestFirst.size() - 1; i >= 0; i--) {
+            add(newestFirst.get(i));
+        }
+    }
+
+    public synchronized void add(Alert entry) {
+        if (size == ring.length) {
+            removeOldest();
+        }
+        ring[(head + size) % ring.length] = entry;
+        size++;
+        expire();
+    }
+
+    // Drops alerts older than the cutoff, e.g. after the database deleted them
+    public synchronized void evictOlderThan(LocalDateTime cutoff) {
+        long cutoffMicros = Alert.toEpochMicros(cutoff);
+        while (size > 0 && ring[head].getEpochMicros() < cutoffMicros) {
+            removeOldest();
+        }
+    }
+
+    private void expire() {
+        if (maxAge != null) {
+            evictOlderThan(LocalDateTime.now().minus(maxAge));
+        }
+    }
+
+    private void removeOldest() {
+        ring[head] = null;
+        head = (head + 1) % ring.length;
+        size--;
+        complete = false;
+        evictions.increment();
+    }
+
+    /**
+     * Up to limit of the newest alerts accepted by the filter, newest first, or null if the
+     * cache holds fewer than limit of them and older ones may exist in the database.
+     */
+    public synchronized List<Alert> recent(int limit, Predicate<Alert> filter) {
+        expire();
+        List<Alert> result = new ArrayList<>(Math.min(limit, size));
+        for (int i = size - 1; i >= 0 && result.size() < limit; i--) {
+            Alert entry = ring[(head + i) % ring.length];
+            if (filter == null || filter.test(entry)) {
+                result.add(entry);
+            }
+        }
+        return answer(result.size() == limit || complete ? result : null);
+    }
+
+    // All alerts at or after since, newest first, or null if some of them have left the cache
+    public synchronized List<Alert> since(LocalDateTime since) {
+        expire();
+        long sinceMicros = Alert.toEpochMicros(since);
+        boolean covered = complete || (size > 0 && ring[head].getEpochMicros() <= sinceMicros);
+        if (!covered) {
+            return answer(null);
+        }
+
+        List<Alert> result = new ArrayList<>();
+        for (int i = size - 1; i >= 0; i--) {
+            Alert entry = ring[(head + i) % ring.length];
+            if (entry.getEpochMicros() >= sinceMicros) {
+                result.add(entry);
+            }
+        }
+        return answer(result);
+    }
+
+    private List<Alert> answer(List<Alert> result) {
+        if (result == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
@@ -0,0 +1,69 @@
+package com.security.threatmonitor;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A raw observation from a monitor before classification. Besides the text that ends up in
+ * the alert it carries named fields (e.g. cpu, ip, user) that classification rules can test,
+ * and the severity the monitor would assign if no rule matches.
+ */
+public class SecurityEvent {
+    private final LocalDateTime timestamp;
+    private final String source;
+    private final String message;
+    private final Alert.Severity defaultSeverity;
+    private final Map<String, String> fields = new LinkedHashMap<>();
+
+    public SecurityEvent(LocalDateTime timestamp, String source, String message, Alert.Severity defaultSeverity) {
+        this.timestamp = timestamp;
+        this.source = source;
+        this.message = message;
+        this.defaultSeverity = defaultSeverity;
+    }
+
+    public SecurityEvent with(String field, Object value) {
+        fields.put(field, String.valueOf(value));
+        return this;
+    }
+
+    // Built-in fields are source, message and severity (the default severity)
+    public String get(String field) {
+        switch (field) {
+            case "source":
+                return source;
+            case "message":
+                return message;
+            case "severity":
+                return defaultSeverity.toString();
+            default:
+                return fields.get(field);
+        }
+    }
+
+    public Alert toAlert(Alert.Severity severity) {
+        return new Alert(timestamp, source, message, severity);
+    }
+
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public Alert.Severity getDefaultSeverity() {
+        return defaultSeverity;
+    }
+
+    public Map<String, String> getFields() {
+        return Collections.unmodifiableMap(fields);
+    }
+}
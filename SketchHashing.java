@@ -0,0 +1,33 @@
+package com.security.threatmonitor;
+
+/**
+ * 64-bit hashes for the streaming sketches. String.hashCode() has too few bits and too much
+ * structure for cardinality estimates, so keys are hashed with FNV-1a and a MurmurHash3 finalizer.
+ */
+final class SketchHashing {
+    private SketchHashing() {
+    }
+
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    static long hash(long value) {
+        return mix(value + 0x9e3779b97f4a7c15L);
+    }
+
+    // MurmurHash3 fmix64
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
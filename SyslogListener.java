@@ -0,0 +1,706 @@
+package com.security.threatmonitor;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Network ingestion endpoint for RFC 5424 syslog. Accepts datagrams over UDP and
+ * newline or octet-count framed messages over TCP (RFC 6587) on a single selector
+ * thread, and hands parsed alerts to the AlertManager in batches.
+ */
+public class SyslogListener {
+    private static final Logger logger = Logger.getLogger(SyslogListener.class.getName());
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 64;
+    private static final int MAX_BATCH_SIZE = 512;
+    private static final int MAX_DATAGRAMS_PER_ROUND = 256;
+    private static final long SELECT_TIMEOUT_MILLIS = 100;
+
+    private final AlertManager alertManager;
+    private final InetSocketAddress udpAddress;
+    private final InetSocketAddress tcpAddress;
+    private final int highWaterMark;
+    private final int lowWaterMark;
+    private final BufferPool bufferPool = new BufferPool();
+    private final Map<SocketChannel, Connection> connections = new ConcurrentHashMap<>();
+    private final List<Alert> batch = new ArrayList<>(MAX_BATCH_SIZE);
+    // Frames are parsed into this on the selector thread; only valid ones become alerts
+    private final MutableAlert parsed = new MutableAlert();
+    private final AtomicBoolean isRunning = new AtomicBoolean(false);
+
+    private Selector selector;
+    private DatagramChannel udpChannel;
+    private ServerSocketChannel tcpChannel;
+    private SelectionKey udpKey;
+    private Thread selectorThread;
+    private boolean paused;
+
+    // Statistics
+    private final AtomicLong framesReceived = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong malformedFrames = new AtomicLong();
+    private volatile double ingestRate;
+    private long lastRateFrames;
+    private long lastRateNanos;
+
+    public SyslogListener(AlertManager alertManager, InetSocketAddress udpAddress, InetSocketAddress tcpAddress) {
+        this(alertManager, udpAddress, tcpAddress, 50_000, 10_000);
+    }
+
+    /**
+     * @param udpAddress    address to receive datagrams on, or null to disable UDP
+     * @param tcpAddress    address to accept stream connections on, or null to disable TCP
+     * @param highWaterMark queue depth at which reading is paused
+     * @param lowWaterMark  queue depth at which reading resumes
+     */
+    public SyslogListener(AlertManager alertManager, InetSocketAddress udpAddress, InetSocketAddress tcpAddress,
+                          int highWaterMark, int lowWaterMark) {
+        if (lowWaterMark > highWaterMark) {
+            throw new IllegalArgumentException("Low water mark must not exceed high water mark");
+        }
+        this.alertManager = alertManager;
+        this.udpAddress = udpAddress;
+        this.tcpAddress = tcpAddress;
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = lowWaterMark;
+    }
+
+    public void start() throws IOException {
+        if (isRunning.get()) {
+            return;
+        }
+
+        selector = Selector.open();
+
+        if (udpAddress != null) {
+            udpChannel = DatagramChannel.open();
+            udpChannel.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024 * 1024);
+            udpChannel.bind(udpAddress);
+            udpChannel.configureBlocking(false);
+            udpKey = udpChannel.register(selector, SelectionKey.OP_READ);
+            logger.info("Syslog UDP listener bound to " + udpChannel.getLocalAddress());
+        }
+
+        if (tcpAddress != null) {
+            tcpChannel = ServerSocketChannel.open();
+            tcpChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            tcpChannel.bind(tcpAddress);
+            tcpChannel.configureBlocking(false);
+            tcpChannel.register(selector, SelectionKey.OP_ACCEPT);
+            logger.info("Syslog TCP listener bound to " + tcpChannel.getLocalAddress());
+        }
+
+        isRunning.set(true);
+        lastRateNanos = System.nanoTime();
+        selectorThread = new Thread(this::runLoop, "syslog-listener");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    public void stop() {
+        if (!isRunning.compareAndSet(true, false)) {
+            return;
+        }
+
+        selector.wakeup();
+        try {
+            selectorThread.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getUdpPort() {
+        return udpChannel == null ? -1 : udpChannel.socket().getLocalPort();
+    }
+
+    public int getTcpPort() {
+        return tcpChannel == null ? -1 : tcpChannel.socket().getLocalPort();
+    }
+
+    public long getFramesReceived() {
+        return framesReceived.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public long getMalformedFrames() {
+        return malformedFrames.get();
+    }
+
+    // Frames per second over the last rate interval
+    public double getIngestRate() {
+        return ingestRate;
+    }
+
+    public List<ConnectionStats> getConnectionStats() {
+        List<ConnectionStats> stats = new ArrayList<>();
+        for (Connection connection : connections.values()) {
+            stats.add(connection.snapshot());
+        }
+        return stats;
+    }
+
+    private void runLoop() {
+        logger.info("Syslog listener started");
+
+        while (isRunning.get()) {
+            try {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.channel() == udpChannel) {
+                        readDatagrams();
+                    } else if (key.isReadable()) {
+                        readStream(key);
+                    }
+                }
+
+                flushBatch();
+                applyBackpressure();
+                updateRates();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error in syslog listener loop", e);
+            }
+        }
+
+        flushBatch();
+        closeAll();
+        logger.info("Syslog listener stopped");
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = tcpChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            Connection connection = new Connection(channel.getRemoteAddress(), bufferPool.acquire());
+            connections.put(channel, connection);
+            channel.register(selector, paused ? 0 : SelectionKey.OP_READ, connection);
+            if (paused) {
+                connection.pause();
+            }
+            logger.info("Accepted syslog connection from " + connection.remoteAddress);
+        }
+    }
+
+    private void readDatagrams() throws IOException {
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            for (int i = 0; i < MAX_DATAGRAMS_PER_ROUND; i++) {
+                buffer.clear();
+                if (udpChannel.receive(buffer) == null) {
+                    break;
+                }
+                buffer.flip();
+                bytesReceived.addAndGet(buffer.remaining());
+
+                int end = buffer.limit();
+                while (end > 0 && (buffer.get(end - 1) == '\n' || buffer.get(end - 1) == '\r')) {
+                    end--;
+                }
+                handleFrame(buffer, 0, end);
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private void readStream(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer buffer = connection.buffer;
+
+        int read;
+        try {
+            read = channel.read(buffer);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Syslog connection reset by " + connection.remoteAddress, e);
+            read = -1;
+        }
+
+        if (read > 0) {
+            bytesReceived.addAndGet(read);
+            connection.bytes += read;
+            buffer.flip();
+            boolean framingError = !extractStreamFrames(connection, buffer);
+            buffer.compact();
+            if (framingError) {
+                malformedFrames.incrementAndGet();
+                close(channel);
+            }
+        } else if (read < 0) {
+            close(channel);
+        }
+    }
+
+    // Splits the readable region of the buffer into frames. Returns false if the stream is unrecoverable.
+    private boolean extractStreamFrames(Connection connection, ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            int start = buffer.position();
+            int limit = buffer.limit();
+
+            if (isDigit(buffer.get(start))) {
+                // Octet-counting: MSG-LEN SP SYSLOG-MSG
+                int length = 0;
+                int pos = start;
+                while (pos < limit && isDigit(buffer.get(pos))) {
+                    length = length * 10 + (buffer.get(pos) - '0');
+                    if (pos - start >= 6) {
+                        return false;
+                    }
+                    pos++;
+                }
+                if (pos == limit) {
+                    return true;
+                }
+                if (buffer.get(pos) != ' ' || length > buffer.capacity() - (pos - start) - 1) {
+                    return false;
+                }
+                int frameStart = pos + 1;
+                if (limit - frameStart < length) {
+                    return true;
+                }
+                handleFrame(buffer, frameStart, frameStart + length);
+                connection.frames++;
+                buffer.position(frameStart + length);
+            } else {
+                // Non-transparent framing: frames terminated by LF
+                int newline = -1;
+                for (int pos = start; pos < limit; pos++) {
+                    if (buffer.get(pos) == '\n') {
+                        newline = pos;
+                        break;
+                    }
+                }
+                if (newline < 0) {
+                    // A full buffer without a terminator can never become a frame
+                    return limit - start < buffer.capacity();
+                }
+                int end = newline;
+                if (end > start && buffer.get(end - 1) == '\r') {
+                    end--;
+                }
+                if (end > start) {
+                    handleFrame(buffer, start, end);
+                    connection.frames++;
+                }
+                buffer.position(newline + 1);
+            }
+        }
+        return true;
+    }
+
+    private void handleFrame(ByteBuffer buffer, int start, int end) {
+        framesReceived.incrementAndGet();
+
+        Alert alert;
+        try {
+            if (!parseSyslog(buffer, start, end, parsed)) {
+                malformedFrames.incrementAndGet();
+                return;
+            }
+            alert = parsed.toAlert();
+        } catch (RuntimeException e) {
+            // A frame the parser did not expect must not stop the listener
+            malformedFrames.incrementAndGet();
+            logger.log(Level.FINE, "Dropping unparseable syslog frame", e);
+            return;
+        }
+
+        batch.add(alert);
+        if (batch.size() >= MAX_BATCH_SIZE) {
+            flushBatch();
+        }
+    }
+
+    private void flushBatch() {
+        if (!batch.isEmpty()) {
+            alertManager.queueAlerts(batch);
+            batch.clear();
+        }
+    }
+
+    // Stop reading from the sockets while the alert queue is above the high water mark so
+    // TCP senders are throttled by flow control; resume once it drains below the low water mark.
+    private void applyBackpressure() {
+        int depth = alertManager.getQueueDepth();
+
+        if (!paused && depth >= highWaterMark) {
+            paused = true;
+            setReadInterest(false);
+            logger.warning("Alert queue depth " + depth + " reached high water mark, pausing syslog ingestion");
+        } else if (paused && depth <= lowWaterMark) {
+            paused = false;
+            setReadInterest(true);
+            logger.info("Alert queue depth " + depth + " below low water mark, resuming syslog ingestion");
+        }
+    }
+
+    private void setReadInterest(boolean enabled) {
+        int ops = enabled ? SelectionKey.OP_READ : 0;
+        if (udpKey != null && udpKey.isValid()) {
+            udpKey.interestOps(ops);
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.attachment() instanceof Connection) {
+                key.interestOps(ops);
+                Connection connection = (Connection) key.attachment();
+                if (enabled) {
+                    connection.resume();
+                } else {
+                    connection.pause();
+                }
+            }
+        }
+    }
+
+    private void updateRates() {
+        long now = System.nanoTime();
+        long elapsed = now - lastRateNanos;
+        if (elapsed < TimeUnit.SECONDS.toNanos(1)) {
+            return;
+        }
+
+        long frames = framesReceived.get();
+        ingestRate = (frames - lastRateFrames) * 1e9 / elapsed;
+        lastRateFrames = frames;
+        lastRateNanos = now;
+
+        for (Connection connection : connections.values()) {
+            connection.updateRate(elapsed);
+        }
+    }
+
+    private void close(SocketChannel channel) {
+        Connection connection = connections.remove(channel);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Error closing syslog connection", e);
+        }
+        if (connection != null) {
+            bufferPool.release(connection.buffer);
+            logger.info("Closed syslog connection from " + connection.remoteAddress);
+        }
+    }
+
+    private void closeAll() {
+        for (SocketChannel channel : new ArrayList<>(connections.keySet())) {
+            close(channel);
+        }
+        try {
+            if (udpChannel != null) {
+                udpChannel.close();
+            }
+            if (tcpChannel != null) {
+                tcpChannel.close();
+            }
+            selector.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error closing syslog listener channels", e);
+        }
+    }
+
+    /**
+     * Parses one RFC 5424 message occupying [start, end) of the buffer without moving its position.
+     * Messages that carry a PRI but no version are treated as legacy BSD syslog and the remainder
+     * is kept as the message text. Returns null if the frame has no valid PRI.
+     */
+    static Alert parseSyslog(ByteBuffer buffer, int start, int end) {
+        MutableAlert alert = new MutableAlert();
+        return parseSyslog(buffer, start, end, alert) ? alert.toAlert() : null;
+    }
+
+    // Parses into the reusable alert; returns false (leaving it partly filled) if the frame has no valid PRI
+    static boolean parseSyslog(ByteBuffer buffer, int start, int end, MutableAlert alert) {
+        alert.clear();
+        int pos = start;
+        if (pos >= end || buffer.get(pos) != '<') {
+            return false;
+        }
+        pos++;
+
+        int pri = 0;
+        int digits = 0;
+        while (pos < end && isDigit(buffer.get(pos))) {
+            pri = pri * 10 + (buffer.get(pos++) - '0');
+            digits++;
+        }
+        if (digits == 0 || digits > 3 || pri > 191 || pos >= end || buffer.get(pos) != '>') {
+            return false;
+        }
+        pos++;
+        alert.setSeverity(mapSeverity(pri & 0x07));
+
+        // VERSION SP
+        int versionEnd = pos;
+        while (versionEnd < end && isDigit(buffer.get(versionEnd))) {
+            versionEnd++;
+        }
+        if (versionEnd == pos || versionEnd >= end || buffer.get(versionEnd) != ' ') {
+            alert.setEpochMicros(Alert.currentEpochMicros()).setSource("Syslog").setMessage(buffer, pos, end);
+            return true;
+        }
+        pos = versionEnd + 1;
+
+        // TIMESTAMP SP HOSTNAME SP APP-NAME SP PROCID SP MSGID SP; a truncated frame stops at end
+        int timestampEnd = tokenEnd(buffer, pos, end);
+        alert.setEpochMicros(parseTimestamp(buffer, pos, timestampEnd));
+        pos = Math.min(timestampEnd + 1, end);
+
+        int hostStart = pos;
+        int hostEnd = tokenEnd(buffer, pos, end);
+        pos = Math.min(hostEnd + 1, end);
+
+        int appStart = pos;
+        int appEnd = tokenEnd(buffer, pos, end);
+        pos = Math.min(appEnd + 1, end);
+
+        pos = Math.min(tokenEnd(buffer, pos, end) + 1, end);  // PROCID
+        pos = Math.min(tokenEnd(buffer, pos, end) + 1, end);  // MSGID
+
+        // STRUCTURED-DATA is either NILVALUE or one or more [SD-ELEMENT]
+        if (pos < end && buffer.get(pos) == '-') {
+            pos++;
+        } else {
+            while (pos < end && buffer.get(pos) == '[') {
+                pos = skipSdElement(buffer, pos, end);
+            }
+        }
+        if (pos < end && buffer.get(pos) == ' ') {
+            pos++;
+        }
+
+        // Optional UTF-8 BOM before MSG
+        if (end - pos >= 3 && (buffer.get(pos) & 0xFF) == 0xEF
+                && (buffer.get(pos + 1) & 0xFF) == 0xBB && (buffer.get(pos + 2) & 0xFF) == 0xBF) {
+            pos += 3;
+        }
+
+        if (!isNil(buffer, appStart, appEnd)) {
+            alert.setSource(buffer, appStart, appEnd);
+        } else if (!isNil(buffer, hostStart, hostEnd)) {
+            alert.setSource(buffer, hostStart, hostEnd);
+        } else {
+            alert.setSource("Syslog");
+        }
+        alert.setMessage(buffer, pos, end);
+        return true;
+    }
+
+    // An empty field or the NILVALUE "-"
+    private static boolean isNil(ByteBuffer buffer, int start, int end) {
+        return end <= start || (end - start == 1 && buffer.get(start) == '-');
+    }
+
+    // Syslog severities 0-7 (emergency..debug) mapped onto the four alert levels
+    static Alert.Severity mapSeverity(int syslogSeverity) {
+        switch (syslogSeverity) {
+            case 0:
+            case 1:
+            case 2:
+                return Alert.Severity.CRITICAL;
+            case 3:
+                return Alert.Severity.HIGH;
+            case 4:
+                return Alert.Severity.MEDIUM;
+            default:
+                return Alert.Severity.LOW;
+        }
+    }
+
+    // RFC 3339 timestamp as epoch microseconds; the receive time if it is "-" or invalid
+    private static long parseTimestamp(ByteBuffer buffer, int start, int end) {
+        if (!isNil(buffer, start, end)) {
+            try {
+                Instant instant = OffsetDateTime.parse(decodeAscii(buffer, start, end)).toInstant();
+                return instant.getEpochSecond() * 1_000_000L + instant.getNano() / 1000;
+            } catch (DateTimeParseException e) {
+                // Fall through to receive time
+            }
+        }
+        return Alert.currentEpochMicros();
+    }
+
+    private static int tokenEnd(ByteBuffer buffer, int pos, int end) {
+        while (pos < end && buffer.get(pos) != ' ') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipSdElement(ByteBuffer buffer, int pos, int end) {
+        boolean inQuotes = false;
+        pos++;
+        while (pos < end) {
+            byte b = buffer.get(pos++);
+            if (inQuotes && b == '\\') {
+                pos++;
+            } else if (b == '"') {
+                inQuotes = !inQuotes;
+            } else if (b == ']' && !inQuotes) {
+                break;
+            }
+        }
+        return Math.min(pos, end);
+    }
+
+    private static String decodeAscii(ByteBuffer buffer, int start, int end) {
+        char[] chars = new char[Math.max(0, end - start)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (buffer.get(start + i) & 0x7F);
+        }
+        return new String(chars);
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    // Pool of direct buffers shared by datagram reads and per-connection stream buffers
+    private static class BufferPool {
+        private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+        ByteBuffer acquire() {
+            ByteBuffer buffer = buffers.poll();
+            return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        void release(ByteBuffer buffer) {
+            buffer.clear();
+            if (buffers.size() < MAX_POOLED_BUFFERS) {
+                buffers.offer(buffer);
+            }
+        }
+    }
+
+    private static class Connection {
+        private final SocketAddress remoteAddress;
+        private final ByteBuffer buffer;
+        private volatile long frames;
+        private volatile long bytes;
+        private volatile double rate;
+        private volatile long pauseCount;
+        private volatile long pausedNanos;
+        private volatile long pauseStartNanos;
+        private long lastRateFrames;
+
+        Connection(SocketAddress remoteAddress, ByteBuffer buffer) {
+            this.remoteAddress = remoteAddress;
+            this.buffer = buffer;
+        }
+
+        void pause() {
+            if (pauseStartNanos == 0) {
+                pauseStartNanos = System.nanoTime();
+                pauseCount++;
+            }
+        }
+
+        void resume() {
+            if (pauseStartNanos != 0) {
+                pausedNanos += System.nanoTime() - pauseStartNanos;
+                pauseStartNanos = 0;
+            }
+        }
+
+        void updateRate(long elapsedNanos) {
+            long current = frames;
+            rate = (current - lastRateFrames) * 1e9 / elapsedNanos;
+            lastRateFrames = current;
+        }
+
+        ConnectionStats snapshot() {
+            long start = pauseStartNanos;
+            long paused = pausedNanos + (start != 0 ? System.nanoTime() - start : 0);
+            return new ConnectionStats(String.valueOf(remoteAddress), frames, bytes, rate,
+                    pauseCount, TimeUnit.NANOSECONDS.toMillis(paused), start != 0);
+        }
+    }
+
+    public static class ConnectionStats {
+        private final String remoteAddress;
+        private final long frames;
+        private final long bytes;
+        private final double ingestRate;
+        private final long pauseCount;
+        private final long pausedMillis;
+        private final boolean paused;
+
+        public ConnectionStats(String remoteAddress, long frames, long bytes, double ingestRate,
+                               long pauseCount, long pausedMillis, boolean paused) {
+            this.remoteAddress = remoteAddress;
+            this.frames = frames;
+            this.bytes = bytes;
+            this.ingestRate = ingestRate;
+            this.pauseCount = pauseCount;
+            this.pausedMillis = pausedMillis;
+            this.paused = paused;
+        }
+
+        public String getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        public long getFrames() {
+            return frames;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public double getIngestRate() {
+            return ingestRate;
+        }
+
+        public long getPauseCount() {
+            return pauseCount;
+        }
+
+        public long getPausedMillis() {
+            return pausedMillis;
+        }
+
+        public boolean isPaused() {
+            return paused;
+        }
+
+        @Override
+        public String toString() {
+            return remoteAddress + " frames=" + frames + " bytes=" + bytes
+                    + String.format(" rate=%.1f/s", ingestRate)
+                    + " pauses=" + pauseCount + " paused=" + pausedMillis + "ms";
+        }
+    }
+}
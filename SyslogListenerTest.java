@@ -0,0 +1,78 @@
+package com.security.threatmonitor;
+
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+public class SyslogListenerTest {
+    public static void main(String[] args) {
+        System.out.println("Testing syslog listener over loopback...");
+
+        try {
+            // Alerts stay queued because processing is never started
+            AlertManager alertManager = new AlertManager(null);
+            InetAddress loopback = InetAddress.getLoopbackAddress();
+
+            SyslogListener listener = new SyslogListener(alertManager,
+                    new InetSocketAddress(loopback, 0), new InetSocketAddress(loopback, 0));
+            listener.start();
+            System.out.println("Listening on UDP " + listener.getUdpPort() + ", TCP " + listener.getTcpPort());
+
+            // UDP: one datagram per message
+            try (DatagramSocket socket = new DatagramSocket()) {
+                for (int i = 0; i < 10; i++) {
+                    byte[] data = ("<34>1 2026-10-19T10:00:00Z host sshd 42 ID47 - Failed password for root #" + i)
+                            .getBytes(StandardCharsets.UTF_8);
+                    socket.send(new DatagramPacket(data, data.length, loopback, listener.getUdpPort()));
+                }
+                // Frames cut short after VERSION or a single header field still parse
+                for (String truncated : new String[] {"<13>1 ", "<13>1 2026-10-19T10:00:00Z"}) {
+                    byte[] data = truncated.getBytes(StandardCharsets.US_ASCII);
+                    socket.send(new DatagramPacket(data, data.length, loopback, listener.getUdpPort()));
+                }
+            }
+
+            // TCP: newline framing followed by octet-counting framing on the same connection
+            try (Socket socket = new Socket(loopback, listener.getTcpPort())) {
+                OutputStream out = socket.getOutputStream();
+                for (int i = 0; i < 10; i++) {
+                    out.write(("<165>1 - fw01 firewall - - [meta seq=\"" + i + "\"] Port scan from 10.0.0." + i + "\n")
+                            .getBytes(StandardCharsets.UTF_8));
+                }
+                for (int i = 0; i < 10; i++) {
+                    byte[] msg = ("<11>1 - db01 postgres - - - Disk failure on volume " + i)
+                            .getBytes(StandardCharsets.UTF_8);
+                    out.write((msg.length + " ").getBytes(StandardCharsets.US_ASCII));
+                    out.write(msg);
+                }
+                out.write("garbage without pri\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+
+                long deadline = System.currentTimeMillis() + 5000;
+                while (alertManager.getQueueDepth() < 32 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(20);
+                }
+
+                for (SyslogListener.ConnectionStats stats : listener.getConnectionStats()) {
+                    System.out.println("Connection: " + stats);
+                }
+            }
+
+            listener.stop();
+
+            System.out.println("Frames received: " + listener.getFramesReceived());
+            System.out.println("Malformed frames: " + listener.getMalformedFrames());
+            System.out.println("Alerts queued: " + alertManager.getQueueDepth());
+
+            boolean passed = alertManager.getQueueDepth() == 32 && listener.getMalformedFrames() == 1;
+            System.out.println(passed ? "\nSyslog listener test passed!" : "\nSyslog listener test FAILED");
+        } catch (Exception e) {
+            System.err.println("Error during syslog listener test: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
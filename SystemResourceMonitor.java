@@ -0,0 +1,55 @@
+package com.security.threatmonitor;
+
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+public class SystemResourceMonitor extends PollingMonitor {
+    private static final Logger logger = Logger.getLogger(SystemResourceMonitor.class.getName());
+    
+    private final Random random = new Random();
+    
+    public SystemResourceMonitor(AlertManager alertManager, AdaptivePollingPolicy policy) {
+        super("System Resource Monitor", alertManager, TimeUnit.SECONDS.toMillis(10), policy);
+    }
+    
+    @Override
+    protected void check() {
+        // For demonstration, generate random resource alerts
+        if (random.nextInt(10) < 3) {  // 30% chance of alert
+            SecurityEvent event;
+            
+            int type = random.nextInt(4);
+            switch (type) {
+                case 0:
+                    int cpu = 70 + random.nextInt(20);
+                    event = new SecurityEvent(LocalDateTime.now(), "Resource Monitor",
+                            "CPU usage spike: " + cpu + "% for process: java", Alert.Severity.LOW)
+                            .with("type", "cpu_spike").with("cpu", cpu).with("process", "java");
+                    break;
+                case 1:
+                    int pid = 1000 + random.nextInt(9000);
+                    event = new SecurityEvent(LocalDateTime.now(), "Resource Monitor",
+                            "Memory leak detected in process ID: " + pid, Alert.Severity.MEDIUM)
+                            .with("type", "memory_leak").with("pid", pid);
+                    break;
+                case 2:
+                    event = new SecurityEvent(LocalDateTime.now(), "Resource Monitor",
+                            "Disk I/O overload: Possible DoS attack", Alert.Severity.HIGH)
+                            .with("type", "disk_overload");
+                    break;
+                default:
+                    event = new SecurityEvent(LocalDateTime.now(), "Resource Monitor",
+                            "Critical: System resources exhausted, possible crypto-mining activity", Alert.Severity.CRITICAL)
+                            .with("type", "resource_exhaustion");
+                    break;
+            }
+            
+            Alert alert = raise(event);
+            if (alert != null) {
+                logger.info("Resource alert generated: " + alert.getSeverity() + " - " + alert.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.security.threatmonitor;
+
+import java.util.Arrays;
+
+/**
+ * Approximate quantiles of a numeric stream (merging t-digest). Values are buffered and
+ * periodically merged into at most about compression centroids, which are kept small near
+ * the tails so extreme quantiles such as p99 stay accurate. Digests merge by re-clustering
+ * the centroids of both.
+ */
+public class TDigest {
+    private final double compression;
+    private double[] means;
+    private double[] weights;
+    private int centroids;
+
+    // Values and weights waiting to be merged into the centroids
+    private final double[] bufferMeans;
+    private final double[] bufferWeights;
+    private int buffered;
+
+    private double totalWeight;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public TDigest(double compression) {
+        if (compression < 10) {
+            throw new IllegalArgumentException("t-digest compression must be at least 10: " + compression);
+        }
+        this.compression = compression;
+        int maxCentroids = (int) Math.ceil(compression) + 1;
+        this.means = new double[maxCentroids];
+        this.weights = new double[maxCentroids];
+        this.bufferMeans = new double[maxCentroids * 5];
+        this.bufferWeights = new double[maxCentroids * 5];
+    }
+
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    private void add(double mean, double weight) {
+        if (Double.isNaN(mean)) {
+            return;
+        }
+        if (buffered == bufferMeans.length) {
+            compress();
+        }
+        bufferMeans[buffered] = mean;
+        bufferWeights[buffered] = weight;
+        buffered++;
+        totalWeight += weight;
+        min = Math.min(min, mean);
+        max = Math.max(max, mean);
+    }
+
+    public void merge(TDigest other) {
+        other.compress();
+        for (int i = 0; i < other.centroids; i++) {
+            add(other.means[i], other.weights[i]);
+        }
+        // Keep the exact extremes rather than the extreme centroid means
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    // Merges the buffer into the centroids
+    private void compress() {
+        if (buffered == 0) {
+            return;
+        }
+
+        int count = centroids + buffered;
+        double[] allMeans = Arrays.copyOf(means, count);
+        double[] allWeights = Arrays.copyOf(weights, count);
+        System.arraycopy(bufferMeans, 0, allMeans, centroids, buffered);
+        System.arraycopy(bufferWeights, 0, allWeights, centroids, buffered);
+        buffered = 0;
+
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(allMeans[a], allMeans[b]));
+
+        double[] newMeans = new double[means.length];
+        double[] newWeights = new double[weights.length];
+        int size = 0;
+        double weightSoFar = 0;
+        double limit = quantileLimit(0);
+        double mean = allMeans[order[0]];
+        double weight = allWeights[order[0]];
+
+        for (int i = 1; i < count; i++) {
+            int next = order[i];
+            if ((weightSoFar + weight + allWeights[next]) / totalWeight <= limit) {
+                // Still within this centroid's share of the quantile space
+                weight += allWeights[next];
+                mean += (allMeans[next] - mean) * allWeights[next] / weight;
+            } else {
+                weightSoFar += weight;
+                size = append(newMeans, newWeights, size, mean, weight);
+                limit = quantileLimit(weightSoFar / totalWeight);
+                mean = allMeans[next];
+                weight = allWeights[next];
+            }
+        }
+        size = append(newMeans, newWeights, size, mean, weight);
+
+        means = newMeans;
+        weights = newWeights;
+        centroids = size;
+    }
+
+    private int append(double[] newMeans, double[] newWeights, int size, double mean, double weight) {
+        if (size == newMeans.length) {
+            // Only reachable through rounding at the limit; fold into the last centroid
+            double total = newWeights[size - 1] + weight;
+            newMeans[size - 1] += (mean - newMeans[size - 1]) * weight / total;
+            newWeights[size - 1] = total;
+            return size;
+        }
+        newMeans[size] = mean;
+        newWeights[size] = weight;
+        return size + 1;
+    }
+
+    // Upper quantile a centroid starting at q may reach: one unit of the k1 scale function
+    private double quantileLimit(double q) {
+        double k = compression / (2 * Math.PI) * Math.asin(2 * q - 1);
+        return (Math.sin((k + 1) * 2 * Math.PI / compression) + 1) / 2;
+    }
+
+    // Estimated value at quantile q (0-1), or NaN if nothing was added
+    public double quantile(double q) {
+        compress();
+        if (centroids == 0) {
+            return Double.NaN;
+        }
+        if (q <= 0) {
+            return min;
+        }
+        if (q >= 1) {
+            return max;
+        }
+        if (centroids == 1) {
+            return means[0];
+        }
+
+        // Interpolate between centroid centres, and between the outer centres and min/max
+        double target = q * totalWeight;
+        double center = weights[0] / 2;
+        if (target < center) {
+            return min + (means[0] - min) * target / center;
+        }
+        for (int i = 0; i < centroids - 1; i++) {
+            double nextCenter = center + (weights[i] + weights[i + 1]) / 2;
+            if (target < nextCenter) {
+                return means[i] + (means[i + 1] - means[i]) * (target - center) / (nextCenter - center);
+            }
+            center = nextCenter;
+        }
+        double lastWeight = weights[centroids - 1] / 2;
+        return means[centroids - 1] + (max - means[centroids - 1]) * Math.min(1, (target - center) / lastWeight);
+    }
+
+    public long getCount() {
+        return Math.round(totalWeight);
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,127 @@
+package com.security.threatmonitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Startup configuration read from a properties file. Every key has a default, so a
+ * missing file yields the same setup the dashboard always used.
+ */
+public class ThreatMonitorConfig {
+    private static final Logger logger = Logger.getLogger(ThreatMonitorConfig.class.getName());
+
+    public static final String DEFAULT_FILE = "threatmonitor.properties";
+
+    private final Properties properties;
+
+    public ThreatMonitorConfig(Properties properties) {
+        this.properties = properties;
+    }
+
+    public static ThreatMonitorConfig load(Path path) {
+        Properties properties = new Properties();
+        if (Files.isRegularFile(path)) {
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+                logger.info("Loaded configuration from " + path.toAbsolutePath());
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error reading configuration " + path + ", using defaults", e);
+            }
+        } else {
+            logger.info("No configuration at " + path.toAbsolutePath() + ", using defaults");
+        }
+        return new ThreatMonitorConfig(properties);
+    }
+
+    public String getString(String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            logger.warning("Invalid integer for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            logger.warning("Invalid number for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            logger.warning("Invalid number for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    // Comma-separated list, blanks dropped
+    public List<String> getList(String key, String defaultValue) {
+        List<String> values = new ArrayList<>();
+        for (String value : getString(key, defaultValue).split(",")) {
+            if (!value.trim().isEmpty()) {
+                values.add(value.trim());
+            }
+        }
+        return values;
+    }
+
+    // Keys starting with prefix (with the prefix removed) and their values
+    public Map<String, String> getPrefixed(String prefix) {
+        Map<String, String> values = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix) && key.length() > prefix.length()) {
+                values.put(key.substring(prefix.length()), properties.getProperty(key).trim());
+            }
+        }
+        return values;
+    }
+
+    // Overrides a key, e.g. from a command-line option; must happen before the core starts
+    public void set(String key, String value) {
+        properties.setProperty(key, value);
+    }
+
+    public String getDatabaseUrl() {
+        String path = getString("db.path", "threatmonitor.db");
+        return "jdbc:sqlite:" + new File(System.getProperty("user.dir")).toPath().resolve(path).toAbsolutePath();
+    }
+}
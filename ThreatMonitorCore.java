@@ -0,0 +1,526 @@
+package com.security.threatmonitor;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The detection pipeline without any UI: database, alert manager, monitors, the optional
+ * syslog listener and alert forwarding to or from other instances. Front ends subscribe through {@link #addSink(AlertSink)}.
+ */
+public class ThreatMonitorCore {
+    private static final Logger logger = Logger.getLogger(ThreatMonitorCore.class.getName());
+
+    private final ThreatMonitorConfig config;
+    private final DatabaseManager dbManager;
+    private final AlertManager alertManager;
+    private final AlertRollups rollups;
+    private final List<Monitor> monitors;
+    private final PollingBudget pollingBudget;
+    private final ScheduledExecutorService maintenanceScheduler;
+    private final AlertTotals alertTotals;
+    private final AlertSketches sketches;
+    private final AlertArchive archive;
+    private final AlertRetention retention;
+    private final PipelineThrottle throttle;
+    private final MetricsRegistry metrics;
+    private final Path metricsFile;
+    private final List<Runnable> reconcileListeners = new CopyOnWriteArrayList<>();
+    private Path snapshotFile;
+    private volatile AlertRollups.Histogram recentTrend;
+    private IndicatorMatcher indicatorMatcher;
+    private AlertClassifier classifier;
+    private SyslogListener syslogListener;
+    private AlertCollector collector;
+    private AlertForwarder forwarder;
+    private boolean isRunning;
+
+    public ThreatMonitorCore(ThreatMonitorConfig config) {
+        this.config = config;
+        this.monitors = new ArrayList<>();
+
+        // Initialize database manager
+        String dbUrl = config.getDatabaseUrl();
+        dbManager = new DatabaseManager(dbUrl, "", "");
+        dbManager.initialize();
+        logger.info("Database: " + dbUrl);
+
+        // Metrics are wired in first so every sink and monitor reports into them
+        metrics = new MetricsRegistry();
+        dbManager.setMetrics(metrics);
+        alertManager = new AlertManager(dbManager, config.getInt("alert.shards", 1));
+        if (config.getString("alert.shard.key", "source").equalsIgnoreCase("ip")) {
+            alertManager.setShardKey(AlertManager.BY_ADDRESS);
+        }
+        alertManager.setMetrics(metrics);
+        String spillDir = config.getString("spill.dir", "spill");
+        if (!spillDir.isEmpty()) {
+            try {
+                alertManager.setSpill(Paths.get(spillDir),
+                        config.getInt("spill.queue.high", 100_000),
+                        config.getInt("spill.queue.low", 10_000),
+                        config.getLong("spill.segment.mb", 64) * 1024 * 1024);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Error opening spill directory " + spillDir + ", queueing in memory only", e);
+            }
+        }
+        if (config.getBoolean("trace.enabled", true)) {
+            alertManager.setTracer(AlertTracer.fromConfig(config, metrics));
+        }
+        rollups = new AlertRollups(dbManager,
+                Duration.ofHours(config.getLong("rollup.minute.retention.hours", 48)),
+                Duration.ofDays(config.getLong("rollup.hour.retention.days", 90)));
+        alertManager.addSink(rollups);
+        alertTotals = new AlertTotals();
+        alertManager.addSink(alertTotals);
+        sketches = new AlertSketches(Duration.ofSeconds(config.getLong("sketch.bucket.seconds", 60)),
+                config.getInt("sketch.buckets", 60));
+        alertManager.addSink(sketches);
+        alertManager.setSketches(sketches);
+        DashboardSnapshot snapshot = loadSnapshot();
+        loadClassificationRules();
+        loadIndicators();
+        pollingBudget = new PollingBudget(config.getDouble("monitor.cpu.budget", 0.05));
+        registerMonitors();
+        throttle = PipelineThrottle.fromConfig(config, alertManager, monitors);
+        if (throttle != null) {
+            throttle.setMetrics(metrics);
+        }
+
+        String archiveDir = config.getString("archive.dir", "archive");
+        archive = archiveDir.isEmpty() ? null : new AlertArchive(Paths.get(archiveDir));
+
+        retention = new AlertRetention(dbManager, AlertRetention.Policy.fromConfig(config), alertManager::getQueueDepth);
+        retention.setArchive(archive);
+        retention.setChunkSize(config.getInt("retention.chunk.size", 500));
+        retention.setPause(Duration.ofMillis(config.getLong("retention.pause.ms", 20)));
+        retention.setMaxQueueDepth(config.getInt("retention.max.queue.depth", 100));
+        if (config.getBoolean("retention.vacuum.convert", false) && !dbManager.isIncrementalVacuumEnabled()) {
+            dbManager.convertToIncrementalVacuum();
+        }
+
+        // Expire alerts in small chunks every retention.interval.minutes
+        maintenanceScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long retentionMinutes = config.getLong("retention.interval.minutes", 60);
+        maintenanceScheduler.scheduleWithFixedDelay(() -> {
+            expireAlerts();
+            reconcileTotals();
+        }, 1, retentionMinutes, TimeUnit.MINUTES);
+
+        long flushSeconds = config.getLong("rollup.flush.seconds", 60);
+        maintenanceScheduler.scheduleWithFixedDelay(rollups::flush, flushSeconds, flushSeconds, TimeUnit.SECONDS);
+        maintenanceScheduler.scheduleWithFixedDelay(rollups::compact, 5, 60, TimeUnit.MINUTES);
+
+        // Check the snapshot against the database, then keep writing new ones
+        boolean reloadCache = snapshot != null && snapshot.getMaxAlertId() != dbManager.getMaxAlertId();
+        maintenanceScheduler.execute(() -> reconcile(reloadCache));
+        long snapshotSeconds = config.getLong("snapshot.interval.seconds", 300);
+        if (snapshotSeconds > 0) {
+            maintenanceScheduler.scheduleWithFixedDelay(this::writeSnapshot, snapshotSeconds, snapshotSeconds, TimeUnit.SECONDS);
+        }
+
+        // Expose metrics over JMX and dump them every metrics.dump.seconds
+        metrics.registerMBean();
+        String dumpFile = config.getString("metrics.dump.file", "metrics.json");
+        metricsFile = dumpFile.isEmpty() ? null : Paths.get(dumpFile);
+        long dumpSeconds = config.getLong("metrics.dump.seconds", 60);
+        if (metricsFile != null && dumpSeconds > 0) {
+            maintenanceScheduler.scheduleWithFixedDelay(() -> metrics.dump(metricsFile),
+                    dumpSeconds, dumpSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    // Archives the days that may start expiring, then deletes what the retention policy allows
+    private void expireAlerts() {
+        if (archive != null) {
+            long shortestDays = retention.getPolicy().getShortest().toDays();
+            archive.exportBefore(dbManager, LocalDate.now().minusDays(shortestDays));
+            int archiveDays = config.getInt("archive.retention.days", 365);
+            if (archiveDays > 0) {
+                archive.deleteSegmentsBefore(LocalDateTime.now().minusDays(archiveDays));
+            }
+        }
+        retention.run();
+    }
+
+    /**
+     * Starts the totals, trend and recent-alert cache from the snapshot of the last run, so
+     * the dashboard has real numbers immediately; reconcile() later corrects them from the
+     * database. Without a snapshot the cache is filled by a query and the totals start at 0.
+     */
+    private DashboardSnapshot loadSnapshot() {
+        snapshotFile = Paths.get(config.getString("snapshot.file", "threatmonitor.snapshot"));
+        DashboardSnapshot snapshot = DashboardSnapshot.read(snapshotFile);
+
+        int cacheSize = config.getInt("cache.recent.size", 5000);
+        if (cacheSize > 0) {
+            dbManager.enableRecentCache(cacheSize, Duration.ofMinutes(config.getLong("cache.recent.minutes", 0)),
+                    snapshot == null ? null : snapshot.getRecentAlerts());
+        }
+        if (snapshot != null) {
+            alertTotals.reconcile(snapshot.getSeverityTotals(), alertTotals.mark());
+            recentTrend = snapshot.getTrend();
+            logger.info("Warm start from dashboard snapshot written at " + snapshot.getWrittenAt());
+        }
+        return snapshot;
+    }
+
+    private void reconcile(boolean reloadCache) {
+        reconcileTotals();
+        if (reloadCache) {
+            dbManager.reloadRecentCache();
+            logger.info("Dashboard snapshot was stale; recent alerts reloaded from the database");
+        }
+        recentTrend = computeTrend();
+        for (Runnable listener : reconcileListeners) {
+            listener.run();
+        }
+    }
+
+    private void reconcileTotals() {
+        long[] mark = alertTotals.mark();
+        int[] counts = dbManager.getAlertCountsBySeverity();
+        long[] totals = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            totals[i] = counts[i];
+        }
+        alertTotals.reconcile(totals, mark);
+    }
+
+    // Hourly alert counts over the last 24 hours
+    private AlertRollups.Histogram computeTrend() {
+        LocalDateTime end = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).plusHours(1);
+        return rollups.histogram(end.minusHours(24), end, Duration.ofHours(1), null);
+    }
+
+    public void writeSnapshot() {
+        long maxAlertId = dbManager.getMaxAlertId();
+        DashboardSnapshot snapshot = new DashboardSnapshot(System.currentTimeMillis(), maxAlertId,
+                alertTotals.getAll(), computeTrend(),
+                dbManager.getRecentAlerts(config.getInt("snapshot.alerts", 1000)));
+        try {
+            snapshot.write(snapshotFile);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error writing dashboard snapshot " + snapshotFile, e);
+        }
+    }
+
+    private void loadClassificationRules() {
+        String rulesFile = config.getString("rules.file", null);
+        if (rulesFile == null) {
+            return;
+        }
+
+        classifier = new AlertClassifier(Paths.get(rulesFile));
+        classifier.reload();
+        alertManager.setClassifier(classifier);
+
+        long reloadSeconds = config.getLong("rules.reload.seconds", 10);
+        if (reloadSeconds > 0) {
+            classifier.startWatching(reloadSeconds);
+        }
+    }
+
+    private void loadIndicators() {
+        List<String> feeds = config.getList("ioc.files", "");
+        if (feeds.isEmpty()) {
+            return;
+        }
+
+        List<Path> paths = new ArrayList<>();
+        for (String feed : feeds) {
+            paths.add(Paths.get(feed));
+        }
+        indicatorMatcher = new IndicatorMatcher(paths,
+                Alert.Severity.valueOf(config.getString("ioc.severity", "HIGH")));
+        indicatorMatcher.reload();
+        alertManager.setIndicatorMatcher(indicatorMatcher);
+
+        long reloadSeconds = config.getLong("ioc.reload.seconds", 60);
+        if (reloadSeconds > 0) {
+            indicatorMatcher.startWatching(reloadSeconds);
+        }
+    }
+
+    private void registerMonitors() {
+        List<String> sheddable = config.getList("throttle.shed.monitors", "resource");
+        for (String name : config.getList("monitors", "file,network,resource,login")) {
+            Monitor monitor;
+            switch (name) {
+                case "file":
+                    monitor = new FileSystemMonitor(alertManager, pollingPolicy(name, 15));
+                    break;
+                case "network":
+                    monitor = new NetworkMonitor(alertManager, pollingPolicy(name, 20));
+                    break;
+                case "resource":
+                    monitor = new SystemResourceMonitor(alertManager, pollingPolicy(name, 25));
+                    break;
+                case "login":
+                    monitor = new LoginMonitor(alertManager, pollingPolicy(name, 30));
+                    break;
+                case "load":
+                    monitor = LoadGeneratorMonitor.fromConfig(config, alertManager);
+                    break;
+                default:
+                    logger.warning("Unknown monitor in configuration: " + name);
+                    continue;
+            }
+            if (monitor instanceof PollingMonitor) {
+                PollingMonitor polling = (PollingMonitor) monitor;
+                polling.setCoarseFactor(config.getInt("throttle.coarse.factor", 4));
+                polling.setAggregateWindow(TimeUnit.SECONDS.toMillis(config.getLong("throttle.aggregate.seconds", 60)));
+                polling.setSheddable(sheddable.contains(name));
+            }
+            monitors.add(monitor);
+        }
+
+        logger.info("Registered " + monitors.size() + " monitors");
+    }
+
+    // Polling bounds come from monitor.<name>.interval.{initial,min,max}.ms
+    private AdaptivePollingPolicy pollingPolicy(String name, long defaultSeconds) {
+        String prefix = "monitor." + name + ".interval.";
+        long initial = config.getLong(prefix + "initial.ms", TimeUnit.SECONDS.toMillis(defaultSeconds));
+        long min = config.getLong(prefix + "min.ms", 1000);
+        long max = config.getLong(prefix + "max.ms", initial * 8);
+        return new AdaptivePollingPolicy(name, initial, min, max, pollingBudget);
+    }
+
+    public void addSink(AlertSink sink) {
+        alertManager.addSink(sink);
+    }
+
+    public void removeSink(AlertSink sink) {
+        alertManager.removeSink(sink);
+    }
+
+    public synchronized void start() {
+        if (isRunning) {
+            logger.info("Threat monitoring system is already running");
+            return;
+        }
+
+        logger.info("Starting threat monitoring system...");
+        isRunning = true;
+
+        // Start alert manager
+        alertManager.startProcessing();
+
+        // Start all monitors
+        for (Monitor monitor : monitors) {
+            monitor.startMonitoring();
+        }
+
+        startSyslogListener();
+        startForwarding();
+        if (throttle != null) {
+            throttle.start(config.getLong("throttle.interval.ms", 1000));
+        }
+
+        logger.info("Threat monitoring system started");
+    }
+
+    private void startSyslogListener() {
+        int udpPort = config.getInt("syslog.udp.port", -1);
+        int tcpPort = config.getInt("syslog.tcp.port", -1);
+        if (udpPort < 0 && tcpPort < 0) {
+            return;
+        }
+
+        String bindAddress = config.getString("syslog.bind", "0.0.0.0");
+        syslogListener = new SyslogListener(alertManager,
+                udpPort < 0 ? null : new InetSocketAddress(bindAddress, udpPort),
+                tcpPort < 0 ? null : new InetSocketAddress(bindAddress, tcpPort),
+                config.getInt("syslog.queue.high", 50_000),
+                config.getInt("syslog.queue.low", 10_000));
+        try {
+            syslogListener.start();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error starting syslog listener", e);
+            syslogListener = null;
+        }
+    }
+
+    // Collector mode when collector.port is set, agent mode when forward.host is; both may be on
+    private void startForwarding() {
+        collector = AlertCollector.fromConfig(config, alertManager);
+        if (collector != null) {
+            try {
+                collector.start();
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Error starting alert collector", e);
+                collector = null;
+            }
+        }
+
+        if (!config.getString("forward.host", "").isEmpty()) {
+            forwarder = AlertForwarder.fromConfig(config);
+            forwarder.setMetrics(metrics);
+            forwarder.start();
+            alertManager.addSink(forwarder);
+        }
+    }
+
+    public synchronized void stop() {
+        if (!isRunning) {
+            logger.info("Threat monitoring system is not running");
+            return;
+        }
+
+        logger.info("Stopping threat monitoring system...");
+        isRunning = false;
+
+        if (throttle != null) {
+            throttle.stop();
+        }
+
+        if (syslogListener != null) {
+            syslogListener.stop();
+            syslogListener = null;
+        }
+
+        if (collector != null) {
+            collector.stop();
+            collector = null;
+        }
+
+        // Stop all monitors
+        for (Monitor monitor : monitors) {
+            monitor.stopMonitoring();
+        }
+
+        // Stop alert manager
+        alertManager.stopProcessing();
+
+        // Give the forwarder a moment to deliver what the alert manager handed it
+        if (forwarder != null) {
+            alertManager.removeSink(forwarder);
+            forwarder.stop(config.getLong("forward.drain.seconds", 5), TimeUnit.SECONDS);
+            forwarder = null;
+        }
+
+        logger.info("Threat monitoring system stopped");
+    }
+
+    // Stops the pipeline and releases the database; the core cannot be restarted afterwards
+    public synchronized void close() {
+        stop();
+        maintenanceScheduler.shutdownNow();
+        try {
+            maintenanceScheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        rollups.flush();
+        writeSnapshot();
+        if (classifier != null) {
+            classifier.stopWatching();
+        }
+        if (indicatorMatcher != null) {
+            indicatorMatcher.stopWatching();
+        }
+        metrics.unregisterMBean();
+        if (metricsFile != null) {
+            metrics.dump(metricsFile);
+        }
+        dbManager.close();
+    }
+
+    public synchronized boolean isRunning() {
+        return isRunning;
+    }
+
+    public ThreatMonitorConfig getConfig() {
+        return config;
+    }
+
+    public DatabaseManager getDatabaseManager() {
+        return dbManager;
+    }
+
+    public AlertManager getAlertManager() {
+        return alertManager;
+    }
+
+    public AlertRollups getRollups() {
+        return rollups;
+    }
+
+    // Stored alerts per severity, including alerts processed since the last reconciliation
+    public AlertTotals getAlertTotals() {
+        return alertTotals;
+    }
+
+    public AlertRetention getRetention() {
+        return retention;
+    }
+
+    // Null if archiving is disabled
+    public AlertArchive getArchive() {
+        return archive;
+    }
+
+    // Counters, gauges and latency histograms, also exposed over JMX
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    // Distinct-address, top-k and percentile estimates over recent alerts
+    public AlertSketches getSketches() {
+        return sketches;
+    }
+
+    // Hourly counts over the last 24 hours; null until a snapshot or the database provided them
+    public AlertRollups.Histogram getRecentTrend() {
+        return recentTrend;
+    }
+
+    // Called on the maintenance thread once totals and recent alerts were checked against the database
+    public void addReconcileListener(Runnable listener) {
+        reconcileListeners.add(listener);
+    }
+
+    // Null unless a rules file is configured
+    public AlertClassifier getClassifier() {
+        return classifier;
+    }
+
+    // Null unless indicator feeds are configured
+    public IndicatorMatcher getIndicatorMatcher() {
+        return indicatorMatcher;
+    }
+
+    public List<Monitor> getMonitors() {
+        return Collections.unmodifiableList(monitors);
+    }
+
+    // Effective polling interval of each monitor, keyed by monitor name
+    public Map<String, Long> getMonitorIntervals() {
+        Map<String, Long> intervals = new LinkedHashMap<>();
+        for (Monitor monitor : monitors) {
+            intervals.put(monitor.getName(), monitor.getCurrentIntervalMillis());
+        }
+        return intervals;
+    }
+}
@@ -1,5 +1,7 @@
 package com.security.threatmonitor;
 
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
@@ -13,68 +15,78 @@ import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 import javafx.util.Callback;
-import java.io.File;
-import java.nio.file.Path;
+import javafx.util.Duration;
 import java.nio.file.Paths;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
-import java.util.Random;
-import java.util.concurrent.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.*;
 
 public class ThreatMonitoringSystem extends Application {
     private static final Logger logger = Logger.getLogger(ThreatMonitoringSystem.class.getName());
     
-    private DatabaseManager dbManager;
-    private ObservableList<DatabaseManager.AlertEntry> alertData;
+    private final ThreatMonitorCore core;
+    private final DatabaseManager dbManager;
+    private static final int PAGE_SIZE = 100;
+    // Live alerts beyond this many rows are dropped from the table; paging fetches them again
+    private static final int MAX_LIVE_ROWS = 5 * PAGE_SIZE;
+    private static final double LIVE_REFRESH_MILLIS = 250;
+
+    private ObservableList<Alert> alertData;
+    // Filters of the alert table; further pages are fetched as the user scrolls
+    private AlertQuery currentQuery = new AlertQuery().limit(PAGE_SIZE);
+    private AlertQuery nextPageQuery;
+    private int queryGeneration;
+    private boolean pageLoading;
+    // Processed alerts waiting for the next refresh, oldest first
+    private final ConcurrentLinkedDeque<Alert> pendingAlerts = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final ExecutorService queryExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "alert-query");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<Alert.Severity, CheckBox> severityFilters = new EnumMap<>(Alert.Severity.class);
+    private TextField sourceFilter;
+    private DatePicker fromFilter;
+    private DatePicker toFilter;
+    private TextField messageFilter;
     private PieChart alertSeverityChart;
-    private int lowAlerts = 0;
-    private int mediumAlerts = 0;
-    private int highAlerts = 0;
-    private int criticalAlerts = 0;
+    private long lowAlerts = 0;
+    private long mediumAlerts = 0;
+    private long highAlerts = 0;
+    private long criticalAlerts = 0;
     private Label statusLabel;
     private Label lowCountLabel;
     private Label mediumCountLabel;
     private Label highCountLabel;
     private Label criticalCountLabel;
     private Label totalAlertsLabel;
+    private Label activityLabel;
     private Button startStopButton;
-    
-    private List<Monitor> monitors;
-    private AlertManager alertManager;
-    private ExecutorService executorService;
-    private boolean isRunning;
 
     public static void main(String[] args) {
         launch(args);
     }
 
     public ThreatMonitoringSystem() {
-        // Initialize the system components
-        this.executorService = Executors.newCachedThreadPool();
-        this.monitors = new ArrayList<>();
-        this.isRunning = false;
-
         // Configure logging
         configureLogging();
         
         // Print the working directory to help locate the database file
         logger.info("Working directory: " + System.getProperty("user.dir"));
 
-        // Initialize database manager with absolute path to ensure it's created in a known location
-        String dbPath = new File(System.getProperty("user.dir"), "threatmonitor.db").getAbsolutePath();
-        dbManager = new DatabaseManager("jdbc:sqlite:" + dbPath, "", "");
-        dbManager.initialize();
-        
-        logger.info("Database should be created at: " + dbPath);
-
-        // Schedule database cleanup task (runs daily)
-        ScheduledExecutorService cleanupScheduler = Executors.newScheduledThreadPool(1);
-        cleanupScheduler.scheduleAtFixedRate(() -> {
-            dbManager.cleanupOldAlerts(30); // Keep 30 days of alerts
-        }, 1, 24, TimeUnit.HOURS);
+        // The dashboard is one subscriber of the headless core
+        core = new ThreatMonitorCore(ThreatMonitorConfig.load(Paths.get(ThreatMonitorConfig.DEFAULT_FILE)));
+        dbManager = core.getDatabaseManager();
     }
 
     private void configureLogging() {
@@ -92,20 +104,18 @@ public class ThreatMonitoringSystem extends Application {
         alertData = FXCollections.observableArrayList();
         initializeUI(primaryStage);
 
-        // Create and configure the alert manager
-        alertManager = new AlertManager(alertData, this::updateChart, dbManager);
-
         // Load existing alerts from database
         loadAlertsFromDatabase();
 
-        // Register different types of monitors
-        registerMonitors();
+        // Subscribe the dashboard to processed alerts, shown a batch at a time
+        core.addSink(this::showAlert);
+        Timeline liveRefresh = new Timeline(new KeyFrame(Duration.millis(LIVE_REFRESH_MILLIS), e -> showPendingAlerts()));
+        liveRefresh.setCycleCount(Timeline.INDEFINITE);
+        liveRefresh.play();
+        core.addReconcileListener(() -> Platform.runLater(this::loadAlertsFromDatabase));
 
         // Show the scene
-        primaryStage.setOnCloseRequest(e -> {
-            stop();
-            Platform.exit();
-        });
+        primaryStage.setOnCloseRequest(e -> Platform.exit());
 
         primaryStage.show();
 
@@ -144,8 +154,8 @@ public class ThreatMonitoringSystem extends Application {
         
         startStopButton = new Button("Start Monitoring");
         startStopButton.setOnAction(e -> {
-            if (isRunning) {
-                stop();
+            if (core.isRunning()) {
+                stopMonitoring();
             } else {
                 start();
             }
@@ -190,6 +200,7 @@ public class ThreatMonitoringSystem extends Application {
                 new VBox(5, lowCountLabel, mediumCountLabel, highCountLabel, criticalCountLabel),
                 separator,
                 totalAlertsLabel,
+                createActivityPanel(),
                 new Label("Active Monitors:"),
                 new Label(" • File System Monitor"),
                 new Label(" • Network Monitor"),
@@ -200,6 +211,34 @@ public class ThreatMonitoringSystem extends Application {
         return chartPanel;
     }
     
+    // Estimates from the core's streaming sketches, refreshed every few seconds
+    private VBox createActivityPanel() {
+        Label titleLabel = new Label("Last Hour");
+        titleLabel.setStyle("-fx-font-weight: bold;");
+        activityLabel = new Label();
+        activityLabel.setWrapText(true);
+
+        Timeline refresh = new Timeline(new KeyFrame(Duration.seconds(10), e -> updateActivity()));
+        refresh.setCycleCount(Timeline.INDEFINITE);
+        refresh.play();
+        updateActivity();
+
+        return new VBox(5, titleLabel, activityLabel);
+    }
+
+    private void updateActivity() {
+        AlertSketches.Summary summary = core.getSketches().summarize(java.time.Duration.ofHours(1), 5);
+        StringBuilder text = new StringBuilder();
+        text.append("Distinct IPs: ~").append(summary.getDistinctAddresses());
+        text.append("\nTop sources: ").append(summary.getTopSources());
+        text.append("\nTop IPs: ").append(summary.getTopAddresses());
+        double[] cpu = summary.getPercentiles("cpu");
+        if (cpu != null) {
+            text.append(String.format("%nCPU p50/p95/p99: %.0f%% / %.0f%% / %.0f%%", cpu[0], cpu[1], cpu[2]));
+        }
+        activityLabel.setText(text.toString());
+    }
+    
     private VBox createAlertPanel() {
         VBox alertPanel = new VBox(10);
         alertPanel.setPadding(new Insets(10));
@@ -207,19 +246,30 @@ public class ThreatMonitoringSystem extends Application {
         Label alertsLabel = new Label("Recent Alerts");
         alertsLabel.setStyle("-fx-font-weight: bold;");
         
-        TableView<DatabaseManager.AlertEntry> alertTable = new TableView<>();
+        TableView<Alert> alertTable = new TableView<>();
         alertTable.setItems(alertData);
+
+        // Fetch the next page when rows near the end of the loaded ones are displayed
+        alertTable.setRowFactory(table -> new TableRow<Alert>() {
+            @Override
+            public void updateIndex(int index) {
+                super.updateIndex(index);
+                if (index >= 0 && index >= alertData.size() - PAGE_SIZE / 4) {
+                    loadNextPage();
+                }
+            }
+        });
         
-        TableColumn<DatabaseManager.AlertEntry, LocalDateTime> timestampCol = new TableColumn<>("Timestamp");
-        TableColumn<DatabaseManager.AlertEntry, String> sourceCol = new TableColumn<>("Source");
-        TableColumn<DatabaseManager.AlertEntry, String> messageCol = new TableColumn<>("Message");
-        TableColumn<DatabaseManager.AlertEntry, Alert.Severity> severityCol = new TableColumn<>("Severity");
+        TableColumn<Alert, LocalDateTime> timestampCol = new TableColumn<>("Timestamp");
+        TableColumn<Alert, String> sourceCol = new TableColumn<>("Source");
+        TableColumn<Alert, String> messageCol = new TableColumn<>("Message");
+        TableColumn<Alert, Alert.Severity> severityCol = new TableColumn<>("Severity");
         
         // Set cell value factories to display alert data
         timestampCol.setCellValueFactory(new PropertyValueFactory<>("timestamp"));
         // Format the timestamp for better display
         timestampCol.setCellFactory(column -> {
-            return new TableCell<DatabaseManager.AlertEntry, LocalDateTime>() {
+            return new TableCell<Alert, LocalDateTime>() {
                 private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
                 
                 @Override
@@ -241,7 +291,7 @@ public class ThreatMonitoringSystem extends Application {
         
         // Add color coding for severity
         severityCol.setCellFactory(column -> {
-            return new TableCell<DatabaseManager.AlertEntry, Alert.Severity>() {
+            return new TableCell<Alert, Alert.Severity>() {
                 @Override
                 protected void updateItem(Alert.Severity item, boolean empty) {
                     super.updateItem(item, empty);
@@ -281,7 +331,7 @@ public class ThreatMonitoringSystem extends Application {
         alertTable.getColumns().addAll(timestampCol, sourceCol, messageCol, severityCol);
         alertTable.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
         
-        alertPanel.getChildren().addAll(alertsLabel, alertTable);
+        alertPanel.getChildren().addAll(alertsLabel, createFilterBar(), alertTable);
         VBox.setVgrow(alertTable, Priority.ALWAYS);
         
         return alertPanel;
@@ -311,114 +361,183 @@ public class ThreatMonitoringSystem extends Application {
                 new PieChart.Data("Critical (" + criticalAlerts + ")", criticalAlerts > 0 ? criticalAlerts : 0.1)
         );
 
-        Platform.runLater(() -> {
-            alertSeverityChart.setData(pieChartData);
-
-            // Set colors for the chart slices
-            pieChartData.get(0).getNode().setStyle("-fx-pie-color: lightgreen;");
-            pieChartData.get(1).getNode().setStyle("-fx-pie-color: yellow;");
-            pieChartData.get(2).getNode().setStyle("-fx-pie-color: orange;");
-            pieChartData.get(3).getNode().setStyle("-fx-pie-color: red;");
-
-            // Update summary labels
-            lowCountLabel.setText("Low: " + lowAlerts);
-            mediumCountLabel.setText("Medium: " + mediumAlerts);
-            highCountLabel.setText("High: " + highAlerts);
-            criticalCountLabel.setText("Critical: " + criticalAlerts);
-
-            int totalAlerts = lowAlerts + mediumAlerts + highAlerts + criticalAlerts;
-            totalAlertsLabel.setText("Total Alerts: " + totalAlerts);
-        });
+        alertSeverityChart.setData(pieChartData);
+
+        // Set colors for the chart slices
+        pieChartData.get(0).getNode().setStyle("-fx-pie-color: lightgreen;");
+        pieChartData.get(1).getNode().setStyle("-fx-pie-color: yellow;");
+        pieChartData.get(2).getNode().setStyle("-fx-pie-color: orange;");
+        pieChartData.get(3).getNode().setStyle("-fx-pie-color: red;");
+
+        // Update summary labels
+        lowCountLabel.setText("Low: " + lowAlerts);
+        mediumCountLabel.setText("Medium: " + mediumAlerts);
+        highCountLabel.setText("High: " + highAlerts);
+        criticalCountLabel.setText("Critical: " + criticalAlerts);
+
+        long totalAlerts = lowAlerts + mediumAlerts + highAlerts + criticalAlerts;
+        totalAlertsLabel.setText("Total Alerts: " + totalAlerts);
     }
     
-    private void updateSeverityCounts(Alert.Severity severity) {
-        switch (severity) {
-            case LOW:
-                lowAlerts++;
-                break;
-            case MEDIUM:
-                mediumAlerts++;
-                break;
-            case HIGH:
-                highAlerts++;
-                break;
-            case CRITICAL:
-                criticalAlerts++;
-                break;
-        }
+    // Severity totals come from the core, which counts every stored alert, not only the listed ones.
+    // Called on the FX thread
+    private void updateSeverityCounts() {
+        AlertTotals totals = core.getAlertTotals();
+        lowAlerts = totals.get(Alert.Severity.LOW);
+        mediumAlerts = totals.get(Alert.Severity.MEDIUM);
+        highAlerts = totals.get(Alert.Severity.HIGH);
+        criticalAlerts = totals.get(Alert.Severity.CRITICAL);
 
         // Update the chart with new data
         updateChart();
     }
     
-    private void registerMonitors() {
-        // Create and register file system monitor
-        FileSystemMonitor fileSystemMonitor = new FileSystemMonitor(alertManager);
-        monitors.add(fileSystemMonitor);
-        
-        // Create and register network monitor
-        NetworkMonitor networkMonitor = new NetworkMonitor(alertManager);
-        monitors.add(networkMonitor);
-        
-        // Create and register system resource monitor
-        SystemResourceMonitor resourceMonitor = new SystemResourceMonitor(alertManager);
-        monitors.add(resourceMonitor);
-        
-        // Create and register login monitor
-        LoginMonitor loginMonitor = new LoginMonitor(alertManager);
-        monitors.add(loginMonitor);
-        
-        logger.info("Registered " + monitors.size() + " monitors");
+    // Runs on the processing threads; only the newest MAX_LIVE_ROWS alerts wait for the table
+    private void showAlert(Alert alert) {
+        pendingAlerts.addLast(alert);
+        if (pendingCount.incrementAndGet() > MAX_LIVE_ROWS && pendingAlerts.pollFirst() != null) {
+            pendingCount.decrementAndGet();
+        }
     }
-    
-    private void loadAlertsFromDatabase() {
-        if (dbManager != null) {
-            List<DatabaseManager.AlertEntry> storedAlerts = dbManager.getRecentAlerts(1000);
-
-            // Update chart data based on stored alerts
-            for (DatabaseManager.AlertEntry entry : storedAlerts) {
-                switch (entry.getSeverity()) {
-                    case LOW:
-                        lowAlerts++;
-                        break;
-                    case MEDIUM:
-                        mediumAlerts++;
-                        break;
-                    case HIGH:
-                        highAlerts++;
-                        break;
-                    case CRITICAL:
-                        criticalAlerts++;
-                        break;
+
+    // Adds the alerts processed since the last refresh, then updates the totals and chart once
+    private void showPendingAlerts() {
+        if (pendingCount.get() == 0) {
+            return;
+        }
+        List<Alert> matching = new ArrayList<>();
+        AlertTracer tracer = core.getAlertManager().getTracer();
+        Alert alert;
+        while ((alert = pendingAlerts.pollFirst()) != null) {
+            pendingCount.decrementAndGet();
+            if (currentQuery.matches(alert)) {
+                // Newest first, like the table
+                matching.add(0, alert);
+                if (tracer != null) {
+                    tracer.mark(alert, AlertTracer.Stage.RENDERED);
                 }
             }
+        }
+        if (!matching.isEmpty()) {
+            alertData.addAll(0, matching);
+            trimLiveRows();
+        }
+        updateSeverityCounts();
+    }
 
-            // Add to UI
-            Platform.runLater(() -> {
-                alertData.addAll(storedAlerts);
-                updateChart();
-            });
+    /**
+     * Keeps the table at MAX_LIVE_ROWS. The rows cut off are still in the database, so the
+     * next page restarts right below the newest of them.
+     */
+    private void trimLiveRows() {
+        if (alertData.size() <= MAX_LIVE_ROWS) {
+            return;
+        }
+        LocalDateTime cut = alertData.get(MAX_LIVE_ROWS).getTimestamp();
+        int keep = MAX_LIVE_ROWS;
+        // Rows sharing the cut timestamp go too, so the next page does not repeat them
+        while (keep > 0 && alertData.get(keep - 1).getTimestamp().equals(cut)) {
+            keep--;
         }
+        alertData.remove(keep, alertData.size());
+
+        // A page already loading would continue from the old end of the table
+        queryGeneration++;
+        pageLoading = false;
+        nextPageQuery = currentQuery.after(Timestamp.valueOf(cut), Long.MAX_VALUE);
     }
     
-    public void start() {
-        if (isRunning) {
-            logger.info("Threat monitoring system is already running");
-            return;
+    private HBox createFilterBar() {
+        HBox filterBar = new HBox(8);
+        for (Alert.Severity severity : Alert.Severity.values()) {
+            CheckBox checkBox = new CheckBox(severity.toString());
+            severityFilters.put(severity, checkBox);
+            filterBar.getChildren().add(checkBox);
         }
 
-        logger.info("Starting threat monitoring system...");
-        isRunning = true;
+        sourceFilter = new TextField();
+        sourceFilter.setPromptText("Source");
+        sourceFilter.setPrefWidth(120);
+        fromFilter = new DatePicker();
+        fromFilter.setPromptText("From");
+        fromFilter.setPrefWidth(120);
+        toFilter = new DatePicker();
+        toFilter.setPromptText("To");
+        toFilter.setPrefWidth(120);
+        messageFilter = new TextField();
+        messageFilter.setPromptText("Message starts with");
+        messageFilter.setOnAction(e -> applyFilters());
+
+        Button applyButton = new Button("Filter");
+        applyButton.setOnAction(e -> applyFilters());
+        Button clearButton = new Button("Clear");
+        clearButton.setOnAction(e -> {
+            severityFilters.values().forEach(checkBox -> checkBox.setSelected(false));
+            sourceFilter.clear();
+            fromFilter.setValue(null);
+            toFilter.setValue(null);
+            messageFilter.clear();
+            applyFilters();
+        });
 
-        // Start alert manager
-        alertManager.startProcessing();
+        filterBar.getChildren().addAll(sourceFilter, fromFilter, toFilter, messageFilter, applyButton, clearButton);
+        return filterBar;
+    }
+    
+    private void applyFilters() {
+        AlertQuery query = new AlertQuery().limit(PAGE_SIZE);
+        for (Map.Entry<Alert.Severity, CheckBox> filter : severityFilters.entrySet()) {
+            if (filter.getValue().isSelected()) {
+                query.severities(filter.getKey());
+            }
+        }
+        for (String source : sourceFilter.getText().split(",")) {
+            if (!source.trim().isEmpty()) {
+                query.sources(source.trim());
+            }
+        }
+        query.between(fromFilter.getValue() == null ? null : fromFilter.getValue().atStartOfDay(),
+                toFilter.getValue() == null ? null : toFilter.getValue().plusDays(1).atStartOfDay());
+        query.messagePrefix(messageFilter.getText());
 
-        // Start all monitors
-        for (Monitor monitor : monitors) {
-            monitor.startMonitoring();
+        currentQuery = query;
+        loadAlertsFromDatabase();
+    }
+    
+    // Restarts the table at the first page of the current filters
+    private void loadAlertsFromDatabase() {
+        queryGeneration++;
+        pageLoading = false;
+        alertData.clear();
+        nextPageQuery = currentQuery;
+        loadNextPage();
+        updateSeverityCounts();
+    }
+    
+    // Queries off the FX thread; results of a superseded filter are dropped
+    private void loadNextPage() {
+        if (dbManager == null || pageLoading || nextPageQuery == null) {
+            return;
         }
+        pageLoading = true;
+        AlertQuery query = nextPageQuery;
+        int generation = queryGeneration;
 
-        logger.info("Threat monitoring system started");
+        queryExecutor.submit(() -> {
+            AlertQuery.Page page = dbManager.findAlerts(query);
+            Platform.runLater(() -> {
+                if (generation != queryGeneration) {
+                    return;
+                }
+                alertData.addAll(page.getAlerts());
+                nextPageQuery = page.getNextQuery();
+                pageLoading = false;
+            });
+        });
+    }
+    
+    public void start() {
+        core.start();
 
         // Update UI
         Platform.runLater(() -> {
@@ -428,41 +547,8 @@ public class ThreatMonitoringSystem extends Application {
         });
     }
     
-    @Override
-    public void stop() {
-        if (!isRunning) {
-            logger.info("Threat monitoring system is not running");
-            return;
-        }
-
-        logger.info("Stopping threat monitoring system...");
-        isRunning = false;
-
-        // Stop all monitors
-        for (Monitor monitor : monitors) {
-            monitor.stopMonitoring();
-        }
-
-        // Stop alert manager
-        alertManager.stopProcessing();
-
-        // Close database connection
-        if (dbManager != null) {
-            dbManager.close();
-        }
-
-        // Shutdown executor service
-        executorService.shutdown();
-        try {
-            if (!executorService.awaitTermination(5, TimeUnit.SECONDS)) {
-                executorService.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            executorService.shutdownNow();
-            Thread.currentThread().interrupt();
-        }
-
-        logger.info("Threat monitoring system stopped");
+    private void stopMonitoring() {
+        core.stop();
 
         // Update UI
         Platform.runLater(() -> {
@@ -472,291 +558,10 @@ public class ThreatMonitoringSystem extends Application {
         });
     }
     
-    public interface Monitor {
-        void startMonitoring();
-        void stopMonitoring();
-    }
-    
-    // File System Monitor implementation
-    private class FileSystemMonitor implements Monitor {
-        private final AlertManager alertManager;
-        private ScheduledExecutorService scheduler;
-        private final Random random = new Random();
-        private final Path monitoredPath = Paths.get(System.getProperty("user.home"));
-        
-        public FileSystemMonitor(AlertManager alertManager) {
-            this.alertManager = alertManager;
-        }
-        
-        @Override
-        public void startMonitoring() {
-            logger.info("Starting file system monitor for path: " + monitoredPath);
-            scheduler = Executors.newScheduledThreadPool(1);
-            
-            // Schedule periodic file system checks
-            scheduler.scheduleAtFixedRate(this::checkFileSystem, 2, 15, TimeUnit.SECONDS);
-        }
-        
-        @Override
-        public void stopMonitoring() {
-            logger.info("Stopping file system monitor");
-            if (scheduler != null) {
-                scheduler.shutdown();
-                try {
-                    if (!scheduler.awaitTermination(2, TimeUnit.SECONDS)) {
-                        scheduler.shutdownNow();
-                    }
-                } catch (InterruptedException e) {
-                    scheduler.shutdownNow();
-                }
-            }
-        }
-        
-        private void checkFileSystem() {
-            // For demonstration, generate random file system alerts
-            if (random.nextInt(10) < 3) {  // 30% chance of alert
-                Alert.Severity severity;
-                String message;
-                
-                int type = random.nextInt(4);
-                switch (type) {
-                    case 0:
-                        severity = Alert.Severity.LOW;
-                        message = "Suspicious file access in " + monitoredPath.resolve("Documents");
-                        break;
-                    case 1:
-                        severity = Alert.Severity.MEDIUM; 
-                        message = "Unusual file modification pattern detected in " + monitoredPath.resolve("Downloads");
-                        break;
-                    case 2:
-                        severity = Alert.Severity.HIGH;
-                        message = "Possible ransomware activity: rapid file changes in " + monitoredPath;
-                        break;
-                    default:
-                        severity = Alert.Severity.CRITICAL;
-                        message = "Critical: Multiple system files modified in " + Paths.get(System.getProperty("user.dir"));
-                        break;
-                }
-                
-                Alert alert = new Alert(LocalDateTime.now(), "File Monitor", message, severity);
-                alertManager.queueAlert(alert);
-                logger.info("File system alert generated: " + severity + " - " + message);
-            }
-        }
-    }
-    
-    // Network Monitor implementation
-    private class NetworkMonitor implements Monitor {
-        private final AlertManager alertManager;
-        private ScheduledExecutorService scheduler;
-        private final Random random = new Random();
-        
-        public NetworkMonitor(AlertManager alertManager) {
-            this.alertManager = alertManager;
-        }
-        
-        @Override
-        public void startMonitoring() {
-            logger.info("Starting network monitor");
-            scheduler = Executors.newScheduledThreadPool(1);
-            
-            // Schedule periodic network checks
-            scheduler.scheduleAtFixedRate(this::checkNetwork, 5, 20, TimeUnit.SECONDS);
-        }
-        
-        @Override
-        public void stopMonitoring() {
-            logger.info("Stopping network monitor");
-            if (scheduler != null) {
-                scheduler.shutdown();
-                try {
-                    if (!scheduler.awaitTermination(2, TimeUnit.SECONDS)) {
-                        scheduler.shutdownNow();
-                    }
-                } catch (InterruptedException e) {
-                    scheduler.shutdownNow();
-                }
-            }
-        }
-        
-        private void checkNetwork() {
-            // For demonstration, generate random network alerts
-            if (random.nextInt(10) < 4) {  // 40% chance of alert
-                Alert.Severity severity;
-                String message;
-                
-                int type = random.nextInt(4);
-                switch (type) {
-                    case 0:
-                        severity = Alert.Severity.LOW;
-                        message = "Unusual outbound connection to port 8080";
-                        break;
-                    case 1:
-                        severity = Alert.Severity.MEDIUM;
-                        message = "Multiple connection attempts to blacklisted IP: 192.168." + random.nextInt(255) + "." + random.nextInt(255);
-                        break;
-                    case 2:
-                        severity = Alert.Severity.HIGH;
-                        message = "Possible data exfiltration detected: Large upload to unknown host";
-                        break;
-                    default:
-                        severity = Alert.Severity.CRITICAL;
-                        message = "Critical: Port scan detected from external network";
-                        break;
-                }
-                
-                Alert alert = new Alert(LocalDateTime.now(), "Network Monitor", message, severity);
-                alertManager.queueAlert(alert);
-                logger.info("Network alert generated: " + severity + " - " + message);
-            }
-        }
-    }
-    
-    // System Resource Monitor implementation
-    private class SystemResourceMonitor implements Monitor {
-        private final AlertManager alertManager;
-        private ScheduledExecutorService scheduler;
-        private final Random random = new Random();
-        
-        public SystemResourceMonitor(AlertManager alertManager) {
-            this.alertManager = alertManager;
-        }
-        
-        @Override
-        public void startMonitoring() {
-            logger.info("Starting system resource monitor");
-            scheduler = Executors.newScheduledThreadPool(1);
-            
-            // Schedule periodic resource checks
-            scheduler.scheduleAtFixedRate(this::checkResources, 10, 25, TimeUnit.SECONDS);
-        }
-        
-        @Override
-        public void stopMonitoring() {
-            logger.info("Stopping system resource monitor");
-            if (scheduler != null) {
-                scheduler.shutdown();
-                try {
-                    if (!scheduler.awaitTermination(2, TimeUnit.SECONDS)) {
-                        scheduler.shutdownNow();
-                    }
-                } catch (InterruptedException e) {
-                    scheduler.shutdownNow();
-                }
-            }
-        }
-        
-        private void checkResources() {
-            // For demonstration, generate random resource alerts
-            if (random.nextInt(10) < 3) {  // 30% chance of alert
-                Alert.Severity severity;
-                String message;
-                
-                int type = random.nextInt(4);
-                switch (type) {
-                    case 0:
-                        severity = Alert.Severity.LOW;
-                        message = "CPU usage spike: " + (70 + random.nextInt(20)) + "% for process: java";
-                        break;
-                    case 1:
-                        severity = Alert.Severity.MEDIUM;
-                        message = "Memory leak detected in process ID: " + (1000 + random.nextInt(9000));
-                        break;
-                    case 2:
-                        severity = Alert.Severity.HIGH;
-                        message = "Disk I/O overload: Possible DoS attack";
-                        break;
-                    default:
-                        severity = Alert.Severity.CRITICAL;
-                        message = "Critical: System resources exhausted, possible crypto-mining activity";
-                        break;
-                }
-                
-                Alert alert = new Alert(LocalDateTime.now(), "Resource Monitor", message, severity);
-                alertManager.queueAlert(alert);
-                logger.info("Resource alert generated: " + severity + " - " + message);
-            }
-        }
-    }
-    
-    // Login Monitor implementation
-    private class LoginMonitor implements Monitor {
-        private final AlertManager alertManager;
-        private ScheduledExecutorService scheduler;
-        private final Random random = new Random();
-        
-        public LoginMonitor(AlertManager alertManager) {
-            this.alertManager = alertManager;
-        }
-        
-        @Override
-        public void startMonitoring() {
-            logger.info("Starting login monitor");
-            scheduler = Executors.newScheduledThreadPool(1);
-            
-            // Schedule periodic login checks
-            scheduler.scheduleAtFixedRate(this::checkLogins, 7, 30, TimeUnit.SECONDS);
-        }
-        
-        @Override
-        public void stopMonitoring() {
-            logger.info("Stopping login monitor");
-            if (scheduler != null) {
-                scheduler.shutdown();
-                try {
-                    if (!scheduler.awaitTermination(2, TimeUnit.SECONDS)) {
-                        scheduler.shutdownNow();
-                    }
-                } catch (InterruptedException e) {
-                    scheduler.shutdownNow();
-                }
-            }
-        }
-        
-        private void checkLogins() {
-            // For demonstration, generate random login alerts
-            if (random.nextInt(10) < 2) {  // 20% chance of alert
-                Alert.Severity severity;
-                String message;
-                
-                int type = random.nextInt(4);
-                switch (type) {
-                    case 0:
-                        severity = Alert.Severity.LOW;
-                        message = "Failed login attempt for user: guest";
-                        break;
-                    case 1:
-                        severity = Alert.Severity.MEDIUM;
-                        message = "Multiple failed login attempts from IP: 10.0." + random.nextInt(255) + "." + random.nextInt(255);
-                        break;
-                    case 2:
-                        severity = Alert.Severity.HIGH;
-                        message = "Successful login from unusual location: " + getRandomLocation();
-                        break;
-                    default:
-                        severity = Alert.Severity.CRITICAL;
-                        message = "Critical: Admin account login attempt after hours";
-                        break;
-                }
-                
-                Alert alert = new Alert(LocalDateTime.now(), "Login Monitor", message, severity);
-                alertManager.queueAlert(alert);
-                logger.info("Login alert generated: " + severity + " - " + message);
-            }
-        }
-        
-        private String getRandomLocation() {
-            String[] locations = {
-                "Moscow, Russia", 
-                "Beijing, China", 
-                "Pyongyang, North Korea", 
-                "Tehran, Iran", 
-                "Lagos, Nigeria",
-                "Bucharest, Romania",
-                "Kiev, Ukraine",
-                "São Paulo, Brazil"
-            };
-            return locations[random.nextInt(locations.length)];
-        }
+    @Override
+    public void stop() {
+        // Called by the FX runtime on exit
+        queryExecutor.shutdownNow();
+        core.close();
     }
 }
\ No newline at end of file